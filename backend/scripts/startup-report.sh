@@ -0,0 +1,117 @@
+#!/bin/bash
+# ============================================
+# コールドスタート比較レポート（AppCDS あり/なし）
+#
+# 事前に appcds プロファイルでビルドしておくこと:
+#   mvn -B package -Pappcds
+# 実行（backend ディレクトリで）:
+#   scripts/startup-report.sh [計測回数]
+#
+# 各回について、JVM 起動から以下までの時間を計測します。
+#   - ready:       /actuator/health が 200 を返すまで（Lambda Web Adapter の READINESS_CHECK と同じ条件）
+#   - first-login: ready の後、最初のログインフロー（AuthnRequest -> IdP -> ACS -> 保護リソース）が完了するまで
+# 結果は target/startup-report.md に出力されます。
+# ミリ秒単位の時刻に EPOCHREALTIME を使うため bash 5 以降が必要です。
+# ============================================
+set -eu
+
+if [ -z "${EPOCHREALTIME:-}" ]; then
+  echo "bash 5 以降で実行してください（EPOCHREALTIME を使用します）。" >&2
+  exit 1
+fi
+
+RUNS="${1:-5}"
+PORT="${PORT:-8080}"
+BASE="http://localhost:${PORT}/opensaml5-webprofile-demo"
+APPCDS_DIR="target/appcds"
+JAR="$(ls ${APPCDS_DIR}/*-exec.jar 2>/dev/null | head -n 1 || true)"
+REPORT="target/startup-report.md"
+
+if [ -z "${JAR}" ] || [ ! -f "${APPCDS_DIR}/app.jsa" ]; then
+  echo "AppCDS アーカイブが見つかりません。先に 'mvn -B package -Pappcds' を実行してください。" >&2
+  exit 1
+fi
+
+# 現在時刻（エポックからのミリ秒）。EPOCHREALTIME の小数点はロケールによって ',' になる
+now_ms() {
+  local micros="${EPOCHREALTIME/[.,]/}"
+  echo "$((10#${micros} / 1000))"
+}
+
+# 1 回分の計測: "<ready ms> <first-login ms>" を出力
+measure() {
+  archive_opts="$1"
+  cookies="$(mktemp)"
+  log="$(mktemp)"
+
+  start="$(now_ms)"
+  # shellcheck disable=SC2086
+  java ${JAVA_OPTS:-} ${archive_opts} -Dserver.port="${PORT}" -Dapp.base-url="http://localhost:${PORT}" \
+    -jar "${JAR}" > "${log}" 2>&1 &
+  pid=$!
+
+  until curl -sf -o /dev/null "${BASE}/actuator/health"; do
+    if ! kill -0 "${pid}" 2>/dev/null; then
+      echo "アプリケーションの起動に失敗しました。ログ: ${log}" >&2
+      exit 1
+    fi
+    sleep 0.05
+  done
+  ready="$(now_ms)"
+
+  # 保護リソース -> IdP 認証画面（リダイレクトを追従）
+  curl -s -o /dev/null -c "${cookies}" -b "${cookies}" -L "${BASE}/app/appservlet"
+  # 認証フォームを POST -> ACS -> 保護リソース（302 で GET に切り替えて追従）
+  status="$(curl -s -o /dev/null -w '%{http_code}' -c "${cookies}" -b "${cookies}" -L \
+    --data '' "${BASE}/idp/singleSignOnService")"
+  login="$(now_ms)"
+
+  kill "${pid}"
+  wait "${pid}" 2>/dev/null || true
+  rm -f "${cookies}" "${log}"
+
+  if [ "${status}" != "200" ]; then
+    echo "ログインフローが失敗しました (HTTP ${status})" >&2
+    exit 1
+  fi
+  echo "$((ready - start)) $((login - start))"
+}
+
+# 中央値（整数のリストを標準入力から）
+median() {
+  sort -n | awk '{ v[NR] = $1 } END { if (NR % 2) print v[(NR + 1) / 2]; else print int((v[NR / 2] + v[NR / 2 + 1]) / 2) }'
+}
+
+run_mode() {
+  mode="$1"
+  archive_opts="$2"
+  results="$(mktemp)"
+  i=1
+  while [ "${i}" -le "${RUNS}" ]; do
+    measure "${archive_opts}" >> "${results}"
+    echo "  ${mode} ${i}/${RUNS}: $(tail -n 1 "${results}")" >&2
+    i=$((i + 1))
+  done
+  ready_median="$(cut -d ' ' -f 1 "${results}" | median)"
+  login_median="$(cut -d ' ' -f 2 "${results}" | median)"
+  rm -f "${results}"
+  echo "| ${mode} | ${ready_median} | ${login_median} |"
+}
+
+echo "計測中 (各 ${RUNS} 回)..." >&2
+baseline="$(run_mode "AppCDS なし" "-Xshare:auto")"
+appcds="$(run_mode "AppCDS あり" "-XX:SharedArchiveFile=${APPCDS_DIR}/app.jsa -Xshare:auto")"
+
+{
+  echo "# コールドスタート比較"
+  echo
+  echo "- JVM: $(java -version 2>&1 | head -n 1)"
+  echo "- 計測回数: ${RUNS}（中央値）"
+  echo
+  echo "| 構成 | ready (ms) | first-login (ms) |"
+  echo "| :--- | ---: | ---: |"
+  echo "${baseline}"
+  echo "${appcds}"
+} > "${REPORT}"
+
+cat "${REPORT}"
@@ -0,0 +1,116 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 生成コストの高いオブジェクト（DocumentBuilder, Cipher など）を再利用するためのロックフリーなオブジェクトプール。
+ *
+ * synchronized なスタックではなく {@link ConcurrentLinkedQueue} を使用するため、高い並行度でも
+ * 取得・返却が競合点にならず、仮想スレッドのピン留めも発生しません。
+ * プールが空の場合は新しいオブジェクトを生成し、上限を超えて返却されたオブジェクトは破棄します。
+ *
+ * @param <T> プールするオブジェクトの型
+ */
+public class ConcurrentObjectPool<T> {
+	// 待機中（再利用可能）のオブジェクト
+	private final ConcurrentLinkedQueue<T> idle = new ConcurrentLinkedQueue<>();
+	// 待機中のオブジェクト数（ConcurrentLinkedQueue#size は O(n) のため別途管理）
+	private final AtomicInteger idleCount = new AtomicInteger();
+	private final int maxIdle;
+	private final Supplier<T> factory;
+
+	// 統計情報
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder creations = new LongAdder();
+	private final LongAdder discards = new LongAdder();
+
+	/**
+	 * @param factory 新しいオブジェクトを生成する関数（プールが空の場合に呼び出されます）
+	 * @param maxIdle プールに保持するオブジェクトの最大数
+	 */
+	public ConcurrentObjectPool(Supplier<T> factory, int maxIdle) {
+		this.factory = factory;
+		this.maxIdle = maxIdle;
+	}
+
+	/**
+	 * プールからオブジェクトを取得します。待機中のものがなければ新しく生成します。
+	 */
+	public T borrow() {
+		T object = idle.poll();
+		if (object != null) {
+			idleCount.decrementAndGet();
+			hits.increment();
+			return object;
+		}
+		misses.increment();
+		return create();
+	}
+
+	/**
+	 * オブジェクトをプールへ返却します。上限を超える場合は破棄します。
+	 * 呼び出し側は、返却前にオブジェクトの状態をリセットしておく必要があります。
+	 */
+	public void release(T object) {
+		if (object == null) {
+			return;
+		}
+		if (idleCount.incrementAndGet() <= maxIdle) {
+			idle.offer(object);
+		} else {
+			idleCount.decrementAndGet();
+			discards.increment();
+		}
+	}
+
+	/**
+	 * 再利用できない状態になったオブジェクトを、プールへ戻さずに破棄したことを記録します。
+	 */
+	public void discard(T object) {
+		discards.increment();
+	}
+
+	/**
+	 * 起動時のウォームアップ用に、指定数のオブジェクトを事前に生成してプールします。
+	 */
+	public void prefill(int count) {
+		for (int i = 0; i < count && idleCount.get() < maxIdle; i++) {
+			release(create());
+		}
+	}
+
+	private T create() {
+		T object = factory.get();
+		creations.increment();
+		return object;
+	}
+
+	/** プールから再利用できた回数 */
+	public long getHits() {
+		return hits.sum();
+	}
+
+	/** プールが空で新規生成が必要になった回数 */
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/** 生成したオブジェクトの総数（ウォームアップ分を含む） */
+	public long getCreations() {
+		return creations.sum();
+	}
+
+	/** 上限超過または破損により破棄したオブジェクトの数 */
+	public long getDiscards() {
+		return discards.sum();
+	}
+
+	/** 現在プールで待機しているオブジェクトの数 */
+	public int getIdleCount() {
+		return idleCount.get();
+	}
+}
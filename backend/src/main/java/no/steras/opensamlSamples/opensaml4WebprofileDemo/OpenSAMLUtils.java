@@ -3,62 +3,156 @@ package no.steras.opensamlSamples.opensaml4WebprofileDemo;
 import javax.xml.namespace.QName;
 
 import org.opensaml.core.xml.XMLObject;
-import org.opensaml.core.xml.XMLObjectBuilderFactory;
+import org.opensaml.core.xml.XMLObjectBuilder;
 import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
 import org.opensaml.core.xml.io.Marshaller;
 import org.opensaml.core.xml.io.MarshallingException;
-import org.opensaml.saml.common.SignableSAMLObject;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.opensaml.core.xml.io.Unmarshaller;
+import org.opensaml.core.xml.io.UnmarshallingException;
 import org.w3c.dom.Element;
 
-import net.shibboleth.shared.security.impl.RandomIdentifierGenerationStrategy;
-import net.shibboleth.shared.xml.SerializeSupport;
+import net.shibboleth.shared.xml.ElementSupport;
+import net.shibboleth.shared.xml.XMLConstants;
 
 /**
  * OpenSAMLの共通操作をカプセル化するユーティリティクラス。
- * SAMLオブジェクトの構築、ID生成、およびデバッグ用のログ出力機能を提供します。
+ * SAMLオブジェクトの構築、マーシャリング、およびID生成の機能を提供します。
+ * （メッセージ内容の確認には capture パッケージのメッセージキャプチャを使用します）
  */
 public class OpenSAMLUtils {
-	// ロガーインスタンス
-	private static Logger logger = LoggerFactory.getLogger(OpenSAMLUtils.class);
-	
-	// セキュアな乱数に基づいたID生成戦略。SAMLメッセージ（AuthnRequest, Assertion等）のIDに使用します。
-	private static RandomIdentifierGenerationStrategy secureRandomIdGenerator;
-
-	// 静적初期化子
-	static {
-		// IDジェネレータの初期化（デフォルトの16バイトのセキュアランダム値を生成）
-		secureRandomIdGenerator = new RandomIdentifierGenerationStrategy();
+	// セキュアな乱数に基づいたID生成器。SAMLメッセージ（AuthnRequest, Assertion等）のIDに使用します。
+	// (仮想スレッドでのピン留めと競合を避けるため、ストライプ化した SecureRandom を使用)
+	private static final StripedSecureRandom secureRandomIdGenerator = new StripedSecureRandom();
+
+	/**
+	 * クラスごとに解決済みのビルダーと要素名。
+	 * ClassValue により、初回の呼び出し時にのみリフレクションとレジストリの検索を行い、
+	 * 以降はマップ検索なしでクラスに紐付いた値を直接参照します。
+	 */
+	private record CachedBuilder(QName elementName, XMLObjectBuilder<?> builder) {
 	}
 
+	private static final ClassValue<CachedBuilder> BUILDERS = new ClassValue<>() {
+		@Override
+		protected CachedBuilder computeValue(Class<?> type) {
+			QName elementName = defaultElementName(type);
+			XMLObjectBuilder<?> builder = XMLObjectProviderRegistrySupport.getBuilderFactory().getBuilder(elementName);
+			if (builder == null) {
+				// 例外は ClassValue にキャッシュされないため、OpenSAML の初期化後に再度解決される
+				throw new IllegalArgumentException("SAMLオブジェクトの生成に失敗しました: ビルダーが登録されていません: " + elementName);
+			}
+			return new CachedBuilder(elementName, builder);
+		}
+	};
+
+	/**
+	 * 実装クラスごとに直前に解決したマーシャラー。
+	 * マーシャラーは要素名（xsi:type がある場合は型名）で決まるため、キーが一致する場合のみ再利用します。
+	 */
+	private record CachedMarshaller(QName key, Marshaller marshaller) {
+	}
+
+	private static final class MarshallerSlot {
+		volatile CachedMarshaller cached;
+	}
+
+	private static final ClassValue<MarshallerSlot> MARSHALLERS = new ClassValue<>() {
+		@Override
+		protected MarshallerSlot computeValue(Class<?> type) {
+			return new MarshallerSlot();
+		}
+	};
+
+	private static final ClassValue<Unmarshaller> UNMARSHALLERS = new ClassValue<>() {
+		@Override
+		protected Unmarshaller computeValue(Class<?> type) {
+			QName elementName = defaultElementName(type);
+			Unmarshaller unmarshaller = XMLObjectProviderRegistrySupport.getUnmarshallerFactory().getUnmarshaller(elementName);
+			if (unmarshaller == null) {
+				throw new IllegalArgumentException("アンマーシャラーが登録されていません: " + elementName);
+			}
+			return unmarshaller;
+		}
+	};
+
 	/**
 	 * 指定されたクラス型に対応するSAMLオブジェクトを生成します。
 	 * OpenSAMLではオブジェクトの生成にBuilderFactoryを使用する必要があります。
+	 * ビルダーはクラスごとに一度だけ解決され、以降はキャッシュから直接取得されます。
 	 *
 	 * @param clazz 生成したいSAMLオブジェクトのインターフェースクラス（例: AuthnRequest.class）
 	 * @param <T>   SAMLオブジェクトの型
 	 * @return 生成・初期化されたSAMLオブジェクト
 	 * @throws IllegalArgumentException オブジェクトの生成に失敗した場合
 	 */
+	@SuppressWarnings("unchecked")
 	public static <T> T buildSAMLObject(final Class<T> clazz) {
-		T object = null;
+		CachedBuilder cached = BUILDERS.get(clazz);
+		return (T) cached.builder().buildObject(cached.elementName());
+	}
+
+	/**
+	 * SAMLオブジェクトをDOMに変換（マーシャリング）します。
+	 * マーシャラーはオブジェクトの実装クラスごとにキャッシュされます。
+	 *
+	 * @param object マーシャリングするSAMLオブジェクト
+	 * @return 生成されたDOM要素
+	 */
+	public static Element marshall(final XMLObject object) throws MarshallingException {
+		QName key = object.getSchemaType() != null ? object.getSchemaType() : object.getElementQName();
+		MarshallerSlot slot = MARSHALLERS.get(object.getClass());
+		CachedMarshaller cached = slot.cached;
+		if (cached == null || !cached.key().equals(key)) {
+			Marshaller marshaller = XMLObjectProviderRegistrySupport.getMarshallerFactory().getMarshaller(object);
+			if (marshaller == null) {
+				throw new MarshallingException("マーシャラーが登録されていません: " + key);
+			}
+			cached = new CachedMarshaller(key, marshaller);
+			slot.cached = cached;
+		}
+		return cached.marshaller().marshall(object);
+	}
+
+	/**
+	 * DOM要素を指定された型のSAMLオブジェクトに変換（アンマーシャリング）します。
+	 * 要素が型の既定の要素名と一致する場合はキャッシュ済みのアンマーシャラーを使用し、
+	 * xsi:type 付きなどそれ以外の場合はレジストリから解決します。
+	 *
+	 * @param element アンマーシャリングするDOM要素
+	 * @param clazz   期待するSAMLオブジェクトのインターフェースクラス
+	 * @return 生成されたSAMLオブジェクト
+	 */
+	public static <T extends XMLObject> T unmarshall(final Element element, final Class<T> clazz)
+			throws UnmarshallingException {
+		Unmarshaller unmarshaller;
+		if (!element.hasAttributeNS(XMLConstants.XSI_NS, "type")
+				&& BUILDERS.get(clazz).elementName().equals(ElementSupport.getElementName(element))) {
+			unmarshaller = UNMARSHALLERS.get(clazz);
+		} else {
+			unmarshaller = XMLObjectProviderRegistrySupport.getUnmarshallerFactory().getUnmarshaller(element);
+			if (unmarshaller == null) {
+				throw new UnmarshallingException("アンマーシャラーが登録されていません: " + element.getLocalName());
+			}
+		}
+
+		XMLObject object = unmarshaller.unmarshall(element);
+		if (!clazz.isInstance(object)) {
+			throw new UnmarshallingException("想定外の要素です: " + object.getElementQName() + "（期待する型: " + clazz.getSimpleName() + "）");
+		}
+		return clazz.cast(object);
+	}
+
+	/**
+	 * インターフェースの定数 DEFAULT_ELEMENT_NAME（XMLのタグ名等を表すQName）を取得します。
+	 */
+	private static QName defaultElementName(final Class<?> clazz) {
 		try {
-			// OpenSAMLのレジストリからビルダーファクトリを取得
-			XMLObjectBuilderFactory builderFactory = XMLObjectProviderRegistrySupport.getBuilderFactory();
-			
-			// 渡されたクラスから定数 DEFAULT_ELEMENT_NAME (XMLのタグ名等を表すQName) を取得
-			QName defaultElementName = (QName) clazz.getDeclaredField("DEFAULT_ELEMENT_NAME").get(null);
-			
-			// ビルダーを取得してオブジェクトを構築
-			object = (T) builderFactory.getBuilder(defaultElementName).buildObject(defaultElementName);
+			return (QName) clazz.getDeclaredField("DEFAULT_ELEMENT_NAME").get(null);
 		} catch (IllegalAccessException e) {
 			throw new IllegalArgumentException("SAMLオブジェクトの生成に失敗しました: アクセス権限エラー", e);
 		} catch (NoSuchFieldException e) {
 			throw new IllegalArgumentException("SAMLオブジェクトの生成に失敗しました: DEFAULT_ELEMENT_NAME が見つかりません", e);
 		}
-
-		return object;
 	}
 
 	/**
@@ -70,35 +164,4 @@ public class OpenSAMLUtils {
 	public static String generateSecureRandomId() {
 		return secureRandomIdGenerator.generateIdentifier();
 	}
-
-	/**
-	 * SAMLオブジェクトをXML形式で整形してログに出力します。
-	 * メッセージの送受信内容をデバッグ・確認するために使用します。
-	 *
-	 * @param object ログ出力したいSAMLオブジェクト
-	 */
-	public static void logSAMLObject(final XMLObject object) {
-		Element element = null;
-
-		// オブジェクトが署名済みで既にDOMが構築されている場合はそれを使用
-		if (object instanceof SignableSAMLObject && ((SignableSAMLObject) object).isSigned()
-				&& object.getDOM() != null) {
-			element = object.getDOM();
-		} else {
-			try {
-				// オブジェクトをXML(DOM)に変換（マーシャリング）
-				Marshaller out = XMLObjectProviderRegistrySupport.getMarshallerFactory().getMarshaller(object);
-				out.marshall(object);
-				element = object.getDOM();
-
-			} catch (MarshallingException e) {
-				logger.error("SAMLオブジェクトのマーシャリング中にエラーが発生しました: " + e.getMessage(), e);
-			}
-		}
-		
-		// DOMをインデント付きの読みやすいXML文字列に変換
-		String xmlString = SerializeSupport.prettyPrintXML(element);
-
-		logger.info("SAMLメッセージ内容:\n{}", xmlString);
-	}
 }
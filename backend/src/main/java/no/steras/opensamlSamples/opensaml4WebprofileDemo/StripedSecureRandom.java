@@ -0,0 +1,84 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 複数の SecureRandom インスタンスにアクセスを分散させる、仮想スレッド向けの乱数生成器。
+ *
+ * 既定の SecureRandom（NativePRNG）は synchronized の中で /dev/urandom を読み込むため、仮想スレッドから呼び出すと
+ * キャリアスレッドがピン留めされ、単一インスタンスへのアクセスが全ログインの競合点になります。
+ * このクラスはストライプごとに純 Java 実装の DRBG を持ち、ReentrantLock（仮想スレッドをピン留めしない）で保護します。
+ * ストライプはスレッドごとの乱数で選択するため、ThreadLocal（仮想スレッドごとに生成されてしまう）は使用しません。
+ */
+public class StripedSecureRandom {
+	private static final HexFormat HEX = HexFormat.of();
+
+	private final Stripe[] stripes;
+	private final int mask;
+
+	private static final class Stripe {
+		final ReentrantLock lock = new ReentrantLock();
+		final SecureRandom random;
+
+		Stripe(SecureRandom random) {
+			this.random = random;
+		}
+	}
+
+	/**
+	 * CPU コア数の 2 倍（2 のべき乗に切り上げ）のストライプで生成します。
+	 */
+	public StripedSecureRandom() {
+		this(Runtime.getRuntime().availableProcessors() * 2);
+	}
+
+	/**
+	 * @param stripeCount ストライプ数（2 のべき乗に切り上げ）
+	 */
+	public StripedSecureRandom(int stripeCount) {
+		int size = 1;
+		while (size < Math.max(1, stripeCount)) {
+			size <<= 1;
+		}
+		this.stripes = new Stripe[size];
+		this.mask = size - 1;
+		for (int i = 0; i < size; i++) {
+			stripes[i] = new Stripe(newDrbg());
+		}
+	}
+
+	private static SecureRandom newDrbg() {
+		try {
+			return SecureRandom.getInstance("DRBG");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("DRBG が利用できません", e);
+		}
+	}
+
+	/**
+	 * 暗号論的乱数でバイト配列を埋めます。
+	 */
+	public void nextBytes(byte[] bytes) {
+		Stripe stripe = stripes[ThreadLocalRandom.current().nextInt() & mask];
+		stripe.lock.lock();
+		try {
+			stripe.random.nextBytes(bytes);
+		} finally {
+			stripe.lock.unlock();
+		}
+	}
+
+	/**
+	 * SAML の ID 属性として使用できる識別子を生成します。
+	 * OpenSAML の RandomIdentifierGenerationStrategy と同じ形式（"_" + 16 バイトの 16 進数）です。
+	 */
+	public String generateIdentifier() {
+		byte[] bytes = new byte[16];
+		nextBytes(bytes);
+		return "_" + HEX.formatHex(bytes);
+	}
+}
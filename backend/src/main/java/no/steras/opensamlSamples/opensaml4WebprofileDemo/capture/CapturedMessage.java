@@ -0,0 +1,18 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.capture;
+
+import java.time.Instant;
+
+/**
+ * キャプチャされたプロトコルメッセージ 1 件分。
+ * XML は整形せずに保持し、整形はダンプ時にのみ行います。
+ *
+ * @param sequence      キャプチャの通し番号
+ * @param capturedAt    キャプチャした時刻
+ * @param type          メッセージの種類
+ * @param failure       検証失敗によるキャプチャかどうか
+ * @param failureReason 検証失敗の理由（成功時は null）
+ * @param xml           メッセージの XML（整形なし）
+ */
+public record CapturedMessage(long sequence, Instant capturedAt, MessageType type, boolean failure,
+		String failureReason, String xml) {
+}
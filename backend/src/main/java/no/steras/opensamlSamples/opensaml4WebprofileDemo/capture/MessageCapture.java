@@ -0,0 +1,190 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.capture;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+import javax.xml.namespace.QName;
+
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.saml.saml2.core.AttributeValue;
+import org.opensaml.saml.saml2.core.NameID;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import net.shibboleth.shared.xml.SerializeSupport;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.OpenSAMLUtils;
+
+/**
+ * SAML プロトコルメッセージをサンプリングしてメモリ上に保持するキャプチャ機能。
+ *
+ * 設計:
+ * 1. サンプリング: メッセージの種類ごとのサンプリング率（0.0〜1.0）に従ってのみシリアライズする。
+ *    率が 0 の種類は配列参照と比較 1 回で戻るため、無効時のコストはほぼゼロ。
+ * 2. 検証失敗の常時キャプチャ: {@link #captureFailure} はサンプリング率に関係なく必ず保存する。
+ * 3. 上限付きリングバッファ: 最新の一定件数のみを保持し、古いものから上書きする（ロックなし）。
+ * 4. 遅延整形: 保存時は整形せずに文字列化し、整形は Actuator からのダンプ時にのみ行う。
+ * 5. マスキング: 復号後のアサーションの個人情報（NameID・属性値）と、アサーションを再利用できる署名値は
+ *    保存前に {@value #REDACTED} に置き換える。
+ */
+public class MessageCapture {
+	private static Logger logger = LoggerFactory.getLogger(MessageCapture.class);
+
+	// マスキング後の値
+	static final String REDACTED = "[REDACTED]";
+	// 値をマスキングする要素（名前空間 URI とローカル名）
+	private static final Set<QName> REDACTED_ELEMENTS = Set.of(NameID.DEFAULT_ELEMENT_NAME,
+			AttributeValue.DEFAULT_ELEMENT_NAME, new QName(SignatureConstants.XMLSIG_NS, "SignatureValue"));
+
+	// MessageType の ordinal ごとのサンプリング率
+	private final double[] sampleRates;
+	private final AtomicReferenceArray<CapturedMessage> ring;
+	private final int mask;
+	private final AtomicLong sequence = new AtomicLong();
+
+	/**
+	 * @param capacity    保持するキャプチャの最大件数（2 のべき乗に切り上げ）
+	 * @param sampleRates メッセージの種類ごとのサンプリング率（未指定の種類は 0）
+	 */
+	public MessageCapture(int capacity, Map<MessageType, Double> sampleRates) {
+		this.sampleRates = new double[MessageType.values().length];
+		for (Map.Entry<MessageType, Double> rate : sampleRates.entrySet()) {
+			this.sampleRates[rate.getKey().ordinal()] = Math.max(0.0, Math.min(1.0, rate.getValue()));
+		}
+
+		int size = 1;
+		while (size < Math.max(1, capacity)) {
+			size <<= 1;
+		}
+		this.ring = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+
+		logger.info("メッセージキャプチャを初期化しました (保持件数: {}, サンプリング率: {})", size, sampleRates);
+	}
+
+	/**
+	 * サンプリング率に従ってメッセージをキャプチャします。サンプリング対象外の場合は何もしません。
+	 */
+	public void capture(MessageType type, XMLObject message) {
+		if (sampled(type)) {
+			store(type, message, null);
+		}
+	}
+
+	/**
+	 * サンプリング率に従ってメッセージをキャプチャします。メッセージはサンプリング対象の場合にだけ構築します
+	 * （XMLObject を持たずにエンコードするメッセージ用）。
+	 */
+	public void capture(MessageType type, Supplier<? extends XMLObject> message) {
+		if (sampled(type)) {
+			store(type, message.get(), null);
+		}
+	}
+
+	/**
+	 * 検証に失敗したメッセージをサンプリング率に関係なくキャプチャします。
+	 *
+	 * @param reason 失敗の理由
+	 */
+	public void captureFailure(MessageType type, XMLObject message, String reason) {
+		logger.warn("{} の検証に失敗したためメッセージをキャプチャしました: {}", type, reason);
+		store(type, message, reason);
+	}
+
+	private boolean sampled(MessageType type) {
+		double rate = sampleRates[type.ordinal()];
+		return rate > 0.0 && (rate >= 1.0 || ThreadLocalRandom.current().nextDouble() < rate);
+	}
+
+	private void store(MessageType type, XMLObject message, String failureReason) {
+		String xml;
+		try {
+			// 受信メッセージや署名済みメッセージは DOM を持っているため再マーシャリングしない
+			Element element = message.getDOM() != null ? message.getDOM() : OpenSAMLUtils.marshall(message);
+			xml = SerializeSupport.nodeToString(redact(element));
+		} catch (MarshallingException | RuntimeException e) {
+			// キャプチャの失敗で本来の処理を止めない
+			logger.warn("メッセージのキャプチャに失敗しました: " + e.getMessage(), e);
+			return;
+		}
+
+		long seq = sequence.getAndIncrement();
+		ring.set((int) (seq & mask), new CapturedMessage(seq, Instant.now(), type, failureReason != null,
+				failureReason, xml));
+	}
+
+	/**
+	 * マスキング対象の要素を含む場合は、複製した DOM の対象の値を置き換えて返します（元の DOM は変更しない）。
+	 */
+	private static Element redact(Element element) {
+		if (!containsRedactedElement(element)) {
+			return element;
+		}
+		Element copy = (Element) element.cloneNode(true);
+		redactDescendants(copy);
+		return copy;
+	}
+
+	private static boolean containsRedactedElement(Element element) {
+		if (isRedacted(element)) {
+			return true;
+		}
+		for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child instanceof Element childElement && containsRedactedElement(childElement)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static void redactDescendants(Element element) {
+		if (isRedacted(element)) {
+			element.setTextContent(REDACTED);
+			return;
+		}
+		for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child instanceof Element childElement) {
+				redactDescendants(childElement);
+			}
+		}
+	}
+
+	private static boolean isRedacted(Element element) {
+		return REDACTED_ELEMENTS.contains(new QName(element.getNamespaceURI(), element.getLocalName()));
+	}
+
+	/**
+	 * 現在保持しているキャプチャを古い順に返します。
+	 */
+	public List<CapturedMessage> snapshot() {
+		List<CapturedMessage> messages = new ArrayList<>(ring.length());
+		for (int i = 0; i < ring.length(); i++) {
+			CapturedMessage message = ring.get(i);
+			if (message != null) {
+				messages.add(message);
+			}
+		}
+		messages.sort(Comparator.comparingLong(CapturedMessage::sequence));
+		return messages;
+	}
+
+	/**
+	 * 保持しているキャプチャを全て破棄します。
+	 */
+	public void clear() {
+		for (int i = 0; i < ring.length(); i++) {
+			ring.set(i, null);
+		}
+	}
+}
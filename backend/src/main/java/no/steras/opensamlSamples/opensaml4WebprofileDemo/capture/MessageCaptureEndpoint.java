@@ -0,0 +1,66 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.capture;
+
+import java.time.Instant;
+import java.util.List;
+
+import org.springframework.boot.actuate.endpoint.annotation.DeleteOperation;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.jmx.annotation.JmxEndpoint;
+import org.springframework.lang.Nullable;
+
+import net.shibboleth.shared.xml.SerializeSupport;
+import net.shibboleth.shared.xml.XMLParserException;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.xml.SharedParserPool;
+
+/**
+ * キャプチャしたプロトコルメッセージを Actuator から参照するエンドポイント（JMX のみで公開し、認証のない Web には公開しない）。
+ * {@link JmxEndpoint} のため、management.endpoints.web.exposure.include に追加しても Web には公開されません。
+ * XML の整形はこのエンドポイントが呼ばれた時にのみ行います。
+ */
+@JmxEndpoint(id = "samlmessages")
+public class MessageCaptureEndpoint {
+	private final MessageCapture messageCapture;
+	private final SharedParserPool parserPool;
+
+	/**
+	 * ダンプ用に整形したキャプチャ。
+	 */
+	public record CapturedMessageView(long sequence, Instant capturedAt, MessageType type, boolean failure,
+			String failureReason, String xml) {
+	}
+
+	public MessageCaptureEndpoint(MessageCapture messageCapture, SharedParserPool parserPool) {
+		this.messageCapture = messageCapture;
+		this.parserPool = parserPool;
+	}
+
+	/**
+	 * 保持しているキャプチャを古い順に返します。
+	 *
+	 * @param failuresOnly true の場合は検証失敗のキャプチャのみ返す
+	 */
+	@ReadOperation
+	public List<CapturedMessageView> messages(@Nullable Boolean failuresOnly) {
+		return messageCapture.snapshot().stream()
+				.filter(message -> !Boolean.TRUE.equals(failuresOnly) || message.failure())
+				.map(message -> new CapturedMessageView(message.sequence(), message.capturedAt(), message.type(),
+						message.failure(), message.failureReason(), prettyPrint(message.xml())))
+				.toList();
+	}
+
+	/**
+	 * 保持しているキャプチャを破棄します。
+	 */
+	@DeleteOperation
+	public void clear() {
+		messageCapture.clear();
+	}
+
+	private String prettyPrint(String xml) {
+		try {
+			return SerializeSupport.prettyPrintXML(parserPool.parse(xml).getDocumentElement());
+		} catch (XMLParserException e) {
+			return xml;
+		}
+	}
+}
@@ -0,0 +1,12 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.capture;
+
+/**
+ * キャプチャ対象のプロトコルメッセージの種類。サンプリング率は種類ごとに設定します。
+ */
+public enum MessageType {
+	AUTHN_REQUEST,
+	ARTIFACT_RESOLVE,
+	ARTIFACT_RESPONSE,
+	RESPONSE,
+	ASSERTION
+}
@@ -1,15 +1,73 @@
 package no.steras.opensamlSamples.opensaml4WebprofileDemo.config;
 
+import java.nio.file.Path;
+import java.security.PublicKey;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.SecretKey;
+
+import org.opensaml.saml.common.binding.security.impl.MessageLifetimeSecurityHandler;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.boot.web.servlet.FilterRegistrationBean;
 import org.springframework.boot.web.servlet.ServletRegistrationBean;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.DependsOn;
 
 import no.steras.opensamlSamples.opensaml4WebprofileDemo.app.ApplicationServlet;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.capture.MessageCapture;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.capture.MessageCaptureEndpoint;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.capture.MessageType;
 import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.ArtifactResolutionServlet;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.AssertionIssuer;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.IDPConstants;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.IDPCredentials;
 import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.SingleSignOnServlet;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact.ArtifactIssuer;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact.ArtifactStore;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact.InMemoryArtifactStore;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact.RedisArtifactStore;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.binding.ResponseBinding;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.binding.ResponseBindingRegistry;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.encryption.EncryptionProfileRegistry;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.encryption.EncryptionSuite;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.template.ResponseTemplateRegistry;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata.AggregateMetadataSource;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata.LocalMetadata;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata.MetadataResolver;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata.MetadataSnapshot;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata.StreamingMetadataParser;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metrics.SsoFlowMetrics;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.security.SignatureAlgorithmPolicy;
 import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.AccessFilter;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.AssertionDecryptionService;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.AsyncACSExecutor;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.BackchannelSOAPClient;
 import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.ConsumerServlet;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.SPConstants;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.SPCredentials;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.replay.AssertionReplayCache;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.replay.AssertionReplaySecurityHandler;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.session.CookieSessionStore;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.session.HttpSessionStore;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.session.SPSessionStore;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.session.SessionKeyRing;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.validation.AudienceRestrictionHandler;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.validation.BearerSubjectConfirmationHandler;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.validation.ConditionsValidityHandler;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.validation.InResponseToHandler;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.validation.InboundValidationPipeline;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.validation.IssuerHandler;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.validation.ReceivedEndpointHandler;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.startup.BootstrapEndpoint;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.startup.OpenSAMLBootstrap;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.xml.SharedParserPool;
 
 /**
  * Spring Boot Web Configuration
@@ -18,19 +76,183 @@ import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.ConsumerServlet;
 @Configuration
 public class WebConfig {
 
+    /**
+     * SharedParserPool - application-wide, lock-free XML parser pool used by every decoder
+     */
+    @Bean
+    public SharedParserPool sharedParserPool(@Value("${app.parser-pool.max-size}") int maxPoolSize) {
+        return new SharedParserPool(maxPoolSize);
+    }
+
+    /**
+     * OpenSAMLBootstrap - eager, parallel OpenSAML/credential/parser-pool initialization at application start
+     * (every bean that uses the OpenSAML registry or the SP/IdP credentials takes this bean and awaits its completion;
+     * the IdP key type is read from IDPConstants)
+     */
+    @Bean
+    @DependsOn({ "SPConstants", "IDPConstants" })
+    public OpenSAMLBootstrap openSAMLBootstrap(SharedParserPool sharedParserPool,
+            @Value("${app.parser-pool.warm-up}") int parserPoolWarmUp) {
+        return new OpenSAMLBootstrap(sharedParserPool, parserPoolWarmUp);
+    }
+
+    /**
+     * SsoFlowMetrics - per-phase timers and failure counters for the SP and IdP sides of the SSO flow
+     */
+    @Bean
+    public SsoFlowMetrics ssoFlowMetrics() {
+        return new SsoFlowMetrics();
+    }
+
+    /**
+     * BootstrapEndpoint - actuator endpoint (JMX only) reporting per-phase bootstrap durations
+     */
+    @Bean
+    public BootstrapEndpoint bootstrapEndpoint(OpenSAMLBootstrap openSAMLBootstrap) {
+        return new BootstrapEndpoint(openSAMLBootstrap);
+    }
+
+    /**
+     * MessageCapture - sampled, bounded in-memory capture of SAML protocol messages
+     */
+    @Bean
+    public MessageCapture messageCapture(@Value("${app.capture.capacity}") int capacity,
+            @Value("${app.capture.sample-rate.authn-request}") double authnRequestRate,
+            @Value("${app.capture.sample-rate.artifact-resolve}") double artifactResolveRate,
+            @Value("${app.capture.sample-rate.artifact-response}") double artifactResponseRate,
+            @Value("${app.capture.sample-rate.response}") double responseRate,
+            @Value("${app.capture.sample-rate.assertion}") double assertionRate) {
+        Map<MessageType, Double> sampleRates = new EnumMap<>(MessageType.class);
+        sampleRates.put(MessageType.AUTHN_REQUEST, authnRequestRate);
+        sampleRates.put(MessageType.ARTIFACT_RESOLVE, artifactResolveRate);
+        sampleRates.put(MessageType.ARTIFACT_RESPONSE, artifactResponseRate);
+        sampleRates.put(MessageType.RESPONSE, responseRate);
+        sampleRates.put(MessageType.ASSERTION, assertionRate);
+        return new MessageCapture(capacity, sampleRates);
+    }
+
+    /**
+     * MessageCaptureEndpoint - actuator endpoint (JMX only) dumping captured, redacted messages
+     */
+    @Bean
+    public MessageCaptureEndpoint messageCaptureEndpoint(MessageCapture messageCapture, SharedParserPool sharedParserPool) {
+        return new MessageCaptureEndpoint(messageCapture, sharedParserPool);
+    }
+
+    /**
+     * IdP signature policy - assertion signing algorithm negotiated against what the SP accepts
+     */
+    @Bean
+    public SignatureAlgorithmPolicy idpSignaturePolicy(OpenSAMLBootstrap openSAMLBootstrap,
+            @Value("${app.idp.signing.algorithms}") List<String> algorithms,
+            @Value("${app.idp.signing.accepted-algorithms}") List<String> acceptedAlgorithms,
+            @Value("${app.sp.signing.accepted-algorithms}") List<String> spAcceptedAlgorithms) {
+        openSAMLBootstrap.awaitCompletion();
+        return new SignatureAlgorithmPolicy("IdP", IDPCredentials.getCredential(), algorithms, acceptedAlgorithms,
+                spAcceptedAlgorithms);
+    }
+
+    /**
+     * SP signature policy - AuthnRequest/ArtifactResolve signing algorithm negotiated against what the IdP accepts
+     */
+    @Bean
+    public SignatureAlgorithmPolicy spSignaturePolicy(OpenSAMLBootstrap openSAMLBootstrap,
+            @Value("${app.sp.signing.algorithms}") List<String> algorithms,
+            @Value("${app.sp.signing.accepted-algorithms}") List<String> acceptedAlgorithms,
+            @Value("${app.idp.signing.accepted-algorithms}") List<String> idpAcceptedAlgorithms) {
+        openSAMLBootstrap.awaitCompletion();
+        return new SignatureAlgorithmPolicy("SP", SPCredentials.getCredential(), algorithms, acceptedAlgorithms,
+                idpAcceptedAlgorithms);
+    }
+
+    /**
+     * MetadataResolver - O(1) entity/endpoint/key lookups over the local entities and an optional federation aggregate
+     * (the aggregate is stream-parsed, signature-verified once and refreshed in the background;
+     * with app.metadata.snapshot set, restarts restore the last verified aggregate from a memory-mapped snapshot
+     * authenticated by an HMAC under app.metadata.snapshot-integrity-key and usable for app.metadata.snapshot-max-age
+     * without a successful revalidation)
+     */
+    @Bean(destroyMethod = "close")
+    public MetadataResolver metadataResolver(OpenSAMLBootstrap openSAMLBootstrap,
+            @Value("${app.metadata.source}") String source,
+            @Value("${app.metadata.signing-certificate}") String signingCertificate,
+            @Value("${app.metadata.require-signature}") boolean requireSignature,
+            @Value("${app.metadata.refresh-interval}") Duration refreshInterval,
+            @Value("${app.metadata.snapshot}") String snapshot,
+            @Value("${app.metadata.snapshot-integrity-key}") String snapshotIntegrityKey,
+            @Value("${app.metadata.snapshot-max-age}") Duration snapshotMaxAge) {
+        // ローカルのエンティティには SP/IdP の鍵を使用する
+        openSAMLBootstrap.awaitCompletion();
+        AggregateMetadataSource aggregate = null;
+        if (!source.isBlank()) {
+            PublicKey verificationKey = null;
+            if (!signingCertificate.isBlank()) {
+                verificationKey = StreamingMetadataParser.loadCertificate(Path.of(signingCertificate)).getPublicKey();
+            } else if (requireSignature) {
+                throw new IllegalStateException(
+                        "app.metadata.require-signature=true の場合は app.metadata.signing-certificate を設定してください");
+            }
+            SecretKey integrityKey = null;
+            if (!snapshot.isBlank()) {
+                if (snapshotIntegrityKey.isBlank()) {
+                    throw new IllegalStateException(
+                            "app.metadata.snapshot を設定する場合は app.metadata.snapshot-integrity-key を設定してください");
+                }
+                integrityKey = MetadataSnapshot.integrityKey(snapshotIntegrityKey);
+            }
+            aggregate = new AggregateMetadataSource(source, new StreamingMetadataParser(verificationKey),
+                    snapshot.isBlank() ? null : Path.of(snapshot), integrityKey, snapshotMaxAge);
+        }
+        return new MetadataResolver(LocalMetadata.build(), aggregate, refreshInterval);
+    }
+
     /**
      * AccessFilter - protects /app/* endpoints
+     * (an empty app.sp.response-binding leaves the response binding to the IdP's per-SP setting;
+     * app.sp.authn-request.streaming-encoder selects the template-based redirect encoder)
      */
     @Bean
-    public FilterRegistrationBean<AccessFilter> accessFilterRegistration() {
+    public FilterRegistrationBean<AccessFilter> accessFilterRegistration(OpenSAMLBootstrap openSAMLBootstrap,
+            MessageCapture messageCapture,
+            @Qualifier("spSignaturePolicy") SignatureAlgorithmPolicy spSignaturePolicy, SsoFlowMetrics ssoFlowMetrics,
+            @Value("${app.sp.response-binding}") String responseBinding, SPSessionStore spSessionStore,
+            MetadataResolver metadataResolver, @Value("${app.sp.idp-entity-id}") String idpEntityId,
+            @Value("${app.sp.authn-request.streaming-encoder}") boolean streamingEncoder) {
+        openSAMLBootstrap.awaitCompletion();
+        ResponseBinding requestedBinding = responseBinding.isBlank() ? null : ResponseBinding.fromBindingName(responseBinding);
         FilterRegistrationBean<AccessFilter> registration = new FilterRegistrationBean<>();
-        registration.setFilter(new AccessFilter());
+        registration.setFilter(new AccessFilter(messageCapture, spSignaturePolicy, ssoFlowMetrics, requestedBinding,
+                spSessionStore, metadataResolver, idpEntityId, streamingEncoder));
         registration.addUrlPatterns("/app/*");
         registration.setName("AccessFilter");
         registration.setOrder(1);
         return registration;
     }
 
+    /**
+     * HttpSessionStore - SP login state kept in the servlet container's HttpSession (default)
+     */
+    @Bean
+    @ConditionalOnProperty(name = "app.sp.session.mode", havingValue = "http-session", matchIfMissing = true)
+    public SPSessionStore httpSessionStore() {
+        return new HttpSessionStore();
+    }
+
+    /**
+     * CookieSessionStore - stateless SP login state in an AES-GCM encrypted cookie with key rotation
+     */
+    @Bean
+    @ConditionalOnProperty(name = "app.sp.session.mode", havingValue = "cookie")
+    public SPSessionStore cookieSessionStore(@Value("${app.sp.session.keys}") List<String> keys,
+            @Value("${app.sp.session.ttl}") Duration timeToLive,
+            @Value("${app.sp.session.login-ttl}") Duration loginTimeToLive,
+            @Value("${app.sp.session.cookie-secure}") boolean secure,
+            @Value("${app.sp.session.cookie-same-site}") String sameSite,
+            @Value("${app.sp.session.max-idle-ciphers}") int maxIdleCiphers) {
+        return new CookieSessionStore(new SessionKeyRing(keys), timeToLive, loginTimeToLive, secure, sameSite,
+                maxIdleCiphers);
+    }
+
     /**
      * ApplicationServlet - protected resource
      */
@@ -44,13 +266,96 @@ public class WebConfig {
         return registration;
     }
 
+    /**
+     * InMemoryArtifactStore - sharded, TTL-evicting, one-time-use store for issued SAML artifacts (single IdP instance)
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "app.idp.artifact.store", havingValue = "memory", matchIfMissing = true)
+    public InMemoryArtifactStore inMemoryArtifactStore(@Value("${app.idp.artifact.ttl}") Duration timeToLive,
+            @Value("${app.idp.artifact.tick}") Duration tick,
+            @Value("${app.idp.artifact.max-entries}") int maxEntries,
+            @Value("${app.idp.artifact.shards}") int shards) {
+        return new InMemoryArtifactStore(timeToLive, tick, maxEntries, shards);
+    }
+
+    /**
+     * RedisArtifactStore - shared artifact store over the Redis protocol with pipelined writes and GETDEL resolution
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "app.idp.artifact.store", havingValue = "redis")
+    public RedisArtifactStore redisArtifactStore(@Value("${app.idp.artifact.ttl}") Duration timeToLive,
+            @Value("${app.idp.artifact.redis.host}") String host,
+            @Value("${app.idp.artifact.redis.port}") int port,
+            @Value("${app.idp.artifact.redis.password}") String password,
+            @Value("${app.idp.artifact.redis.timeout}") Duration timeout,
+            @Value("${app.idp.artifact.redis.connections}") int connections,
+            @Value("${app.idp.artifact.redis.max-batch}") int maxBatch) {
+        return new RedisArtifactStore(host, port, password, timeToLive, timeout, connections, maxBatch);
+    }
+
+    /**
+     * ArtifactIssuer - issues SAML 2.0 type 0x0004 artifacts for the IdP
+     */
+    @Bean
+    public ArtifactIssuer artifactIssuer(@Value("${app.idp-entity-id}") String idpEntityId, ArtifactStore artifactStore) {
+        return new ArtifactIssuer(idpEntityId, artifactStore);
+    }
+
+    /**
+     * ResponseTemplateRegistry - per-SP pre-built ArtifactResponse/Assertion templates for the IdP, addressed to the ACS in the SP metadata
+     * (the default SP's templates are built at startup as the response-templates bootstrap phase)
+     */
+    @Bean
+    public ResponseTemplateRegistry responseTemplateRegistry(OpenSAMLBootstrap openSAMLBootstrap,
+            MetadataResolver metadataResolver) {
+        ResponseTemplateRegistry registry = new ResponseTemplateRegistry(metadataResolver);
+        openSAMLBootstrap.runPhase("response-templates", () -> registry.warmUp(SPConstants.SP_ENTITY_ID));
+        return registry;
+    }
+
+    /**
+     * EncryptionProfileRegistry - per-SP assertion encryption profiles (AES-GCM / AES-CBC with RSA-OAEP or ECDH-ES)
+     */
+    @Bean
+    public EncryptionProfileRegistry encryptionProfileRegistry(
+            @Value("${app.idp.encryption.profile}") String defaultProfile,
+            @Value("${app.idp.encryption.relying-party-profiles}") List<String> relyingPartyProfiles) {
+        return new EncryptionProfileRegistry(EncryptionSuite.fromProfileName(defaultProfile),
+                EncryptionProfileRegistry.parseRelyingPartySuites(relyingPartyProfiles));
+    }
+
+    /**
+     * AssertionIssuer - signed and encrypted assertion issuance shared by the artifact and HTTP-POST response bindings
+     */
+    @Bean
+    public AssertionIssuer assertionIssuer(@Qualifier("idpSignaturePolicy") SignatureAlgorithmPolicy idpSignaturePolicy,
+            EncryptionProfileRegistry encryptionProfileRegistry, SsoFlowMetrics ssoFlowMetrics) {
+        return new AssertionIssuer(idpSignaturePolicy, encryptionProfileRegistry, ssoFlowMetrics);
+    }
+
+    /**
+     * ResponseBindingRegistry - per-SP response binding (artifact or HTTP-POST) used when the AuthnRequest does not request one
+     */
+    @Bean
+    public ResponseBindingRegistry responseBindingRegistry(
+            @Value("${app.idp.response-binding.default}") String defaultBinding,
+            @Value("${app.idp.response-binding.relying-party-bindings}") List<String> relyingPartyBindings) {
+        return new ResponseBindingRegistry(ResponseBinding.fromBindingName(defaultBinding),
+                ResponseBindingRegistry.parseRelyingPartyBindings(relyingPartyBindings));
+    }
+
     /**
      * SingleSignOnServlet - IdP SSO endpoint
      */
     @Bean
-    public ServletRegistrationBean<SingleSignOnServlet> singleSignOnServletRegistration() {
+    public ServletRegistrationBean<SingleSignOnServlet> singleSignOnServletRegistration(OpenSAMLBootstrap openSAMLBootstrap,
+            ArtifactIssuer artifactIssuer, ResponseBindingRegistry responseBindingRegistry,
+            ResponseTemplateRegistry responseTemplateRegistry, AssertionIssuer assertionIssuer, SsoFlowMetrics ssoFlowMetrics,
+            MetadataResolver metadataResolver, @Qualifier("idpSignaturePolicy") SignatureAlgorithmPolicy idpSignaturePolicy) {
+        openSAMLBootstrap.awaitCompletion();
         ServletRegistrationBean<SingleSignOnServlet> registration = new ServletRegistrationBean<>();
-        registration.setServlet(new SingleSignOnServlet());
+        registration.setServlet(new SingleSignOnServlet(artifactIssuer, responseBindingRegistry, responseTemplateRegistry,
+                assertionIssuer, ssoFlowMetrics, metadataResolver, idpSignaturePolicy));
         registration.addUrlMappings("/idp/singleSignOnService");
         registration.setName("SingleSignOnService");
         registration.setLoadOnStartup(1);
@@ -58,25 +363,162 @@ public class WebConfig {
     }
 
     /**
-     * ConsumerServlet - SP Assertion Consumer Service
+     * BackchannelSOAPClient - pooled, long-lived SOAP client used by the SP for artifact resolution
+     */
+    @Bean(destroyMethod = "close")
+    public BackchannelSOAPClient backchannelSOAPClient(OpenSAMLBootstrap openSAMLBootstrap,
+            @Value("${app.backchannel.max-connections-total}") int maxConnectionsTotal,
+            @Value("${app.backchannel.max-connections-per-idp}") int maxConnectionsPerIdP,
+            @Value("${app.backchannel.connect-timeout}") Duration connectTimeout,
+            @Value("${app.backchannel.response-timeout}") Duration responseTimeout,
+            @Value("${app.backchannel.keep-alive}") Duration keepAlive,
+            @Value("${app.backchannel.idle-eviction}") Duration idleEviction,
+            @Value("${app.backchannel.connection-ttl}") Duration connectionTimeToLive) {
+        openSAMLBootstrap.awaitCompletion();
+        BackchannelSOAPClient.Settings settings = new BackchannelSOAPClient.Settings(maxConnectionsTotal,
+                maxConnectionsPerIdP, connectTimeout, responseTimeout, keepAlive, idleEviction, connectionTimeToLive);
+        return new BackchannelSOAPClient(settings, IDPConstants.ARTIFACT_RESOLUTION_SERVICE);
+    }
+
+    /**
+     * AsyncACSExecutor - virtual-thread executor with in-flight limit for asynchronous ACS processing
+     */
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "app.acs.async.enabled", havingValue = "true")
+    public AsyncACSExecutor asyncACSExecutor(@Value("${app.acs.async.timeout}") Duration timeout,
+            @Value("${app.acs.async.max-in-flight}") int maxInFlight) {
+        return new AsyncACSExecutor(timeout, maxInFlight);
+    }
+
+    /**
+     * AssertionReplayCache - bounded, time-bucketed cache of accepted assertion IDs for replay detection
+     */
+    @Bean(destroyMethod = "close")
+    public AssertionReplayCache assertionReplayCache(@Value("${app.sp.replay.max-retention}") Duration maxRetention,
+            @Value("${app.sp.replay.clock-skew}") Duration clockSkew,
+            @Value("${app.sp.replay.tick}") Duration tick,
+            @Value("${app.sp.replay.max-entries}") int maxEntries) {
+        return new AssertionReplayCache(maxRetention, clockSkew, tick, maxEntries);
+    }
+
+    /**
+     * AssertionDecryptionService - one long-lived OpenSAML Decrypter with a pre-built SP key resolver
+     */
+    @Bean
+    public AssertionDecryptionService assertionDecryptionService(OpenSAMLBootstrap openSAMLBootstrap) {
+        openSAMLBootstrap.awaitCompletion();
+        return new AssertionDecryptionService(SPCredentials.getCredential(), SPCredentials.getKeyAgreementCredential());
+    }
+
+    /**
+     * ArtifactResponse validation pipeline - message lifetime, destination, issuer and InResponseTo checks,
+     * assembled and initialized once
+     */
+    @Bean
+    public InboundValidationPipeline artifactResponseValidationPipeline(@Value("${app.idp-entity-id}") String idpEntityId,
+            @Value("${app.sp.validation.message-lifetime}") Duration messageLifetime,
+            @Value("${app.sp.validation.clock-skew}") Duration clockSkew) {
+        MessageLifetimeSecurityHandler lifetimeHandler = new MessageLifetimeSecurityHandler();
+        lifetimeHandler.setClockSkew(clockSkew);
+        lifetimeHandler.setMessageLifetime(messageLifetime);
+        lifetimeHandler.setRequiredRule(true);
+
+        return InboundValidationPipeline.builder("artifact-response")
+                .add("message-lifetime", lifetimeHandler)
+                .add("received-endpoint", new ReceivedEndpointHandler())
+                .add("issuer", new IssuerHandler(idpEntityId))
+                .add("in-response-to", new InResponseToHandler())
+                .build();
+    }
+
+    /**
+     * Response validation pipeline - the same checks for Responses received through the HTTP-POST binding,
+     * where InResponseTo must match the AuthnRequest ID kept in the session and the lifetime covers the browser hop
+     */
+    @Bean
+    public InboundValidationPipeline responseValidationPipeline(@Value("${app.idp-entity-id}") String idpEntityId,
+            @Value("${app.sp.validation.front-channel-message-lifetime}") Duration messageLifetime,
+            @Value("${app.sp.validation.clock-skew}") Duration clockSkew) {
+        MessageLifetimeSecurityHandler lifetimeHandler = new MessageLifetimeSecurityHandler();
+        lifetimeHandler.setClockSkew(clockSkew);
+        lifetimeHandler.setMessageLifetime(messageLifetime);
+        lifetimeHandler.setRequiredRule(true);
+
+        return InboundValidationPipeline.builder("response")
+                .add("message-lifetime", lifetimeHandler)
+                .add("received-endpoint", new ReceivedEndpointHandler())
+                .add("issuer", new IssuerHandler(idpEntityId))
+                .add("in-response-to", new InResponseToHandler())
+                .build();
+    }
+
+    /**
+     * Assertion validation pipeline - issuer, bearer subject confirmation (recipient, lifetime, InResponseTo),
+     * Conditions validity window and audience checks for decrypted, signature-verified assertions
+     */
+    @Bean
+    public InboundValidationPipeline assertionValidationPipeline(@Value("${app.sp.idp-entity-id}") String idpEntityId,
+            @Value("${app.sp-entity-id}") String spEntityId, @Value("${app.sp.validation.clock-skew}") Duration clockSkew) {
+        return InboundValidationPipeline.builder("assertion")
+                .add("issuer", new IssuerHandler(idpEntityId))
+                .add("subject-confirmation", new BearerSubjectConfirmationHandler(clockSkew))
+                .add("conditions", new ConditionsValidityHandler(clockSkew))
+                .add("audience", new AudienceRestrictionHandler(spEntityId))
+                .build();
+    }
+
+    /**
+     * Replay detection pipeline - run only after assertionValidationPipeline succeeds, so that rejected assertions
+     * never reach the replay cache (kept separate so its latency is measured on its own)
+     */
+    @Bean
+    public InboundValidationPipeline replayDetectionPipeline(AssertionReplayCache assertionReplayCache) {
+        return InboundValidationPipeline.builder("replay")
+                .add("replay", new AssertionReplaySecurityHandler(assertionReplayCache))
+                .build();
+    }
+
+    /**
+     * ConsumerServlet - SP Assertion Consumer Service (asynchronous when AsyncACSExecutor is enabled)
      */
     @Bean
-    public ServletRegistrationBean<ConsumerServlet> consumerServletRegistration() {
+    public ServletRegistrationBean<ConsumerServlet> consumerServletRegistration(OpenSAMLBootstrap openSAMLBootstrap,
+            BackchannelSOAPClient backchannelSOAPClient, MessageCapture messageCapture, ObjectProvider<AsyncACSExecutor> asyncACSExecutor,
+            @Qualifier("artifactResponseValidationPipeline") InboundValidationPipeline artifactResponseValidation,
+            @Qualifier("responseValidationPipeline") InboundValidationPipeline responseValidation,
+            @Qualifier("assertionValidationPipeline") InboundValidationPipeline assertionValidation,
+            @Qualifier("replayDetectionPipeline") InboundValidationPipeline replayDetection,
+            AssertionDecryptionService assertionDecryptionService,
+            @Qualifier("spSignaturePolicy") SignatureAlgorithmPolicy spSignaturePolicy, SsoFlowMetrics ssoFlowMetrics,
+            SPSessionStore spSessionStore, MetadataResolver metadataResolver,
+            @Value("${app.sp.idp-entity-id}") String idpEntityId) {
+        openSAMLBootstrap.awaitCompletion();
         ServletRegistrationBean<ConsumerServlet> registration = new ServletRegistrationBean<>();
-        registration.setServlet(new ConsumerServlet());
+        registration.setServlet(new ConsumerServlet(backchannelSOAPClient, messageCapture, asyncACSExecutor.getIfAvailable(),
+                artifactResponseValidation, responseValidation, assertionValidation, replayDetection, assertionDecryptionService,
+                spSignaturePolicy, ssoFlowMetrics, spSessionStore, metadataResolver, idpEntityId));
         registration.addUrlMappings("/sp/consumer");
         registration.setName("ConsumerServlet");
+        registration.setAsyncSupported(true);
         registration.setLoadOnStartup(1);
         return registration;
     }
 
     /**
-     * ArtifactResolutionServlet - IdP Artifact Resolution endpoint
+     * ArtifactResolutionServlet - IdP Artifact Resolution endpoint, authenticating requesters by their metadata signing keys
+     * (signatures must use an algorithm in app.idp.signing.accepted-algorithms;
+     * app.idp.soap.streaming-encoder selects the pre-serialized SOAP envelope encoder)
      */
     @Bean
-    public ServletRegistrationBean<ArtifactResolutionServlet> artifactResolutionServletRegistration() {
+    public ServletRegistrationBean<ArtifactResolutionServlet> artifactResolutionServletRegistration(
+            OpenSAMLBootstrap openSAMLBootstrap, ArtifactStore artifactStore, ResponseTemplateRegistry responseTemplateRegistry, AssertionIssuer assertionIssuer,
+            MessageCapture messageCapture, SsoFlowMetrics ssoFlowMetrics,
+            @Value("${app.idp.soap.streaming-encoder}") boolean streamingEncoder, MetadataResolver metadataResolver,
+            @Qualifier("idpSignaturePolicy") SignatureAlgorithmPolicy idpSignaturePolicy) {
+        openSAMLBootstrap.awaitCompletion();
         ServletRegistrationBean<ArtifactResolutionServlet> registration = new ServletRegistrationBean<>();
-        registration.setServlet(new ArtifactResolutionServlet());
+        registration.setServlet(new ArtifactResolutionServlet(artifactStore, responseTemplateRegistry, assertionIssuer,
+                messageCapture, ssoFlowMetrics, streamingEncoder, metadataResolver, idpSignaturePolicy));
         registration.addUrlMappings("/idp/artifactResolutionService");
         registration.setName("ArtifactResolutionServlet");
         registration.setLoadOnStartup(1);
@@ -2,72 +2,111 @@ package no.steras.opensamlSamples.opensaml4WebprofileDemo.idp;
 
 import java.io.IOException;
 import java.time.Instant;
-import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import javax.xml.namespace.QName;
 
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
-import org.apache.xml.security.utils.EncryptionConstants;
 import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
 import org.opensaml.core.xml.io.MarshallingException;
-import org.opensaml.core.xml.schema.XSString;
-import org.opensaml.core.xml.schema.impl.XSStringBuilder;
+import org.opensaml.core.xml.io.UnmarshallingException;
 import org.opensaml.messaging.context.MessageContext;
 import org.opensaml.messaging.decoder.MessageDecodingException;
 import org.opensaml.messaging.encoder.MessageEncodingException;
+import org.opensaml.saml.common.xml.SAMLConstants;
 import org.opensaml.saml.saml2.binding.decoding.impl.HTTPSOAP11Decoder;
 import org.opensaml.saml.saml2.binding.encoding.impl.HTTPSOAP11Encoder;
+import org.opensaml.saml.saml2.core.ArtifactResolve;
 import org.opensaml.saml.saml2.core.ArtifactResponse;
-import org.opensaml.saml.saml2.core.Assertion;
-import org.opensaml.saml.saml2.core.Attribute;
-import org.opensaml.saml.saml2.core.AttributeStatement;
-import org.opensaml.saml.saml2.core.AttributeValue;
-import org.opensaml.saml.saml2.core.Audience;
-import org.opensaml.saml.saml2.core.AudienceRestriction;
-import org.opensaml.saml.saml2.core.AuthnContext;
-import org.opensaml.saml.saml2.core.AuthnContextClassRef;
-import org.opensaml.saml.saml2.core.AuthnStatement;
-import org.opensaml.saml.saml2.core.Conditions;
-import org.opensaml.saml.saml2.core.EncryptedAssertion;
-import org.opensaml.saml.saml2.core.Issuer;
-import org.opensaml.saml.saml2.core.NameID;
-import org.opensaml.saml.saml2.core.NameIDType;
-import org.opensaml.saml.saml2.core.Response;
-import org.opensaml.saml.saml2.core.Status;
-import org.opensaml.saml.saml2.core.StatusCode;
-import org.opensaml.saml.saml2.core.Subject;
-import org.opensaml.saml.saml2.core.SubjectConfirmation;
-import org.opensaml.saml.saml2.core.SubjectConfirmationData;
-import org.opensaml.saml.saml2.encryption.Encrypter;
-import org.opensaml.xmlsec.encryption.support.DataEncryptionParameters;
-import org.opensaml.xmlsec.encryption.support.EncryptionException;
-import org.opensaml.xmlsec.encryption.support.KeyEncryptionParameters;
-import org.opensaml.xmlsec.signature.Signature;
-import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.opensaml.saml.security.impl.SAMLSignatureProfileValidator;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.soap.soap11.FaultCode;
 import org.opensaml.xmlsec.signature.support.SignatureException;
-import org.opensaml.xmlsec.signature.support.Signer;
+import org.opensaml.xmlsec.signature.support.SignatureValidator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
 
 import net.shibboleth.shared.component.ComponentInitializationException;
-import net.shibboleth.shared.xml.impl.BasicParserPool;
 import no.steras.opensamlSamples.opensaml4WebprofileDemo.OpenSAMLUtils;
-import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.SPConstants;
-import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.SPCredentials;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.capture.MessageCapture;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.capture.MessageType;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact.ArtifactEntry;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact.ArtifactStore;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.binding.StreamingSOAP11Encoder;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.template.RelyingPartyTemplates;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.template.ResponseTemplateRegistry;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata.EntityMetadata;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata.MetadataResolver;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metrics.SsoFlowMetrics;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metrics.SsoPhase;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.security.SignatureAlgorithmPolicy;
 
 /**
  * Identity Provider (IdP) 側の Artifact Resolution Service (ARS) エンドポイント。
  * 
  * 役割:
  * 1. SP からバックチャネル（SOAP通信）で送られてくる `ArtifactResolve` リクエストを受信。
- * 2. 送信されたアーティファクトに対応するアサーションを特定。
- * 3. アサーション（署名・暗号化済み）をカプセル化した `ArtifactResponse` を SOAP で返信。
+ * 2. ArtifactResolve の署名を要求元 SP のメタデータの鍵で検証し、要求元を認証する。
+ * 3. 送信されたアーティファクトのうち要求元 SP に発行したものだけをアーティファクトストアから取り出し、アサーションを生成。
+ * 4. アサーション（署名・暗号化済み）をカプセル化した `ArtifactResponse` を SOAP で返信。
+ *
+ * ArtifactResolve としてデコードできない要求には SOAP Fault（Client）を、アーティファクトストアの障害時には
+ * 503 と SOAP Fault（Server）を返します。
  */
 public class ArtifactResolutionServlet extends HttpServlet {
 	private static Logger logger = LoggerFactory.getLogger(ArtifactResolutionServlet.class);
 
+	// アーティファクトストアに問い合わせできなかった場合に返す Retry-After（秒）
+	private static final String ARTIFACT_STORE_RETRY_AFTER_SECONDS = "1";
+
+	// SSO 時に発行されたアーティファクトと認証結果を保持するストア
+	private final ArtifactStore artifactStore;
+	// SP ごとに事前構築したレスポンステンプレート
+	private final ResponseTemplateRegistry templateRegistry;
+	// 署名・暗号化済みのアサーションの発行
+	private final AssertionIssuer assertionIssuer;
+	// 検証に失敗した解決要求のキャプチャ
+	private final MessageCapture messageCapture;
+	// SSO フローのフェーズごとの所要時間と失敗数
+	private final SsoFlowMetrics metrics;
+	// エンベロープを事前シリアライズした SOAP エンコーダー（null の場合は OpenSAML の HTTPSOAP11Encoder を使用）
+	private final StreamingSOAP11Encoder soapEncoder;
+	// SOAP Fault の返信に使用するエンコーダー（OpenSAML のエンコーダーを使用する設定でも Fault はこちらで返す）
+	private final StreamingSOAP11Encoder faultEncoder;
+	// 要求元 SP の署名検証用の鍵の参照先
+	private final MetadataResolver metadataResolver;
+	// IdP が受け入れる署名方式（要求元 SP の署名の方式の確認に使用）
+	private final SignatureAlgorithmPolicy signaturePolicy;
+
+	/**
+	 * @param artifactStore    アーティファクトの解決に使用するストア
+	 * @param templateRegistry SP ごとのレスポンステンプレート
+	 * @param assertionIssuer  署名・暗号化済みのアサーションを発行するコンポーネント
+	 * @param messageCapture   プロトコルメッセージのキャプチャ
+	 * @param metrics          SSO フローのフェーズごとのメトリクス
+	 * @param streamingEncoder true の場合、ArtifactResponse を事前シリアライズしたエンベロープに直接書き込む
+	 * @param metadataResolver 要求元 SP の署名検証用の鍵の参照先
+	 * @param signaturePolicy  IdP の署名方式のポリシー（要求元 SP の署名の方式を確認する）
+	 */
+	public ArtifactResolutionServlet(ArtifactStore artifactStore, ResponseTemplateRegistry templateRegistry,
+			AssertionIssuer assertionIssuer, MessageCapture messageCapture, SsoFlowMetrics metrics,
+			boolean streamingEncoder, MetadataResolver metadataResolver, SignatureAlgorithmPolicy signaturePolicy) {
+		this.artifactStore = artifactStore;
+		this.templateRegistry = templateRegistry;
+		this.assertionIssuer = assertionIssuer;
+		this.messageCapture = messageCapture;
+		this.metrics = metrics;
+		this.soapEncoder = streamingEncoder ? new StreamingSOAP11Encoder() : null;
+		this.faultEncoder = soapEncoder != null ? soapEncoder : new StreamingSOAP11Encoder();
+		this.metadataResolver = metadataResolver;
+		this.signaturePolicy = signaturePolicy;
+	}
+
 	/**
 	 * SP からの SOAP POST リクエストを処理します。
 	 */
@@ -80,245 +119,206 @@ public class ArtifactResolutionServlet extends HttpServlet {
 		HTTPSOAP11Decoder decoder = new HTTPSOAP11Decoder();
 		decoder.setHttpServletRequestSupplier(() -> req);
 
+		ArtifactResolve artifactResolve;
+		long start = metrics.start();
 		try {
-			BasicParserPool parserPool = new BasicParserPool();
-			parserPool.initialize();
-			decoder.setParserPool(parserPool);
+			// アプリケーション共有のパーサープールを使用（リクエストごとに生成しない）
+			decoder.setParserPool(XMLObjectProviderRegistrySupport.getParserPool());
 			decoder.initialize();
 			decoder.decode();
-			logger.info("ArtifactResolutionServlet: リクエスト(ArtifactResolve) のデコードに成功しました。");
 		} catch (MessageDecodingException | ComponentInitializationException e) {
-			throw new RuntimeException("SOAP メッセージのデコードに失敗しました", e);
+			metrics.failure(SsoPhase.SOAP_DECODE, "decode");
+			logger.warn("ArtifactResolutionServlet: SOAP メッセージのデコードに失敗しました: {}", e.getMessage());
+			sendFault(resp, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, FaultCode.CLIENT,
+					"SOAP メッセージをデコードできません");
+			return;
+		}
+		if (!(decoder.getMessageContext().getMessage() instanceof ArtifactResolve decoded)) {
+			metrics.failure(SsoPhase.SOAP_DECODE, "not-artifact-resolve");
+			logger.warn("ArtifactResolutionServlet: ArtifactResolve ではないメッセージを受信しました。");
+			sendFault(resp, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, FaultCode.CLIENT,
+					"ArtifactResolve ではありません");
+			return;
+		}
+		artifactResolve = decoded;
+		logger.info("ArtifactResolutionServlet: リクエスト(ArtifactResolve) のデコードに成功しました。");
+		metrics.record(SsoPhase.SOAP_DECODE, start);
+
+		// 2. 要求元 SP を署名で認証し、その SP に発行したアーティファクトだけをストアから取り出す（一度解決したアーティファクトは削除される）
+		ArtifactEntry entry = null;
+		if (authenticateRequester(artifactResolve)) {
+			try {
+				entry = resolveArtifact(artifactResolve);
+			} catch (IllegalStateException e) {
+				// 共有ストアの障害。未解決（成功ステータスの空の応答）とは区別し、再試行できることを示す
+				logger.warn("ArtifactResolutionServlet: アーティファクトストアに問い合わせできませんでした: {}", e.getMessage());
+				resp.setHeader("Retry-After", ARTIFACT_STORE_RETRY_AFTER_SECONDS);
+				sendFault(resp, HttpServletResponse.SC_SERVICE_UNAVAILABLE, FaultCode.SERVER,
+						"アーティファクトストアを利用できません");
+				return;
+			}
 		}
 
-		// 2. 実際のアサーションを含むレスポンスを構築
+		// 3. 実際のアサーションを含むレスポンスを構築
 		logger.info("ArtifactResolutionServlet: アサーションを生成し ArtifactResponse を構築します...");
-		ArtifactResponse artifactResponse = buildArtifactResponse();
+		Element artifactResponse = buildArtifactResponse(artifactResolve, entry);
+
+		// 4. SOAP 1.1 エンコーダーを使用してレスポンスを送信
+		start = metrics.start();
+		if (soapEncoder != null) {
+			// エンベロープの XMLObject と DOM を構築せず、署名・暗号化済みの DOM をそのままエンベロープに書き込む
+			try {
+				soapEncoder.encode(resp, artifactResponse);
+				logger.info("ArtifactResolutionServlet: ArtifactResponse を SP に返送しました。");
+			} catch (RuntimeException e) {
+				metrics.failure(SsoPhase.SOAP_ENCODE, "encode");
+				throw new RuntimeException("SOAP レスポンスのエンコードに失敗しました", e);
+			}
+			metrics.record(SsoPhase.SOAP_ENCODE, start);
+			return;
+		}
 
-		// 3. SOAP 1.1 エンコーダーを使用してレスポンスを送信
+		// OpenSAML の HTTPSOAP11Encoder は XMLObject のメッセージを必要とするため、構築した DOM をアンマーシャリングする
 		MessageContext context = new MessageContext();
-		context.setMessage(artifactResponse);
 		HTTPSOAP11Encoder encoder = new HTTPSOAP11Encoder();
 		encoder.setHttpServletResponseSupplier(() -> resp);
 		encoder.setMessageContext(context);
 
 		try {
+			context.setMessage(OpenSAMLUtils.unmarshall(artifactResponse, ArtifactResponse.class));
 			encoder.prepareContext();
 			encoder.initialize();
 			encoder.encode();
 			logger.info("ArtifactResolutionServlet: ArtifactResponse を SP に返送しました。");
-		} catch (MessageEncodingException | ComponentInitializationException e) {
+		} catch (UnmarshallingException | MessageEncodingException | ComponentInitializationException e) {
+			metrics.failure(SsoPhase.SOAP_ENCODE, "encode");
 			throw new RuntimeException("SOAP レスポンスのエンコードに失敗しました", e);
 		}
+		metrics.record(SsoPhase.SOAP_ENCODE, start);
 	}
 
 	/**
-	 * SAML レスポンスの階層構造を構築します。
-	 * ArtifactResponse -> Response -> EncryptedAssertion という構造になります。
+	 * SOAP Fault を返します（SOAP 1.1 の HTTP バインディングに従い、ステータスは 500、一時的な障害の場合は 503）。
 	 */
-	private ArtifactResponse buildArtifactResponse() {
-		// ArtifactResponse の構築（外側のコンテナ）
-		ArtifactResponse artifactResponse = OpenSAMLUtils.buildSAMLObject(ArtifactResponse.class);
-		
-		Issuer issuer = OpenSAMLUtils.buildSAMLObject(Issuer.class);
-		issuer.setValue(IDPConstants.IDP_ENTITY_ID);
-		artifactResponse.setIssuer(issuer);
-		artifactResponse.setIssueInstant(Instant.now());
-		artifactResponse.setDestination(SPConstants.ASSERTION_CONSUMER_SERVICE);
-		artifactResponse.setID(OpenSAMLUtils.generateSecureRandomId());
-		
-		// 成功ステータスの設定
-		Status status = OpenSAMLUtils.buildSAMLObject(Status.class);
-		StatusCode statusCode = OpenSAMLUtils.buildSAMLObject(StatusCode.class);
-		statusCode.setValue(StatusCode.SUCCESS);
-		status.setStatusCode(statusCode);
-		artifactResponse.setStatus(status);
-
-		// Response の構築（実際にアサーションを運ぶメッセージ）
-		Response response = OpenSAMLUtils.buildSAMLObject(Response.class);
-		response.setDestination(SPConstants.ASSERTION_CONSUMER_SERVICE);
-		response.setIssueInstant(Instant.now());
-		response.setID(OpenSAMLUtils.generateSecureRandomId());
-		
-		Issuer resIssuer = OpenSAMLUtils.buildSAMLObject(Issuer.class);
-		resIssuer.setValue(IDPConstants.IDP_ENTITY_ID);
-		response.setIssuer(resIssuer);
-
-		Status resStatus = OpenSAMLUtils.buildSAMLObject(Status.class);
-		StatusCode resStatusCode = OpenSAMLUtils.buildSAMLObject(StatusCode.class);
-		resStatusCode.setValue(StatusCode.SUCCESS);
-		resStatus.setStatusCode(resStatusCode);
-		response.setStatus(resStatus);
-
-		artifactResponse.setMessage(response);
-
-		// アサーションの生成、署名、および暗号化
-		Assertion assertion = buildAssertion();
-		signAssertion(assertion); // 1. 署名
-		EncryptedAssertion encryptedAssertion = encryptAssertion(assertion); // 2. 暗号化
-
-		response.getEncryptedAssertions().add(encryptedAssertion);
-		
-		return artifactResponse;
+	private void sendFault(HttpServletResponse resp, int status, QName faultCode, String faultString)
+			throws IOException {
+		faultEncoder.encodeFault(resp, status, faultCode, faultString);
 	}
 
 	/**
-	 * SP の公開鍵を使用してアサーションを完全に暗号化します。
+	 * ArtifactResolve の署名を、Issuer が示す SP のメタデータの署名用の鍵で検証します。
+	 * 署名がない・要求元が不明・署名が不正な場合は false を返し、アーティファクトには触れません
+	 * （認証されていない要求元が他の SP のアーティファクトを消費できないようにするため）。
 	 */
-	private EncryptedAssertion encryptAssertion(Assertion assertion) {
-		// データ暗号化(AES-128)のパラメータ
-		DataEncryptionParameters encryptionParameters = new DataEncryptionParameters();
-		encryptionParameters.setAlgorithm(EncryptionConstants.ALGO_ID_BLOCKCIPHER_AES128);
-
-		// 鍵暗号化(RSA-OAEP)のパラメータ（SP の公開鍵を使用）
-		KeyEncryptionParameters keyEncryptionParameters = new KeyEncryptionParameters();
-		keyEncryptionParameters.setEncryptionCredential(SPCredentials.getCredential());
-		keyEncryptionParameters.setAlgorithm(EncryptionConstants.ALGO_ID_KEYTRANSPORT_RSAOAEP);
-
-		Encrypter encrypter = new Encrypter(encryptionParameters, keyEncryptionParameters);
-		encrypter.setKeyPlacement(Encrypter.KeyPlacement.INLINE);
-
-		try {
-			return encrypter.encrypt(assertion);
-		} catch (EncryptionException e) {
-			throw new RuntimeException("アサーションの暗号化に失敗しました", e);
+	private boolean authenticateRequester(ArtifactResolve artifactResolve) {
+		long start = metrics.start();
+		String requester = artifactResolve.getIssuer() != null ? artifactResolve.getIssuer().getValue() : null;
+		if (!artifactResolve.isSigned()) {
+			rejectRequester(artifactResolve, "unsigned", "署名がありません");
+			return false;
 		}
-	}
 
-	/**
-	 * IdP の秘密鍵を使用してアサーションにデジタル署名を付与します。
-	 */
-	private void signAssertion(Assertion assertion) {
-		Signature signature = OpenSAMLUtils.buildSAMLObject(Signature.class);
-		signature.setSigningCredential(IDPCredentials.getCredential());
-		signature.setSignatureAlgorithm(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA1);
-		signature.setCanonicalizationAlgorithm(SignatureConstants.ALGO_ID_C14N_EXCL_OMIT_COMMENTS);
-
-		assertion.setSignature(signature);
+		EntityMetadata entity = requester != null ? metadataResolver.getEntity(requester) : null;
+		if (entity == null || entity.serviceProvider() == null || entity.serviceProvider().signingCredentials().isEmpty()) {
+			rejectRequester(artifactResolve, "unknown-requester", "要求元 SP の署名検証用の鍵がメタデータにありません");
+			return false;
+		}
 
+		// 失敗理由（メトリクスのタグ）は検証の段階ごとに切り替える
+		String failureReason = "signature-profile";
 		try {
-			// 署名の前に DOM 要素に変換（マーシャリング）が必要
-			XMLObjectProviderRegistrySupport.getMarshallerFactory().getMarshaller(assertion).marshall(assertion);
-			Signer.signObject(signature);
-		} catch (MarshallingException | SignatureException e) {
-			throw new RuntimeException("アサーションの署名に失敗しました", e);
+			// XML署名の構文とプロファイルが正しいか検証
+			new SAMLSignatureProfileValidator().validate(artifactResolve.getSignature());
+
+			// IdP が受け入れる署名方式であることを確認（弱い方式へのダウングレードを防ぐ）
+			failureReason = "algorithm-not-accepted";
+			signaturePolicy.requireAccepted(artifactResolve.getSignature());
+
+			// SP の公開鍵を使用して署名を数学的に検証
+			failureReason = "invalid-signature";
+			validateWithAnyCredential(artifactResolve, entity.serviceProvider().signingCredentials());
+		} catch (SignatureException e) {
+			rejectRequester(artifactResolve, failureReason, "署名の検証に失敗しました");
+			return false;
 		}
+		metrics.record(SsoPhase.REQUESTER_AUTHENTICATION, start);
+		return true;
 	}
 
-	/**
-	 * ユーザーの認証情報や属性を含むアサーションを詳細に構築します。
-	 */
-	private Assertion buildAssertion() {
-		Assertion assertion = OpenSAMLUtils.buildSAMLObject(Assertion.class);
-		
-		Issuer issuer = OpenSAMLUtils.buildSAMLObject(Issuer.class);
-		issuer.setValue(IDPConstants.IDP_ENTITY_ID);
-		assertion.setIssuer(issuer);
-		assertion.setIssueInstant(Instant.now());
-		assertion.setID(OpenSAMLUtils.generateSecureRandomId());
-
-		// 認証対象(Subject)の設定
-		Subject subject = OpenSAMLUtils.buildSAMLObject(Subject.class);
-		assertion.setSubject(subject);
-		
-		// 名前 ID (NameID) の設定。ここではダミー値を設定。
-		NameID nameID = OpenSAMLUtils.buildSAMLObject(NameID.class);
-		nameID.setFormat(NameIDType.TRANSIENT);
-		nameID.setValue("bob-at-idp-demo");
-		nameID.setSPNameQualifier(SPConstants.SP_ENTITY_ID);
-		nameID.setNameQualifier(IDPConstants.IDP_ENTITY_ID);
-		subject.setNameID(nameID);
-
-		// 認証の有効性(SubjectConfirmation)を設定
-		subject.getSubjectConfirmations().add(buildSubjectConfirmation());
-		
-		// 有効期限や対象範囲(Conditions)の設定
-		assertion.setConditions(buildConditions());
-		
-		// ユーザー属性(AttributeStatement)と認証情報(AuthnStatement)の設定
-		assertion.getAttributeStatements().add(buildAttributeStatement());
-		assertion.getAuthnStatements().add(buildAuthnStatement());
-
-		return assertion;
+	private void rejectRequester(ArtifactResolve artifactResolve, String reason, String message) {
+		metrics.failure(SsoPhase.REQUESTER_AUTHENTICATION, reason);
+		logger.warn("ArtifactResolutionServlet: 要求元を認証できないため解決要求を拒否しました ({})。", reason);
+		messageCapture.captureFailure(MessageType.ARTIFACT_RESOLVE, artifactResolve, message);
 	}
 
 	/**
-	 * SubjectConfirmationの構築
+	 * メタデータの鍵のいずれかで署名を検証します。すべての鍵で失敗した場合は最後の例外をスローします。
 	 */
-	private SubjectConfirmation buildSubjectConfirmation() {
-		SubjectConfirmation subjectConfirmation = OpenSAMLUtils.buildSAMLObject(SubjectConfirmation.class);
-		subjectConfirmation.setMethod(SubjectConfirmation.METHOD_BEARER);
-
-		SubjectConfirmationData subjectConfirmationData = OpenSAMLUtils.buildSAMLObject(SubjectConfirmationData.class);
-		subjectConfirmationData.setInResponseTo("AuthnRequest-ID-Check-Skipped-In-Demo");
-		subjectConfirmationData.setInResponseTo(null); // デモ用
-		subjectConfirmationData.setNotBefore(Instant.now());
-		subjectConfirmationData.setNotOnOrAfter(Instant.now().plus(10, ChronoUnit.MINUTES));
-		subjectConfirmationData.setRecipient(SPConstants.ASSERTION_CONSUMER_SERVICE);
-
-		subjectConfirmation.setSubjectConfirmationData(subjectConfirmationData);
-
-		return subjectConfirmation;
-	}
-
-	/**
-	 * AuthnStatementの構築
-	 */
-	private AuthnStatement buildAuthnStatement() {
-		AuthnStatement authnStatement = OpenSAMLUtils.buildSAMLObject(AuthnStatement.class);
-		AuthnContext authnContext = OpenSAMLUtils.buildSAMLObject(AuthnContext.class);
-		AuthnContextClassRef authnContextClassRef = OpenSAMLUtils.buildSAMLObject(AuthnContextClassRef.class);
-		
-		// スマートカード認証相当の結果として設定
-		authnContextClassRef.setURI(AuthnContext.SMARTCARD_AUTHN_CTX);
-		authnContext.setAuthnContextClassRef(authnContextClassRef);
-		authnStatement.setAuthnContext(authnContext);
-		authnStatement.setAuthnInstant(Instant.now());
-
-		return authnStatement;
+	private static void validateWithAnyCredential(ArtifactResolve artifactResolve, List<Credential> credentials)
+			throws SignatureException {
+		SignatureException lastFailure = null;
+		for (Credential credential : credentials) {
+			try {
+				SignatureValidator.validate(artifactResolve.getSignature(), credential);
+				return;
+			} catch (SignatureException e) {
+				lastFailure = e;
+			}
+		}
+		throw lastFailure;
 	}
 
 	/**
-	 * Conditionsの構築
+	 * ArtifactResolve に含まれるアーティファクトのうち、認証済みの要求元 SP に発行したものをストアから取り出します。
+	 * 発行先が異なるアーティファクトはストアに残すため、他の SP が解決要求を送っても消費されません。
+	 * 未登録・解決済み・期限切れ、または要求元 SP が発行先と異なる場合は null を返します。
+	 *
+	 * @throws IllegalStateException 共有ストアの障害で問い合わせできない場合
 	 */
-	private Conditions buildConditions() {
-		Conditions conditions = OpenSAMLUtils.buildSAMLObject(Conditions.class);
-		conditions.setNotBefore(Instant.now());
-		conditions.setNotOnOrAfter(Instant.now().plus(10, ChronoUnit.MINUTES));
-		
-		AudienceRestriction audienceRestriction = OpenSAMLUtils.buildSAMLObject(AudienceRestriction.class);
-		Audience audience = OpenSAMLUtils.buildSAMLObject(Audience.class);
-		audience.setURI(SPConstants.SP_ENTITY_ID);
-		audienceRestriction.getAudiences().add(audience);
-		conditions.getAudienceRestrictions().add(audienceRestriction);
-		
-		return conditions;
+	private ArtifactEntry resolveArtifact(ArtifactResolve artifactResolve) {
+		String artifact = artifactResolve.getArtifact() != null ? artifactResolve.getArtifact().getValue() : null;
+		String requester = artifactResolve.getIssuer().getValue();
+		long start = metrics.start();
+		ArtifactEntry entry;
+		try {
+			entry = artifactStore.take(artifact, requester);
+		} catch (IllegalStateException e) {
+			// 共有ストアの障害（未登録とは区別する）
+			metrics.failure(SsoPhase.ARTIFACT_RESOLVE, "store-unavailable");
+			throw e;
+		}
+		if (entry == null) {
+			metrics.failure(SsoPhase.ARTIFACT_RESOLVE, "unknown-artifact");
+			logger.warn("ArtifactResolutionServlet: アーティファクトを解決できませんでした（未登録・解決済み・期限切れ・発行先と異なる SP）。");
+			return null;
+		}
+		metrics.record(SsoPhase.ARTIFACT_RESOLVE, start);
+		return entry;
 	}
 
 	/**
-	 * ユーザーの属性（ユーザー名、役割など）を構築します。
+	 * SAML レスポンスの階層構造を構築します。
+	 * ArtifactResponse -> Response -> EncryptedAssertion という構造になります。
+	 * 不変部分は SP ごとのテンプレートとして事前構築済みで、ここでは ID・日時・ユーザー情報のみを埋め込みます。
+	 * テンプレートの複製から署名・暗号化までを DOM のまま行い、XMLObject へのアンマーシャリングは行いません。
+	 * アーティファクトを解決できなかった場合は、仕様に従いメッセージを含まない成功ステータスの ArtifactResponse を返します。
 	 */
-	private AttributeStatement buildAttributeStatement() {
-		AttributeStatement attributeStatement = OpenSAMLUtils.buildSAMLObject(AttributeStatement.class);
-
-		// ユーザー名属性の追加
-		Attribute attributeUserName = OpenSAMLUtils.buildSAMLObject(Attribute.class);
-		XSStringBuilder stringBuilder = (XSStringBuilder) XMLObjectProviderRegistrySupport.getBuilderFactory()
-				.getBuilder(XSString.TYPE_NAME);
-		XSString userNameValue = stringBuilder.buildObject(AttributeValue.DEFAULT_ELEMENT_NAME, XSString.TYPE_NAME);
-		userNameValue.setValue("bob");
-		attributeUserName.getAttributeValues().add(userNameValue);
-		attributeUserName.setName("username");
-		attributeStatement.getAttributes().add(attributeUserName);
-
-		// 役割や追加情報の追加
-		Attribute attributeRole = OpenSAMLUtils.buildSAMLObject(Attribute.class);
-		XSString roleValue = stringBuilder.buildObject(AttributeValue.DEFAULT_ELEMENT_NAME, XSString.TYPE_NAME);
-		roleValue.setValue("Administrator");
-		attributeRole.getAttributeValues().add(roleValue);
-		attributeRole.setName("role");
-		attributeStatement.getAttributes().add(attributeRole);
+	private Element buildArtifactResponse(ArtifactResolve artifactResolve, ArtifactEntry entry) {
+		if (entry == null) {
+			// 解決失敗はまれなため、テンプレートを使わずに構築する（任意の要求元ごとにテンプレートを作らないため）。
+			// 要求元の ACS は確認していないため Destination は設定しない（SOAP の応答では省略可能）
+			try {
+				return OpenSAMLUtils.marshall(RelyingPartyTemplates.buildArtifactResponse(IDPConstants.IDP_ENTITY_ID,
+						null, OpenSAMLUtils.generateSecureRandomId(), Instant.now(), artifactResolve.getID(), null));
+			} catch (MarshallingException e) {
+				throw new RuntimeException("ArtifactResponse のマーシャリングに失敗しました", e);
+			}
+		}
 
-		return attributeStatement;
+		RelyingPartyTemplates templates = templateRegistry.forRelyingParty(entry.relyingPartyId(),
+				SAMLConstants.SAML2_ARTIFACT_BINDING_URI);
+		// アサーションの生成、署名、および暗号化（HTTP-POST バインディングと共通）
+		Element encryptedAssertion = assertionIssuer.issue(templates, entry);
+		return templates.newArtifactResponseElement(artifactResolve.getID(), encryptedAssertion);
 	}
 }
@@ -0,0 +1,91 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.idp;
+
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.security.SecurityException;
+import org.opensaml.xmlsec.signature.support.SignatureException;
+import org.opensaml.xmlsec.signature.support.SignatureSupport;
+import org.w3c.dom.Element;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.OpenSAMLUtils;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact.ArtifactEntry;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.encryption.EncryptionProfileRegistry;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.template.RelyingPartyTemplates;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metrics.SsoFlowMetrics;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metrics.SsoPhase;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.security.SignatureAlgorithmPolicy;
+
+/**
+ * 認証結果から署名・暗号化済みのアサーションを発行します。
+ *
+ * Artifact Resolution Service（HTTP-Artifact バインディング）と SSO エンドポイント（HTTP-POST バインディング）で共有し、
+ * どちらのバインディングでも同じテンプレート・署名方式・暗号化プロファイルを使用します。
+ */
+public class AssertionIssuer {
+	// IdP の署名方式（起動時に SP が受け入れる方式と照合済み）
+	private final SignatureAlgorithmPolicy signaturePolicy;
+	// SP ごとに事前構築したアサーションの暗号化プロファイル
+	private final EncryptionProfileRegistry encryptionProfiles;
+	// SSO フローのフェーズごとの所要時間と失敗数
+	private final SsoFlowMetrics metrics;
+
+	/**
+	 * @param signaturePolicy    IdP の署名方式のポリシー
+	 * @param encryptionProfiles SP ごとの暗号化プロファイル
+	 * @param metrics            SSO フローのフェーズごとのメトリクス
+	 */
+	public AssertionIssuer(SignatureAlgorithmPolicy signaturePolicy, EncryptionProfileRegistry encryptionProfiles,
+			SsoFlowMetrics metrics) {
+		this.signaturePolicy = signaturePolicy;
+		this.encryptionProfiles = encryptionProfiles;
+		this.metrics = metrics;
+	}
+
+	/**
+	 * 認証結果からアサーションを生成し、署名したうえで SP の暗号化プロファイルで暗号化します。
+	 * アサーションはテンプレートから生成し、OpenSAML の Signer で署名・Encrypter で暗号化します。
+	 *
+	 * @param templates アサーションを格納するメッセージと同じ SP・ACS 向けのテンプレート（Recipient を宛先と揃えるため）
+	 * @param entry     アサーションに含める認証結果
+	 * @return EncryptedAssertion の要素
+	 */
+	public Element issue(RelyingPartyTemplates templates, ArtifactEntry entry) {
+		long start = metrics.start();
+		Assertion assertion = templates.newAssertion(entry);
+		metrics.record(SsoPhase.ASSERTION_BUILD, start);
+
+		start = metrics.start();
+		signAssertion(assertion); // 1. 署名
+		metrics.record(SsoPhase.SIGN, start);
+
+		start = metrics.start();
+		Element encryptedAssertion;
+		try {
+			// 2. SP の暗号化プロファイルで暗号化
+			encryptedAssertion = OpenSAMLUtils.marshall(
+					encryptionProfiles.forRelyingParty(entry.relyingPartyId()).encrypt(assertion));
+		} catch (MarshallingException e) {
+			metrics.failure(SsoPhase.ENCRYPT, "encryption-failed");
+			throw new RuntimeException("暗号化したアサーションを DOM に変換できません", e);
+		} catch (RuntimeException e) {
+			metrics.failure(SsoPhase.ENCRYPT, "encryption-failed");
+			throw e;
+		}
+		metrics.record(SsoPhase.ENCRYPT, start);
+		return encryptedAssertion;
+	}
+
+	/**
+	 * IdP の秘密鍵を使用してアサーションにデジタル署名を付与します。
+	 * 署名方式・KeyInfo は起動時に決定した署名パラメータ（IdP の鍵で使用でき、SP が受け入れる方式）を使用し、
+	 * 署名の配置・参照・exc-c14n の InclusiveNamespaces は OpenSAML の Signer に任せます。
+	 */
+	private void signAssertion(Assertion assertion) {
+		try {
+			SignatureSupport.signObject(assertion, signaturePolicy.getSigningParameters());
+		} catch (SecurityException | MarshallingException | SignatureException e) {
+			metrics.failure(SsoPhase.SIGN, "signing-failed");
+			throw new RuntimeException("アサーションの署名に失敗しました", e);
+		}
+	}
+}
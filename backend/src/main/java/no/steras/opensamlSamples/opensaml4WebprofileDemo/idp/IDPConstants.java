@@ -4,6 +4,7 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
 import jakarta.annotation.PostConstruct;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.security.SigningKeyType;
 
 /**
  * IDP定数クラス
@@ -16,14 +17,19 @@ public class IDPConstants {
     @Value("${app.idp-entity-id}")
     private String idpEntityId;
 
+    @Value("${app.idp.signing.key-type}")
+    private SigningKeyType signingKeyType;
+
     public static String IDP_ENTITY_ID;
     public static String SSO_SERVICE;
     public static String ARTIFACT_RESOLUTION_SERVICE;
+    public static SigningKeyType SIGNING_KEY_TYPE;
 
     @PostConstruct
     public void init() {
         IDP_ENTITY_ID = idpEntityId;
         SSO_SERVICE = baseUrl + "/opensaml5-webprofile-demo/idp/singleSignOnService";
         ARTIFACT_RESOLUTION_SERVICE = baseUrl + "/opensaml5-webprofile-demo/idp/artifactResolutionService";
+        SIGNING_KEY_TYPE = signingKeyType;
     }
 }
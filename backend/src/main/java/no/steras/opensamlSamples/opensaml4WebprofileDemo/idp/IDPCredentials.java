@@ -2,11 +2,14 @@ package no.steras.opensamlSamples.opensaml4WebprofileDemo.idp;
 
 import org.opensaml.security.credential.Credential;
 import org.opensaml.security.credential.CredentialSupport;
-import org.opensaml.security.crypto.KeySupport;
 import java.security.*;
 
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.security.SigningKeyType;
+
 /**
  * IDP用資格情報クラス
+ * 鍵の種類は初回アクセス時の {@link IDPConstants#SIGNING_KEY_TYPE} で決まります。
+ * 未設定のまま参照した場合は、設定と異なる種類の鍵で署名しないよう初期化に失敗します。
  */
 public class IDPCredentials {
     private static final Credential credential;
@@ -19,15 +22,13 @@ public class IDPCredentials {
      * 資格情報の生成
      */
     private static Credential generateCredential() {
-        try {
-            // キーペアの生成
-            KeyPair keyPair = KeySupport.generateKeyPair("RSA", 1024, null);
-            return CredentialSupport.getSimpleCredential(keyPair.getPublic(), keyPair.getPrivate());
-        } catch (NoSuchAlgorithmException e) {
-            throw new RuntimeException(e);
-        } catch (NoSuchProviderException e) {
-            throw new RuntimeException(e);
+        // キーペアの生成
+        SigningKeyType keyType = IDPConstants.SIGNING_KEY_TYPE;
+        if (keyType == null) {
+            throw new IllegalStateException("IdP の署名用の鍵の種類 (app.idp.signing.key-type) が初期化されていません");
         }
+        KeyPair keyPair = keyType.generateKeyPair();
+        return CredentialSupport.getSimpleCredential(keyPair.getPublic(), keyPair.getPrivate());
     }
 
     /**
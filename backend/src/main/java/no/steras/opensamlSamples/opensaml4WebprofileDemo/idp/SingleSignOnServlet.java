@@ -1,9 +1,41 @@
 package no.steras.opensamlSamples.opensaml4WebprofileDemo.idp;
 
+import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.messaging.decoder.MessageDecodingException;
+import org.opensaml.messaging.encoder.MessageEncodingException;
+import org.opensaml.saml.common.binding.SAMLBindingSupport;
+import org.opensaml.saml.common.messaging.context.SAMLEndpointContext;
+import org.opensaml.saml.common.messaging.context.SAMLPeerEntityContext;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.saml2.binding.decoding.impl.HTTPRedirectDeflateDecoder;
+import org.opensaml.saml.saml2.binding.encoding.impl.HTTPPostEncoder;
+import org.opensaml.saml.saml2.core.AuthnRequest;
+import org.opensaml.saml.saml2.core.Response;
+import org.opensaml.saml.saml2.metadata.AssertionConsumerService;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.xmlsec.signature.support.SignatureException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
 
-import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.SPConstants;
+import net.shibboleth.shared.codec.HTMLEncoder;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.OpenSAMLUtils;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact.ArtifactEntry;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact.ArtifactIssuer;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.binding.ResponseBinding;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.binding.ResponseBindingRegistry;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.template.RelyingPartyTemplates;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.template.ResponseTemplateRegistry;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata.EntityMetadata;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata.MetadataResolver;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metrics.SsoFlowMetrics;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metrics.SsoPhase;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.security.SignatureAlgorithmPolicy;
 
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServlet;
@@ -11,51 +43,347 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Signature;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
 
 /**
  * Identity Provider (IdP) 側の Single Sign-On (SSO) エンドポイント。
- * 
+ *
  * 役割:
- * 1. ユーザー（ブラウザ）からの認証リクエストを受信。
+ * 1. ユーザー（ブラウザ）からの認証リクエストを受信し、Issuer が示す SP のメタデータの鍵でクエリ文字列の署名を検証。
  * 2. ユーザーを認証（このデモでは単純なボタンクリックで代用）。
- * 3. 認証成功後、SAML アーティファクトを生成して SP へリダイレクト。
+ * 3. 認証成功後、SP ごとに選択したバインディングで認証結果を SP へ返す。
+ *    - Artifact: SAML アーティファクトを生成して SP へリダイレクト（SP がバックチャネルで Response を取得）
+ *    - POST: 署名・暗号化済みの Response を自動送信フォームで SP の ACS へ直接 POST
  */
 public class SingleSignOnServlet extends HttpServlet {
     private static Logger logger = LoggerFactory.getLogger(SingleSignOnServlet.class);
 
+    // このデモで認証済みとして扱うユーザー
+    private static final String DEMO_PRINCIPAL = "bob";
+
+    // 認証画面から認証 POST へ AuthnRequest の内容を引き継ぐフォームのフィールド名
+    private static final String AUTHN_REQUEST_ID_PARAMETER = "AuthnRequestID";
+    private static final String RELYING_PARTY_PARAMETER = "RelyingParty";
+    private static final String PROTOCOL_BINDING_PARAMETER = "ProtocolBinding";
+    private static final String RELAY_STATE_PARAMETER = "RelayState";
+
+    // アーティファクトストアに保存できなかった場合に返す Retry-After（秒）
+    private static final String ARTIFACT_STORE_RETRY_AFTER_SECONDS = "1";
+
+    private final ArtifactIssuer artifactIssuer;
+    // SP ごとのレスポンスバインディング
+    private final ResponseBindingRegistry bindingRegistry;
+    // SP ごとに事前構築したレスポンステンプレート（ACS の宛先と HTTP-POST バインディングの Response 用）
+    private final ResponseTemplateRegistry templateRegistry;
+    // 署名・暗号化済みのアサーションの発行（Artifact Resolution Service と共有）
+    private final AssertionIssuer assertionIssuer;
+    // HTTP-POST バインディングの自動送信フォームのテンプレートエンジン（起動時に一度だけ初期化）
+    private final VelocityEngine velocityEngine;
+    // SSO フローのフェーズごとの所要時間と失敗数
+    private final SsoFlowMetrics metrics;
+    // 要求元 SP の登録と署名検証用の鍵の参照先
+    private final MetadataResolver metadataResolver;
+    // IdP が受け入れる署名方式（AuthnRequest の署名の方式の確認に使用）
+    private final SignatureAlgorithmPolicy signaturePolicy;
+
+    /**
+     * @param artifactIssuer   認証成功時にアーティファクトを発行するコンポーネント
+     * @param bindingRegistry  SP ごとのレスポンスバインディング
+     * @param templateRegistry SP ごとのレスポンステンプレート
+     * @param assertionIssuer  署名・暗号化済みのアサーションを発行するコンポーネント
+     * @param metrics          SSO フローのフェーズごとのメトリクス
+     * @param metadataResolver 要求元 SP の登録と署名検証用の鍵の参照先
+     * @param signaturePolicy  IdP の署名方式のポリシー（AuthnRequest の署名の方式を確認する）
+     */
+    public SingleSignOnServlet(ArtifactIssuer artifactIssuer, ResponseBindingRegistry bindingRegistry,
+            ResponseTemplateRegistry templateRegistry, AssertionIssuer assertionIssuer, SsoFlowMetrics metrics,
+            MetadataResolver metadataResolver, SignatureAlgorithmPolicy signaturePolicy) {
+        this.artifactIssuer = artifactIssuer;
+        this.bindingRegistry = bindingRegistry;
+        this.templateRegistry = templateRegistry;
+        this.assertionIssuer = assertionIssuer;
+        this.metrics = metrics;
+        this.metadataResolver = metadataResolver;
+        this.signaturePolicy = signaturePolicy;
+        this.velocityEngine = newVelocityEngine();
+    }
+
     /**
      * 認証ページを表示します。
      * 実際にはここで ID/パスワード入力画面などが表示されます。
+     * AuthnRequest の要求元 SP（Issuer）・ID・要求されたバインディング・RelayState は、認証 POST へ hidden フィールドで引き継ぎます。
+     * AuthnRequest でないメッセージ、メタデータに登録されていない SP、署名を検証できない要求には 400 を返します。
      */
     @Override
     protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
         logger.info("SingleSignOnServlet: SP から AuthnRequest を受信しました。認証画面を表示します。");
+
+        StringBuilder hiddenFields = new StringBuilder();
+        if (req.getParameter("SAMLRequest") != null) {
+            long start = metrics.start();
+            MessageContext context = decodeAuthnRequest(req);
+            if (context == null || !(context.getMessage() instanceof AuthnRequest authnRequest)) {
+                rejectAuthnRequest(resp, context == null ? "decode" : "not-authn-request", "AuthnRequest ではありません");
+                return;
+            }
+
+            String relyingParty = authnRequest.getIssuer() != null ? authnRequest.getIssuer().getValue() : null;
+            EntityMetadata.ServiceProvider serviceProvider = relyingParty != null
+                    ? metadataResolver.getServiceProvider(relyingParty) : null;
+            if (serviceProvider == null || serviceProvider.signingCredentials().isEmpty()) {
+                rejectAuthnRequest(resp, "unknown-relying-party", "要求元 SP の署名検証用の鍵がメタデータにありません");
+                return;
+            }
+            String failureReason = verifyQuerySignature(req, serviceProvider.signingCredentials());
+            if (failureReason != null) {
+                rejectAuthnRequest(resp, failureReason, "AuthnRequest の署名の検証に失敗しました");
+                return;
+            }
+            metrics.record(SsoPhase.AUTHN_REQUEST_VERIFY, start);
+
+            appendHiddenField(hiddenFields, RELYING_PARTY_PARAMETER, relyingParty);
+            appendHiddenField(hiddenFields, AUTHN_REQUEST_ID_PARAMETER, authnRequest.getID());
+            appendHiddenField(hiddenFields, PROTOCOL_BINDING_PARAMETER, authnRequest.getProtocolBinding());
+            appendHiddenField(hiddenFields, RELAY_STATE_PARAMETER, SAMLBindingSupport.getRelayState(context));
+        }
+
         Writer w = resp.getWriter();
         resp.setContentType("text/html");
-        w.append("<html>" + "<head><title>IdP Login</title></head>" 
+        w.append("<html>" + "<head><title>IdP Login</title></head>"
                 + "<body>"
                 + "<h1>OpenSAML Demo IdP</h1>"
                 + "<p>あなたは現在 IdP にリダイレクトされています。下のボタンを押して「認証」を完了してください。</p>"
                 + "<form method=\"POST\">"
-                + "<input type=\"submit\" value=\"Authenticate / 認証完了\"/>" 
-                + "</form>" 
+                + hiddenFields
+                + "<input type=\"submit\" value=\"Authenticate / 認証完了\"/>"
+                + "</form>"
                 + "</body>" + "</html>");
     }
 
     /**
-     * ユーザーが認証に成功したとみなし、SAML アーティファクトを発行して SP へ戻します。
+     * ユーザーが認証に成功したとみなし、SP ごとに選択したバインディングで認証結果を SP へ返します。
+     * 宛先の SP は AuthnRequest の Issuer（認証画面から引き継いだ値）とし、メタデータに登録されていない場合は 400 を返します。
+     * AuthnRequest の ID はどちらのバインディングでもアサーションの SubjectConfirmationData に設定します。
      */
     @Override
     protected void doPost(final HttpServletRequest req, final HttpServletResponse resp) throws ServletException, IOException {
-        logger.info("SingleSignOnServlet: 認証が成功しました。SAML アーティファクトを発行します。");
-
-        // 本来はランダムなアーティファクトを動的に生成し、セッション/DBに保存しますが、
-        // このデモでは固定のアーティファクト値を使用して SP の ACS URL へリダイレクトします。
-        // SP 側はこの値をキーにして、後ほどバックチャネルで問い合わせに来ます。
-        String artifactValue = "AAQAAMFbLinlXaCM%2BFIxiDwGOLAy2T71gbpO7ZhNzAgEANlB90ECfpNEVLg%3D";
-        String redirectUrl = SPConstants.ASSERTION_CONSUMER_SERVICE + "?SAMLart=" + artifactValue;
-        
-        logger.info("ユーザーを SP の ACS ({}) へ送り返します。", SPConstants.ASSERTION_CONSUMER_SERVICE);
+        String relyingParty = req.getParameter(RELYING_PARTY_PARAMETER);
+        if (relyingParty == null || relyingParty.isBlank()) {
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "AuthnRequest が見つかりません");
+            return;
+        }
+        if (metadataResolver.getServiceProvider(relyingParty) == null) {
+            logger.warn("SingleSignOnServlet: メタデータに登録されていない SP ({}) への応答を拒否しました。", relyingParty);
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "SP がメタデータに登録されていません");
+            return;
+        }
+
+        ArtifactEntry entry = new ArtifactEntry(relyingParty, DEMO_PRINCIPAL, Instant.now(),
+                req.getParameter(AUTHN_REQUEST_ID_PARAMETER));
+        ResponseBinding binding = bindingRegistry.select(entry.relyingPartyId(),
+                req.getParameter(PROTOCOL_BINDING_PARAMETER));
+
+        if (binding == ResponseBinding.POST) {
+            logger.info("SingleSignOnServlet: 認証が成功しました。Response を HTTP-POST バインディングで返します。");
+            sendResponseWithPost(req, resp, entry);
+        } else {
+            logger.info("SingleSignOnServlet: 認証が成功しました。SAML アーティファクトを発行します。");
+            redirectWithArtifact(resp, entry);
+        }
+    }
+
+    /**
+     * 認証結果をアーティファクトストアに保存し、Type 0x0004 アーティファクトを付けて SP の ACS へリダイレクトします。
+     * ストアに保存できない場合（保持数の上限超過・共有ストアの障害）は、失敗を記録して 503 と Retry-After を返します。
+     */
+    private void redirectWithArtifact(HttpServletResponse resp, ArtifactEntry entry) throws IOException {
+        // SP 側はこの値をキーにして、後ほどバックチャネルで問い合わせに来ます（一度だけ解決可能）。
+        long start = metrics.start();
+        String artifactValue;
+        try {
+            artifactValue = artifactIssuer.issue(entry);
+        } catch (IllegalStateException e) {
+            metrics.failure(SsoPhase.ARTIFACT_ISSUE, "store-unavailable");
+            logger.warn("SingleSignOnServlet: アーティファクトを保存できませんでした: {}", e.getMessage());
+            resp.setHeader("Retry-After", ARTIFACT_STORE_RETRY_AFTER_SECONDS);
+            resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "混雑しています。しばらくしてから再度お試しください");
+            return;
+        }
+        metrics.record(SsoPhase.ARTIFACT_ISSUE, start);
+        String acsUrl = templateRegistry.forRelyingParty(entry.relyingPartyId(),
+                SAMLConstants.SAML2_ARTIFACT_BINDING_URI).getAssertionConsumerService();
+        String redirectUrl = acsUrl + "?SAMLart=" + URLEncoder.encode(artifactValue, StandardCharsets.UTF_8);
+
+        logger.info("ユーザーを SP の ACS ({}) へ送り返します。", acsUrl);
         resp.sendRedirect(redirectUrl);
     }
+
+    /**
+     * 署名・暗号化済みのアサーションを含む Response を構築し、SP の ACS へ自動送信するフォームを返します。
+     * SP はフォームの内容だけで検証を完結できるため、バックチャネル通信とアーティファクトの保存・解決が不要です。
+     */
+    private void sendResponseWithPost(HttpServletRequest req, HttpServletResponse resp, ArtifactEntry entry)
+            throws IOException {
+        String inResponseTo = entry.inResponseTo();
+        if (inResponseTo == null || inResponseTo.isBlank()) {
+            // SP は InResponseTo を検証するため、AuthnRequest なし（IdP 起点）の Response は送らない
+            resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "AuthnRequest が見つかりません");
+            return;
+        }
+
+        RelyingPartyTemplates templates = templateRegistry.forRelyingParty(entry.relyingPartyId(),
+                SAMLConstants.SAML2_POST_BINDING_URI);
+        Element encryptedAssertion = assertionIssuer.issue(templates, entry);
+
+        long start = metrics.start();
+        // HTTPPostEncoder はキャッシュ済みの DOM をそのままシリアライズするため、Response は DOM だけを保持する
+        // XMLObject に包んで渡す（テンプレートから構築した DOM をアンマーシャリングしない）
+        Response response = OpenSAMLUtils.buildSAMLObject(Response.class);
+        response.setDOM(templates.newResponseElement(inResponseTo, encryptedAssertion));
+        MessageContext context = new MessageContext();
+        context.setMessage(response);
+        SAMLBindingSupport.setRelayState(context, req.getParameter(RELAY_STATE_PARAMETER));
+
+        SAMLPeerEntityContext peerEntityContext = context.getSubcontext(SAMLPeerEntityContext.class, true);
+        SAMLEndpointContext endpointContext = peerEntityContext.getSubcontext(SAMLEndpointContext.class, true);
+        endpointContext.setEndpoint(buildAssertionConsumerEndpoint(templates.getAssertionConsumerService()));
+
+        HTTPPostEncoder encoder = new HTTPPostEncoder();
+        encoder.setHttpServletResponseSupplier(() -> resp);
+        encoder.setMessageContext(context);
+        encoder.setVelocityEngine(velocityEngine);
+
+        try {
+            encoder.initialize();
+            encoder.encode();
+        } catch (ComponentInitializationException | MessageEncodingException e) {
+            metrics.failure(SsoPhase.POST_ENCODE, "encode");
+            throw new RuntimeException("HTTP-POST バインディングのエンコードに失敗しました", e);
+        }
+        metrics.record(SsoPhase.POST_ENCODE, start);
+        logger.info("Response を SP の ACS ({}) へ POST するフォームを返しました。", templates.getAssertionConsumerService());
+    }
+
+    /**
+     * HTTP-Redirect バインディングで送られた AuthnRequest をデコードします（RelayState もコンテキストに格納されます）。
+     *
+     * @return デコードできない場合は null
+     */
+    private MessageContext decodeAuthnRequest(HttpServletRequest req) {
+        HTTPRedirectDeflateDecoder decoder = new HTTPRedirectDeflateDecoder();
+        decoder.setHttpServletRequestSupplier(() -> req);
+        try {
+            // アプリケーション共有のパーサープールを使用（リクエストごとに生成しない）
+            decoder.setParserPool(XMLObjectProviderRegistrySupport.getParserPool());
+            decoder.initialize();
+            decoder.decode();
+        } catch (MessageDecodingException | ComponentInitializationException e) {
+            logger.debug("AuthnRequest のデコードに失敗しました", e);
+            return null;
+        }
+        return decoder.getMessageContext();
+    }
+
+    /**
+     * HTTP-Redirect バインディングのクエリ文字列の署名を、要求元 SP のメタデータの鍵のいずれかで検証します。
+     * 署名対象は受信したままの（URL エンコードされた）SAMLRequest / RelayState / SigAlg をこの順に "&" でつないだ文字列です。
+     * 各パラメータは getParameter と同じく最初に現れたものを使用します（デコードした AuthnRequest と同じ値を検証するため）。
+     *
+     * @return 検証に成功した場合は null、失敗した場合は失敗理由（メトリクスのタグ）
+     */
+    private String verifyQuerySignature(HttpServletRequest req, List<Credential> credentials) {
+        String samlRequest = null;
+        String relayState = null;
+        String sigAlg = null;
+        String signature = null;
+        String query = req.getQueryString();
+        for (String pair : query != null ? query.split("&") : new String[0]) {
+            String name = pair.indexOf('=') < 0 ? pair : pair.substring(0, pair.indexOf('='));
+            switch (name) {
+                case "SAMLRequest" -> samlRequest = samlRequest != null ? samlRequest : pair;
+                case "RelayState" -> relayState = relayState != null ? relayState : pair;
+                case "SigAlg" -> sigAlg = sigAlg != null ? sigAlg : pair;
+                case "Signature" -> signature = signature != null ? signature : pair;
+                default -> {
+                }
+            }
+        }
+        if (samlRequest == null || sigAlg == null || signature == null) {
+            return "unsigned";
+        }
+
+        String algorithm = URLDecoder.decode(sigAlg.substring("SigAlg=".length()), StandardCharsets.UTF_8);
+        try {
+            // IdP が受け入れる署名方式であることを確認（弱い方式へのダウングレードを防ぐ）
+            signaturePolicy.requireAccepted(algorithm);
+        } catch (SignatureException e) {
+            return "algorithm-not-accepted";
+        }
+
+        byte[] signedContent = (samlRequest + (relayState != null ? "&" + relayState : "") + "&" + sigAlg)
+                .getBytes(StandardCharsets.UTF_8);
+        byte[] signatureValue;
+        try {
+            signatureValue = Base64.getMimeDecoder().decode(
+                    URLDecoder.decode(signature.substring("Signature=".length()), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            return "invalid-signature";
+        }
+
+        String jcaAlgorithm = SignatureAlgorithmPolicy.jcaAlgorithm(algorithm);
+        for (Credential credential : credentials) {
+            try {
+                Signature verifier = Signature.getInstance(jcaAlgorithm);
+                verifier.initVerify(credential.getPublicKey());
+                verifier.update(signedContent);
+                if (verifier.verify(signatureValue)) {
+                    return null;
+                }
+            } catch (GeneralSecurityException e) {
+                // 鍵の種類が署名方式と異なる場合など。次の鍵で検証する
+                logger.debug("AuthnRequest の署名をこの鍵で検証できません", e);
+            }
+        }
+        return "invalid-signature";
+    }
+
+    private void rejectAuthnRequest(HttpServletResponse resp, String reason, String message) throws IOException {
+        metrics.failure(SsoPhase.AUTHN_REQUEST_VERIFY, reason);
+        logger.warn("SingleSignOnServlet: AuthnRequest を拒否しました ({})。", reason);
+        resp.sendError(HttpServletResponse.SC_BAD_REQUEST, message);
+    }
+
+    private static void appendHiddenField(StringBuilder fields, String name, String value) {
+        if (value != null) {
+            fields.append("<input type=\"hidden\" name=\"").append(name)
+                    .append("\" value=\"").append(HTMLEncoder.encodeForHTMLAttribute(value)).append("\"/>");
+        }
+    }
+
+    private static AssertionConsumerService buildAssertionConsumerEndpoint(String acsUrl) {
+        AssertionConsumerService endpoint = OpenSAMLUtils.buildSAMLObject(AssertionConsumerService.class);
+        endpoint.setBinding(SAMLConstants.SAML2_POST_BINDING_URI);
+        endpoint.setLocation(acsUrl);
+        return endpoint;
+    }
+
+    /**
+     * OpenSAML 同梱の HTTP-POST バインディングのテンプレート（/templates/saml2-post-binding.vm）を
+     * クラスパスから読み込むテンプレートエンジンを構築します。
+     */
+    private static VelocityEngine newVelocityEngine() {
+        VelocityEngine engine = new VelocityEngine();
+        engine.setProperty(RuntimeConstants.INPUT_ENCODING, StandardCharsets.UTF_8.name());
+        engine.setProperty(RuntimeConstants.RESOURCE_LOADERS, "classpath");
+        engine.setProperty("resource.loader.classpath.class", ClasspathResourceLoader.class.getName());
+        engine.init();
+        return engine;
+    }
 }
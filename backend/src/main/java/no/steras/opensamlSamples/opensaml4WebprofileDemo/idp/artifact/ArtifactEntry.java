@@ -0,0 +1,22 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact;
+
+import java.time.Instant;
+
+/**
+ * アーティファクトに紐づけて IdP に保存する認証結果。
+ * XML 文字列ではなく、アサーションの組み立てに必要な値だけを保持します。
+ *
+ * @param relyingPartyId アーティファクトの発行先 SP のエンティティ ID
+ * @param principal      認証されたユーザー名
+ * @param authnInstant   ユーザーが認証された時刻
+ * @param inResponseTo   応答対象の AuthnRequest の ID（IdP 起点のログインなど要求がない場合は null）
+ */
+public record ArtifactEntry(String relyingPartyId, String principal, Instant authnInstant, String inResponseTo) {
+
+	/**
+	 * 応答対象の AuthnRequest がない認証結果を作成します。
+	 */
+	public ArtifactEntry(String relyingPartyId, String principal, Instant authnInstant) {
+		this(relyingPartyId, principal, authnInstant, null);
+	}
+}
@@ -0,0 +1,79 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * 共有ストアに保存する {@link ArtifactEntry} のコンパクトなバイナリ形式。
+ *
+ * 形式: バージョン (1) + 認証時刻のエポック秒 (8) + ナノ秒 (4)
+ * + SP のエンティティ ID（2 バイトの長さ + UTF-8）+ ユーザー名（2 バイトの長さ + UTF-8）
+ * + AuthnRequest の ID の有無 (1) + AuthnRequest の ID（ある場合のみ、2 バイトの長さ + UTF-8）。
+ * バージョン 1（AuthnRequest の ID なし）の形式も読み込めます（更新中に旧バージョンが保存したエントリのため）。
+ * アサーションの XML ではなく組み立てに必要な値だけを保存するため、1 件あたり 150 バイト程度に収まります。
+ */
+public final class ArtifactEntryCodec {
+	private static final byte VERSION = 2;
+	private static final byte VERSION_WITHOUT_IN_RESPONSE_TO = 1;
+	private static final int MAX_FIELD_LENGTH = 0xFFFF;
+
+	private ArtifactEntryCodec() {
+	}
+
+	public static byte[] encode(ArtifactEntry entry) {
+		byte[] relyingPartyId = entry.relyingPartyId().getBytes(StandardCharsets.UTF_8);
+		byte[] principal = entry.principal().getBytes(StandardCharsets.UTF_8);
+		byte[] inResponseTo = entry.inResponseTo() != null ? entry.inResponseTo().getBytes(StandardCharsets.UTF_8)
+				: new byte[0];
+		if (relyingPartyId.length > MAX_FIELD_LENGTH || principal.length > MAX_FIELD_LENGTH
+				|| inResponseTo.length > MAX_FIELD_LENGTH) {
+			throw new IllegalArgumentException("エンティティ ID、ユーザー名または AuthnRequest の ID が長すぎます");
+		}
+
+		ByteBuffer buffer = ByteBuffer.allocate(1 + 8 + 4 + 2 + relyingPartyId.length + 2 + principal.length + 1
+				+ (entry.inResponseTo() != null ? 2 + inResponseTo.length : 0));
+		buffer.put(VERSION);
+		buffer.putLong(entry.authnInstant().getEpochSecond());
+		buffer.putInt(entry.authnInstant().getNano());
+		buffer.putShort((short) relyingPartyId.length).put(relyingPartyId);
+		buffer.putShort((short) principal.length).put(principal);
+		if (entry.inResponseTo() != null) {
+			buffer.put((byte) 1);
+			buffer.putShort((short) inResponseTo.length).put(inResponseTo);
+		} else {
+			buffer.put((byte) 0);
+		}
+		return buffer.array();
+	}
+
+	/**
+	 * @throws IllegalArgumentException 形式が不正な場合
+	 */
+	public static ArtifactEntry decode(byte[] encoded) {
+		try {
+			ByteBuffer buffer = ByteBuffer.wrap(encoded);
+			byte version = buffer.get();
+			if (version != VERSION && version != VERSION_WITHOUT_IN_RESPONSE_TO) {
+				throw new IllegalArgumentException("未対応のアーティファクトエントリの形式です");
+			}
+			Instant authnInstant = Instant.ofEpochSecond(buffer.getLong(), buffer.getInt());
+			String relyingPartyId = readString(buffer);
+			String principal = readString(buffer);
+			String inResponseTo = version == VERSION && buffer.get() != 0 ? readString(buffer) : null;
+			return new ArtifactEntry(relyingPartyId, principal, authnInstant, inResponseTo);
+		} catch (RuntimeException e) {
+			if (e instanceof IllegalArgumentException illegalArgument) {
+				throw illegalArgument;
+			}
+			throw new IllegalArgumentException("アーティファクトエントリを復元できません", e);
+		}
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = Short.toUnsignedInt(buffer.getShort());
+		String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+		buffer.position(buffer.position() + length);
+		return value;
+	}
+}
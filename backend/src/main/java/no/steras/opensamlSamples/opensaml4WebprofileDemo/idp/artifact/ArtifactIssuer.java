@@ -0,0 +1,62 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.opensaml.saml.saml2.binding.artifact.SAML2ArtifactType0004;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.StripedSecureRandom;
+
+/**
+ * SAML 2.0 の Type 0x0004 アーティファクトを発行し、認証結果をアーティファクトストアへ保存します。
+ *
+ * Type 0x0004 アーティファクトの構成:
+ * TypeCode (0x0004) + EndpointIndex (2 バイト) + SourceID (IdP エンティティ ID の SHA-1, 20 バイト)
+ * + MessageHandle (暗号論的乱数, 20 バイト)
+ */
+public class ArtifactIssuer {
+	// Artifact Resolution Service のエンドポイントインデックス（このデモでは 0 のみ）
+	private static final byte[] ENDPOINT_INDEX = { 0, 0 };
+	private static final int MESSAGE_HANDLE_LENGTH = 20;
+
+	private final byte[] sourceId;
+	private final StripedSecureRandom random = new StripedSecureRandom();
+	private final ArtifactStore artifactStore;
+
+	/**
+	 * @param idpEntityId   SourceID の算出に使用する IdP のエンティティ ID
+	 * @param artifactStore 発行したアーティファクトを保存するストア
+	 */
+	public ArtifactIssuer(String idpEntityId, ArtifactStore artifactStore) {
+		this.sourceId = computeSourceId(idpEntityId);
+		this.artifactStore = artifactStore;
+	}
+
+	/**
+	 * 新しいアーティファクトを発行し、認証結果を保存します。
+	 *
+	 * @param entry アーティファクトに紐づける認証結果
+	 * @return Base64 エンコードされたアーティファクト（SAMLart パラメータの値）
+	 * @throws IllegalStateException 認証結果を保存できなかった場合（保持数の上限超過・共有ストアの障害）
+	 */
+	public String issue(ArtifactEntry entry) {
+		byte[] messageHandle = new byte[MESSAGE_HANDLE_LENGTH];
+		random.nextBytes(messageHandle);
+
+		String artifact = new SAML2ArtifactType0004(ENDPOINT_INDEX, sourceId, messageHandle).base64Encode();
+		artifactStore.put(artifact, entry);
+		return artifact;
+	}
+
+	/**
+	 * エンティティ ID の SHA-1 ハッシュを SourceID として算出します（SAML Bindings 仕様 3.6.4）。
+	 */
+	public static byte[] computeSourceId(String entityId) {
+		try {
+			return MessageDigest.getInstance("SHA-1").digest(entityId.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-1 が利用できません", e);
+		}
+	}
+}
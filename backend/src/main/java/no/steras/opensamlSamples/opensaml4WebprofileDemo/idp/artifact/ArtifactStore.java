@@ -0,0 +1,34 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact;
+
+/**
+ * IdP が発行したアーティファクトと認証結果の対応付けの保存先。
+ *
+ * 実装:
+ * - {@link InMemoryArtifactStore}: IdP のプロセス内に保持する（単一インスタンス向け）
+ * - {@link RedisArtifactStore}: Redis プロトコルの共有ストアに保持する（アーティファクトを発行したインスタンスと
+ *   ArtifactResolve を受けたインスタンスが異なる、複数インスタンス・Lambda 向け）
+ */
+public interface ArtifactStore extends AutoCloseable {
+
+	/**
+	 * アーティファクトと認証結果を保存します。戻った時点で、どのインスタンスからも解決できる必要があります。
+	 *
+	 * @throws IllegalStateException 保存できなかった場合（上限超過・ストアの障害）
+	 */
+	void put(String artifact, ArtifactEntry entry);
+
+	/**
+	 * 指定された SP に発行したアーティファクトを解決し、同時にストアから削除します（ワンタイム使用）。
+	 * 発行先が異なる場合は削除せずに null を返します（他の SP が解決を試みてもアーティファクトは失われない）。
+	 *
+	 * @param relyingPartyId 解決を要求した（認証済みの）SP のエンティティ ID
+	 * @return 対応する認証結果。未登録・解決済み・期限切れ・発行先が異なる場合は null
+	 */
+	ArtifactEntry take(String artifact, String relyingPartyId);
+
+	/**
+	 * アプリケーション終了時にリソースを解放します。
+	 */
+	@Override
+	void close();
+}
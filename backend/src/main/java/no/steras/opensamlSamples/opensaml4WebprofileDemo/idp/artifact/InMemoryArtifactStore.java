@@ -0,0 +1,261 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * IdP が発行したアーティファクトと認証結果を対応付けて保持するインメモリストア。
+ * IdP が単一インスタンスの場合に使用します（複数インスタンスでは {@link RedisArtifactStore} を使用）。
+ *
+ * 設計:
+ * 1. ロックストライピング: キーのハッシュで分割したシャードごとにロックを持ち、グローバルロックを使用しない。
+ * 2. ワンタイム: 解決（{@link #take(String, String)}）時にエントリを削除し、同じアーティファクトは二度と解決できない。
+ *    発行先の SP の照合と削除は同じロックの中で行い、発行先以外からの要求ではエントリを削除しない。
+ * 3. タイムホイールによる期限切れ: 各エントリは失効ティックのバケットに登録され、ティックごとに
+ *    該当バケットだけを処理する。ストア全体を走査するスイーパーは持たない。
+ * 4. 上限付き: 保持数が上限に達した場合は新しいアーティファクトの保存を拒否し、メモリ使用量を抑える。
+ */
+public class InMemoryArtifactStore implements ArtifactStore, MeterBinder {
+	private static Logger logger = LoggerFactory.getLogger(InMemoryArtifactStore.class);
+
+	private final Shard[] shards;
+	private final int shardMask;
+	private final int wheelMask;
+	private final long tickMillis;
+	private final long ttlTicks;
+	private final int maxEntries;
+
+	// 現在のティック（タイムホイールの針）。ティッカースレッドのみが更新する
+	private volatile long currentTick;
+	private final AtomicInteger size = new AtomicInteger();
+	private final ScheduledExecutorService ticker;
+
+	// 統計情報
+	private final LongAdder stored = new LongAdder();
+	private final LongAdder resolved = new LongAdder();
+	private final LongAdder missed = new LongAdder();
+	private final LongAdder expired = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+
+	/**
+	 * 保存されたアーティファクト 1 件分。ストア内部でのみ使用します。
+	 */
+	private static final class Slot {
+		final String artifact;
+		final ArtifactEntry entry;
+		final long expiryTick;
+
+		Slot(String artifact, ArtifactEntry entry, long expiryTick) {
+			this.artifact = artifact;
+			this.entry = entry;
+			this.expiryTick = expiryTick;
+		}
+	}
+
+	/**
+	 * シャード。マップとタイムホイールのバケットを同じロックで保護します。
+	 */
+	private static final class Shard {
+		final ReentrantLock lock = new ReentrantLock();
+		final Map<String, Slot> entries = new HashMap<>();
+		final ArrayDeque<Slot>[] wheel;
+
+		@SuppressWarnings("unchecked")
+		Shard(int wheelSize) {
+			wheel = new ArrayDeque[wheelSize];
+			for (int i = 0; i < wheelSize; i++) {
+				wheel[i] = new ArrayDeque<>();
+			}
+		}
+	}
+
+	/**
+	 * @param timeToLive  アーティファクトの有効期間
+	 * @param tick        タイムホイールの 1 ティックの長さ（期限切れ判定の粒度）
+	 * @param maxEntries  同時に保持するアーティファクトの最大数
+	 * @param shardCount  シャード数（2 のべき乗に切り上げ）
+	 */
+	public InMemoryArtifactStore(Duration timeToLive, Duration tick, int maxEntries, int shardCount) {
+		this.tickMillis = Math.max(1, tick.toMillis());
+		this.ttlTicks = Math.max(1, (timeToLive.toMillis() + tickMillis - 1) / tickMillis);
+		this.maxEntries = maxEntries;
+
+		// ホイールは TTL 全体 + 余裕分を覆うサイズにする（周回判定が不要になる）
+		int wheelSize = nextPowerOfTwo((int) ttlTicks + 2);
+		this.wheelMask = wheelSize - 1;
+
+		int shardSize = nextPowerOfTwo(shardCount);
+		this.shardMask = shardSize - 1;
+		this.shards = new Shard[shardSize];
+		for (int i = 0; i < shardSize; i++) {
+			shards[i] = new Shard(wheelSize);
+		}
+
+		ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "artifact-store-wheel");
+			thread.setDaemon(true);
+			return thread;
+		});
+		ticker.scheduleAtFixedRate(this::advance, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+
+		logger.info("アーティファクトストアを初期化しました (有効期間: {}, 最大保持数: {}, シャード数: {})",
+				timeToLive, maxEntries, shardSize);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @throws IllegalStateException 保持数が上限に達している場合
+	 */
+	@Override
+	public void put(String artifact, ArtifactEntry entry) {
+		if (size.incrementAndGet() > maxEntries) {
+			size.decrementAndGet();
+			rejected.increment();
+			throw new IllegalStateException("アーティファクトストアの保持数が上限 (" + maxEntries + ") に達しました");
+		}
+
+		long expiryTick = currentTick + ttlTicks;
+		Slot slot = new Slot(artifact, entry, expiryTick);
+		Shard shard = shardFor(artifact);
+		shard.lock.lock();
+		try {
+			Slot previous = shard.entries.put(artifact, slot);
+			if (previous != null) {
+				// 乱数の衝突は事実上起こらないが、起きた場合でもサイズを正しく保つ
+				size.decrementAndGet();
+			}
+			shard.wheel[(int) (expiryTick & wheelMask)].addLast(slot);
+		} finally {
+			shard.lock.unlock();
+		}
+		stored.increment();
+	}
+
+	@Override
+	public ArtifactEntry take(String artifact, String relyingPartyId) {
+		if (artifact == null) {
+			missed.increment();
+			return null;
+		}
+
+		Shard shard = shardFor(artifact);
+		Slot slot;
+		shard.lock.lock();
+		try {
+			slot = shard.entries.get(artifact);
+			if (slot != null && slot.entry.relyingPartyId().equals(relyingPartyId)) {
+				shard.entries.remove(artifact);
+			} else {
+				slot = null;
+			}
+		} finally {
+			shard.lock.unlock();
+		}
+
+		if (slot == null) {
+			missed.increment();
+			return null;
+		}
+		size.decrementAndGet();
+
+		// ティッカーがまだ処理していないが既に失効しているもの
+		if (slot.expiryTick <= currentTick) {
+			expired.increment();
+			return null;
+		}
+		resolved.increment();
+		return slot.entry;
+	}
+
+	/**
+	 * タイムホイールを 1 ティック進め、現在のバケットに登録されたエントリを失効させます。
+	 */
+	private void advance() {
+		try {
+			long tick = ++currentTick;
+			int bucket = (int) (tick & wheelMask);
+			for (Shard shard : shards) {
+				shard.lock.lock();
+				try {
+					ArrayDeque<Slot> slots = shard.wheel[bucket];
+					Slot slot;
+					while ((slot = slots.pollFirst()) != null) {
+						// 既に解決済みのものはマップに存在しないため何もしない
+						if (shard.entries.get(slot.artifact) == slot) {
+							shard.entries.remove(slot.artifact);
+							size.decrementAndGet();
+							expired.increment();
+						}
+					}
+				} finally {
+					shard.lock.unlock();
+				}
+			}
+		} catch (RuntimeException e) {
+			// 例外でスケジュールが止まらないようにログ出力のみ行う
+			logger.error("アーティファクトの期限切れ処理中にエラーが発生しました: " + e.getMessage(), e);
+		}
+	}
+
+	private Shard shardFor(String artifact) {
+		int hash = artifact.hashCode();
+		return shards[(hash ^ (hash >>> 16)) & shardMask];
+	}
+
+	private static int nextPowerOfTwo(int value) {
+		int result = 1;
+		while (result < value) {
+			result <<= 1;
+		}
+		return result;
+	}
+
+	/** 現在保持しているアーティファクトの数 */
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * 保存・解決・失効・拒否の件数と保持数を Actuator のメトリクスとして公開します。
+	 */
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		FunctionCounter.builder("saml.idp.artifacts", stored, LongAdder::sum).tag("event", "stored")
+				.description("保存したアーティファクトの数").register(registry);
+		FunctionCounter.builder("saml.idp.artifacts", resolved, LongAdder::sum).tag("event", "resolved")
+				.description("解決に成功したアーティファクトの数").register(registry);
+		FunctionCounter.builder("saml.idp.artifacts", missed, LongAdder::sum).tag("event", "missed")
+				.description("未登録または解決済みだったアーティファクトの数").register(registry);
+		FunctionCounter.builder("saml.idp.artifacts", expired, LongAdder::sum).tag("event", "expired")
+				.description("期限切れで削除したアーティファクトの数").register(registry);
+		FunctionCounter.builder("saml.idp.artifacts", rejected, LongAdder::sum).tag("event", "rejected")
+				.description("上限超過で保存を拒否したアーティファクトの数").register(registry);
+		Gauge.builder("saml.idp.artifacts.size", size, AtomicInteger::get)
+				.description("現在保持しているアーティファクトの数").register(registry);
+	}
+
+	/**
+	 * アプリケーション終了時にティッカースレッドを停止します。
+	 */
+	@Override
+	public void close() {
+		ticker.shutdownNow();
+	}
+}
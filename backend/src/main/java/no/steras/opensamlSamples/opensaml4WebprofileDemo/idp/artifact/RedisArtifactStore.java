@@ -0,0 +1,335 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Redis プロトコル (RESP2) を話す共有ストアにアーティファクトを保存します。
+ * アーティファクトを発行したインスタンスと ArtifactResolve を受けたインスタンスが異なっても解決できます。
+ *
+ * 設計:
+ * 1. パイプライン: 接続ごとに 1 つの送信スレッドがキューに溜まったコマンドをまとめて書き込み、1 回の往復で
+ *    すべての応答を読み取る。同時に発行されたアーティファクトの SET は 1 回の往復にまとめられる（グループコミット）。
+ * 2. ワンタイム: 解決には GETDEL（Redis 6.2 以降）を使用し、取得と削除を 1 コマンドで原子的に行う。
+ *    キーには発行先の SP のエンティティ ID を含めるため、発行先以外の SP からの GETDEL はエントリに届かない。
+ * 3. 期限切れ: SET の PX オプションでストア側に有効期間を設定し、IdP はスイーパーを持たない。
+ * 4. コンパクトな値: XML ではなく {@link ArtifactEntryCodec} のバイナリ形式で保存する。
+ */
+public class RedisArtifactStore implements ArtifactStore, MeterBinder {
+	private static Logger logger = LoggerFactory.getLogger(RedisArtifactStore.class);
+
+	private static final String KEY_PREFIX = "saml:artifact:";
+	private static final byte[] SET = "SET".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] PX = "PX".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] GETDEL = "GETDEL".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] AUTH = "AUTH".getBytes(StandardCharsets.US_ASCII);
+
+	private final String host;
+	private final int port;
+	private final String password;
+	private final byte[] ttlMillis;
+	private final Duration timeout;
+	private final int maxBatch;
+	private final Pipeline[] pipelines;
+
+	// 統計情報
+	private final LongAdder stored = new LongAdder();
+	private final LongAdder resolved = new LongAdder();
+	private final LongAdder missed = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder commands = new LongAdder();
+	private final LongAdder roundTrips = new LongAdder();
+
+	/**
+	 * パイプラインに投入する 1 コマンド分。
+	 * 応答を待つ側がタイムアウトした場合は reply を取り消し、送信スレッドはキューから取り出した時点で取り消し済みの
+	 * コマンドを送信しません（待つ側が諦めた GETDEL でアーティファクトが消費されないように）。
+	 */
+	private record Command(byte[] request, CompletableFuture<Object> reply) {
+	}
+
+	/**
+	 * 1 本の接続と、その接続にコマンドをまとめて送信するスレッド。
+	 * ソケットとストリームは送信スレッドだけが操作します。
+	 */
+	private final class Pipeline implements Runnable {
+		private final LinkedBlockingQueue<Command> queue = new LinkedBlockingQueue<>();
+		private final Thread thread;
+		private volatile boolean closed;
+		private Socket socket;
+		private InputStream in;
+		private OutputStream out;
+
+		Pipeline(int index) {
+			thread = Thread.ofPlatform().daemon().name("artifact-store-redis-" + index).start(this);
+		}
+
+		void submit(Command command) {
+			if (closed) {
+				command.reply().completeExceptionally(new IllegalStateException("アーティファクトストアは終了しています"));
+				return;
+			}
+			queue.add(command);
+		}
+
+		@Override
+		public void run() {
+			List<Command> batch = new ArrayList<>(maxBatch);
+			while (!closed) {
+				try {
+					batch.add(queue.take());
+					queue.drainTo(batch, maxBatch - 1);
+					batch.removeIf(command -> command.reply().isCancelled());
+					if (!batch.isEmpty()) {
+						execute(batch);
+					}
+				} catch (InterruptedException e) {
+					break;
+				} finally {
+					batch.clear();
+				}
+			}
+			disconnect();
+			Command command;
+			while ((command = queue.poll()) != null) {
+				command.reply().completeExceptionally(new IllegalStateException("アーティファクトストアは終了しています"));
+			}
+		}
+
+		/**
+		 * バッチのコマンドをすべて書き込んでから応答を順に読み取ります（1 回の往復）。
+		 * 接続エラーの場合はバッチ全体を失敗させ、次のバッチで再接続します。
+		 */
+		private void execute(List<Command> batch) {
+			try {
+				connectIfNeeded();
+				for (Command command : batch) {
+					out.write(command.request());
+				}
+				out.flush();
+				for (Command command : batch) {
+					Object reply = RespProtocol.read(in);
+					if (reply instanceof RespProtocol.Error error) {
+						command.reply().completeExceptionally(new IllegalStateException(error.message()));
+					} else {
+						command.reply().complete(reply);
+					}
+				}
+				commands.add(batch.size());
+				roundTrips.increment();
+			} catch (IOException | RuntimeException e) {
+				if (!closed) {
+					logger.warn("アーティファクトストア ({}:{}) との通信に失敗しました: {}", host, port, e.getMessage());
+				}
+				disconnect();
+				for (Command command : batch) {
+					command.reply().completeExceptionally(e);
+				}
+			}
+		}
+
+		private void connectIfNeeded() throws IOException {
+			if (socket != null) {
+				return;
+			}
+			Socket connecting = new Socket();
+			try {
+				connecting.setTcpNoDelay(true);
+				connecting.setSoTimeout((int) timeout.toMillis());
+				connecting.connect(new InetSocketAddress(host, port), (int) timeout.toMillis());
+				InputStream connectingIn = new BufferedInputStream(connecting.getInputStream());
+				OutputStream connectingOut = new BufferedOutputStream(connecting.getOutputStream());
+				if (password != null && !password.isEmpty()) {
+					connectingOut.write(RespProtocol.command(AUTH, password.getBytes(StandardCharsets.UTF_8)));
+					connectingOut.flush();
+					if (RespProtocol.read(connectingIn) instanceof RespProtocol.Error error) {
+						throw new IOException("アーティファクトストアの認証に失敗しました: " + error.message());
+					}
+				}
+				socket = connecting;
+				in = connectingIn;
+				out = connectingOut;
+			} catch (IOException e) {
+				connecting.close();
+				throw e;
+			}
+		}
+
+		private void disconnect() {
+			if (socket != null) {
+				try {
+					socket.close();
+				} catch (IOException e) {
+					// 切断時のエラーは無視する
+				}
+				socket = null;
+				in = null;
+				out = null;
+			}
+		}
+
+		void close() {
+			closed = true;
+			thread.interrupt();
+		}
+	}
+
+	/**
+	 * @param host        ストアのホスト名
+	 * @param port        ストアのポート番号
+	 * @param password    AUTH のパスワード（認証しない場合は null または空文字列）
+	 * @param timeToLive  アーティファクトの有効期間
+	 * @param timeout     接続・1 コマンドあたりのタイムアウト
+	 * @param connections 接続数（アーティファクトのハッシュで振り分け）
+	 * @param maxBatch    1 回の往復にまとめるコマンドの最大数
+	 */
+	public RedisArtifactStore(String host, int port, String password, Duration timeToLive, Duration timeout,
+			int connections, int maxBatch) {
+		this.host = host;
+		this.port = port;
+		this.password = password;
+		this.ttlMillis = Long.toString(Math.max(1, timeToLive.toMillis())).getBytes(StandardCharsets.US_ASCII);
+		this.timeout = timeout;
+		this.maxBatch = Math.max(1, maxBatch);
+		this.pipelines = new Pipeline[Math.max(1, connections)];
+		for (int i = 0; i < pipelines.length; i++) {
+			pipelines[i] = new Pipeline(i);
+		}
+
+		logger.info("共有アーティファクトストアを初期化しました ({}:{}, 有効期間: {}, 接続数: {}, 最大バッチ: {})",
+				host, port, timeToLive, pipelines.length, this.maxBatch);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * SET の応答を待ってから戻るため、戻った時点で他のインスタンスから解決できます。
+	 *
+	 * @throws IllegalStateException ストアに保存できなかった場合
+	 */
+	@Override
+	public void put(String artifact, ArtifactEntry entry) {
+		byte[] request = RespProtocol.command(SET, key(artifact, entry.relyingPartyId()), ArtifactEntryCodec.encode(entry),
+				PX, ttlMillis);
+		try {
+			call(artifact, request);
+		} catch (IllegalStateException e) {
+			rejected.increment();
+			throw e;
+		}
+		stored.increment();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 *
+	 * @throws IllegalStateException ストアと通信できなかった場合
+	 */
+	@Override
+	public ArtifactEntry take(String artifact, String relyingPartyId) {
+		if (artifact == null) {
+			missed.increment();
+			return null;
+		}
+
+		Object reply = call(artifact, RespProtocol.command(GETDEL, key(artifact, relyingPartyId)));
+		if (!(reply instanceof byte[] value)) {
+			missed.increment();
+			return null;
+		}
+		try {
+			ArtifactEntry entry = ArtifactEntryCodec.decode(value);
+			resolved.increment();
+			return entry;
+		} catch (IllegalArgumentException e) {
+			// 別バージョンの IdP が保存した値など
+			logger.warn("アーティファクトストアの値を復元できませんでした: {}", e.getMessage());
+			missed.increment();
+			return null;
+		}
+	}
+
+	private Object call(String artifact, byte[] request) {
+		Command command = new Command(request, new CompletableFuture<>());
+		pipelineFor(artifact).submit(command);
+		try {
+			return command.reply().get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("アーティファクトストアの操作に失敗しました: " + e.getCause().getMessage(),
+					e.getCause());
+		} catch (TimeoutException e) {
+			// まだ送信されていなければ送信スレッドが読み飛ばす
+			command.reply().cancel(false);
+			throw new IllegalStateException("アーティファクトストアの応答がタイムアウトしました (" + timeout + ")", e);
+		} catch (InterruptedException e) {
+			command.reply().cancel(false);
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("アーティファクトストアの応答待ちが中断されました", e);
+		}
+	}
+
+	private Pipeline pipelineFor(String artifact) {
+		int hash = artifact.hashCode();
+		return pipelines[Math.floorMod(hash ^ (hash >>> 16), pipelines.length)];
+	}
+
+	/**
+	 * 発行先の SP とアーティファクトからキーを作ります。アーティファクト（Base64）は ':' を含まないため、
+	 * 最後の ':' より前が SP のエンティティ ID となり、異なる組み合わせが同じキーになることはありません。
+	 */
+	private static byte[] key(String artifact, String relyingPartyId) {
+		return (KEY_PREFIX + relyingPartyId + ":" + artifact).getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * 保存・解決・拒否の件数と、パイプラインのコマンド数・往復数を Actuator のメトリクスとして公開します。
+	 * 往復あたりのコマンド数（commands / round-trips）がバッチの効果です。
+	 * 期限切れはストア側で処理されるため計測しません。
+	 */
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		FunctionCounter.builder("saml.idp.artifacts", stored, LongAdder::sum).tag("event", "stored")
+				.description("保存したアーティファクトの数").register(registry);
+		FunctionCounter.builder("saml.idp.artifacts", resolved, LongAdder::sum).tag("event", "resolved")
+				.description("解決に成功したアーティファクトの数").register(registry);
+		FunctionCounter.builder("saml.idp.artifacts", missed, LongAdder::sum).tag("event", "missed")
+				.description("未登録・解決済み・期限切れだったアーティファクトの数").register(registry);
+		FunctionCounter.builder("saml.idp.artifacts", rejected, LongAdder::sum).tag("event", "rejected")
+				.description("ストアの障害で保存できなかったアーティファクトの数").register(registry);
+		FunctionCounter.builder("saml.idp.artifacts.store.commands", commands, LongAdder::sum)
+				.description("共有ストアに送信したコマンドの数").register(registry);
+		FunctionCounter.builder("saml.idp.artifacts.store.round-trips", roundTrips, LongAdder::sum)
+				.description("共有ストアとの往復の数").register(registry);
+	}
+
+	/**
+	 * アプリケーション終了時に送信スレッドを停止し、接続を閉じます。
+	 */
+	@Override
+	public void close() {
+		for (Pipeline pipeline : pipelines) {
+			pipeline.close();
+		}
+	}
+}
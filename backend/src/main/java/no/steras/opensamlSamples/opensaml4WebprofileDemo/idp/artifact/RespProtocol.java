@@ -0,0 +1,137 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Redis シリアライゼーションプロトコル (RESP2) のエンコード・デコード。
+ * {@link RedisArtifactStore} が使用するコマンドと応答の型だけを扱います。
+ *
+ * 応答の型と Java の値の対応:
+ * - シンプル文字列 (+) -> String
+ * - エラー (-)         -> {@link Error}
+ * - 整数 (:)           -> Long
+ * - バルク文字列 ($)   -> byte[]（null バルクは null）
+ * - 配列 (*)           -> Object[]（null 配列は null）
+ */
+public final class RespProtocol {
+	private static final byte[] CRLF = { '\r', '\n' };
+
+	/**
+	 * エラー応答。接続は継続して使用できます。
+	 */
+	public record Error(String message) {
+	}
+
+	private RespProtocol() {
+	}
+
+	/**
+	 * コマンド（バルク文字列の配列）をエンコードします。パイプラインでまとめて送信できるよう、バイト列として返します。
+	 */
+	public static byte[] command(byte[]... arguments) {
+		int size = 16;
+		for (byte[] argument : arguments) {
+			size += argument.length + 16;
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+		writeAscii(out, "*" + arguments.length);
+		for (byte[] argument : arguments) {
+			writeBulk(out, argument);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * バルク文字列を書き込みます（null の場合は null バルク）。
+	 */
+	public static void writeBulk(OutputStream out, byte[] value) {
+		if (value == null) {
+			writeAscii(out, "$-1");
+			return;
+		}
+		writeAscii(out, "$" + value.length);
+		try {
+			out.write(value);
+			out.write(CRLF);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * シンプル文字列・エラー・整数などの 1 行の応答を書き込みます（例: "+OK", "-ERR unknown command"）。
+	 */
+	public static void writeAscii(OutputStream out, String line) {
+		try {
+			out.write(line.getBytes(StandardCharsets.US_ASCII));
+			out.write(CRLF);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * 応答（またはサーバー側ではコマンド）を 1 つ読み取ります。
+	 *
+	 * @throws EOFException 接続が閉じられた場合
+	 */
+	public static Object read(InputStream in) throws IOException {
+		int type = in.read();
+		if (type < 0) {
+			throw new EOFException("接続が閉じられました");
+		}
+		String line = readLine(in);
+		switch (type) {
+		case '+':
+			return line;
+		case '-':
+			return new Error(line);
+		case ':':
+			return Long.parseLong(line);
+		case '$': {
+			int length = Integer.parseInt(line);
+			if (length < 0) {
+				return null;
+			}
+			byte[] value = in.readNBytes(length);
+			if (value.length < length || in.read() != '\r' || in.read() != '\n') {
+				throw new EOFException("バルク文字列の途中で接続が閉じられました");
+			}
+			return value;
+		}
+		case '*': {
+			int count = Integer.parseInt(line);
+			if (count < 0) {
+				return null;
+			}
+			Object[] items = new Object[count];
+			for (int i = 0; i < count; i++) {
+				items[i] = read(in);
+			}
+			return items;
+		}
+		default:
+			throw new IOException("不正な RESP の型です: " + (char) type);
+		}
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = in.read()) != '\r') {
+			if (c < 0) {
+				throw new EOFException("行の途中で接続が閉じられました");
+			}
+			line.append((char) c);
+		}
+		if (in.read() != '\n') {
+			throw new IOException("RESP の行末が不正です");
+		}
+		return line.toString();
+	}
+}
@@ -0,0 +1,61 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.binding;
+
+import org.opensaml.saml.common.xml.SAMLConstants;
+
+/**
+ * IdP が認証結果を SP へ返す方法（AuthnRequest の ProtocolBinding に対応）。
+ *
+ * - ARTIFACT: ブラウザにはアーティファクトだけを渡し、SP がバックチャネル（SOAP）で Response を取りに来る
+ * - POST: 署名・暗号化済みの Response を自動送信フォームでブラウザ経由で SP の ACS へ直接 POST する。
+ *   SP から IdP へのサーバー間の往復と、IdP でのアーティファクトの保存・解決が不要になります
+ */
+public enum ResponseBinding {
+	/** HTTP-Artifact バインディング（従来の方式） */
+	ARTIFACT("artifact", SAMLConstants.SAML2_ARTIFACT_BINDING_URI),
+	/** HTTP-POST バインディング */
+	POST("post", SAMLConstants.SAML2_POST_BINDING_URI);
+
+	private final String bindingName;
+	private final String bindingUri;
+
+	ResponseBinding(String bindingName, String bindingUri) {
+		this.bindingName = bindingName;
+		this.bindingUri = bindingUri;
+	}
+
+	/** 設定で使用する名前 */
+	public String getBindingName() {
+		return bindingName;
+	}
+
+	/** ProtocolBinding に設定するバインディング URI */
+	public String getBindingUri() {
+		return bindingUri;
+	}
+
+	/**
+	 * 設定で使用する名前からバインディングを取得します。
+	 */
+	public static ResponseBinding fromBindingName(String bindingName) {
+		for (ResponseBinding binding : values()) {
+			if (binding.bindingName.equals(bindingName.trim())) {
+				return binding;
+			}
+		}
+		throw new IllegalArgumentException("未対応のレスポンスバインディングです: " + bindingName);
+	}
+
+	/**
+	 * バインディング URI からバインディングを取得します。
+	 *
+	 * @return 未指定または未対応の URI の場合は null
+	 */
+	public static ResponseBinding fromBindingUri(String bindingUri) {
+		for (ResponseBinding binding : values()) {
+			if (binding.bindingUri.equals(bindingUri)) {
+				return binding;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,56 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.binding;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SP（Relying Party）ごとのレスポンスバインディングを保持するレジストリ。
+ *
+ * AuthnRequest で SP が対応済みのバインディング（ProtocolBinding）を要求した場合はそれに従い、
+ * 要求がない場合は SP ごとに設定されたバインディング（未設定の SP には既定のバインディング）を使用します。
+ */
+public class ResponseBindingRegistry {
+	private final ResponseBinding defaultBinding;
+	private final Map<String, ResponseBinding> relyingPartyBindings;
+
+	/**
+	 * @param defaultBinding       既定のバインディング
+	 * @param relyingPartyBindings SP のエンティティ ID -> バインディング
+	 */
+	public ResponseBindingRegistry(ResponseBinding defaultBinding, Map<String, ResponseBinding> relyingPartyBindings) {
+		this.defaultBinding = defaultBinding;
+		this.relyingPartyBindings = Map.copyOf(relyingPartyBindings);
+	}
+
+	/**
+	 * 指定された SP へ認証結果を返すバインディングを決定します。
+	 *
+	 * @param spEntityId          SP のエンティティ ID
+	 * @param requestedBindingUri AuthnRequest の ProtocolBinding（未指定の場合は null）
+	 */
+	public ResponseBinding select(String spEntityId, String requestedBindingUri) {
+		ResponseBinding requested = ResponseBinding.fromBindingUri(requestedBindingUri);
+		if (requested != null) {
+			return requested;
+		}
+		return relyingPartyBindings.getOrDefault(spEntityId, defaultBinding);
+	}
+
+	/**
+	 * "SP のエンティティ ID=バインディング名" のリストを解析します。
+	 */
+	public static Map<String, ResponseBinding> parseRelyingPartyBindings(Iterable<String> entries) {
+		Map<String, ResponseBinding> bindings = new HashMap<>();
+		for (String entry : entries) {
+			if (entry.isBlank()) {
+				continue;
+			}
+			int separator = entry.indexOf('=');
+			if (separator < 0) {
+				throw new IllegalArgumentException("SP ごとのレスポンスバインディングの形式が不正です: " + entry);
+			}
+			bindings.put(entry.substring(0, separator).trim(), ResponseBinding.fromBindingName(entry.substring(separator + 1)));
+		}
+		return bindings;
+	}
+}
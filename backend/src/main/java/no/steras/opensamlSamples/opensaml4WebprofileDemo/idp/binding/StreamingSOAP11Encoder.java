@@ -0,0 +1,173 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.binding;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.namespace.QName;
+
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.soap.soap11.Body;
+import org.opensaml.soap.soap11.Envelope;
+import org.opensaml.soap.soap11.Fault;
+import org.opensaml.soap.soap11.FaultCode;
+import org.opensaml.soap.soap11.FaultString;
+import org.w3c.dom.Element;
+import org.w3c.dom.ls.DOMImplementationLS;
+import org.w3c.dom.ls.LSException;
+import org.w3c.dom.ls.LSOutput;
+import org.w3c.dom.ls.LSSerializer;
+
+import net.shibboleth.shared.servlet.HttpServletSupport;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.ConcurrentObjectPool;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.OpenSAMLUtils;
+
+/**
+ * SAML メッセージを SOAP 1.1 エンベロープに格納してサーブレットのレスポンスへ書き込むエンコーダー。
+ *
+ * OpenSAML の HTTPSOAP11Encoder は Envelope / Body の XMLObject を構築し、メッセージを含むエンベロープ全体を
+ * DOM にマーシャリングしてからシリアライズします。このエンコーダーは次の方法でその処理を省きます。
+ *
+ * 1. エンベロープの開始タグと終了タグは事前にシリアライズしたバイト列として保持し、リクエストごとには構築しない。
+ * 2. メッセージは DOM 要素のまま受け取るか、XMLObject の場合は DOM をキャッシュしていればそのまま使用し、
+ *    署名・暗号化済みの部分を再マーシャリングしない
+ *    （子要素の DOM がキャッシュされている場合、マーシャリングは変更された親要素だけを作り直す）。
+ * 3. シリアライザーと出力バッファはプールして再利用し、エンベロープ全体を Content-Length 付きで 1 回で書き込む。
+ *
+ * HTTP ヘッダー（Content-Type, キャッシュ制御, SOAPAction）は HTTPSOAP11Encoder と同じ値を設定します。
+ * SOAP ヘッダーには対応しません（ArtifactResponse と、解決要求を処理できない場合の SOAP Fault の返信専用）。
+ */
+public class StreamingSOAP11Encoder {
+	// HTTPSOAP11Encoder が設定する SOAPAction ヘッダーの値
+	private static final String SOAP_ACTION = "http://www.oasis-open.org/committees/security";
+	// エンベロープの開始タグと終了タグ（Body の子要素としてメッセージを書き込む）
+	private static final byte[] ENVELOPE_PREFIX = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<" + qualifiedName(Envelope.DEFAULT_ELEMENT_NAME) + " xmlns:" + Envelope.DEFAULT_ELEMENT_NAME.getPrefix()
+			+ "=\"" + Envelope.DEFAULT_ELEMENT_NAME.getNamespaceURI() + "\">"
+			+ "<" + qualifiedName(Body.DEFAULT_ELEMENT_NAME) + ">").getBytes(StandardCharsets.UTF_8);
+	private static final byte[] ENVELOPE_SUFFIX = ("</" + qualifiedName(Body.DEFAULT_ELEMENT_NAME) + "></"
+			+ qualifiedName(Envelope.DEFAULT_ELEMENT_NAME) + ">").getBytes(StandardCharsets.UTF_8);
+	// プールする作業領域の最大数
+	private static final int MAX_IDLE_WORKSPACES = 64;
+	// これより大きくなったバッファはプールへ戻さない（まれに大きなメッセージがあってもメモリを保持し続けないため）
+	private static final int MAX_RETAINED_BUFFER = 256 * 1024;
+
+	private final ConcurrentObjectPool<Workspace> workspaces = new ConcurrentObjectPool<>(Workspace::new,
+			MAX_IDLE_WORKSPACES);
+
+	/**
+	 * メッセージを SOAP エンベロープに格納してレスポンスへ書き込みます。
+	 *
+	 * @param response 書き込み先のレスポンス
+	 * @param message  エンベロープの Body に格納する SAML メッセージ
+	 * @throws MarshallingException メッセージを DOM に変換できない場合
+	 * @throws IOException          レスポンスへの書き込みに失敗した場合
+	 */
+	public void encode(HttpServletResponse response, XMLObject message) throws MarshallingException, IOException {
+		// DOM をキャッシュしている場合は再マーシャリングしない
+		encode(response, message.getDOM() != null ? message.getDOM() : OpenSAMLUtils.marshall(message));
+	}
+
+	/**
+	 * DOM 要素として構築したメッセージを SOAP エンベロープに格納してレスポンスへ書き込みます。
+	 *
+	 * @param response 書き込み先のレスポンス
+	 * @param payload  エンベロープの Body に格納する SAML メッセージの要素
+	 * @throws IOException レスポンスへの書き込みに失敗した場合
+	 */
+	public void encode(HttpServletResponse response, Element payload) throws IOException {
+		write(response, payload, HttpServletResponse.SC_OK);
+	}
+
+	/**
+	 * SOAP Fault を SOAP エンベロープに格納し、指定した HTTP ステータスでレスポンスへ書き込みます
+	 * （SOAP 1.1 の HTTP バインディングでは、Fault は通常 500 で返します）。
+	 *
+	 * @param response    書き込み先のレスポンス
+	 * @param status      HTTP ステータス
+	 * @param faultCode   faultcode（{@link FaultCode#CLIENT} または {@link FaultCode#SERVER}）
+	 * @param faultString faultstring（利用者向けの説明。内部の詳細は含めない）
+	 * @throws IOException レスポンスへの書き込みに失敗した場合
+	 */
+	public void encodeFault(HttpServletResponse response, int status, QName faultCode, String faultString)
+			throws IOException {
+		Fault fault = OpenSAMLUtils.buildSAMLObject(Fault.class);
+		FaultCode code = OpenSAMLUtils.buildSAMLObject(FaultCode.class);
+		code.setValue(faultCode);
+		fault.setCode(code);
+		FaultString message = OpenSAMLUtils.buildSAMLObject(FaultString.class);
+		message.setValue(faultString);
+		fault.setMessage(message);
+		try {
+			write(response, OpenSAMLUtils.marshall(fault), status);
+		} catch (MarshallingException e) {
+			throw new IllegalStateException("SOAP Fault のマーシャリングに失敗しました", e);
+		}
+	}
+
+	private void write(HttpServletResponse response, Element payload, int status) throws IOException {
+		Workspace workspace = workspaces.borrow();
+		boolean reusable = false;
+		try {
+			ByteArrayOutputStream buffer = workspace.buffer;
+			buffer.reset();
+			buffer.writeBytes(ENVELOPE_PREFIX);
+			workspace.serialize(payload);
+			buffer.writeBytes(ENVELOPE_SUFFIX);
+
+			response.setStatus(status);
+			response.setContentType("text/xml");
+			HttpServletSupport.setUTF8Encoding(response);
+			HttpServletSupport.addNoCacheHeaders(response);
+			response.setHeader("SOAPAction", SOAP_ACTION);
+			response.setContentLength(buffer.size());
+			buffer.writeTo(response.getOutputStream());
+			reusable = buffer.size() <= MAX_RETAINED_BUFFER;
+		} finally {
+			if (reusable) {
+				workspaces.release(workspace);
+			} else {
+				workspaces.discard(workspace);
+			}
+		}
+	}
+
+	private static String qualifiedName(QName name) {
+		return name.getPrefix() + ":" + name.getLocalPart();
+	}
+
+	/**
+	 * 1 回のエンコードに使用する作業領域（出力バッファとシリアライザー）。スレッド間では共有せず、プールで再利用する。
+	 */
+	private static final class Workspace {
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream(8192);
+		LSSerializer serializer;
+		LSOutput output;
+
+		/**
+		 * 要素を XML 宣言なしでバッファへシリアライズします。
+		 */
+		void serialize(Element payload) {
+			if (serializer == null) {
+				// DOM 実装はメッセージのドキュメントから取得する（パーサープールと同じ実装）
+				DOMImplementationLS implementation = (DOMImplementationLS) payload.getOwnerDocument().getImplementation()
+						.getFeature("LS", "3.0");
+				serializer = implementation.createLSSerializer();
+				serializer.getDomConfig().setParameter("xml-declaration", Boolean.FALSE);
+				output = implementation.createLSOutput();
+				output.setEncoding(StandardCharsets.UTF_8.name());
+				output.setByteStream(buffer);
+			}
+			try {
+				if (!serializer.write(payload, output)) {
+					throw new IllegalStateException("SOAP メッセージをシリアライズできません: " + payload.getLocalName());
+				}
+			} catch (LSException e) {
+				throw new IllegalStateException("SOAP メッセージのシリアライズに失敗しました: " + payload.getLocalName(), e);
+			}
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.encryption;
+
+import org.apache.xml.security.utils.EncryptionConstants;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.EncryptedAssertion;
+import org.opensaml.saml.saml2.encryption.Encrypter;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.xmlsec.agreement.KeyAgreementCredential;
+import org.opensaml.xmlsec.agreement.KeyAgreementException;
+import org.opensaml.xmlsec.agreement.KeyAgreementParameters;
+import org.opensaml.xmlsec.agreement.KeyAgreementProcessor;
+import org.opensaml.xmlsec.agreement.impl.ECDHKeyAgreementProcessor;
+import org.opensaml.xmlsec.derivation.impl.ConcatKDF;
+import org.opensaml.xmlsec.encryption.support.DataEncryptionParameters;
+import org.opensaml.xmlsec.encryption.support.EncryptionException;
+import org.opensaml.xmlsec.encryption.support.KeyEncryptionParameters;
+import org.opensaml.xmlsec.keyinfo.KeyInfoGenerator;
+import org.opensaml.xmlsec.keyinfo.impl.KeyAgreementKeyInfoGeneratorFactory;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.encryption.EncryptionSuite.KeyExchange;
+
+/**
+ * 1 つの SP（Relying Party）向けに事前構築したアサーションの暗号化プロファイル。
+ *
+ * データ暗号化・鍵暗号化のパラメータと Encrypter は構築時に一度だけ用意し、全リクエストで共有します
+ * （Encrypter はデータ暗号化鍵と XMLCipher を呼び出しごとに生成するため、複数スレッドから利用できます）。
+ * ECDH-ES は一時鍵をメッセージごとに生成する必要があるため、鍵合意とその鍵暗号化パラメータのみ呼び出しごとに行います。
+ */
+public class EncryptionProfile {
+	// ECDH-ES で導出する鍵暗号化鍵（KEK）のアルゴリズム
+	private static final String KEY_WRAP_ALGORITHM = EncryptionConstants.ALGO_ID_KEYWRAP_AES128;
+
+	private final EncryptionSuite suite;
+	private final DataEncryptionParameters dataParameters;
+	// RSA-OAEP の場合のみ使用（共有）
+	private final Encrypter sharedEncrypter;
+	// ECDH-ES の場合のみ使用
+	private final Credential agreementCredential;
+	private final KeyAgreementProcessor keyAgreementProcessor;
+	private final KeyInfoGenerator agreementKeyInfoGenerator;
+
+	/**
+	 * @param suite                暗号化方式
+	 * @param transportCredential  SP の RSA 公開鍵（RSA-OAEP の場合）
+	 * @param agreementCredential  SP の EC 公開鍵（ECDH-ES の場合）
+	 */
+	public EncryptionProfile(EncryptionSuite suite, Credential transportCredential, Credential agreementCredential) {
+		this.suite = suite;
+		this.dataParameters = new DataEncryptionParameters();
+		dataParameters.setAlgorithm(suite.getDataAlgorithm());
+
+		if (suite.getKeyExchange() == KeyExchange.RSA_OAEP) {
+			KeyEncryptionParameters keyParameters = new KeyEncryptionParameters();
+			keyParameters.setEncryptionCredential(transportCredential);
+			keyParameters.setAlgorithm(EncryptionConstants.ALGO_ID_KEYTRANSPORT_RSAOAEP);
+			sharedEncrypter = newEncrypter(keyParameters);
+			this.agreementCredential = null;
+			this.keyAgreementProcessor = null;
+			this.agreementKeyInfoGenerator = null;
+		} else {
+			if (agreementCredential == null) {
+				throw new IllegalArgumentException("ECDH-ES には SP の EC 公開鍵が必要です");
+			}
+			sharedEncrypter = null;
+			this.agreementCredential = agreementCredential;
+			this.keyAgreementProcessor = new ECDHKeyAgreementProcessor();
+			// EncryptedKey の KeyInfo に AgreementMethod（一時公開鍵と KDF のパラメータ）を出力する
+			this.agreementKeyInfoGenerator = new KeyAgreementKeyInfoGeneratorFactory().newInstance();
+		}
+	}
+
+	/**
+	 * アサーションを暗号化します。
+	 */
+	public EncryptedAssertion encrypt(Assertion assertion) {
+		try {
+			Encrypter encrypter = sharedEncrypter != null ? sharedEncrypter : newEncrypter(agreeKeyEncryptionKey());
+			return encrypter.encrypt(assertion);
+		} catch (EncryptionException | KeyAgreementException e) {
+			throw new RuntimeException("アサーションの暗号化に失敗しました (" + suite.getProfileName() + ")", e);
+		}
+	}
+
+	/**
+	 * 一時的な EC 鍵ペアを生成して SP の公開鍵と鍵合意し、ConcatKDF で鍵暗号化鍵を導出します。
+	 */
+	private KeyEncryptionParameters agreeKeyEncryptionKey() throws KeyAgreementException {
+		ConcatKDF kdf = new ConcatKDF();
+		kdf.setDigestMethod(SignatureConstants.ALGO_ID_DIGEST_SHA256);
+		KeyAgreementParameters parameters = new KeyAgreementParameters();
+		parameters.add(kdf);
+
+		KeyAgreementCredential keyEncryptionKey = keyAgreementProcessor.execute(agreementCredential,
+				KEY_WRAP_ALGORITHM, parameters);
+
+		KeyEncryptionParameters keyParameters = new KeyEncryptionParameters();
+		keyParameters.setEncryptionCredential(keyEncryptionKey);
+		keyParameters.setAlgorithm(KEY_WRAP_ALGORITHM);
+		keyParameters.setKeyInfoGenerator(agreementKeyInfoGenerator);
+		return keyParameters;
+	}
+
+	private Encrypter newEncrypter(KeyEncryptionParameters keyParameters) {
+		Encrypter encrypter = new Encrypter(dataParameters, keyParameters);
+		encrypter.setKeyPlacement(Encrypter.KeyPlacement.INLINE);
+		return encrypter;
+	}
+
+	public EncryptionSuite getSuite() {
+		return suite;
+	}
+}
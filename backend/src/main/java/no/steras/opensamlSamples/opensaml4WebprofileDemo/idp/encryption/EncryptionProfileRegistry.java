@@ -0,0 +1,64 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.encryption;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.SPCredentials;
+
+/**
+ * SP（Relying Party）ごとの暗号化プロファイルを保持するレジストリ。
+ * プロファイルは SP ごとに最初の要求で一度だけ構築され、以降は再利用されます。
+ * SP ごとの方式が設定されていない場合は既定の方式を使用します。
+ */
+public class EncryptionProfileRegistry {
+	private static Logger logger = LoggerFactory.getLogger(EncryptionProfileRegistry.class);
+
+	private final EncryptionSuite defaultSuite;
+	private final Map<String, EncryptionSuite> relyingPartySuites;
+	private final Map<String, EncryptionProfile> profiles = new ConcurrentHashMap<>();
+
+	/**
+	 * @param defaultSuite       既定の暗号化方式
+	 * @param relyingPartySuites SP のエンティティ ID -> 暗号化方式
+	 */
+	public EncryptionProfileRegistry(EncryptionSuite defaultSuite, Map<String, EncryptionSuite> relyingPartySuites) {
+		this.defaultSuite = defaultSuite;
+		this.relyingPartySuites = Map.copyOf(relyingPartySuites);
+	}
+
+	/**
+	 * 指定された SP 向けの暗号化プロファイルを取得します。
+	 *
+	 * @param spEntityId SP のエンティティ ID
+	 */
+	public EncryptionProfile forRelyingParty(String spEntityId) {
+		return profiles.computeIfAbsent(spEntityId, id -> {
+			EncryptionSuite suite = relyingPartySuites.getOrDefault(id, defaultSuite);
+			logger.info("SP ({}) の暗号化プロファイルを構築しました: {}", id, suite.getProfileName());
+			// デモでは SP が 1 つのため、SP の公開鍵は SPCredentials から取得する
+			return new EncryptionProfile(suite, SPCredentials.getCredential(), SPCredentials.getKeyAgreementCredential());
+		});
+	}
+
+	/**
+	 * "SP のエンティティ ID=プロファイル名" のリストを解析します。
+	 */
+	public static Map<String, EncryptionSuite> parseRelyingPartySuites(Iterable<String> entries) {
+		Map<String, EncryptionSuite> suites = new HashMap<>();
+		for (String entry : entries) {
+			if (entry.isBlank()) {
+				continue;
+			}
+			int separator = entry.indexOf('=');
+			if (separator < 0) {
+				throw new IllegalArgumentException("SP ごとの暗号化プロファイルの形式が不正です: " + entry);
+			}
+			suites.put(entry.substring(0, separator).trim(), EncryptionSuite.fromProfileName(entry.substring(separator + 1)));
+		}
+		return suites;
+	}
+}
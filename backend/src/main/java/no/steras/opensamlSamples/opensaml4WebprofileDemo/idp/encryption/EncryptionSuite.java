@@ -0,0 +1,67 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.encryption;
+
+import org.apache.xml.security.utils.EncryptionConstants;
+
+/**
+ * アサーションの暗号化方式の組み合わせ（データ暗号化 + 鍵の受け渡し）。
+ *
+ * AES-GCM は認証付き暗号のため、CBC のように改ざん検出を署名だけに頼る必要がなく、
+ * AES-NI / CLMUL によるハードウェア支援で CBC より高速です。
+ * 鍵の受け渡しは RSA-OAEP による鍵転送か、ECDH-ES による鍵合意 + AES Key Wrap を選択できます。
+ */
+public enum EncryptionSuite {
+	/** AES-128-CBC + RSA-OAEP（従来の方式） */
+	AES128_CBC_RSA_OAEP("aes128-cbc-rsa-oaep", EncryptionConstants.ALGO_ID_BLOCKCIPHER_AES128, KeyExchange.RSA_OAEP),
+	/** AES-128-GCM + RSA-OAEP */
+	AES128_GCM_RSA_OAEP("aes128-gcm-rsa-oaep", EncryptionConstants.ALGO_ID_BLOCKCIPHER_AES128_GCM, KeyExchange.RSA_OAEP),
+	/** AES-256-GCM + RSA-OAEP */
+	AES256_GCM_RSA_OAEP("aes256-gcm-rsa-oaep", EncryptionConstants.ALGO_ID_BLOCKCIPHER_AES256_GCM, KeyExchange.RSA_OAEP),
+	/** AES-128-GCM + ECDH-ES（ConcatKDF）+ AES-128 Key Wrap */
+	AES128_GCM_ECDH_ES("aes128-gcm-ecdh-es", EncryptionConstants.ALGO_ID_BLOCKCIPHER_AES128_GCM, KeyExchange.ECDH_ES);
+
+	/**
+	 * データ暗号化鍵の受け渡し方法。
+	 */
+	public enum KeyExchange {
+		/** SP の RSA 公開鍵でデータ暗号化鍵を暗号化する */
+		RSA_OAEP,
+		/** 一時的な EC 鍵と SP の EC 公開鍵で鍵合意し、導出した鍵でデータ暗号化鍵をラップする */
+		ECDH_ES
+	}
+
+	private final String profileName;
+	private final String dataAlgorithm;
+	private final KeyExchange keyExchange;
+
+	EncryptionSuite(String profileName, String dataAlgorithm, KeyExchange keyExchange) {
+		this.profileName = profileName;
+		this.dataAlgorithm = dataAlgorithm;
+		this.keyExchange = keyExchange;
+	}
+
+	/** 設定で使用する名前 */
+	public String getProfileName() {
+		return profileName;
+	}
+
+	/** データ暗号化のアルゴリズム URI */
+	public String getDataAlgorithm() {
+		return dataAlgorithm;
+	}
+
+	public KeyExchange getKeyExchange() {
+		return keyExchange;
+	}
+
+	/**
+	 * 設定で使用する名前から方式を取得します。
+	 */
+	public static EncryptionSuite fromProfileName(String profileName) {
+		for (EncryptionSuite suite : values()) {
+			if (suite.profileName.equals(profileName.trim())) {
+				return suite;
+			}
+		}
+		throw new IllegalArgumentException("未対応の暗号化プロファイルです: " + profileName);
+	}
+}
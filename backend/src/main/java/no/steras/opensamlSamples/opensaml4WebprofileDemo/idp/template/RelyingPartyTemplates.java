@@ -0,0 +1,416 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.template;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.schema.XSString;
+import org.opensaml.core.xml.schema.impl.XSStringBuilder;
+import org.opensaml.saml.saml2.core.ArtifactResponse;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.Attribute;
+import org.opensaml.saml.saml2.core.AttributeStatement;
+import org.opensaml.saml.saml2.core.AttributeValue;
+import org.opensaml.saml.saml2.core.Audience;
+import org.opensaml.saml.saml2.core.AudienceRestriction;
+import org.opensaml.saml.saml2.core.AuthnContext;
+import org.opensaml.saml.saml2.core.AuthnContextClassRef;
+import org.opensaml.saml.saml2.core.AuthnStatement;
+import org.opensaml.saml.saml2.core.Conditions;
+import org.opensaml.saml.saml2.core.Issuer;
+import org.opensaml.saml.saml2.core.NameID;
+import org.opensaml.saml.saml2.core.NameIDType;
+import org.opensaml.saml.saml2.core.Response;
+import org.opensaml.saml.saml2.core.Status;
+import org.opensaml.saml.saml2.core.StatusCode;
+import org.opensaml.saml.saml2.core.StatusResponseType;
+import org.opensaml.saml.saml2.core.Subject;
+import org.opensaml.saml.saml2.core.SubjectConfirmation;
+import org.opensaml.saml.saml2.core.SubjectConfirmationData;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.OpenSAMLUtils;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact.ArtifactEntry;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.xml.SAMLObjectTemplate;
+
+/**
+ * 1 つの SP（Relying Party）向けに事前構築した ArtifactResponse / Response / Assertion のテンプレート。
+ *
+ * Issuer, Status/StatusCode, Conditions/AudienceRestriction, SubjectConfirmationData, AuthnContext などの
+ * SP ごとに不変な部分は初回に一度だけ構築し、リクエストごとには ID・日時・NameID・属性値のみを埋め込みます。
+ */
+public class RelyingPartyTemplates {
+	// アサーションの有効期間
+	public static final Duration ASSERTION_VALIDITY = Duration.ofMinutes(10);
+
+	// プロトタイプに入れるプレースホルダー値（インスタンス化時に必ず上書きされる）
+	private static final String PLACEHOLDER_ID = "_template";
+	private static final Instant PLACEHOLDER_INSTANT = Instant.EPOCH;
+	private static final String PLACEHOLDER_PRINCIPAL = "template";
+
+	private final String acsUrl;
+	private final SAMLObjectTemplate<Assertion> assertionTemplate;
+	private final SAMLObjectTemplate<ArtifactResponse> artifactResponseTemplate;
+	private final SAMLObjectTemplate<Response> responseTemplate;
+
+	/**
+	 * @param idpEntityId IdP のエンティティ ID
+	 * @param spEntityId  SP のエンティティ ID（Audience, SPNameQualifier に使用）
+	 * @param acsUrl      SP の Assertion Consumer Service URL（Destination, Recipient に使用）
+	 */
+	public RelyingPartyTemplates(String idpEntityId, String spEntityId, String acsUrl) {
+		this.acsUrl = acsUrl;
+		assertionTemplate = buildAssertionTemplate(idpEntityId, spEntityId, acsUrl);
+		artifactResponseTemplate = buildArtifactResponseTemplate(idpEntityId, acsUrl);
+		responseTemplate = buildResponseTemplate(idpEntityId, acsUrl);
+	}
+
+	/**
+	 * 認証結果からアサーションを生成します（ID・日時・NameID・AuthnRequest の ID・属性値のみ埋め込み）。
+	 * SubjectConfirmationData の InResponseTo には {@link ArtifactEntry#inResponseTo()} を設定し、
+	 * 署名済みアサーションを別の Response に入れ替えて再利用されないよう要求と結び付けます。
+	 */
+	public Assertion newAssertion(ArtifactEntry entry) {
+		return assertionTemplate.instantiate(assertionValues(entry));
+	}
+
+	/**
+	 * {@link #newAssertion(ArtifactEntry)} と同じアサーションを、XMLObject に変換せず DOM 要素として生成します
+	 * （署名せずに DOM のまま使用する場合用）。
+	 */
+	public Element newAssertionElement(ArtifactEntry entry) {
+		return assertionTemplate.instantiateElement(assertionValues(entry));
+	}
+
+	/**
+	 * アサーションを格納する Response を含んだ ArtifactResponse を生成します。
+	 *
+	 * @param inResponseTo 対応する ArtifactResolve の ID
+	 */
+	public ArtifactResponse newArtifactResponse(String inResponseTo) {
+		return artifactResponseTemplate.instantiate(artifactResponseValues(inResponseTo));
+	}
+
+	/**
+	 * 暗号化済みのアサーションを内側の Response に格納した ArtifactResponse を DOM 要素として生成します。
+	 *
+	 * @param inResponseTo       対応する ArtifactResolve の ID
+	 * @param encryptedAssertion 格納する EncryptedAssertion の要素（生成した要素のドキュメントへ移動される）
+	 */
+	public Element newArtifactResponseElement(String inResponseTo, Element encryptedAssertion) {
+		Element artifactResponse = artifactResponseTemplate.instantiateElement(artifactResponseValues(inResponseTo));
+		// 内側の Response は ArtifactResponse の最後の子要素（マーシャリングした DOM には空白のテキストノードがない）
+		appendAdopted((Element) artifactResponse.getLastChild(), encryptedAssertion);
+		return artifactResponse;
+	}
+
+	/**
+	 * HTTP-POST バインディングで SP へ直接送る Response を生成します（アサーションは呼び出し側で追加）。
+	 *
+	 * @param inResponseTo 対応する AuthnRequest の ID
+	 */
+	public Response newResponse(String inResponseTo) {
+		return responseTemplate.instantiate(responseValues(inResponseTo));
+	}
+
+	/**
+	 * 暗号化済みのアサーションを格納した、HTTP-POST バインディングの Response を DOM 要素として生成します。
+	 *
+	 * @param inResponseTo       対応する AuthnRequest の ID
+	 * @param encryptedAssertion 格納する EncryptedAssertion の要素（生成した要素のドキュメントへ移動される）
+	 */
+	public Element newResponseElement(String inResponseTo, Element encryptedAssertion) {
+		Element response = responseTemplate.instantiateElement(responseValues(inResponseTo));
+		appendAdopted(response, encryptedAssertion);
+		return response;
+	}
+
+	private static String[] assertionValues(ArtifactEntry entry) {
+		Instant now = Instant.now();
+		String issueInstant = SAMLObjectTemplate.instant(now);
+		String notOnOrAfter = SAMLObjectTemplate.instant(now.plus(ASSERTION_VALIDITY));
+		return new String[] {
+				OpenSAMLUtils.generateSecureRandomId(),
+				issueInstant,
+				nameIdFor(entry.principal()),
+				issueInstant,
+				notOnOrAfter,
+				entry.inResponseTo(),
+				issueInstant,
+				notOnOrAfter,
+				SAMLObjectTemplate.instant(entry.authnInstant()),
+				entry.principal() };
+	}
+
+	private static String[] artifactResponseValues(String inResponseTo) {
+		String issueInstant = SAMLObjectTemplate.instant(Instant.now());
+		return new String[] {
+				OpenSAMLUtils.generateSecureRandomId(),
+				issueInstant,
+				inResponseTo,
+				OpenSAMLUtils.generateSecureRandomId(),
+				issueInstant };
+	}
+
+	private static String[] responseValues(String inResponseTo) {
+		String issueInstant = SAMLObjectTemplate.instant(Instant.now());
+		return new String[] {
+				OpenSAMLUtils.generateSecureRandomId(),
+				issueInstant,
+				inResponseTo };
+	}
+
+	/**
+	 * 別のドキュメントの要素を移動して子要素の末尾に追加します（移動できない DOM 実装の場合は複製）。
+	 */
+	private static void appendAdopted(Element parent, Element child) {
+		Node adopted = parent.getOwnerDocument().adoptNode(child);
+		parent.appendChild(adopted != null ? adopted : parent.getOwnerDocument().importNode(child, true));
+	}
+
+	/**
+	 * テンプレートの宛先（Destination, Recipient）に使用している SP の Assertion Consumer Service URL。
+	 */
+	public String getAssertionConsumerService() {
+		return acsUrl;
+	}
+
+	/**
+	 * ユーザー名から NameID の値を導出します（デモ用）。
+	 */
+	private static String nameIdFor(String principal) {
+		return principal + "-at-idp-demo";
+	}
+
+	private static SAMLObjectTemplate<Assertion> buildAssertionTemplate(String idpEntityId, String spEntityId,
+			String acsUrl) {
+		Assertion prototype = buildAssertion(idpEntityId, spEntityId, acsUrl, PLACEHOLDER_ID, PLACEHOLDER_INSTANT,
+				PLACEHOLDER_PRINCIPAL, PLACEHOLDER_INSTANT, PLACEHOLDER_ID);
+
+		SubjectConfirmationData confirmationData = prototype.getSubject().getSubjectConfirmations().get(0)
+				.getSubjectConfirmationData();
+		Conditions conditions = prototype.getConditions();
+		Attribute userName = prototype.getAttributeStatements().get(0).getAttributes().get(0);
+
+		// instantiate() / instantiateElement() に渡す値（assertionValues）の順序はここでの登録順
+		return new SAMLObjectTemplate.Builder<>(prototype)
+				.attribute(prototype, Assertion.ID_ATTRIB_NAME)
+				.attribute(prototype, Assertion.ISSUE_INSTANT_ATTRIB_NAME)
+				.text(prototype.getSubject().getNameID())
+				.attribute(confirmationData, SubjectConfirmationData.NOT_BEFORE_ATTRIB_NAME)
+				.attribute(confirmationData, SubjectConfirmationData.NOT_ON_OR_AFTER_ATTRIB_NAME)
+				.attribute(confirmationData, SubjectConfirmationData.IN_RESPONSE_TO_ATTRIB_NAME)
+				.attribute(conditions, Conditions.NOT_BEFORE_ATTRIB_NAME)
+				.attribute(conditions, Conditions.NOT_ON_OR_AFTER_ATTRIB_NAME)
+				.attribute(prototype.getAuthnStatements().get(0), AuthnStatement.AUTHN_INSTANT_ATTRIB_NAME)
+				.text(userName.getAttributeValues().get(0))
+				.build();
+	}
+
+	private static SAMLObjectTemplate<ArtifactResponse> buildArtifactResponseTemplate(String idpEntityId,
+			String acsUrl) {
+		ArtifactResponse prototype = buildArtifactResponse(idpEntityId, acsUrl, PLACEHOLDER_ID, PLACEHOLDER_INSTANT,
+				PLACEHOLDER_ID, PLACEHOLDER_ID);
+
+		return new SAMLObjectTemplate.Builder<>(prototype)
+				.attribute(prototype, StatusResponseType.ID_ATTRIB_NAME)
+				.attribute(prototype, StatusResponseType.ISSUE_INSTANT_ATTRIB_NAME)
+				.attribute(prototype, StatusResponseType.IN_RESPONSE_TO_ATTRIB_NAME)
+				.attribute(prototype.getMessage(), StatusResponseType.ID_ATTRIB_NAME)
+				.attribute(prototype.getMessage(), StatusResponseType.ISSUE_INSTANT_ATTRIB_NAME)
+				.build();
+	}
+
+	private static SAMLObjectTemplate<Response> buildResponseTemplate(String idpEntityId, String acsUrl) {
+		Response prototype = buildResponse(idpEntityId, acsUrl, PLACEHOLDER_ID, PLACEHOLDER_INSTANT, PLACEHOLDER_ID);
+
+		return new SAMLObjectTemplate.Builder<>(prototype)
+				.attribute(prototype, StatusResponseType.ID_ATTRIB_NAME)
+				.attribute(prototype, StatusResponseType.ISSUE_INSTANT_ATTRIB_NAME)
+				.attribute(prototype, StatusResponseType.IN_RESPONSE_TO_ATTRIB_NAME)
+				.build();
+	}
+
+	/**
+	 * SAML レスポンスの階層構造を OpenSAML のビルダーで一から構築します。
+	 * ArtifactResponse -> Response という構造になります（テンプレートのプロトタイプ、および比較用）。
+	 *
+	 * @param responseId 内側の Response の ID。null の場合は Response を含めない
+	 */
+	public static ArtifactResponse buildArtifactResponse(String idpEntityId, String acsUrl, String id,
+			Instant issueInstant, String inResponseTo, String responseId) {
+		// ArtifactResponse の構築（外側のコンテナ）
+		ArtifactResponse artifactResponse = OpenSAMLUtils.buildSAMLObject(ArtifactResponse.class);
+		artifactResponse.setIssuer(buildIssuer(idpEntityId));
+		artifactResponse.setIssueInstant(issueInstant);
+		artifactResponse.setDestination(acsUrl);
+		artifactResponse.setID(id);
+		artifactResponse.setInResponseTo(inResponseTo);
+		artifactResponse.setStatus(buildSuccessStatus());
+
+		if (responseId == null) {
+			return artifactResponse;
+		}
+
+		// Response の構築（実際にアサーションを運ぶメッセージ）
+		artifactResponse.setMessage(buildResponse(idpEntityId, acsUrl, responseId, issueInstant, null));
+		return artifactResponse;
+	}
+
+	/**
+	 * アサーションを運ぶ Response を OpenSAML のビルダーで一から構築します。
+	 * ArtifactResponse に格納する場合は InResponseTo を持たず、HTTP-POST バインディングでは AuthnRequest の ID を設定します。
+	 *
+	 * @param inResponseTo 対応する AuthnRequest の ID。null の場合は設定しない
+	 */
+	public static Response buildResponse(String idpEntityId, String acsUrl, String id, Instant issueInstant,
+			String inResponseTo) {
+		Response response = OpenSAMLUtils.buildSAMLObject(Response.class);
+		response.setDestination(acsUrl);
+		response.setIssueInstant(issueInstant);
+		response.setID(id);
+		response.setInResponseTo(inResponseTo);
+		response.setIssuer(buildIssuer(idpEntityId));
+		response.setStatus(buildSuccessStatus());
+		return response;
+	}
+
+	/**
+	 * ユーザーの認証情報や属性を含むアサーションを OpenSAML のビルダーで一から構築します
+	 * （テンプレートのプロトタイプ、および比較用）。
+	 *
+	 * @param inResponseTo 対応する AuthnRequest の ID。null の場合は設定しない
+	 */
+	public static Assertion buildAssertion(String idpEntityId, String spEntityId, String acsUrl, String id,
+			Instant issueInstant, String principal, Instant authnInstant, String inResponseTo) {
+		Assertion assertion = OpenSAMLUtils.buildSAMLObject(Assertion.class);
+		assertion.setIssuer(buildIssuer(idpEntityId));
+		assertion.setIssueInstant(issueInstant);
+		assertion.setID(id);
+
+		// 認証対象(Subject)の設定
+		Subject subject = OpenSAMLUtils.buildSAMLObject(Subject.class);
+		assertion.setSubject(subject);
+
+		// 名前 ID (NameID) の設定。認証されたユーザー名から導出したデモ用の値を設定。
+		NameID nameID = OpenSAMLUtils.buildSAMLObject(NameID.class);
+		nameID.setFormat(NameIDType.TRANSIENT);
+		nameID.setValue(nameIdFor(principal));
+		nameID.setSPNameQualifier(spEntityId);
+		nameID.setNameQualifier(idpEntityId);
+		subject.setNameID(nameID);
+
+		Instant notOnOrAfter = issueInstant.plus(ASSERTION_VALIDITY);
+
+		// 認証の有効性(SubjectConfirmation)を設定
+		subject.getSubjectConfirmations().add(buildSubjectConfirmation(acsUrl, issueInstant, notOnOrAfter,
+				inResponseTo));
+
+		// 有効期限や対象範囲(Conditions)の設定
+		assertion.setConditions(buildConditions(spEntityId, issueInstant, notOnOrAfter));
+
+		// ユーザー属性(AttributeStatement)と認証情報(AuthnStatement)の設定
+		assertion.getAttributeStatements().add(buildAttributeStatement(principal));
+		assertion.getAuthnStatements().add(buildAuthnStatement(authnInstant));
+
+		return assertion;
+	}
+
+	private static Issuer buildIssuer(String idpEntityId) {
+		Issuer issuer = OpenSAMLUtils.buildSAMLObject(Issuer.class);
+		issuer.setValue(idpEntityId);
+		return issuer;
+	}
+
+	/**
+	 * 成功ステータスの構築
+	 */
+	private static Status buildSuccessStatus() {
+		Status status = OpenSAMLUtils.buildSAMLObject(Status.class);
+		StatusCode statusCode = OpenSAMLUtils.buildSAMLObject(StatusCode.class);
+		statusCode.setValue(StatusCode.SUCCESS);
+		status.setStatusCode(statusCode);
+		return status;
+	}
+
+	/**
+	 * SubjectConfirmationの構築（Recipient と InResponseTo でアサーションを ACS と AuthnRequest に結び付ける）
+	 */
+	private static SubjectConfirmation buildSubjectConfirmation(String acsUrl, Instant notBefore,
+			Instant notOnOrAfter, String inResponseTo) {
+		SubjectConfirmation subjectConfirmation = OpenSAMLUtils.buildSAMLObject(SubjectConfirmation.class);
+		subjectConfirmation.setMethod(SubjectConfirmation.METHOD_BEARER);
+
+		SubjectConfirmationData subjectConfirmationData = OpenSAMLUtils.buildSAMLObject(SubjectConfirmationData.class);
+		subjectConfirmationData.setInResponseTo(inResponseTo);
+		subjectConfirmationData.setNotBefore(notBefore);
+		subjectConfirmationData.setNotOnOrAfter(notOnOrAfter);
+		subjectConfirmationData.setRecipient(acsUrl);
+
+		subjectConfirmation.setSubjectConfirmationData(subjectConfirmationData);
+
+		return subjectConfirmation;
+	}
+
+	/**
+	 * AuthnStatementの構築
+	 */
+	private static AuthnStatement buildAuthnStatement(Instant authnInstant) {
+		AuthnStatement authnStatement = OpenSAMLUtils.buildSAMLObject(AuthnStatement.class);
+		AuthnContext authnContext = OpenSAMLUtils.buildSAMLObject(AuthnContext.class);
+		AuthnContextClassRef authnContextClassRef = OpenSAMLUtils.buildSAMLObject(AuthnContextClassRef.class);
+
+		// スマートカード認証相当の結果として設定
+		authnContextClassRef.setURI(AuthnContext.SMARTCARD_AUTHN_CTX);
+		authnContext.setAuthnContextClassRef(authnContextClassRef);
+		authnStatement.setAuthnContext(authnContext);
+		authnStatement.setAuthnInstant(authnInstant);
+
+		return authnStatement;
+	}
+
+	/**
+	 * Conditionsの構築
+	 */
+	private static Conditions buildConditions(String spEntityId, Instant notBefore, Instant notOnOrAfter) {
+		Conditions conditions = OpenSAMLUtils.buildSAMLObject(Conditions.class);
+		conditions.setNotBefore(notBefore);
+		conditions.setNotOnOrAfter(notOnOrAfter);
+
+		AudienceRestriction audienceRestriction = OpenSAMLUtils.buildSAMLObject(AudienceRestriction.class);
+		Audience audience = OpenSAMLUtils.buildSAMLObject(Audience.class);
+		audience.setURI(spEntityId);
+		audienceRestriction.getAudiences().add(audience);
+		conditions.getAudienceRestrictions().add(audienceRestriction);
+
+		return conditions;
+	}
+
+	/**
+	 * ユーザーの属性（ユーザー名、役割など）を構築します。
+	 */
+	private static AttributeStatement buildAttributeStatement(String principal) {
+		AttributeStatement attributeStatement = OpenSAMLUtils.buildSAMLObject(AttributeStatement.class);
+
+		// ユーザー名属性の追加
+		Attribute attributeUserName = OpenSAMLUtils.buildSAMLObject(Attribute.class);
+		XSStringBuilder stringBuilder = (XSStringBuilder) XMLObjectProviderRegistrySupport.getBuilderFactory()
+				.getBuilder(XSString.TYPE_NAME);
+		XSString userNameValue = stringBuilder.buildObject(AttributeValue.DEFAULT_ELEMENT_NAME, XSString.TYPE_NAME);
+		userNameValue.setValue(principal);
+		attributeUserName.getAttributeValues().add(userNameValue);
+		attributeUserName.setName("username");
+		attributeStatement.getAttributes().add(attributeUserName);
+
+		// 役割や追加情報の追加
+		Attribute attributeRole = OpenSAMLUtils.buildSAMLObject(Attribute.class);
+		XSString roleValue = stringBuilder.buildObject(AttributeValue.DEFAULT_ELEMENT_NAME, XSString.TYPE_NAME);
+		roleValue.setValue("Administrator");
+		attributeRole.getAttributeValues().add(roleValue);
+		attributeRole.setName("role");
+		attributeStatement.getAttributes().add(attributeRole);
+
+		return attributeStatement;
+	}
+}
@@ -0,0 +1,64 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.template;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.IDPConstants;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.binding.ResponseBinding;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata.EntityMetadata;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata.MetadataResolver;
+
+/**
+ * SP（Relying Party）ごとのレスポンステンプレートを保持するレジストリ。
+ *
+ * 宛先（Destination, Recipient）にはメタデータにある SP の AssertionConsumerService をバインディングごとに使用します。
+ * テンプレートは SP と ACS の組み合わせごとに最初の解決要求で一度だけ構築され、以降は再利用されます
+ * （OpenSAML の初期化後に構築する必要があるため遅延生成）。ACS は呼び出しごとにメタデータから引くため、
+ * メタデータの更新で ACS が変わった場合は新しいテンプレートが構築されます。
+ */
+public class ResponseTemplateRegistry {
+	private final MetadataResolver metadataResolver;
+	private final Map<Key, RelyingPartyTemplates> templates = new ConcurrentHashMap<>();
+
+	/**
+	 * テンプレートを識別するキー（SP のエンティティ ID と ACS の URL）。
+	 */
+	private record Key(String spEntityId, String acsUrl) {
+	}
+
+	/**
+	 * @param metadataResolver SP の AssertionConsumerService を取得するメタデータ
+	 */
+	public ResponseTemplateRegistry(MetadataResolver metadataResolver) {
+		this.metadataResolver = metadataResolver;
+	}
+
+	/**
+	 * 指定された SP とバインディング向けのテンプレートを取得します。
+	 *
+	 * @param spEntityId SP のエンティティ ID
+	 * @param bindingUri 認証結果を返すバインディングの URI（ACS の選択に使用）
+	 * @throws IllegalStateException メタデータにそのバインディングの ACS がない場合
+	 */
+	public RelyingPartyTemplates forRelyingParty(String spEntityId, String bindingUri) {
+		EntityMetadata.ServiceProvider serviceProvider = metadataResolver.getServiceProvider(spEntityId);
+		String acsUrl = serviceProvider != null ? serviceProvider.getAssertionConsumerService(bindingUri) : null;
+		if (acsUrl == null) {
+			throw new IllegalStateException("SP (" + spEntityId + ") のメタデータに AssertionConsumerService ("
+					+ bindingUri + ") がありません");
+		}
+		return templates.computeIfAbsent(new Key(spEntityId, acsUrl),
+				key -> new RelyingPartyTemplates(IDPConstants.IDP_ENTITY_ID, key.spEntityId(), key.acsUrl()));
+	}
+
+	/**
+	 * 指定された SP の全てのレスポンスバインディング向けテンプレートを事前に構築します（起動時の準備用）。
+	 *
+	 * @param spEntityId SP のエンティティ ID
+	 */
+	public void warmUp(String spEntityId) {
+		for (ResponseBinding binding : ResponseBinding.values()) {
+			forRelyingParty(spEntityId, binding.getBindingUri());
+		}
+	}
+}
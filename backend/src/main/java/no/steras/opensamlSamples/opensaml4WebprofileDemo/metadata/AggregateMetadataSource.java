@@ -0,0 +1,235 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+
+import javax.crypto.SecretKey;
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.xml.security.exceptions.XMLSecurityException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ファイルまたは HTTP(S) の URL からメタデータの集約を読み込みます。
+ *
+ * 集約はバッファに溜めずに {@link StreamingMetadataParser} へストリームで渡します。
+ * 変更がない場合は解析しないよう、ファイルは更新時刻、HTTP は ETag / Last-Modified による条件付きリクエストで確認します。
+ *
+ * スナップショットのパスを指定した場合は、検証に成功した集約を {@link MetadataSnapshot} として保存し、
+ * 次回の起動時はスナップショットから復元して、集約の解析と署名検証を起動時に行わないようにします。
+ * 復元後の最初の読み込みは、スナップショットの元になったバージョンに対する条件付きの確認になります。
+ *
+ * スナップショットは設定で渡した鍵の HMAC で保護し、HMAC が一致しないファイルは復元しません。
+ * 作成から最大有効期間を過ぎたスナップショットは復元せず、復元したスナップショットもその期限までに
+ * 再検証（読み込み）が成功しなければ {@link MetadataResolver} が使用を止めます。
+ */
+public class AggregateMetadataSource implements MetadataSource {
+	private static Logger logger = LoggerFactory.getLogger(AggregateMetadataSource.class);
+
+	private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+	private static final Duration REQUEST_TIMEOUT = Duration.ofMinutes(5);
+
+	private final String location;
+	private final StreamingMetadataParser parser;
+	private final HttpClient httpClient;
+	private final Path snapshotPath;
+	// スナップショットの HMAC の鍵（スナップショットと同じ場所には保存しない）
+	private final SecretKey snapshotIntegrityKey;
+	// 再検証に成功しないままスナップショットを使用できる期間（作成時刻から）
+	private final Duration snapshotMaxAge;
+	// 署名検証に使用する鍵の指紋（スナップショットの作成時と鍵の設定が異なる場合は復元しない）
+	private final String trust;
+
+	// 前回読み込んだ集約のバージョン（変更の確認用）
+	private long lastModifiedMillis = -1;
+	private String etag;
+	private String lastModified;
+
+	/**
+	 * @param location ファイルパス、または http:// / https:// の URL
+	 * @param parser   集約の解析に使用するパーサー（署名検証用の鍵を含む）
+	 * @param snapshotPath 検証済みの集約のスナップショットの保存先（保存しない場合は null）
+	 * @param snapshotIntegrityKey スナップショットの HMAC の鍵（スナップショットを保存する場合は必須）
+	 * @param snapshotMaxAge 再検証に成功しないままスナップショットを使用できる期間
+	 */
+	public AggregateMetadataSource(String location, StreamingMetadataParser parser, Path snapshotPath,
+			SecretKey snapshotIntegrityKey, Duration snapshotMaxAge) {
+		if (snapshotPath != null && snapshotIntegrityKey == null) {
+			throw new IllegalStateException("メタデータのスナップショットには HMAC の鍵が必要です");
+		}
+		this.location = location;
+		this.parser = parser;
+		this.snapshotPath = snapshotPath;
+		this.snapshotIntegrityKey = snapshotIntegrityKey;
+		this.snapshotMaxAge = snapshotMaxAge;
+		this.trust = fingerprint(parser.getVerificationKey());
+		this.httpClient = isHttp(location)
+				? HttpClient.newBuilder().connectTimeout(CONNECT_TIMEOUT).followRedirects(HttpClient.Redirect.NORMAL).build()
+				: null;
+	}
+
+	@Override
+	public synchronized MetadataIndex load() {
+		MetadataIndex index = httpClient != null ? loadFromUrl() : loadFromFile();
+		if (index != null) {
+			writeSnapshot(index);
+		}
+		return index;
+	}
+
+	@Override
+	public synchronized Restored restore() {
+		if (snapshotPath == null || !Files.isRegularFile(snapshotPath)) {
+			return null;
+		}
+		try {
+			MetadataSnapshot snapshot = MetadataSnapshot.open(snapshotPath, snapshotIntegrityKey);
+			if (!location.equals(snapshot.getSourceName()) || !trust.equals(snapshot.getTrust())) {
+				logger.info("メタデータのスナップショット ({}) は現在の設定（集約または署名検証の鍵）と異なるため使用しません", snapshotPath);
+				return null;
+			}
+			Instant revalidateBy = Instant.ofEpochMilli(snapshot.getCreatedAt()).plus(snapshotMaxAge);
+			if (!Instant.now().isBefore(revalidateBy)) {
+				logger.info("メタデータのスナップショット ({}) は最大有効期間 ({}) を過ぎているため使用しません", snapshotPath,
+						snapshotMaxAge);
+				return null;
+			}
+			applyVersion(snapshot.getSourceVersion());
+			return new Restored(snapshot, revalidateBy);
+		} catch (IOException | RuntimeException e) {
+			logger.warn("メタデータのスナップショット ({}) を使用できません: {}", snapshotPath, e.getMessage());
+			return null;
+		}
+	}
+
+	@Override
+	public String getName() {
+		return location;
+	}
+
+	private MetadataIndex loadFromFile() {
+		Path path = Path.of(location);
+		try {
+			long modified = Files.getLastModifiedTime(path).toMillis();
+			if (modified == lastModifiedMillis) {
+				return null;
+			}
+			MetadataIndex index;
+			try (InputStream in = new BufferedInputStream(Files.newInputStream(path), 64 * 1024)) {
+				index = parse(in);
+			}
+			lastModifiedMillis = modified;
+			return index;
+		} catch (IOException e) {
+			throw new RuntimeException("メタデータの読み込みに失敗しました: " + location, e);
+		}
+	}
+
+	private MetadataIndex loadFromUrl() {
+		HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(location)).timeout(REQUEST_TIMEOUT).GET();
+		if (etag != null) {
+			request.header("If-None-Match", etag);
+		}
+		if (lastModified != null) {
+			request.header("If-Modified-Since", lastModified);
+		}
+
+		try {
+			HttpResponse<InputStream> response = httpClient.send(request.build(), HttpResponse.BodyHandlers.ofInputStream());
+			try (InputStream in = new BufferedInputStream(response.body(), 64 * 1024)) {
+				if (response.statusCode() == 304) {
+					return null;
+				}
+				if (response.statusCode() != 200) {
+					throw new RuntimeException("メタデータの取得に失敗しました: " + location + " (HTTP " + response.statusCode() + ")");
+				}
+				MetadataIndex index = parse(in);
+				// 解析と署名検証に成功した場合だけバージョンを記録する
+				etag = response.headers().firstValue("ETag").orElse(null);
+				lastModified = response.headers().firstValue("Last-Modified").orElse(null);
+				return index;
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("メタデータの取得に失敗しました: " + location, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("メタデータの取得が中断されました: " + location, e);
+		}
+	}
+
+	private MetadataIndex parse(InputStream in) {
+		try {
+			List<EntityMetadata> entities = parser.parse(in);
+			return new MetadataIndex(entities, location);
+		} catch (XMLStreamException | XMLSecurityException e) {
+			throw new RuntimeException("メタデータの解析または署名検証に失敗しました: " + location, e);
+		}
+	}
+
+	/**
+	 * 検証済みの集約をスナップショットとして保存します。保存に失敗しても読み込みは成功として扱います。
+	 */
+	private void writeSnapshot(MetadataIndex index) {
+		if (snapshotPath == null) {
+			return;
+		}
+		try {
+			MetadataSnapshot.write(snapshotPath, index, currentVersion(), trust, snapshotIntegrityKey);
+		} catch (IOException | RuntimeException e) {
+			logger.warn("メタデータのスナップショット ({}) を保存できません: {}", snapshotPath, e.getMessage());
+		}
+	}
+
+	/**
+	 * 集約のバージョンを文字列にします（ファイルは更新時刻、HTTP は ETag と Last-Modified）。
+	 */
+	private String currentVersion() {
+		if (httpClient == null) {
+			return Long.toString(lastModifiedMillis);
+		}
+		return (etag != null ? etag : "") + "\n" + (lastModified != null ? lastModified : "");
+	}
+
+	private void applyVersion(String version) {
+		if (version == null) {
+			return;
+		}
+		if (httpClient == null) {
+			lastModifiedMillis = Long.parseLong(version);
+			return;
+		}
+		String[] parts = version.split("\n", -1);
+		etag = parts[0].isEmpty() ? null : parts[0];
+		lastModified = parts.length > 1 && !parts[1].isEmpty() ? parts[1] : null;
+	}
+
+	private static String fingerprint(PublicKey key) {
+		if (key == null) {
+			return "none";
+		}
+		try {
+			return Base64.getEncoder().encodeToString(MessageDigest.getInstance("SHA-256").digest(key.getEncoded()));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 が利用できません", e);
+		}
+	}
+
+	private static boolean isHttp(String location) {
+		return location.startsWith("http://") || location.startsWith("https://");
+	}
+}
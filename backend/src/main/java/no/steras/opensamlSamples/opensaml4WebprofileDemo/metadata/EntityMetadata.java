@@ -0,0 +1,58 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata;
+
+import java.util.List;
+import java.util.Map;
+
+import org.opensaml.security.credential.Credential;
+
+/**
+ * 1 つの EntityDescriptor から、ログインフローで参照する値（エンドポイントと鍵）だけを取り出した不変の値。
+ * XMLObject のツリーを保持しないため、数千エンティティの集約でもメモリ使用量を抑えられます。
+ *
+ * @param entityId         エンティティ ID
+ * @param identityProvider SAML 2.0 の IDPSSODescriptor の内容（ない場合は null）
+ * @param serviceProvider  SAML 2.0 の SPSSODescriptor の内容（ない場合は null）
+ */
+public record EntityMetadata(String entityId, IdentityProvider identityProvider, ServiceProvider serviceProvider) {
+
+	/**
+	 * @param singleSignOnServices      バインディング URI -> SingleSignOnService の Location
+	 * @param artifactResolutionService SOAP バインディングの ArtifactResolutionService の Location（ない場合は null）
+	 * @param signingCredentials        署名の検証に使用する鍵（use="signing" または use 未指定の KeyDescriptor）
+	 */
+	public record IdentityProvider(Map<String, String> singleSignOnServices, String artifactResolutionService,
+			List<Credential> signingCredentials) {
+		public IdentityProvider {
+			singleSignOnServices = Map.copyOf(singleSignOnServices);
+			signingCredentials = List.copyOf(signingCredentials);
+		}
+
+		/**
+		 * @return 指定されたバインディングの SingleSignOnService がない場合は null
+		 */
+		public String getSingleSignOnService(String bindingUri) {
+			return singleSignOnServices.get(bindingUri);
+		}
+	}
+
+	/**
+	 * @param assertionConsumerServices バインディング URI -> AssertionConsumerService の Location（isDefault または最小の index）
+	 * @param signingCredentials        署名の検証に使用する鍵
+	 * @param encryptionCredentials     アサーションの暗号化に使用する鍵（use="encryption" または use 未指定の KeyDescriptor）
+	 */
+	public record ServiceProvider(Map<String, String> assertionConsumerServices, List<Credential> signingCredentials,
+			List<Credential> encryptionCredentials) {
+		public ServiceProvider {
+			assertionConsumerServices = Map.copyOf(assertionConsumerServices);
+			signingCredentials = List.copyOf(signingCredentials);
+			encryptionCredentials = List.copyOf(encryptionCredentials);
+		}
+
+		/**
+		 * @return 指定されたバインディングの AssertionConsumerService がない場合は null
+		 */
+		public String getAssertionConsumerService(String bindingUri) {
+			return assertionConsumerServices.get(bindingUri);
+		}
+	}
+}
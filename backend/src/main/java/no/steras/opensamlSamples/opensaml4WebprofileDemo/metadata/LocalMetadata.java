@@ -0,0 +1,35 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata;
+
+import java.util.List;
+import java.util.Map;
+
+import org.opensaml.saml.common.xml.SAMLConstants;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.IDPConstants;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.IDPCredentials;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.SPConstants;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.SPCredentials;
+
+/**
+ * このデモ自身の SP / IdP のメタデータ（エンドポイントと鍵）を構築します。
+ * SPConstants / IDPConstants の初期化（@PostConstruct）後に呼び出す必要があります。
+ */
+public final class LocalMetadata {
+
+	private LocalMetadata() {
+	}
+
+	public static MetadataIndex build() {
+		EntityMetadata identityProvider = new EntityMetadata(IDPConstants.IDP_ENTITY_ID,
+				new EntityMetadata.IdentityProvider(
+						Map.of(SAMLConstants.SAML2_REDIRECT_BINDING_URI, IDPConstants.SSO_SERVICE),
+						IDPConstants.ARTIFACT_RESOLUTION_SERVICE, List.of(IDPCredentials.getCredential())),
+				null);
+		EntityMetadata serviceProvider = new EntityMetadata(SPConstants.SP_ENTITY_ID, null,
+				new EntityMetadata.ServiceProvider(
+						Map.of(SAMLConstants.SAML2_ARTIFACT_BINDING_URI, SPConstants.ASSERTION_CONSUMER_SERVICE,
+								SAMLConstants.SAML2_POST_BINDING_URI, SPConstants.ASSERTION_CONSUMER_SERVICE),
+						List.of(SPCredentials.getCredential()), List.of(SPCredentials.getCredential())));
+		return new MetadataIndex(List.of(identityProvider, serviceProvider), "local");
+	}
+}
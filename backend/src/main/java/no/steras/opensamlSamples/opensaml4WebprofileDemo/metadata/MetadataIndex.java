@@ -0,0 +1,90 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact.ArtifactIssuer;
+
+/**
+ * 解析済みのエンティティをエンティティ ID とアーティファクトの SourceID で引ける、不変のインデックス。
+ * 構築後は変更しないため、ロックなしで複数スレッドから参照できます（更新時はインデックスごと差し替える）。
+ */
+public final class MetadataIndex implements MetadataLookup {
+	private static Logger logger = LoggerFactory.getLogger(MetadataIndex.class);
+
+	/** エンティティを含まないインデックス */
+	public static final MetadataIndex EMPTY = new MetadataIndex(List.of(), "empty");
+
+	private final Map<String, EntityMetadata> entities;
+	// SourceID（IdP のエンティティ ID の SHA-1）-> IdP。ByteBuffer は内容で比較される
+	private final Map<ByteBuffer, EntityMetadata> identityProvidersBySourceId;
+	private final String sourceName;
+	private final Instant loadedAt = Instant.now();
+
+	/**
+	 * @param entities   インデックスに含めるエンティティ（エンティティ ID が重複する場合は最初のものを使用）
+	 * @param sourceName ログとメトリクスに使用する読み込み元の名前
+	 */
+	public MetadataIndex(Collection<EntityMetadata> entities, String sourceName) {
+		Map<String, EntityMetadata> byEntityId = new HashMap<>(capacityFor(entities.size()));
+		Map<ByteBuffer, EntityMetadata> bySourceId = new HashMap<>();
+		int duplicates = 0;
+		for (EntityMetadata entity : entities) {
+			if (byEntityId.putIfAbsent(entity.entityId(), entity) != null) {
+				duplicates++;
+				continue;
+			}
+			if (entity.identityProvider() != null) {
+				bySourceId.put(ByteBuffer.wrap(ArtifactIssuer.computeSourceId(entity.entityId())), entity);
+			}
+		}
+		if (duplicates > 0) {
+			logger.warn("メタデータ ({}) に重複したエンティティ ID が {} 件あります。最初のものを使用します。", sourceName, duplicates);
+		}
+		this.entities = Collections.unmodifiableMap(byEntityId);
+		this.identityProvidersBySourceId = Collections.unmodifiableMap(bySourceId);
+		this.sourceName = sourceName;
+	}
+
+	@Override
+	public EntityMetadata get(String entityId) {
+		return entityId != null ? entities.get(entityId) : null;
+	}
+
+	@Override
+	public EntityMetadata getBySourceId(byte[] sourceId) {
+		return sourceId != null ? identityProvidersBySourceId.get(ByteBuffer.wrap(sourceId)) : null;
+	}
+
+	/** インデックスに含まれるすべてのエンティティ */
+	public Collection<EntityMetadata> getEntities() {
+		return entities.values();
+	}
+
+	@Override
+	public int size() {
+		return entities.size();
+	}
+
+	@Override
+	public String getSourceName() {
+		return sourceName;
+	}
+
+	/** インデックスを構築した時刻 */
+	public Instant getLoadedAt() {
+		return loadedAt;
+	}
+
+	private static int capacityFor(int size) {
+		return (int) Math.min(1 << 30, size * 4L / 3 + 1);
+	}
+}
@@ -0,0 +1,28 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata;
+
+/**
+ * エンティティ ID とアーティファクトの SourceID でエンティティを引くための、読み取り専用のビュー。
+ *
+ * 解析済みの集約をメモリ上に持つ {@link MetadataIndex} と、ディスク上のスナップショットをメモリマップで参照する
+ * {@link MetadataSnapshot} があります。どちらも不変で、ロックなしで複数スレッドから参照できます。
+ */
+public interface MetadataLookup {
+
+	/**
+	 * @return 未登録の場合は null
+	 */
+	EntityMetadata get(String entityId);
+
+	/**
+	 * アーティファクトの SourceID から発行元の IdP を取得します。
+	 *
+	 * @return 未登録の場合は null
+	 */
+	EntityMetadata getBySourceId(byte[] sourceId);
+
+	/** エンティティの数 */
+	int size();
+
+	/** 読み込み元の名前 */
+	String getSourceName();
+}
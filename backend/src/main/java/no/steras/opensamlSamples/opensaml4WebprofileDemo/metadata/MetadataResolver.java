@@ -0,0 +1,198 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata;
+
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * ログインフローからエンティティのエンドポイントと鍵を参照するためのリゾルバー。
+ *
+ * 設計:
+ * 1. O(1) の参照: このデモ自身の SP / IdP（ローカルのインデックス）と、フェデレーションの集約のインデックスを
+ *    それぞれハッシュマップで引く。XML の解析や検索はログインフローでは行わない。
+ * 2. ロックなしの更新: 集約はバックグラウンドのスレッドで定期的に再読み込みし、解析と署名検証に成功した場合だけ
+ *    volatile フィールドのインデックスを丸ごと差し替える。参照側は更新を待たない。
+ * 3. 失敗時の継続: 再読み込みに失敗した場合は、直前のインデックスを使い続ける。
+ * 4. 起動時間: 取得元が検証済みのスナップショットを復元できる場合は、それを使って即座に参照を開始し、
+ *    集約の再検証（変更の確認）は最初の再読み込みとしてバックグラウンドで行う。
+ *    再検証が期限（スナップショットの最大有効期間）までに一度も成功しない場合は、スナップショットを使用せず
+ *    集約のエンティティを未登録として扱う（古い鍵やエンドポイントを使い続けない）。
+ */
+public class MetadataResolver implements MeterBinder, AutoCloseable {
+	private static Logger logger = LoggerFactory.getLogger(MetadataResolver.class);
+
+	private final MetadataIndex localIndex;
+	private final MetadataSource source;
+	private final ScheduledExecutorService refresher;
+
+	// フェデレーションの集約のインデックス。更新スレッドだけが書き込む
+	private volatile MetadataLookup index = MetadataIndex.EMPTY;
+	// 復元したスナップショットを再検証なしで使用できる期限（エポックミリ秒）。再検証に成功した後は無期限
+	private volatile long revalidateByMillis = Long.MAX_VALUE;
+	private volatile boolean expiredLogged;
+
+	// 統計情報
+	private final LongAdder refreshed = new LongAdder();
+	private final LongAdder unchanged = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+
+	/**
+	 * 集約がある場合は、スナップショットを復元するか、起動時に同期的に読み込みます（読み込めない場合は起動に失敗します）。
+	 *
+	 * @param localIndex      このデモ自身の SP / IdP のインデックス（集約より優先）
+	 * @param source          フェデレーションの集約（ない場合は null）
+	 * @param refreshInterval 集約を再読み込みする間隔
+	 */
+	public MetadataResolver(MetadataIndex localIndex, MetadataSource source, Duration refreshInterval) {
+		this.localIndex = localIndex;
+		this.source = source;
+		if (source == null) {
+			this.refresher = null;
+			logger.info("メタデータリゾルバーを初期化しました (ローカルのエンティティ: {})", localIndex.size());
+			return;
+		}
+
+		long intervalMillis = Math.max(1, refreshInterval.toMillis());
+		long initialDelayMillis = intervalMillis;
+		long start = System.nanoTime();
+		MetadataSource.Restored restored = source.restore();
+		if (restored != null) {
+			// 再検証はすぐにバックグラウンドで行う（変更がなければ解析しない）
+			this.index = restored.lookup();
+			this.revalidateByMillis = restored.revalidateBy().toEpochMilli();
+			initialDelayMillis = 0;
+			logger.info("メタデータのスナップショットから復元しました ({}, エンティティ: {}, 再検証の期限: {}, {} ms)",
+					source.getName(), index.size(), restored.revalidateBy(),
+					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		} else {
+			MetadataIndex initial = source.load();
+			this.index = initial != null ? initial : MetadataIndex.EMPTY;
+			logger.info("メタデータの集約を読み込みました ({}, エンティティ: {}, {} ms)", source.getName(), index.size(),
+					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		}
+
+		refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "metadata-refresh");
+			thread.setDaemon(true);
+			return thread;
+		});
+		refresher.scheduleWithFixedDelay(this::refresh, initialDelayMillis, intervalMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * エンティティ ID からエンティティを取得します。
+	 *
+	 * @return 未登録の場合は null
+	 */
+	public EntityMetadata getEntity(String entityId) {
+		EntityMetadata entity = localIndex.get(entityId);
+		return entity != null ? entity : aggregate().get(entityId);
+	}
+
+	/**
+	 * アーティファクトの SourceID から発行元の IdP を取得します。
+	 *
+	 * @return 未登録の場合は null
+	 */
+	public EntityMetadata getEntityBySourceId(byte[] sourceId) {
+		EntityMetadata entity = localIndex.getBySourceId(sourceId);
+		return entity != null ? entity : aggregate().getBySourceId(sourceId);
+	}
+
+	/**
+	 * IdP のロールを取得します。
+	 *
+	 * @return 未登録、または IdP のロールを持たない場合は null
+	 */
+	public EntityMetadata.IdentityProvider getIdentityProvider(String entityId) {
+		EntityMetadata entity = getEntity(entityId);
+		return entity != null ? entity.identityProvider() : null;
+	}
+
+	/**
+	 * SP のロールを取得します。
+	 *
+	 * @return 未登録、または SP のロールを持たない場合は null
+	 */
+	public EntityMetadata.ServiceProvider getServiceProvider(String entityId) {
+		EntityMetadata entity = getEntity(entityId);
+		return entity != null ? entity.serviceProvider() : null;
+	}
+
+	/**
+	 * 参照に使用する集約のインデックスを返します。復元したスナップショットが再検証の期限を過ぎている場合は空です。
+	 */
+	private MetadataLookup aggregate() {
+		if (System.currentTimeMillis() < revalidateByMillis) {
+			return index;
+		}
+		if (!expiredLogged) {
+			expiredLogged = true;
+			logger.error("メタデータのスナップショットを再検証できないまま期限を過ぎたため、集約のエンティティを使用しません ({})",
+					source.getName());
+		}
+		return MetadataIndex.EMPTY;
+	}
+
+	/**
+	 * 集約を再読み込みし、変更があればインデックスを差し替えます。
+	 */
+	private void refresh() {
+		try {
+			long start = System.nanoTime();
+			MetadataIndex next = source.load();
+			if (next == null) {
+				// 変更がないことを確認できたため、スナップショットは再検証済み
+				revalidateByMillis = Long.MAX_VALUE;
+				expiredLogged = false;
+				unchanged.increment();
+				return;
+			}
+			index = next;
+			revalidateByMillis = Long.MAX_VALUE;
+			expiredLogged = false;
+			refreshed.increment();
+			logger.info("メタデータの集約を更新しました ({}, エンティティ: {}, {} ms)", source.getName(), next.size(),
+					TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		} catch (RuntimeException e) {
+			// 例外でスケジュールが止まらないよう、ログ出力のみ行い直前のインデックスを使い続ける
+			failed.increment();
+			logger.error("メタデータの集約の更新に失敗しました。直前のメタデータを使い続けます: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * エンティティ数と再読み込みの結果を Actuator のメトリクスとして公開します。
+	 */
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder("saml.metadata.entities", this, resolver -> resolver.aggregate().size() + resolver.localIndex.size())
+				.description("参照できるエンティティの数").register(registry);
+		FunctionCounter.builder("saml.metadata.refreshes", refreshed, LongAdder::sum).tag("result", "refreshed")
+				.description("メタデータの集約を更新した回数").register(registry);
+		FunctionCounter.builder("saml.metadata.refreshes", unchanged, LongAdder::sum).tag("result", "unchanged")
+				.description("メタデータの集約に変更がなかった回数").register(registry);
+		FunctionCounter.builder("saml.metadata.refreshes", failed, LongAdder::sum).tag("result", "failed")
+				.description("メタデータの集約の更新に失敗した回数").register(registry);
+	}
+
+	/**
+	 * アプリケーション終了時に更新スレッドを停止します。
+	 */
+	@Override
+	public void close() {
+		if (refresher != null) {
+			refresher.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,508 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateFactory;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.opensaml.security.credential.Credential;
+import org.opensaml.security.x509.X509Credential;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact.ArtifactIssuer;
+
+/**
+ * 検証済みのメタデータのインデックスを保存したバイナリ形式のスナップショット。
+ *
+ * 起動時はファイルをメモリマップし、XML の解析や署名検証をせずに参照を開始できます。
+ * エンティティはオープンアドレス法のハッシュテーブル（エンティティ ID 用と SourceID 用）で引き、
+ * 参照されたエンティティだけをその時点で復元してキャッシュします（証明書の解析も参照時に 1 回だけ行う）。
+ *
+ * スナップショットには IdP の署名用の鍵やエンドポイントが含まれるため、ファイル全体を HMAC-SHA256 で保護します。
+ * HMAC の鍵はスナップショットと同じ場所には保存せず、設定から渡します。開くときは参照の前にファイル全体の
+ * HMAC を検証し、改ざんされたファイルや別の鍵で作成されたファイルは使用しません（ファイルサイズに比例する唯一の処理）。
+ *
+ * ファイルの構成（数値はすべてビッグエンディアン、文字列は u16 の長さ + UTF-8。0xFFFF は null）:
+ * <pre>
+ * ヘッダー    magic (8) | format (4) | ファイル長 (8) | エンティティ数 (4) | テーブルサイズ (4)
+ *             | 作成時刻 (8) | 読み込み元 | 読み込み元のバージョン | 署名検証の鍵の指紋
+ * テーブル    エンティティ ID 用 [テーブルサイズ × レコードの位置 (4)] | SourceID 用 [同左]（0 は空きスロット）
+ * レコード    エンティティ ID | ロール (1) | IdP: SourceID (20), SSO の数 (2), [バインディング, Location]...,
+ *             ArtifactResolutionService, 署名用の証明書 | SP: ACS の数 (2), [バインディング, Location]...,
+ *             署名用の証明書, 暗号化用の証明書（証明書は数 (2) + [長さ (4) + DER]...）
+ * HMAC       ファイルの先頭から HMAC の直前までの HMAC-SHA256 (32)
+ * </pre>
+ *
+ * ファイルは一時ファイルに書き込んでから置き換えるため、マップ中のスナップショットは置き換え後も以前の内容のまま参照できます。
+ */
+public final class MetadataSnapshot implements MetadataLookup {
+	private static final long MAGIC = 0x53414D4C4D44534EL; // "SAMLMDSN"
+	private static final int FORMAT = 2;
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+	private static final int MAC_LENGTH = 32;
+	private static final int NULL_STRING = 0xFFFF;
+	private static final int SOURCE_ID_LENGTH = 20;
+	private static final int ROLE_IDENTITY_PROVIDER = 1;
+	private static final int ROLE_SERVICE_PROVIDER = 2;
+
+	private final ByteBuffer buffer;
+	private final int entityCount;
+	private final int tableSize;
+	private final int entityIdTable;
+	private final int sourceIdTable;
+	private final long createdAt;
+	private final String sourceName;
+	private final String sourceVersion;
+	private final String trust;
+
+	// 復元済みのエンティティ（レコードの位置 -> エンティティ）。参照されたエンティティだけを保持する
+	private final Map<Integer, EntityMetadata> decoded = new ConcurrentHashMap<>();
+
+	private MetadataSnapshot(ByteBuffer buffer) {
+		this.buffer = buffer;
+		if (buffer.capacity() < 36 || buffer.getLong(0) != MAGIC) {
+			throw new IllegalStateException("メタデータのスナップショットではありません");
+		}
+		if (buffer.getInt(8) != FORMAT) {
+			throw new IllegalStateException("メタデータのスナップショットの形式が異なります: " + buffer.getInt(8));
+		}
+		// 書き込みの途中で中断されたファイルを拒否する
+		if (buffer.getLong(12) != buffer.capacity() || buffer.capacity() < 36 + MAC_LENGTH) {
+			throw new IllegalStateException("メタデータのスナップショットが不完全です");
+		}
+		this.entityCount = buffer.getInt(20);
+		this.tableSize = buffer.getInt(24);
+		this.createdAt = buffer.getLong(28);
+		if (tableSize <= 0 || Integer.bitCount(tableSize) != 1) {
+			throw new IllegalStateException("メタデータのスナップショットが破損しています");
+		}
+		Reader reader = new Reader(36);
+		this.sourceName = reader.string();
+		this.sourceVersion = reader.string();
+		this.trust = reader.string();
+		this.entityIdTable = reader.position;
+		this.sourceIdTable = entityIdTable + tableSize * 4;
+	}
+
+	/**
+	 * スナップショットをメモリマップで開き、ファイル全体の HMAC を検証します。
+	 *
+	 * @param integrityKey スナップショットの作成時に使用した HMAC の鍵
+	 * @throws IOException           ファイルを読み込めない場合
+	 * @throws IllegalStateException スナップショットの形式が不正、書き込みが完了していない、または HMAC が一致しない場合
+	 */
+	public static MetadataSnapshot open(Path path, SecretKey integrityKey) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IllegalStateException("メタデータのスナップショットが大きすぎます: " + path);
+			}
+			if (channel.size() < MAC_LENGTH) {
+				throw new IllegalStateException("メタデータのスナップショットが不完全です");
+			}
+			// マップはチャネルを閉じた後も有効
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			int macPosition = buffer.capacity() - MAC_LENGTH;
+			byte[] expected = new byte[MAC_LENGTH];
+			buffer.get(macPosition, expected);
+			if (!MessageDigest.isEqual(expected, mac(integrityKey, buffer.slice(0, macPosition)))) {
+				throw new IllegalStateException("メタデータのスナップショットの HMAC が一致しません（改ざんまたは別の鍵で作成されています）");
+			}
+			return new MetadataSnapshot(buffer);
+		}
+	}
+
+	/**
+	 * インデックスをスナップショットとして書き込みます。一時ファイルに書き込んでから置き換えます。
+	 *
+	 * @param path          書き込み先
+	 * @param index         検証済みのインデックス
+	 * @param sourceVersion 読み込み元のバージョン（ファイルの更新時刻や ETag。再検証の条件付きリクエストに使用）
+	 * @param trust         署名検証に使用した鍵の指紋（鍵の設定が変わった場合にスナップショットを使わないため）
+	 * @param integrityKey  ファイル全体の HMAC の鍵（スナップショットと同じ場所に保存しないこと）
+	 */
+	public static void write(Path path, MetadataIndex index, String sourceVersion, String trust, SecretKey integrityKey)
+			throws IOException {
+		List<EntityMetadata> entities = new ArrayList<>(index.getEntities());
+		int tableSize = tableSizeFor(entities.size());
+		int[] entityIdSlots = new int[tableSize];
+		int[] sourceIdSlots = new int[tableSize];
+
+		byte[] header = header(entities.size(), tableSize, index.getSourceName(), sourceVersion, trust);
+		long recordsStart = header.length + tableSize * 8L;
+
+		Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+		try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			channel.position(recordsStart);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024));
+			for (EntityMetadata entity : entities) {
+				long offset = recordsStart + out.size();
+				if (offset > Integer.MAX_VALUE) {
+					throw new IOException("メタデータのスナップショットが大きすぎます");
+				}
+				writeEntity(out, entity);
+				insert(entityIdSlots, entity.entityId().hashCode(), (int) offset);
+				if (entity.identityProvider() != null) {
+					insert(sourceIdSlots, sourceIdHash(ArtifactIssuer.computeSourceId(entity.entityId())), (int) offset);
+				}
+			}
+			out.flush();
+			long macPosition = channel.size();
+			long length = macPosition + MAC_LENGTH;
+			if (length > Integer.MAX_VALUE) {
+				throw new IOException("メタデータのスナップショットが大きすぎます");
+			}
+
+			ByteBuffer tables = ByteBuffer.allocate(tableSize * 8);
+			tables.asIntBuffer().put(entityIdSlots).put(sourceIdSlots);
+			ByteBuffer.wrap(header).putLong(12, length);
+			writeFully(channel, ByteBuffer.wrap(header), 0);
+			writeFully(channel, tables, header.length);
+
+			// ヘッダー・テーブル・レコードがすべて確定した後に、ファイル全体の HMAC を末尾に追加する
+			byte[] mac = mac(integrityKey, channel.map(FileChannel.MapMode.READ_ONLY, 0, macPosition));
+			writeFully(channel, ByteBuffer.wrap(mac), macPosition);
+			channel.force(true);
+		}
+		Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	@Override
+	public EntityMetadata get(String entityId) {
+		if (entityId == null) {
+			return null;
+		}
+		byte[] key = entityId.getBytes(StandardCharsets.UTF_8);
+		int mask = tableSize - 1;
+		for (int slot = slot(entityId.hashCode(), mask), probes = 0; probes < tableSize; slot = (slot + 1) & mask, probes++) {
+			int offset = buffer.getInt(entityIdTable + slot * 4);
+			if (offset == 0) {
+				return null;
+			}
+			if (entityIdEquals(offset, key)) {
+				return entityAt(offset);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public EntityMetadata getBySourceId(byte[] sourceId) {
+		if (sourceId == null || sourceId.length != SOURCE_ID_LENGTH) {
+			return null;
+		}
+		int mask = tableSize - 1;
+		for (int slot = slot(sourceIdHash(sourceId), mask), probes = 0; probes < tableSize; slot = (slot + 1) & mask, probes++) {
+			int offset = buffer.getInt(sourceIdTable + slot * 4);
+			if (offset == 0) {
+				return null;
+			}
+			// レコードの SourceID はエンティティ ID とロールの直後にある
+			int position = offset + 2 + (buffer.getShort(offset) & 0xFFFF) + 1;
+			if (bytesEqual(position, sourceId)) {
+				return entityAt(offset);
+			}
+		}
+		return null;
+	}
+
+	@Override
+	public int size() {
+		return entityCount;
+	}
+
+	@Override
+	public String getSourceName() {
+		return sourceName;
+	}
+
+	/** 読み込み元のバージョン（ファイルの更新時刻や ETag） */
+	public String getSourceVersion() {
+		return sourceVersion;
+	}
+
+	/** 署名検証に使用した鍵の指紋 */
+	public String getTrust() {
+		return trust;
+	}
+
+	/** スナップショットを作成した時刻（エポックミリ秒） */
+	public long getCreatedAt() {
+		return createdAt;
+	}
+
+	private EntityMetadata entityAt(int offset) {
+		return decoded.computeIfAbsent(offset, this::decode);
+	}
+
+	private boolean entityIdEquals(int offset, byte[] key) {
+		return (buffer.getShort(offset) & 0xFFFF) == key.length && bytesEqual(offset + 2, key);
+	}
+
+	private boolean bytesEqual(int position, byte[] expected) {
+		for (int i = 0; i < expected.length; i++) {
+			if (buffer.get(position + i) != expected[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * レコードからエンティティを復元します。
+	 */
+	private EntityMetadata decode(int offset) {
+		try {
+			Reader reader = new Reader(offset);
+			String entityId = reader.string();
+			int roles = reader.u8();
+			CertificateFactory certificateFactory = StreamingMetadataParser.newCertificateFactory();
+
+			EntityMetadata.IdentityProvider identityProvider = null;
+			if ((roles & ROLE_IDENTITY_PROVIDER) != 0) {
+				reader.position += SOURCE_ID_LENGTH;
+				Map<String, String> singleSignOnServices = reader.endpoints();
+				String artifactResolutionService = reader.string();
+				identityProvider = new EntityMetadata.IdentityProvider(singleSignOnServices, artifactResolutionService,
+						reader.credentials(entityId, certificateFactory));
+			}
+			EntityMetadata.ServiceProvider serviceProvider = null;
+			if ((roles & ROLE_SERVICE_PROVIDER) != 0) {
+				Map<String, String> assertionConsumerServices = reader.endpoints();
+				List<Credential> signingCredentials = reader.credentials(entityId, certificateFactory);
+				serviceProvider = new EntityMetadata.ServiceProvider(assertionConsumerServices, signingCredentials,
+						reader.credentials(entityId, certificateFactory));
+			}
+			return new EntityMetadata(entityId, identityProvider, serviceProvider);
+		} catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+			throw new IllegalStateException("メタデータのスナップショットが破損しています (レコード: " + offset + ")", e);
+		}
+	}
+
+	private static byte[] header(int entityCount, int tableSize, String sourceName, String sourceVersion, String trust)
+			throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeLong(MAGIC);
+		out.writeInt(FORMAT);
+		out.writeLong(0); // ファイル長は書き込みの最後に確定する
+		out.writeInt(entityCount);
+		out.writeInt(tableSize);
+		out.writeLong(System.currentTimeMillis());
+		writeString(out, sourceName);
+		writeString(out, sourceVersion);
+		writeString(out, trust);
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	private static void writeEntity(DataOutputStream out, EntityMetadata entity) throws IOException {
+		writeString(out, entity.entityId());
+		EntityMetadata.IdentityProvider identityProvider = entity.identityProvider();
+		EntityMetadata.ServiceProvider serviceProvider = entity.serviceProvider();
+		out.writeByte((identityProvider != null ? ROLE_IDENTITY_PROVIDER : 0)
+				| (serviceProvider != null ? ROLE_SERVICE_PROVIDER : 0));
+		if (identityProvider != null) {
+			out.write(ArtifactIssuer.computeSourceId(entity.entityId()));
+			writeEndpoints(out, identityProvider.singleSignOnServices());
+			writeString(out, identityProvider.artifactResolutionService());
+			writeCredentials(out, identityProvider.signingCredentials());
+		}
+		if (serviceProvider != null) {
+			writeEndpoints(out, serviceProvider.assertionConsumerServices());
+			writeCredentials(out, serviceProvider.signingCredentials());
+			writeCredentials(out, serviceProvider.encryptionCredentials());
+		}
+	}
+
+	private static void writeEndpoints(DataOutputStream out, Map<String, String> endpoints) throws IOException {
+		out.writeShort(endpoints.size());
+		for (Map.Entry<String, String> endpoint : endpoints.entrySet()) {
+			writeString(out, endpoint.getKey());
+			writeString(out, endpoint.getValue());
+		}
+	}
+
+	/**
+	 * 証明書を DER 形式で書き込みます。X.509 証明書を持たない鍵（集約からは生成されない）は書き込みません。
+	 */
+	private static void writeCredentials(DataOutputStream out, List<Credential> credentials) throws IOException {
+		List<byte[]> encoded = new ArrayList<>(credentials.size());
+		for (Credential credential : credentials) {
+			if (credential instanceof X509Credential x509Credential) {
+				try {
+					encoded.add(x509Credential.getEntityCertificate().getEncoded());
+				} catch (CertificateEncodingException e) {
+					throw new IOException("証明書をエンコードできません: " + credential.getEntityId(), e);
+				}
+			}
+		}
+		out.writeShort(encoded.size());
+		for (byte[] certificate : encoded) {
+			out.writeInt(certificate.length);
+			out.write(certificate);
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeShort(NULL_STRING);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length >= NULL_STRING) {
+			throw new IOException("スナップショットに保存できない長さの文字列です: " + bytes.length + " バイト");
+		}
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Base64 で表した HMAC の鍵を読み込みます。
+	 *
+	 * @throws IllegalStateException 鍵が Base64 でない、または 32 バイト未満の場合
+	 */
+	public static SecretKey integrityKey(String base64) {
+		byte[] key;
+		try {
+			key = Base64.getDecoder().decode(base64.trim());
+		} catch (IllegalArgumentException e) {
+			throw new IllegalStateException("メタデータのスナップショットの HMAC の鍵が Base64 ではありません", e);
+		}
+		if (key.length < MAC_LENGTH) {
+			throw new IllegalStateException("メタデータのスナップショットの HMAC の鍵は " + MAC_LENGTH + " バイト以上にしてください");
+		}
+		return new SecretKeySpec(key, MAC_ALGORITHM);
+	}
+
+	private static byte[] mac(SecretKey integrityKey, ByteBuffer content) {
+		try {
+			Mac mac = Mac.getInstance(MAC_ALGORITHM);
+			mac.init(integrityKey);
+			mac.update(content);
+			return mac.doFinal();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(MAC_ALGORITHM + " が利用できません", e);
+		} catch (InvalidKeyException e) {
+			throw new IllegalStateException("メタデータのスナップショットの HMAC の鍵が不正です", e);
+		}
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer source, long position) throws IOException {
+		while (source.hasRemaining()) {
+			position += channel.write(source, position);
+		}
+	}
+
+	/**
+	 * 線形探査で空きスロットにレコードの位置を格納します（負荷率は 0.5 以下）。
+	 */
+	private static void insert(int[] slots, int hash, int offset) {
+		int mask = slots.length - 1;
+		int slot = slot(hash, mask);
+		while (slots[slot] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		slots[slot] = offset;
+	}
+
+	private static int slot(int hash, int mask) {
+		int h = hash * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * SourceID は SHA-1 のため、先頭の 4 バイトをそのままハッシュ値として使用する。
+	 */
+	private static int sourceIdHash(byte[] sourceId) {
+		return (sourceId[0] & 0xFF) << 24 | (sourceId[1] & 0xFF) << 16 | (sourceId[2] & 0xFF) << 8 | (sourceId[3] & 0xFF);
+	}
+
+	private static int tableSizeFor(int entityCount) {
+		int size = 2;
+		while (size < entityCount * 2L) {
+			size <<= 1;
+		}
+		return size;
+	}
+
+	/**
+	 * 共有のバッファを絶対位置で読み取るカーソル（バッファの position を変更しないため、スレッド間で共有できる）。
+	 */
+	private final class Reader {
+		int position;
+
+		Reader(int position) {
+			this.position = position;
+		}
+
+		int u8() {
+			return buffer.get(position++) & 0xFF;
+		}
+
+		int u16() {
+			int value = buffer.getShort(position) & 0xFFFF;
+			position += 2;
+			return value;
+		}
+
+		String string() {
+			int length = u16();
+			if (length == NULL_STRING) {
+				return null;
+			}
+			byte[] bytes = new byte[length];
+			buffer.get(position, bytes);
+			position += length;
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		Map<String, String> endpoints() {
+			int count = u16();
+			Map<String, String> endpoints = new HashMap<>(count * 2);
+			for (int i = 0; i < count; i++) {
+				endpoints.put(string(), string());
+			}
+			return endpoints;
+		}
+
+		List<Credential> credentials(String entityId, CertificateFactory certificateFactory) {
+			int count = u16();
+			List<Credential> credentials = new ArrayList<>(count);
+			for (int i = 0; i < count; i++) {
+				int length = buffer.getInt(position);
+				byte[] encoded = new byte[length];
+				buffer.get(position + 4, encoded);
+				position += 4 + length;
+				Credential credential = StreamingMetadataParser.toCredential(encoded, entityId, certificateFactory);
+				if (credential != null) {
+					credentials.add(credential);
+				}
+			}
+			return credentials;
+		}
+	}
+}
@@ -0,0 +1,39 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata;
+
+import java.time.Instant;
+
+/**
+ * {@link MetadataResolver} が定期的に読み込むメタデータの取得元。
+ */
+public interface MetadataSource {
+
+	/**
+	 * メタデータを取得・解析し、新しいインデックスを構築します。
+	 *
+	 * @return 前回の読み込みから変更がない場合は null
+	 * @throws RuntimeException 取得・解析・署名検証に失敗した場合
+	 */
+	MetadataIndex load();
+
+	/**
+	 * 前回検証したメタデータのスナップショットを復元します。復元した場合、以降の {@link #load()} は
+	 * スナップショットの元になったバージョンとの差分だけを確認します。
+	 *
+	 * @return スナップショットがない、または使用できない場合は null
+	 */
+	default Restored restore() {
+		return null;
+	}
+
+	/** ログに使用する取得元の名前（ファイルパスや URL） */
+	String getName();
+
+	/**
+	 * 復元したスナップショット。
+	 *
+	 * @param lookup        スナップショットのエンティティ
+	 * @param revalidateBy  この時刻までに {@link #load()} が成功しなかった場合、スナップショットを使用しない
+	 */
+	record Restored(MetadataLookup lookup, Instant revalidateBy) {
+	}
+}
@@ -0,0 +1,345 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.PublicKey;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.xml.security.exceptions.XMLSecurityException;
+import org.apache.xml.security.stax.ext.InboundXMLSec;
+import org.apache.xml.security.stax.ext.XMLSec;
+import org.apache.xml.security.stax.ext.XMLSecurityProperties;
+import org.apache.xml.security.stax.securityEvent.SecurityEvent;
+import org.apache.xml.security.stax.securityEvent.SecurityEventListener;
+import org.apache.xml.security.stax.securityEvent.SignedElementSecurityEvent;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.security.x509.BasicX509Credential;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * メタデータの集約（EntitiesDescriptor）を StAX でストリーミング解析します。
+ *
+ * 集約全体の DOM や XMLObject のツリーを構築せず、EntityDescriptor ごとに必要な値だけを {@link EntityMetadata} に取り出すため、
+ * 50〜100 MB の集約でもメモリ使用量はエンティティ数に比例する分だけで済みます。
+ *
+ * 署名検証用の鍵を指定した場合は、Apache Santuario のストリーミング API で同じ 1 回の読み取りの中でルート要素の署名を検証します。
+ * 署名の検証はドキュメントの末尾で完了するため、解析結果は最後まで読み終えて検証に成功した場合にだけ返されます。
+ */
+public class StreamingMetadataParser {
+	private static Logger logger = LoggerFactory.getLogger(StreamingMetadataParser.class);
+
+	private static final String MD_NS = SAMLConstants.SAML20MD_NS;
+	private static final String DS_NS = SignatureConstants.XMLSIG_NS;
+
+	private final XMLInputFactory inputFactory;
+	private final PublicKey verificationKey;
+
+	/**
+	 * @param verificationKey 集約の署名を検証する鍵（null の場合は検証しない）
+	 */
+	public StreamingMetadataParser(PublicKey verificationKey) {
+		this.verificationKey = verificationKey;
+		this.inputFactory = XMLInputFactory.newFactory();
+		// 外部エンティティ・DTD を無効化（XXE 対策）
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		inputFactory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, true);
+	}
+
+	/** 集約の署名を検証する鍵（検証しない場合は null） */
+	public PublicKey getVerificationKey() {
+		return verificationKey;
+	}
+
+	/**
+	 * メタデータを解析します。
+	 *
+	 * @throws XMLStreamException   XML の形式が不正、署名の検証に失敗した、またはルート要素が署名されていない場合
+	 * @throws XMLSecurityException 署名検証の準備に失敗した場合
+	 */
+	public List<EntityMetadata> parse(InputStream in) throws XMLStreamException, XMLSecurityException {
+		XMLStreamReader reader = inputFactory.createXMLStreamReader(in);
+		RootSignatureListener signatureListener = null;
+		if (verificationKey != null) {
+			XMLSecurityProperties properties = new XMLSecurityProperties();
+			properties.setSignatureVerificationKey(verificationKey);
+			// SAML の ID 属性で参照される要素を署名対象として解決する
+			properties.setIdAttributeNS(new QName("ID"));
+			InboundXMLSec inbound = XMLSec.getInboundWSSec(properties);
+			signatureListener = new RootSignatureListener();
+			reader = inbound.processInMessage(reader, new ArrayList<>(), signatureListener);
+		}
+
+		List<EntityMetadata> entities = new ArrayList<>();
+		CertificateFactory certificateFactory = newCertificateFactory();
+		try {
+			while (reader.hasNext()) {
+				if (reader.next() == XMLStreamConstants.START_ELEMENT && isMetadataElement(reader, "EntityDescriptor")) {
+					EntityMetadata entity = readEntity(reader, certificateFactory);
+					// entityID のないエンティティは参照できないため除外する
+					if (entity.entityId() != null) {
+						entities.add(entity);
+					}
+				}
+			}
+		} finally {
+			reader.close();
+		}
+
+		if (signatureListener != null && !signatureListener.rootSigned) {
+			throw new XMLStreamException("メタデータのルート要素が署名されていません");
+		}
+		return entities;
+	}
+
+	/**
+	 * EntityDescriptor の終了タグまでを読み取ります。
+	 */
+	private EntityMetadata readEntity(XMLStreamReader reader, CertificateFactory certificateFactory)
+			throws XMLStreamException {
+		String entityId = reader.getAttributeValue(null, "entityID");
+		RoleContent identityProvider = null;
+		RoleContent serviceProvider = null;
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			} else if (event == XMLStreamConstants.START_ELEMENT) {
+				// SAML 2.0 をサポートしないロール（SAML 1.x のみなど）は無視する
+				boolean saml2 = supportsSaml2(reader);
+				if (saml2 && isMetadataElement(reader, "IDPSSODescriptor")) {
+					identityProvider = readRole(reader, entityId, certificateFactory);
+				} else if (saml2 && isMetadataElement(reader, "SPSSODescriptor")) {
+					serviceProvider = readRole(reader, entityId, certificateFactory);
+				} else {
+					skipElement(reader);
+				}
+			}
+		}
+
+		return new EntityMetadata(entityId,
+				identityProvider != null ? new EntityMetadata.IdentityProvider(identityProvider.singleSignOnServices,
+						identityProvider.artifactResolutionService, identityProvider.signingCredentials) : null,
+				serviceProvider != null ? new EntityMetadata.ServiceProvider(serviceProvider.assertionConsumerServices,
+						serviceProvider.signingCredentials, serviceProvider.encryptionCredentials) : null);
+	}
+
+	/**
+	 * IDPSSODescriptor / SPSSODescriptor の終了タグまでを読み取り、エンドポイントと鍵を取り出します。
+	 */
+	private RoleContent readRole(XMLStreamReader reader, String entityId, CertificateFactory certificateFactory)
+			throws XMLStreamException {
+		RoleContent role = new RoleContent();
+		while (true) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				return role;
+			}
+			if (event != XMLStreamConstants.START_ELEMENT) {
+				continue;
+			}
+			if (!MD_NS.equals(reader.getNamespaceURI())) {
+				skipElement(reader);
+				continue;
+			}
+
+			String binding = reader.getAttributeValue(null, "Binding");
+			String location = reader.getAttributeValue(null, "Location");
+			switch (reader.getLocalName()) {
+			case "KeyDescriptor" -> readKeyDescriptor(reader, role, entityId, certificateFactory);
+			case "SingleSignOnService" -> {
+				if (binding != null && location != null) {
+					role.singleSignOnServices.putIfAbsent(binding, location);
+				}
+				skipElement(reader);
+			}
+			case "ArtifactResolutionService" -> {
+				if (SAMLConstants.SAML2_SOAP11_BINDING_URI.equals(binding) && location != null
+						&& role.artifactResolutionService == null) {
+					role.artifactResolutionService = location;
+				}
+				skipElement(reader);
+			}
+			case "AssertionConsumerService" -> {
+				role.addAssertionConsumerService(binding, location, reader.getAttributeValue(null, "index"),
+						reader.getAttributeValue(null, "isDefault"));
+				skipElement(reader);
+			}
+			default -> skipElement(reader);
+			}
+		}
+	}
+
+	/**
+	 * KeyDescriptor 内の X509Certificate を読み取り、use 属性に応じて署名用・暗号化用に振り分けます。
+	 * 形式が不正な証明書はそのエンティティの鍵から除外します（集約全体は拒否しない）。
+	 */
+	private void readKeyDescriptor(XMLStreamReader reader, RoleContent role, String entityId,
+			CertificateFactory certificateFactory) throws XMLStreamException {
+		String use = reader.getAttributeValue(null, "use");
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			} else if (event == XMLStreamConstants.START_ELEMENT) {
+				if (DS_NS.equals(reader.getNamespaceURI()) && "X509Certificate".equals(reader.getLocalName())) {
+					// getElementText は終了タグまで進むため、深さは変わらない
+					Credential credential = toCredential(reader.getElementText(), entityId, certificateFactory);
+					if (credential != null) {
+						if (!"encryption".equals(use)) {
+							role.signingCredentials.add(credential);
+						}
+						if (!"signing".equals(use)) {
+							role.encryptionCredentials.add(credential);
+						}
+					}
+				} else {
+					depth++;
+				}
+			}
+		}
+	}
+
+	private static Credential toCredential(String base64, String entityId, CertificateFactory certificateFactory) {
+		byte[] encoded;
+		try {
+			encoded = Base64.getMimeDecoder().decode(base64.trim());
+		} catch (IllegalArgumentException e) {
+			logger.warn("エンティティ ({}) の証明書を読み取れないため除外しました: {}", entityId, e.getMessage());
+			return null;
+		}
+		return toCredential(encoded, entityId, certificateFactory);
+	}
+
+	/**
+	 * DER 形式の証明書から鍵を構築します（スナップショットからの復元でも使用）。
+	 *
+	 * @return 証明書の形式が不正な場合は null
+	 */
+	static Credential toCredential(byte[] encoded, String entityId, CertificateFactory certificateFactory) {
+		try {
+			X509Certificate certificate = (X509Certificate) certificateFactory
+					.generateCertificate(new ByteArrayInputStream(encoded));
+			BasicX509Credential credential = new BasicX509Credential(certificate);
+			credential.setEntityId(entityId);
+			return credential;
+		} catch (CertificateException e) {
+			logger.warn("エンティティ ({}) の証明書を読み取れないため除外しました: {}", entityId, e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * 現在の要素を終了タグまで読み飛ばします。
+	 */
+	private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+		int depth = 1;
+		while (depth > 0) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+			}
+		}
+	}
+
+	private static boolean isMetadataElement(XMLStreamReader reader, String localName) {
+		return MD_NS.equals(reader.getNamespaceURI()) && localName.equals(reader.getLocalName());
+	}
+
+	private static boolean supportsSaml2(XMLStreamReader reader) {
+		String protocols = reader.getAttributeValue(null, "protocolSupportEnumeration");
+		return protocols != null && protocols.contains(SAMLConstants.SAML20P_NS);
+	}
+
+	static CertificateFactory newCertificateFactory() {
+		try {
+			return CertificateFactory.getInstance("X.509");
+		} catch (CertificateException e) {
+			throw new IllegalStateException("X.509 の CertificateFactory が利用できません", e);
+		}
+	}
+
+	/**
+	 * PEM または DER 形式の X.509 証明書ファイルを読み込みます（集約の署名検証用）。
+	 */
+	public static X509Certificate loadCertificate(Path path) {
+		try (InputStream in = Files.newInputStream(path)) {
+			return (X509Certificate) newCertificateFactory().generateCertificate(in);
+		} catch (IOException | CertificateException e) {
+			throw new RuntimeException("メタデータの署名検証用の証明書を読み込めません: " + path, e);
+		}
+	}
+
+	/**
+	 * 解析中のロールの内容。
+	 */
+	private static final class RoleContent {
+		final Map<String, String> singleSignOnServices = new HashMap<>();
+		final Map<String, String> assertionConsumerServices = new HashMap<>();
+		// バインディングごとに採用した AssertionConsumerService の優先度（isDefault は -1、それ以外は index）
+		final Map<String, Integer> assertionConsumerServiceRanks = new HashMap<>();
+		final List<Credential> signingCredentials = new ArrayList<>();
+		final List<Credential> encryptionCredentials = new ArrayList<>();
+		String artifactResolutionService;
+
+		void addAssertionConsumerService(String binding, String location, String index, String isDefault) {
+			if (binding == null || location == null) {
+				return;
+			}
+			int rank;
+			if ("true".equals(isDefault) || "1".equals(isDefault)) {
+				rank = -1;
+			} else {
+				try {
+					rank = index != null ? Integer.parseInt(index.trim()) : Integer.MAX_VALUE;
+				} catch (NumberFormatException e) {
+					rank = Integer.MAX_VALUE;
+				}
+			}
+			Integer current = assertionConsumerServiceRanks.get(binding);
+			if (current == null || rank < current) {
+				assertionConsumerServiceRanks.put(binding, rank);
+				assertionConsumerServices.put(binding, location);
+			}
+		}
+	}
+
+	/**
+	 * ルート要素（EntitiesDescriptor または単一の EntityDescriptor）が署名されていることを記録します。
+	 * Santuario は検証に失敗した署名を例外で通知するため、ここでは署名の有無だけを確認します。
+	 */
+	private static final class RootSignatureListener implements SecurityEventListener {
+		private boolean rootSigned;
+
+		@Override
+		public void registerSecurityEvent(SecurityEvent securityEvent) {
+			if (securityEvent instanceof SignedElementSecurityEvent signedElement && signedElement.isSigned()
+					&& signedElement.getElementPath().size() == 1) {
+				rootSigned = true;
+			}
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.metrics;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+
+/**
+ * SSO フローのフェーズごとの所要時間と失敗数のメトリクス。
+ *
+ * - {@code saml.sso.phase{side,phase}}: フェーズの所要時間（成功したもののみ）。パーセンタイル・ヒストグラムは
+ *   {@code management.metrics.distribution.*} の設定で有効にします。
+ * - {@code saml.sso.failures{side,phase,reason}}: フェーズで失敗した数（理由ごと）
+ *
+ * サーブレットはレジストリのバインド前に構築されるため、タイマーは内部の CompositeMeterRegistry に作成しておき、
+ * {@link #bindTo(MeterRegistry)} でアプリケーションのレジストリを追加します。記録時にはレジストリを検索しません。
+ */
+public class SsoFlowMetrics implements MeterBinder {
+	private final CompositeMeterRegistry composite = new CompositeMeterRegistry();
+	private final Map<SsoPhase, Timer> timers = new EnumMap<>(SsoPhase.class);
+
+	public SsoFlowMetrics() {
+		for (SsoPhase phase : SsoPhase.values()) {
+			timers.put(phase, Timer.builder("saml.sso.phase")
+					.tag("side", phase.getSide()).tag("phase", phase.getTagValue())
+					.description("SSO フローのフェーズごとの所要時間")
+					.register(composite));
+		}
+	}
+
+	/**
+	 * フェーズの計測を開始します。
+	 *
+	 * @return {@link #record(SsoPhase, long)} に渡す開始時刻
+	 */
+	public long start() {
+		return System.nanoTime();
+	}
+
+	/**
+	 * フェーズの所要時間を記録します。
+	 *
+	 * @param phase      フェーズ
+	 * @param startNanos {@link #start()} の戻り値
+	 */
+	public void record(SsoPhase phase, long startNanos) {
+		timers.get(phase).record(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * フェーズの失敗を記録します。
+	 *
+	 * @param phase  フェーズ
+	 * @param reason 失敗の理由（メトリクスのタグに使用するため、取り得る値が限られた短い英字の識別子にすること）
+	 */
+	public void failure(SsoPhase phase, String reason) {
+		// 失敗はまれなため、理由ごとのカウンターはその都度レジストリから取得する
+		Counter.builder("saml.sso.failures")
+				.tag("side", phase.getSide()).tag("phase", phase.getTagValue()).tag("reason", reason)
+				.description("SSO フローのフェーズで失敗した数")
+				.register(composite)
+				.increment();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		composite.add(registry);
+	}
+}
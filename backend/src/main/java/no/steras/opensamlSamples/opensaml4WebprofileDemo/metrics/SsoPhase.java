@@ -0,0 +1,63 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.metrics;
+
+/**
+ * SSO フローの計測対象のフェーズ。メトリクスの {@code side} / {@code phase} タグに使用します。
+ */
+public enum SsoPhase {
+	/** SP: AuthnRequest の構築と HTTP-Redirect エンコード（deflate・署名） */
+	AUTHN_REQUEST_ENCODE("sp", "authn-request-encode"),
+	/** SP: ArtifactResolve の送信から ArtifactResponse の受信まで（バックチャネルの往復） */
+	BACKCHANNEL("sp", "backchannel"),
+	/** SP: HTTP-POST バインディングで受信した Response のデコード（バックチャネルの代わり） */
+	POST_DECODE("sp", "post-decode"),
+	/** SP: ArtifactResponse / Response の有効期限・宛先・発行者・InResponseTo の検証 */
+	VALIDATION("sp", "validation"),
+	/** SP: EncryptedAssertion の復号 */
+	DECRYPT("sp", "decrypt"),
+	/** SP: アサーションの署名検証 */
+	SIGNATURE_VERIFY("sp", "signature-verify"),
+	/** SP: アサーションの発行者・SubjectConfirmation・Conditions・Audience の検証 */
+	ASSERTION_VALIDATION("sp", "assertion-validation"),
+	/** SP: アサーションのリプレイ検証 */
+	REPLAY_CHECK("sp", "replay-check"),
+	/** SP: セッションの認証済みへの更新 */
+	SESSION_UPDATE("sp", "session-update"),
+	/** IdP: AuthnRequest のデコードと要求元 SP の確認・署名検証 */
+	AUTHN_REQUEST_VERIFY("idp", "authn-request-verify"),
+	/** IdP: アーティファクトの発行と認証結果のアーティファクトストアへの保存 */
+	ARTIFACT_ISSUE("idp", "artifact-issue"),
+	/** IdP: ArtifactResolve の SOAP デコード */
+	SOAP_DECODE("idp", "soap-decode"),
+	/** IdP: ArtifactResolve の署名による要求元 SP の認証 */
+	REQUESTER_AUTHENTICATION("idp", "requester-authentication"),
+	/** IdP: アーティファクトストアからの認証結果の取り出し */
+	ARTIFACT_RESOLVE("idp", "artifact-resolve"),
+	/** IdP: テンプレートからのアサーションの構築 */
+	ASSERTION_BUILD("idp", "assertion-build"),
+	/** IdP: アサーションへの署名 */
+	SIGN("idp", "sign"),
+	/** IdP: アサーションの暗号化 */
+	ENCRYPT("idp", "encrypt"),
+	/** IdP: ArtifactResponse の SOAP エンコード */
+	SOAP_ENCODE("idp", "soap-encode"),
+	/** IdP: Response の HTTP-POST バインディングの自動送信フォームへのエンコード */
+	POST_ENCODE("idp", "post-encode");
+
+	private final String side;
+	private final String tagValue;
+
+	SsoPhase(String side, String tagValue) {
+		this.side = side;
+		this.tagValue = tagValue;
+	}
+
+	/** "sp" または "idp" */
+	public String getSide() {
+		return side;
+	}
+
+	/** メトリクスのタグ値 */
+	public String getTagValue() {
+		return tagValue;
+	}
+}
@@ -0,0 +1,199 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.security;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.opensaml.security.credential.Credential;
+import org.opensaml.xmlsec.SignatureSigningParameters;
+import org.opensaml.xmlsec.keyinfo.impl.BasicKeyInfoGeneratorFactory;
+import org.opensaml.xmlsec.signature.Signature;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.opensaml.xmlsec.signature.support.SignatureException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 一方の当事者（IdP または SP）の署名方式のポリシー。
+ *
+ * 1. 署名: 自分が使用したい方式（優先順）のうち、自分の鍵で使用でき、かつ相手が受け入れる最初の方式を選択する。
+ *    選択は起動時に一度だけ行い、以後は同じ署名パラメータを全リクエストで共有する。
+ * 2. 検証: 相手の署名が自分の受け入れる方式であることを、署名値の検証の前に確認する。
+ *
+ * 方式は短縮名（例: ecdsa-sha256）または XML 署名のアルゴリズム URI で指定できます。
+ * メタデータによる交換は行っていないため、相手が受け入れる方式は設定で与えます。
+ */
+public class SignatureAlgorithmPolicy {
+	private static Logger logger = LoggerFactory.getLogger(SignatureAlgorithmPolicy.class);
+
+	/** EdDSA Ed25519 (RFC 9231)。OpenSAML の SignatureConstants には定義がないため直接指定する */
+	public static final String ALGO_ID_SIGNATURE_EDDSA_ED25519 = "http://www.w3.org/2021/04/xmldsig-more#eddsa-ed25519";
+
+	/**
+	 * 署名方式と、必要な鍵の種類・JCA の署名アルゴリズム名の対応。
+	 */
+	private record Algorithm(String uri, String keyAlgorithm, String jcaName) {
+	}
+
+	// 短縮名 -> 署名方式（定義順は推奨順ではない）
+	private static final Map<String, Algorithm> ALGORITHMS = new LinkedHashMap<>();
+
+	static {
+		register("rsa-sha1", SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA1, "RSA", "SHA1withRSA");
+		register("rsa-sha256", SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256, "RSA", "SHA256withRSA");
+		register("rsa-sha512", SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA512, "RSA", "SHA512withRSA");
+		register("ecdsa-sha256", SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA256, "EC", "SHA256withECDSA");
+		register("ecdsa-sha384", SignatureConstants.ALGO_ID_SIGNATURE_ECDSA_SHA384, "EC", "SHA384withECDSA");
+		register("eddsa-ed25519", ALGO_ID_SIGNATURE_EDDSA_ED25519, "EdDSA", "Ed25519");
+	}
+
+	private static void register(String name, String uri, String keyAlgorithm, String jcaName) {
+		ALGORITHMS.put(name, new Algorithm(uri, keyAlgorithm, jcaName));
+	}
+
+	private final String party;
+	private final Set<String> acceptedAlgorithms;
+	private final SignatureSigningParameters signingParameters;
+
+	/**
+	 * @param party               当事者名（ログ出力用）
+	 * @param credential          署名に使用する資格情報
+	 * @param preferredAlgorithms 署名に使用したい方式（優先順）
+	 * @param acceptedAlgorithms  相手の署名として受け入れる方式
+	 * @param peerAccepted        相手が受け入れる方式
+	 * @throws RuntimeException 条件を満たす方式がない場合
+	 */
+	public SignatureAlgorithmPolicy(String party, Credential credential, List<String> preferredAlgorithms,
+			List<String> acceptedAlgorithms, List<String> peerAccepted) {
+		this.party = party;
+		this.acceptedAlgorithms = Set.copyOf(resolveAll(acceptedAlgorithms));
+
+		String algorithm = negotiate(credential, resolveAll(preferredAlgorithms), resolveAll(peerAccepted));
+		signingParameters = new SignatureSigningParameters();
+		signingParameters.setSigningCredential(credential);
+		signingParameters.setSignatureAlgorithm(algorithm);
+		signingParameters.setSignatureCanonicalizationAlgorithm(SignatureConstants.ALGO_ID_C14N_EXCL_OMIT_COMMENTS);
+		signingParameters.setSignatureReferenceDigestMethod(SignatureConstants.ALGO_ID_DIGEST_SHA256);
+		// 署名の KeyInfo に公開鍵（DER エンコード）を出力する（証明書を持たない RSA / EC / Ed25519 の鍵でも使用できる形式）
+		BasicKeyInfoGeneratorFactory keyInfoGeneratorFactory = new BasicKeyInfoGeneratorFactory();
+		keyInfoGeneratorFactory.setEmitPublicDEREncodedKeyValue(true);
+		signingParameters.setKeyInfoGenerator(keyInfoGeneratorFactory.newInstance());
+
+		logger.info("{} の署名方式を決定しました: {} (鍵: {}, 相手が受け入れる方式: {})", party, algorithm,
+				credential.getPublicKey().getAlgorithm(), peerAccepted);
+	}
+
+	/**
+	 * 自分の優先順に、鍵の種類が一致し、JCA で利用でき、相手が受け入れる最初の方式を選択します。
+	 */
+	private String negotiate(Credential credential, List<String> preferred, Collection<String> peerAccepted) {
+		String keyAlgorithm = credential.getPublicKey().getAlgorithm();
+		List<String> rejected = new ArrayList<>();
+		for (String uri : preferred) {
+			Algorithm algorithm = byUri(uri);
+			if (algorithm == null || !algorithm.keyAlgorithm().equals(keyAlgorithm)
+					|| !peerAccepted.contains(uri) || !isAvailable(algorithm)) {
+				rejected.add(uri);
+				continue;
+			}
+			return uri;
+		}
+		throw new RuntimeException(party + " の署名方式を決定できません。鍵 (" + keyAlgorithm
+				+ ") で使用でき、相手が受け入れる方式がありません (候補: " + rejected + ")");
+	}
+
+	/**
+	 * 起動時に決定した署名パラメータ。読み取り専用として全リクエストで共有します。
+	 */
+	public SignatureSigningParameters getSigningParameters() {
+		return signingParameters;
+	}
+
+	/** 決定した署名方式の URI */
+	public String getSignatureAlgorithm() {
+		return signingParameters.getSignatureAlgorithm();
+	}
+
+	/** 決定した署名方式の JCA の署名アルゴリズム名（XML 署名を介さずに署名する場合に使用） */
+	public String getJcaAlgorithm() {
+		return byUri(getSignatureAlgorithm()).jcaName();
+	}
+
+	/**
+	 * 相手の署名が受け入れる方式であることを確認します。署名値の検証（SignatureValidator）の前に呼び出してください。
+	 */
+	public void requireAccepted(Signature signature) throws SignatureException {
+		requireAccepted(signature.getSignatureAlgorithm());
+	}
+
+	/**
+	 * 相手の署名方式（URI）が受け入れる方式であることを確認します。
+	 * XML 署名を持たない HTTP-Redirect バインディングのクエリ文字列の署名（SigAlg）の確認に使用します。
+	 */
+	public void requireAccepted(String signatureAlgorithm) throws SignatureException {
+		if (signatureAlgorithm == null || !acceptedAlgorithms.contains(signatureAlgorithm)) {
+			throw new SignatureException("受け入れない署名方式です: " + signatureAlgorithm);
+		}
+	}
+
+	/**
+	 * 署名方式の URI に対応する JCA の署名アルゴリズム名（XML 署名を介さずに検証する場合に使用）。
+	 *
+	 * @throws IllegalArgumentException 未対応の署名方式の場合
+	 */
+	public static String jcaAlgorithm(String uri) {
+		Algorithm algorithm = byUri(uri);
+		if (algorithm == null) {
+			throw new IllegalArgumentException("未対応の署名方式です: " + uri);
+		}
+		return algorithm.jcaName();
+	}
+
+	/**
+	 * 短縮名または URI のリストを URI のリストに変換します。
+	 */
+	public static List<String> resolveAll(Collection<String> names) {
+		Set<String> uris = new LinkedHashSet<>();
+		for (String name : names) {
+			uris.add(resolve(name.trim()));
+		}
+		return List.copyOf(uris);
+	}
+
+	/**
+	 * 短縮名または URI を URI に変換します。
+	 */
+	public static String resolve(String name) {
+		Algorithm algorithm = ALGORITHMS.get(name);
+		if (algorithm != null) {
+			return algorithm.uri();
+		}
+		if (byUri(name) == null) {
+			throw new IllegalArgumentException("未対応の署名方式です: " + name);
+		}
+		return name;
+	}
+
+	private static Algorithm byUri(String uri) {
+		for (Algorithm algorithm : ALGORITHMS.values()) {
+			if (algorithm.uri().equals(uri)) {
+				return algorithm;
+			}
+		}
+		return null;
+	}
+
+	private static boolean isAvailable(Algorithm algorithm) {
+		try {
+			java.security.Signature.getInstance(algorithm.jcaName());
+			return true;
+		} catch (NoSuchAlgorithmException e) {
+			return false;
+		}
+	}
+}
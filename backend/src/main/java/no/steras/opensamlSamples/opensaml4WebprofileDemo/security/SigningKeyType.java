@@ -0,0 +1,57 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.security;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.spec.ECGenParameterSpec;
+
+/**
+ * 署名鍵の種類。起動時に生成する鍵（IdP の署名鍵）の種類を選択するために使用します。
+ *
+ * 署名コストは RSA が最も高く、同程度の安全性では ECDSA P-256 や Ed25519 の方が大幅に安価です
+ * （特に署名側。検証側は RSA の方が安価な場合があります）。
+ */
+public enum SigningKeyType {
+	/** RSA 2048 ビット */
+	RSA("RSA"),
+	/** ECDSA P-256 (secp256r1) */
+	EC("EC"),
+	/** EdDSA Ed25519 */
+	ED25519("EdDSA");
+
+	// 生成される鍵の Key.getAlgorithm() の値
+	private final String keyAlgorithm;
+
+	SigningKeyType(String keyAlgorithm) {
+		this.keyAlgorithm = keyAlgorithm;
+	}
+
+	/** 生成される鍵の Key.getAlgorithm() の値 */
+	public String getKeyAlgorithm() {
+		return keyAlgorithm;
+	}
+
+	/**
+	 * この種類の鍵ペアを新しく生成します。
+	 */
+	public KeyPair generateKeyPair() {
+		try {
+			switch (this) {
+				case RSA: {
+					KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+					generator.initialize(2048);
+					return generator.generateKeyPair();
+				}
+				case EC: {
+					KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+					generator.initialize(new ECGenParameterSpec("secp256r1"));
+					return generator.generateKeyPair();
+				}
+				default:
+					return KeyPairGenerator.getInstance("Ed25519").generateKeyPair();
+			}
+		} catch (GeneralSecurityException e) {
+			throw new RuntimeException("署名鍵 (" + this + ") の生成に失敗しました", e);
+		}
+	}
+}
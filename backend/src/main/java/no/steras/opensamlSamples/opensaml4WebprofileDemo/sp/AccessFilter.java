@@ -1,25 +1,16 @@
 package no.steras.opensamlSamples.opensaml4WebprofileDemo.sp;
 
 import java.io.IOException;
-import java.security.Provider;
-import java.security.Security;
 import java.time.Instant;
-import java.util.HashMap;
-import java.util.Map;
 
 import jakarta.servlet.Filter;
 import jakarta.servlet.FilterChain;
-import jakarta.servlet.FilterConfig;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.ServletRequest;
 import jakarta.servlet.ServletResponse;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
-import org.opensaml.core.config.ConfigurationService;
-import org.opensaml.core.config.InitializationException;
-import org.opensaml.core.config.InitializationService;
-import org.opensaml.core.xml.config.XMLObjectProviderRegistry;
 import org.opensaml.messaging.context.MessageContext;
 import org.opensaml.messaging.encoder.MessageEncodingException;
 import org.opensaml.saml.common.messaging.context.SAMLBindingContext;
@@ -37,18 +28,22 @@ import org.opensaml.saml.saml2.core.NameIDType;
 import org.opensaml.saml.saml2.core.RequestedAuthnContext;
 import org.opensaml.saml.saml2.metadata.Endpoint;
 import org.opensaml.saml.saml2.metadata.SingleSignOnService;
-import org.opensaml.xmlsec.SignatureSigningParameters;
-import org.opensaml.xmlsec.config.impl.JavaCryptoValidationInitializer;
 import org.opensaml.xmlsec.context.SecurityParametersContext;
-import org.opensaml.xmlsec.signature.support.SignatureConstants;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import net.shibboleth.shared.component.ComponentInitializationException;
-import net.shibboleth.shared.xml.impl.BasicParserPool;
-import net.shibboleth.shared.xml.ParserPool;
+import net.shibboleth.shared.servlet.HttpServletSupport;
 import no.steras.opensamlSamples.opensaml4WebprofileDemo.OpenSAMLUtils;
-import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.IDPConstants;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.capture.MessageCapture;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.capture.MessageType;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.binding.ResponseBinding;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata.EntityMetadata;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata.MetadataResolver;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metrics.SsoFlowMetrics;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metrics.SsoPhase;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.security.SignatureAlgorithmPolicy;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.session.SPSessionStore;
 
 /**
  * Service Provider (SP) 側のアクセス制御フィルター。
@@ -56,72 +51,53 @@ import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.IDPConstants;
  * 役割:
  * 1. ユーザーのセッションが認証済みかどうかをチェック。
  * 2. 未認証の場合、SAML 認証フローを開始 (AuthnRequest を作成して IdP へリダイレクト)。
- * 3. 認証後の戻り先 URL をセッションに保存。
+ * 3. 認証後の戻り先 URL と AuthnRequest の ID をセッション（{@link SPSessionStore}）に保存。
  */
 public class AccessFilter implements Filter {
 	private static Logger logger = LoggerFactory.getLogger(AccessFilter.class);
 
-	/**
-	 * フィルター初期化時に OpenSAML のランタイム環境をセットアップします。
-	 * OpenSAML を使用する前に必ず `InitializationService.initialize()` を呼び出す必要があります。
-	 */
-	public void init(FilterConfig filterConfig) throws ServletException {
-		// Java の暗号化ライブラリが OpenSAML の要件を満たしているかチェック・初期化
-		JavaCryptoValidationInitializer javaCryptoValidationInitializer = new JavaCryptoValidationInitializer();
-		try {
-			javaCryptoValidationInitializer.init();
-
-			// デバッグ用: 利用可能なセキュリティプロバイダー（SunJCE等）をログ出力
-			for (Provider jceProvider : Security.getProviders()) {
-				logger.info("JCEプロバイダー情報: {}", jceProvider.getInfo());
-			}
-
-			// XMLオブジェクトの生成や解析に使用するレジストリの設定
-			XMLObjectProviderRegistry registry = new XMLObjectProviderRegistry();
-			ConfigurationService.register(XMLObjectProviderRegistry.class, registry);
-
-			// セキュアに設定された XML パーサープールを登録
-			registry.setParserPool(getParserPool());
-
-			logger.info("OpenSAML 5 の初期化を開始します...");
-			InitializationService.initialize();
-		} catch (InitializationException e) {
-			throw new RuntimeException("OpenSAML の初期化に失敗しました", e);
-		}
-	}
+	// RelayState （状態維持用の文字列）。必要に応じて元のURL等を含めることもあります。
+	private static final String RELAY_STATE = "teststate";
+
+	// 送信するプロトコルメッセージのサンプリングキャプチャ
+	private final MessageCapture messageCapture;
+	// SP の署名方式（起動時に IdP が受け入れる方式と照合済み）
+	private final SignatureAlgorithmPolicy signaturePolicy;
+	private final SsoFlowMetrics metrics;
+	// AuthnRequest の ProtocolBinding で要求するレスポンスバインディング（null の場合は IdP の SP ごとの設定に従う）
+	private final ResponseBinding requestedBinding;
+	// ログイン状態の保存先（HttpSession または暗号化クッキー）
+	private final SPSessionStore sessionStore;
+	// 認証を依頼する IdP のエンドポイントの参照先
+	private final MetadataResolver metadataResolver;
+	private final String idpEntityId;
+	// DOM を構築しない HTTP-Redirect エンコーダー（null の場合は常に OpenSAML のエンコーダーを使用）
+	private final RedirectAuthnRequestEncoder redirectEncoder;
 
 	/**
-	 * XML 解析のためのパーサープールを構築します。
-	 * セキュリティ上の理由から、XXE 攻撃（外部実体参照）などを無効化した設定を行います。
+	 * OpenSAML の初期化は起動時に {@code OpenSAMLBootstrap} が行うため、このフィルターでは行いません。
+	 *
+	 * @param messageCapture  プロトコルメッセージのキャプチャ
+	 * @param signaturePolicy SP の署名方式のポリシー
+	 * @param metrics         SSO フローのフェーズごとのメトリクス
+	 * @param requestedBinding IdP に要求するレスポンスバインディング（IdP の設定に従う場合は null）
+	 * @param sessionStore    ログイン状態の保存先
+	 * @param metadataResolver IdP のエンドポイントの参照先
+	 * @param idpEntityId     認証を依頼する IdP のエンティティ ID
+	 * @param streamingEncoder true の場合、AuthnRequest を事前コンパイルしたテンプレートから直接エンコードする
 	 */
-	private static ParserPool getParserPool() {
-		BasicParserPool parserPool = new BasicParserPool();
-		parserPool.setMaxPoolSize(100);
-		parserPool.setCoalescing(true);
-		parserPool.setIgnoreComments(true);
-		parserPool.setIgnoreElementContentWhitespace(true);
-		parserPool.setNamespaceAware(true);
-		parserPool.setExpandEntityReferences(false);
-		parserPool.setXincludeAware(false);
-
-		// XXE 攻撃対策のための機能を明示的に設定
-		final Map<String, Boolean> features = new HashMap<String, Boolean>();
-		features.put("http://xml.org/sax/features/external-general-entities", Boolean.FALSE);
-		features.put("http://xml.org/sax/features/external-parameter-entities", Boolean.FALSE);
-		features.put("http://apache.org/xml/features/disallow-doctype-decl", Boolean.TRUE);
-		features.put("http://apache.org/xml/features/validation/schema/normalized-value", Boolean.FALSE);
-		features.put("http://javax.xml.XMLConstants/feature/secure-processing", Boolean.TRUE);
-
-		parserPool.setBuilderFeatures(features);
-		parserPool.setBuilderAttributes(new HashMap<String, Object>());
-
-		try {
-			parserPool.initialize();
-		} catch (ComponentInitializationException e) {
-			logger.error("ParserPool の初期化中にエラーが発生しました: " + e.getMessage(), e);
-		}
-
-		return parserPool;
+	public AccessFilter(MessageCapture messageCapture, SignatureAlgorithmPolicy signaturePolicy,
+			SsoFlowMetrics metrics, ResponseBinding requestedBinding, SPSessionStore sessionStore,
+			MetadataResolver metadataResolver, String idpEntityId, boolean streamingEncoder) {
+		this.messageCapture = messageCapture;
+		this.signaturePolicy = signaturePolicy;
+		this.metrics = metrics;
+		this.requestedBinding = requestedBinding;
+		this.sessionStore = sessionStore;
+		this.metadataResolver = metadataResolver;
+		this.idpEntityId = idpEntityId;
+		this.redirectEncoder = streamingEncoder ? new RedirectAuthnRequestEncoder(this::buildAuthnRequest, signaturePolicy)
+				: null;
 	}
 
 	/**
@@ -134,42 +110,51 @@ public class AccessFilter implements Filter {
 
 		logger.info("AccessFilter: リクエスト受信 - URL: {}", httpServletRequest.getRequestURL());
 
-		// 1. セッションに認証済みフラグがあるか確認
-		if (httpServletRequest.getSession().getAttribute(SPConstants.AUTHENTICATED_SESSION_ATTRIBUTE) != null) {
+		// 1. セッションが認証済みか確認
+		if (sessionStore.isAuthenticated(httpServletRequest, httpServletResponse)) {
 			logger.info("セッション認証済み。リクエストを後続の処理（サーブレット等）へ渡します。");
 			chain.doFilter(request, response);
 		} else {
 			// 2. 未認証の場合は SAML 認証（SSO）を開始
 			logger.info("未認証。SAML AuthnRequest を生成し、IdP へリダイレクトします。");
 			
-			// 認証成功後に戻ってくるための URL をセッションに記憶
-			setGotoURLOnSession(httpServletRequest);
-			
-			// IdP へのリダイレクト処理を実行
-			redirectUserForAuthentication(httpServletResponse);
+			// IdP へのリダイレクト処理を実行（認証成功後に戻ってくるための URL もセッションに記憶）
+			redirectUserForAuthentication(httpServletRequest, httpServletResponse);
 		}
 	}
 
 	/**
-	 * 認証後の戻り先 URL をセッションに保存します。
+	 * AuthnRequest を構築し、IdP へリダイレクト送信します。
 	 */
-	private void setGotoURLOnSession(HttpServletRequest request) {
-		// 現在の URL を取得してセッションに保存
-		String currentUrl = request.getRequestURL().toString();
-		// セッションに保存
-		request.getSession().setAttribute(SPConstants.GOTO_URL_SESSION_ATTRIBUTE, currentUrl);
+	private void redirectUserForAuthentication(HttpServletRequest httpServletRequest,
+			HttpServletResponse httpServletResponse) throws IOException {
+		long start = metrics.start();
+		// 1. AuthnRequest の ID・発行日時・送信先を決定。送信先はメタデータから O(1) で参照する
+		String destination = getIPDSSODestination();
+		String id = OpenSAMLUtils.generateSecureRandomId();
+		Instant issueInstant = Instant.now();
+
+		// 認証後の戻り先 URL と、HTTP-POST バインディングで届く Response の InResponseTo と照合するための ID をセッションに記憶
+		// （クッキーに保存する場合があるため、リダイレクトでレスポンスがコミットされる前に行う）
+		String currentUrl = httpServletRequest.getRequestURL().toString();
+		sessionStore.startLogin(httpServletRequest, httpServletResponse, currentUrl, id);
 		logger.debug("戻り先URLを保存しました: {}", currentUrl);
-	}
 
-	/**
-	 * AuthnRequest を構築し、IdP へリダイレクト送信します。
-	 */
-	private void redirectUserForAuthentication(HttpServletResponse httpServletResponse) {
-		// 1. AuthnRequest オブジェクトの構築(SAMLリクエストの生成)
-		AuthnRequest authnRequest = buildAuthnRequest();
-		
 		// 2. ブラウザ経由のリダイレクト送信を実行
-		redirectUserWithRequest(httpServletResponse, authnRequest);
+		// テンプレートを使用できる送信先では XMLObject と DOM を構築せずにエンコードし、それ以外は OpenSAML のエンコーダーを使用する
+		String redirectUrl = redirectEncoder != null ? redirectEncoder.encode(destination, RELAY_STATE, id, issueInstant) : null;
+		if (redirectUrl != null) {
+			// デバッグ用: サンプリング対象の場合だけ同じ内容の AuthnRequest を構築してキャプチャ
+			messageCapture.capture(MessageType.AUTHN_REQUEST, () -> buildAuthnRequest(destination, id, issueInstant));
+			logger.info("IdP ({}) へリダイレクトします。", destination);
+			// HTTPRedirectDeflateEncoder と同じヘッダーを設定してリダイレクト
+			HttpServletSupport.addNoCacheHeaders(httpServletResponse);
+			HttpServletSupport.setUTF8Encoding(httpServletResponse);
+			httpServletResponse.sendRedirect(redirectUrl);
+		} else {
+			redirectUserWithRequest(httpServletResponse, buildAuthnRequest(destination, id, issueInstant));
+		}
+		metrics.record(SsoPhase.AUTHN_REQUEST_ENCODE, start);
 	}
 
 	/**
@@ -180,22 +165,19 @@ public class AccessFilter implements Filter {
 		MessageContext context = new MessageContext();
 		context.setMessage(authnRequest);
 
-		// RelayState （状態維持用の文字列）を設定。必要に応じて元のURL等を含めることもあります。
+		// RelayState （状態維持用の文字列）を設定
 		SAMLBindingContext bindingContext = context.getSubcontext(SAMLBindingContext.class, true);
-		bindingContext.setRelayState("teststate");
+		bindingContext.setRelayState(RELAY_STATE);
 
 		// IdP のエンドポイント情報をコンテキストに追加
 		SAMLPeerEntityContext peerEntityContext = context.getSubcontext(SAMLPeerEntityContext.class, true);
 		SAMLEndpointContext endpointContext = peerEntityContext.getSubcontext(SAMLEndpointContext.class, true);
-		endpointContext.setEndpoint(getIPDEndpoint());
+		endpointContext.setEndpoint(getIPDEndpoint(authnRequest.getDestination()));
 
 		// 署名パラメータの設定（HTTP Redirect Binding の場合、クエリパラメータに署名が付与されます）
-		SignatureSigningParameters signatureSigningParameters = new SignatureSigningParameters();
-		signatureSigningParameters.setSigningCredential(SPCredentials.getCredential());
-		signatureSigningParameters.setSignatureAlgorithm(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256);
-
+		// 起動時に決定した共有のパラメータを使用（読み取り専用）
 		context.getSubcontext(SecurityParametersContext.class, true)
-				.setSignatureSigningParameters(signatureSigningParameters);
+				.setSignatureSigningParameters(signaturePolicy.getSigningParameters());
 
 		// HTTP-Redirect エンコーダーを使用してレスポンスを構成
 		HTTPRedirectDeflateEncoder encoder = new HTTPRedirectDeflateEncoder();
@@ -205,15 +187,15 @@ public class AccessFilter implements Filter {
 		try {
 			encoder.initialize();
 			
-			// デバッグ用: 生成された AuthnRequest XML を表示
-			logger.info("生成された AuthnRequest (未エンコード状態):");
-			OpenSAMLUtils.logSAMLObject(authnRequest);
+			// デバッグ用: サンプリング対象であれば生成された AuthnRequest をキャプチャ
+			messageCapture.capture(MessageType.AUTHN_REQUEST, authnRequest);
 
-			logger.info("IdP ({}) へリダイレクトします。", IDPConstants.SSO_SERVICE);
+			logger.info("IdP ({}) へリダイレクトします。", authnRequest.getDestination());
 			
 			// AuthnRequest を Deflate 圧縮 + Base64 署名してリダイレクトを実行
 			encoder.encode();
 		} catch (ComponentInitializationException | MessageEncodingException e) {
+			metrics.failure(SsoPhase.AUTHN_REQUEST_ENCODE, "encode");
 			throw new RuntimeException("SAML リクエストのエンコードまたは送信に失敗しました", e);
 		}
 	}
@@ -221,21 +203,23 @@ public class AccessFilter implements Filter {
 	/**
 	 * OpenSAML オブジェクトを使用して AuthnRequest を詳細に構成します。
 	 */
-	private AuthnRequest buildAuthnRequest() {
+	private AuthnRequest buildAuthnRequest(String destination, String id, Instant issueInstant) {
 		AuthnRequest authnRequest = OpenSAMLUtils.buildSAMLObject(AuthnRequest.class);
 		
 		// 1. 各種メタデータの設定
-		authnRequest.setIssueInstant(Instant.now());
-		authnRequest.setDestination(getIPDSSODestination()); // 送信先(IdP)のSSOエンドポイント
+		authnRequest.setIssueInstant(issueInstant);
+		authnRequest.setDestination(destination); // 送信先(IdP)のSSOエンドポイント
 		
-		// 2. 認証後のレスポンスとして Artifact Binding を要求
-		authnRequest.setProtocolBinding(SAMLConstants.SAML2_ARTIFACT_BINDING_URI);
+		// 2. 認証後のレスポンスのバインディング（Artifact / POST）を要求。未指定の場合は IdP が SP ごとの設定で選択する
+		if (requestedBinding != null) {
+			authnRequest.setProtocolBinding(requestedBinding.getBindingUri());
+		}
 		
 		// 3. 認証後の戻り先（ACS）を指定
 		authnRequest.setAssertionConsumerServiceURL(getAssertionConsumerEndpoint());
 		
 		// 4. 一意なIDと発行者（SP）の設定
-		authnRequest.setID(OpenSAMLUtils.generateSecureRandomId());
+		authnRequest.setID(id);
 		authnRequest.setIssuer(buildIssuer());
 		
 		// 5. ユーザー識別子(NameID)のポリシーと必須認証レベルの設定
@@ -299,23 +283,30 @@ public class AccessFilter implements Filter {
 	}
 
 	/**
-	 * IdP の SSO サービスエンドポイントを取得します。
-	 * 定数ファイルから取得
+	 * IdP の HTTP-Redirect バインディングの SSO サービスエンドポイントを取得します。
+	 * メタデータから取得
 	 * @return
 	 */
 	private String getIPDSSODestination() {
-		return IDPConstants.SSO_SERVICE;
+		EntityMetadata.IdentityProvider identityProvider = metadataResolver.getIdentityProvider(idpEntityId);
+		String location = identityProvider != null
+				? identityProvider.getSingleSignOnService(SAMLConstants.SAML2_REDIRECT_BINDING_URI)
+				: null;
+		if (location == null) {
+			metrics.failure(SsoPhase.AUTHN_REQUEST_ENCODE, "unknown-idp");
+			throw new RuntimeException("IdP (" + idpEntityId + ") のメタデータに HTTP-Redirect の SingleSignOnService がありません");
+		}
+		return location;
 	}
 
 	/**
 	 * IdP の SSO サービスエンドポイント情報を定義します。
-	 * 定数ファイルから取得
 	 * locationヘッダーにはIdPのSSOサービスエンドポイントを指定
 	 */
-	private Endpoint getIPDEndpoint() {
+	private Endpoint getIPDEndpoint(String location) {
 		SingleSignOnService endpoint = OpenSAMLUtils.buildSAMLObject(SingleSignOnService.class);
 		endpoint.setBinding(SAMLConstants.SAML2_REDIRECT_BINDING_URI);
-		endpoint.setLocation(getIPDSSODestination());
+		endpoint.setLocation(location);
 		return endpoint;
 	}
 
@@ -0,0 +1,113 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.sp;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.EncryptedAssertion;
+import org.opensaml.saml.saml2.encryption.Decrypter;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.security.credential.impl.StaticCredentialResolver;
+import org.opensaml.xmlsec.encryption.support.DecryptionException;
+import org.opensaml.xmlsec.encryption.support.InlineEncryptedKeyResolver;
+import org.opensaml.xmlsec.keyinfo.KeyInfoCredentialResolver;
+import org.opensaml.xmlsec.keyinfo.impl.ChainingKeyInfoCredentialResolver;
+import org.opensaml.xmlsec.keyinfo.impl.LocalKeyInfoCredentialResolver;
+import org.opensaml.xmlsec.keyinfo.impl.StaticKeyInfoCredentialResolver;
+import org.opensaml.xmlsec.keyinfo.impl.provider.AgreementMethodKeyInfoProvider;
+import org.opensaml.xmlsec.keyinfo.impl.provider.ECKeyValueProvider;
+import org.opensaml.xmlsec.keyinfo.impl.provider.InlineX509DataProvider;
+import org.opensaml.xmlsec.keyinfo.impl.provider.RSAKeyValueProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * SP の秘密鍵で EncryptedAssertion を復号する、アプリケーション全体で共有する復号サービス。
+ *
+ * ログインごとにリゾルバと Decrypter を構築する代わりに、SP の資格情報から構築した鍵のリゾルバと
+ * OpenSAML の Decrypter を起動時に一度だけ用意し、全てのリクエストで共有します
+ * （Decrypter は呼び出しごとに XMLCipher を生成するため、複数スレッドで共有できます）。
+ * 方式の解釈（EncryptedData の Type、OAEP の DigestMethod / MGF、鍵合意など）はすべて Decrypter に任せます。
+ *
+ * OpenSAML のレジストリを使用するため、OpenSAML のブートストラップの完了後に生成する必要があります。
+ *
+ * 復号の失敗は、どの段階で失敗したか（鍵の復号・データの復号・パース）に関係なく同じメッセージの
+ * {@link DecryptionException} として返します（失敗の違いが復号オラクルの手がかりにならないようにするため）。
+ * 失敗の詳細は DEBUG レベルでのみログに出力します。
+ * 復号の所要時間は {@code saml.sp.decrypt} として公開します。
+ */
+public class AssertionDecryptionService implements MeterBinder {
+	private static Logger logger = LoggerFactory.getLogger(AssertionDecryptionService.class);
+
+	// 失敗の段階によらず呼び出し元へ返す唯一のメッセージ
+	private static final String DECRYPTION_FAILED = "アサーションを復号できません";
+
+	private final Decrypter decrypter;
+
+	// 復号の呼び出し回数と合計時間（FunctionTimer で公開するため、記録時にはレジストリを必要としない）
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+
+	/**
+	 * @param credential             秘密鍵を持つ SP の資格情報（RSA-OAEP の鍵転送）
+	 * @param keyAgreementCredential 秘密鍵を持つ SP の EC 資格情報（ECDH-ES の鍵合意）
+	 */
+	public AssertionDecryptionService(Credential credential, Credential keyAgreementCredential) {
+		if (credential.getPrivateKey() == null) {
+			throw new IllegalArgumentException("復号に使用する資格情報に秘密鍵がありません");
+		}
+
+		decrypter = new Decrypter(null, keyEncryptionKeyResolver(credential, keyAgreementCredential),
+				new InlineEncryptedKeyResolver());
+		decrypter.setRootInNewDocument(true);
+		logger.info("アサーションの復号サービスを初期化しました");
+	}
+
+	/**
+	 * Decrypter が EncryptedKey の復号に使う鍵のリゾルバを構築します。
+	 * KeyInfo を持たない EncryptedKey には RSA 鍵をそのまま使い、AgreementMethod を持つ EncryptedKey は
+	 * 送信者の一時公開鍵と SP の EC 秘密鍵から鍵暗号化鍵を導出します。
+	 */
+	private static KeyInfoCredentialResolver keyEncryptionKeyResolver(Credential credential,
+			Credential keyAgreementCredential) {
+		LocalKeyInfoCredentialResolver agreementResolver = new LocalKeyInfoCredentialResolver(
+				List.of(new AgreementMethodKeyInfoProvider(), new ECKeyValueProvider(), new RSAKeyValueProvider(),
+						new InlineX509DataProvider()),
+				new StaticCredentialResolver(List.of(credential, keyAgreementCredential)));
+		return new ChainingKeyInfoCredentialResolver(
+				List.of(new StaticKeyInfoCredentialResolver(credential), agreementResolver));
+	}
+
+	/**
+	 * EncryptedAssertion を復号し、新しいドキュメントをルートとする Assertion を返します。
+	 *
+	 * @throws DecryptionException 復号できない場合（失敗の段階によらず同じメッセージで、原因は含めない）
+	 */
+	public Assertion decrypt(EncryptedAssertion encryptedAssertion) throws DecryptionException {
+		long start = System.nanoTime();
+		try {
+			return decrypter.decrypt(encryptedAssertion);
+		} catch (DecryptionException | RuntimeException e) {
+			logger.debug("アサーションの復号に失敗しました", e);
+			throw new DecryptionException(DECRYPTION_FAILED);
+		} finally {
+			count.increment();
+			totalNanos.add(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * 復号の所要時間を Actuator のメトリクスとして公開します。
+	 */
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		FunctionTimer.builder("saml.sp.decrypt", this, service -> service.count.sum(),
+				service -> service.totalNanos.sum(), TimeUnit.NANOSECONDS)
+				.description("EncryptedAssertion の復号（鍵の復号・データの復号・パース）").register(registry);
+	}
+}
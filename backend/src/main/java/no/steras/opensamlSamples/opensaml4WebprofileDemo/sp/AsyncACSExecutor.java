@@ -0,0 +1,108 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.sp;
+
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * ACS の非同期モードで、アーティファクト解決以降の処理（バックチャネル通信・復号・署名検証）を実行するエグゼキューター。
+ *
+ * 1. 仮想スレッド: 処理はリクエストごとの仮想スレッドで実行され、IdP の応答待ちの間も Tomcat のワーカースレッドを占有しない。
+ * 2. 同時実行数の上限: 処理中の解決数がセマフォの上限に達した場合は新しい処理を受け付けない（呼び出し側が 503 を返す）。
+ * 3. タイムアウト: 非同期リクエスト全体のタイムアウトを保持し、サーブレットが AsyncContext に設定する。
+ *    タイムアウトやエラーの場合、サーブレットは返された Future を取り消し、仮想スレッドに割り込んで枠を解放する。
+ */
+public class AsyncACSExecutor implements MeterBinder, AutoCloseable {
+	private static Logger logger = LoggerFactory.getLogger(AsyncACSExecutor.class);
+
+	private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+	private final Semaphore inFlight;
+	private final int maxInFlight;
+	private final Duration timeout;
+
+	private final LongAdder rejected = new LongAdder();
+	private final LongAdder timeouts = new LongAdder();
+
+	/**
+	 * @param timeout     非同期リクエスト全体のタイムアウト
+	 * @param maxInFlight 同時に処理するアーティファクト解決の最大数
+	 */
+	public AsyncACSExecutor(Duration timeout, int maxInFlight) {
+		this.timeout = timeout;
+		this.maxInFlight = maxInFlight;
+		this.inFlight = new Semaphore(maxInFlight);
+		logger.info("ACS の非同期処理を有効化しました (タイムアウト: {}, 最大同時処理数: {})", timeout, maxInFlight);
+	}
+
+	/**
+	 * 同時実行数の上限内であれば処理を仮想スレッドで開始します。
+	 * 返された Future を {@code cancel(true)} で取り消すと、処理中の仮想スレッドに割り込みます。
+	 * 同時実行数の枠は、処理が終了した時点（開始前に取り消された場合はその時点）で解放されます。
+	 *
+	 * @return 受け付けた処理。上限に達している場合は null（処理は実行されない）
+	 */
+	public Future<?> submit(Runnable task) {
+		if (!inFlight.tryAcquire()) {
+			rejected.increment();
+			return null;
+		}
+		FutureTask<Void> future = new FutureTask<>(task, null);
+		try {
+			executor.execute(() -> {
+				try {
+					// 開始前に取り消された場合、run() は処理を実行せずに戻る
+					future.run();
+				} finally {
+					inFlight.release();
+				}
+			});
+			return future;
+		} catch (RuntimeException e) {
+			inFlight.release();
+			throw e;
+		}
+	}
+
+	/** 非同期リクエスト全体のタイムアウト */
+	public Duration getTimeout() {
+		return timeout;
+	}
+
+	/** タイムアウトした非同期リクエストを記録します */
+	public void recordTimeout() {
+		timeouts.increment();
+	}
+
+	/**
+	 * 処理中の数、上限超過による拒否数、タイムアウト数を Actuator のメトリクスとして公開します。
+	 */
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder("saml.acs.async.in-flight", inFlight, semaphore -> maxInFlight - semaphore.availablePermits())
+				.description("処理中のアーティファクト解決の数").register(registry);
+		FunctionCounter.builder("saml.acs.async.rejected", rejected, LongAdder::sum)
+				.description("同時実行数の上限により拒否したリクエストの数").register(registry);
+		FunctionCounter.builder("saml.acs.async.timeouts", timeouts, LongAdder::sum)
+				.description("タイムアウトした非同期リクエストの数").register(registry);
+	}
+
+	/**
+	 * アプリケーション終了時にエグゼキューターを停止します。
+	 */
+	@Override
+	public void close() {
+		executor.shutdownNow();
+	}
+}
@@ -0,0 +1,199 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.sp;
+
+import java.net.URI;
+import java.time.Duration;
+
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.messaging.context.InOutOperationContext;
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.messaging.pipeline.httpclient.BasicHttpClientMessagePipeline;
+import org.opensaml.messaging.pipeline.httpclient.HttpClientMessagePipeline;
+import org.opensaml.profile.context.ProfileRequestContext;
+import org.opensaml.saml.common.binding.security.impl.SAMLOutboundProtocolMessageSigningHandler;
+import org.opensaml.saml.saml2.binding.decoding.impl.HttpClientResponseSOAP11Decoder;
+import org.opensaml.saml.saml2.binding.encoding.impl.HttpClientRequestSOAP11Encoder;
+import org.opensaml.saml.saml2.core.ArtifactResolve;
+import org.opensaml.saml.saml2.core.ArtifactResponse;
+import org.opensaml.soap.client.http.AbstractPipelineHttpSOAPClient;
+import org.opensaml.soap.common.SOAPException;
+import org.opensaml.xmlsec.SignatureSigningParameters;
+import org.opensaml.xmlsec.context.SecurityParametersContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.shibboleth.shared.component.ComponentInitializationException;
+
+/**
+ * SP から IdP へのバックチャネル（SOAP）通信を担う、アプリケーション全体で共有する長寿命クライアント。
+ *
+ * 役割:
+ * 1. コネクションプール付きの HTTP クライアントを保持し、ログインごとの TCP/TLS ハンドシェイクを回避。
+ * 2. Keep-Alive、IdP（ルート）ごとの最大接続数、アイドル接続・期限切れ接続の破棄を管理。
+ * 3. ArtifactResolve を署名付きで送信し、IdP から返された ArtifactResponse を取り出す。
+ *
+ * 内部の SOAP クライアントは一度だけ初期化され、複数スレッドから同時に利用されます。
+ */
+public class BackchannelSOAPClient implements AutoCloseable {
+	private static Logger logger = LoggerFactory.getLogger(BackchannelSOAPClient.class);
+
+	private final PoolingHttpClientConnectionManager connectionManager;
+	private final CloseableHttpClient httpClient;
+	private final AbstractPipelineHttpSOAPClient soapClient;
+
+	/**
+	 * バックチャネル HTTP クライアントの設定値。
+	 *
+	 * @param maxConnectionsTotal   プール全体の最大接続数
+	 * @param maxConnectionsPerIdP  IdP（ルート）ごとの最大接続数
+	 * @param connectTimeout        TCP 接続タイムアウト
+	 * @param responseTimeout       レスポンス待ちタイムアウト
+	 * @param keepAlive             サーバーが Keep-Alive を明示しない場合に接続を保持する時間
+	 * @param idleEviction          この時間アイドル状態の接続をバックグラウンドで破棄
+	 * @param connectionTimeToLive  接続の最大寿命（DNS 変更や IdP 側の入れ替えに追従するため）
+	 */
+	public record Settings(int maxConnectionsTotal, int maxConnectionsPerIdP, Duration connectTimeout,
+			Duration responseTimeout, Duration keepAlive, Duration idleEviction, Duration connectionTimeToLive) {
+	}
+
+	/**
+	 * 接続プールと SOAP クライアントを構築して初期化します。
+	 *
+	 * @param settings     接続プールの設定
+	 * @param idpEndpoints 個別の接続数上限を割り当てる IdP の Artifact Resolution Service の URL
+	 */
+	public BackchannelSOAPClient(Settings settings, String... idpEndpoints) {
+		ConnectionConfig connectionConfig = ConnectionConfig.custom()
+				.setConnectTimeout(Timeout.of(settings.connectTimeout()))
+				.setSocketTimeout(Timeout.of(settings.responseTimeout()))
+				.setTimeToLive(TimeValue.of(settings.connectionTimeToLive()))
+				// 一定時間使われなかった接続は再利用前に生存確認を行う
+				.setValidateAfterInactivity(TimeValue.ofSeconds(2))
+				.build();
+
+		connectionManager = PoolingHttpClientConnectionManagerBuilder.create()
+				.setMaxConnTotal(settings.maxConnectionsTotal())
+				.setMaxConnPerRoute(settings.maxConnectionsPerIdP())
+				.setDefaultConnectionConfig(connectionConfig)
+				.build();
+
+		// IdP ごとのルート上限を明示的に設定
+		for (String endpoint : idpEndpoints) {
+			connectionManager.setMaxPerRoute(toRoute(endpoint), settings.maxConnectionsPerIdP());
+		}
+
+		TimeValue keepAlive = TimeValue.of(settings.keepAlive());
+		httpClient = HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(RequestConfig.custom()
+						.setConnectionRequestTimeout(Timeout.of(settings.connectTimeout()))
+						.setResponseTimeout(Timeout.of(settings.responseTimeout()))
+						.build())
+				// IdP が Keep-Alive ヘッダーを返さない場合でも接続を再利用する
+				.setKeepAliveStrategy((response, context) -> keepAlive)
+				.evictIdleConnections(TimeValue.of(settings.idleEviction()))
+				.evictExpiredConnections()
+				.build();
+
+		soapClient = new AbstractPipelineHttpSOAPClient() {
+			protected HttpClientMessagePipeline newPipeline() throws SOAPException {
+				HttpClientRequestSOAP11Encoder encoder = new HttpClientRequestSOAP11Encoder();
+				HttpClientResponseSOAP11Decoder decoder = new HttpClientResponseSOAP11Decoder();
+				// レスポンスの解析にはアプリケーション共有のパーサープールを使用
+				decoder.setParserPool(XMLObjectProviderRegistrySupport.getParserPool());
+				BasicHttpClientMessagePipeline pipeline = new BasicHttpClientMessagePipeline(encoder, decoder);
+
+				// 送信時に署名を付与するためのハンドラーを追加
+				SAMLOutboundProtocolMessageSigningHandler signingHandler = new SAMLOutboundProtocolMessageSigningHandler();
+				try {
+					signingHandler.initialize();
+				} catch (ComponentInitializationException e) {
+					throw new SOAPException(e);
+				}
+				pipeline.setOutboundPayloadHandler(signingHandler);
+				return pipeline;
+			}
+		};
+		soapClient.setHttpClient(httpClient);
+
+		try {
+			soapClient.initialize();
+		} catch (ComponentInitializationException e) {
+			throw new RuntimeException("バックチャネル SOAP クライアントの初期化に失敗しました", e);
+		}
+
+		logger.info("バックチャネル SOAP クライアントを初期化しました (最大接続数: {}, IdP ごとの最大接続数: {})",
+				settings.maxConnectionsTotal(), settings.maxConnectionsPerIdP());
+	}
+
+	/**
+	 * 署名付きの ArtifactResolve を IdP へ送信し、同期的に ArtifactResponse を受け取ります。
+	 * 接続はプールから取得され、レスポンス読み取り後にプールへ返却されます。
+	 *
+	 * @param endpoint                   IdP の Artifact Resolution Service の URL
+	 * @param artifactResolve            送信する ArtifactResolve
+	 * @param signatureSigningParameters ArtifactResolve の署名パラメータ
+	 * @return IdP から返された ArtifactResponse
+	 */
+	public ArtifactResponse resolveArtifact(String endpoint, ArtifactResolve artifactResolve,
+			SignatureSigningParameters signatureSigningParameters) {
+		// 送信用コンテキストの構築
+		MessageContext contextout = new MessageContext();
+		contextout.setMessage(artifactResolve);
+		contextout.getSubcontext(SecurityParametersContext.class, true)
+				.setSignatureSigningParameters(signatureSigningParameters);
+
+		// 操作全体のコンテキスト（リクエスト/レスポンスペア）
+		InOutOperationContext context = new ProfileRequestContext();
+		context.setOutboundMessageContext(contextout);
+
+		try {
+			soapClient.send(endpoint, context);
+		} catch (Exception e) {
+			throw new RuntimeException("バックチャネル SOAP 通信中にエラーが発生しました", e);
+		}
+
+		// IdP からの SOAP レスポンス内の SAML メッセージ (ArtifactResponse) を抽出
+		return (ArtifactResponse) context.getInboundMessageContext().getMessage();
+	}
+
+	/**
+	 * 接続プールの現在の統計情報（使用中・待機中・空き接続数）を返します。
+	 */
+	public PoolStats getPoolStats() {
+		return connectionManager.getTotalStats();
+	}
+
+	/**
+	 * アプリケーション終了時に接続プールを閉じます。
+	 */
+	@Override
+	public void close() {
+		try {
+			httpClient.close();
+		} catch (Exception e) {
+			logger.warn("バックチャネル HTTP クライアントのクローズ中にエラーが発生しました: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * エンドポイント URL からプールのルートを求めます。
+	 * 実行時のルートと一致させるため、ポート番号はスキーマの既定値で補完します。
+	 */
+	private static HttpRoute toRoute(String endpoint) {
+		URI uri = URI.create(endpoint);
+		boolean secure = "https".equalsIgnoreCase(uri.getScheme());
+		int port = uri.getPort() != -1 ? uri.getPort() : (secure ? 443 : 80);
+		return new HttpRoute(new HttpHost(uri.getScheme(), uri.getHost(), port), null, secure);
+	}
+}
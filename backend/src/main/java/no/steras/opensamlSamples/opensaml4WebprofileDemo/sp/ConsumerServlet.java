@@ -1,33 +1,29 @@
 package no.steras.opensamlSamples.opensaml4WebprofileDemo.sp;
 
 import java.io.IOException;
-import java.time.Duration;
 import java.time.Instant;
-import java.util.ArrayList;
+import java.util.Base64;
 import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServlet;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 
 import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
 import org.opensaml.core.xml.schema.XSString;
-import org.opensaml.messaging.context.InOutOperationContext;
 import org.opensaml.messaging.context.MessageContext;
-import org.opensaml.messaging.encoder.MessageEncodingException;
-import org.opensaml.messaging.handler.MessageHandler;
-import org.opensaml.messaging.handler.MessageHandlerException;
-import org.opensaml.messaging.handler.impl.BasicMessageHandlerChain;
-import org.opensaml.messaging.pipeline.httpclient.BasicHttpClientMessagePipeline;
-import org.opensaml.messaging.pipeline.httpclient.HttpClientMessagePipeline;
-import org.opensaml.profile.context.ProfileRequestContext;
-import org.opensaml.saml.common.binding.security.impl.MessageLifetimeSecurityHandler;
-import org.opensaml.saml.common.binding.security.impl.ReceivedEndpointSecurityHandler;
-import org.opensaml.saml.common.binding.security.impl.SAMLOutboundProtocolMessageSigningHandler;
+import org.opensaml.messaging.decoder.MessageDecodingException;
+import org.opensaml.saml.saml2.binding.artifact.SAML2ArtifactType0004;
 import org.opensaml.saml.common.messaging.context.SAMLMessageInfoContext;
-import org.opensaml.saml.saml2.binding.decoding.impl.HttpClientResponseSOAP11Decoder;
-import org.opensaml.saml.saml2.binding.encoding.impl.HttpClientRequestSOAP11Encoder;
+import org.opensaml.saml.saml2.binding.decoding.impl.HTTPPostDecoder;
 import org.opensaml.saml.saml2.core.Artifact;
 import org.opensaml.saml.saml2.core.ArtifactResolve;
 import org.opensaml.saml.saml2.core.ArtifactResponse;
@@ -36,69 +32,285 @@ import org.opensaml.saml.saml2.core.Attribute;
 import org.opensaml.saml.saml2.core.EncryptedAssertion;
 import org.opensaml.saml.saml2.core.Issuer;
 import org.opensaml.saml.saml2.core.Response;
-import org.opensaml.saml.saml2.encryption.Decrypter;
+import org.opensaml.saml.saml2.core.StatusResponseType;
 import org.opensaml.saml.security.impl.SAMLSignatureProfileValidator;
-import org.opensaml.soap.client.http.AbstractPipelineHttpSOAPClient;
-import org.opensaml.soap.common.SOAPException;
-import org.opensaml.xmlsec.SignatureSigningParameters;
-import org.opensaml.xmlsec.context.SecurityParametersContext;
+import org.opensaml.security.credential.Credential;
 import org.opensaml.xmlsec.encryption.support.DecryptionException;
-import org.opensaml.xmlsec.encryption.support.InlineEncryptedKeyResolver;
-import org.opensaml.xmlsec.keyinfo.impl.StaticKeyInfoCredentialResolver;
-import org.opensaml.xmlsec.signature.support.SignatureConstants;
 import org.opensaml.xmlsec.signature.support.SignatureException;
 import org.opensaml.xmlsec.signature.support.SignatureValidator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import net.shibboleth.shared.component.ComponentInitializationException;
-import net.shibboleth.shared.httpclient.HttpClientBuilder;
 import no.steras.opensamlSamples.opensaml4WebprofileDemo.OpenSAMLUtils;
-import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.IDPConstants;
-import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.IDPCredentials;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.capture.MessageCapture;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.capture.MessageType;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata.EntityMetadata;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata.MetadataResolver;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metrics.SsoFlowMetrics;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metrics.SsoPhase;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.security.SignatureAlgorithmPolicy;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.session.SPSessionStore;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.validation.InboundRequestContext;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.validation.InboundValidationException;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.validation.InboundValidationPipeline;
 
 /**
  * Service Provider (SP) 側の Assertion Consumer Service (ACS) エンドポイント。
  * 
  * 役割:
- * 1. IdP からブラウザ経由で送られてくる SAML アーティファクトを受信。
- * 2. アーティファクトを使用して IdP と直接通信（バックチャネル）し、実際のアサーションを取得。
- * 3. 取得したアサーションの復号、署名検証、有効期限チェックを実行。
+ * 1. IdP からブラウザ経由で送られてくる SAML アーティファクト、または HTTP-POST バインディングの Response を受信。
+ * 2. アーティファクトの場合は IdP と直接通信（バックチャネル）し、実際のアサーションを取得。
+ *    POST の場合は Response がアサーションを含んでいるため、バックチャネル通信は行わない。
+ * 3. 取得したアサーションの復号、署名検証、宛先・AuthnRequest・Audience・有効期限のチェック、リプレイ検出を実行。
  * 4. 全ての検証に成功すれば、ユーザーを認証済みとしてセッションを更新。
  */
 public class ConsumerServlet extends HttpServlet {
 	private static Logger logger = LoggerFactory.getLogger(ConsumerServlet.class);
 
+	// アプリケーション全体で共有するバックチャネル SOAP クライアント（接続プール付き）
+	private final BackchannelSOAPClient backchannelClient;
+	// 送受信したプロトコルメッセージのサンプリングキャプチャ
+	private final MessageCapture messageCapture;
+	// 非同期モードのエグゼキューター（null の場合はコンテナのスレッドで同期的に処理）
+	private final AsyncACSExecutor asyncExecutor;
+	// 起動時に構築済みの検証パイプライン（ArtifactResponse 用、HTTP-POST の Response 用、復号・署名検証後のアサーション用、
+	// アサーションの検証に成功した後のリプレイ検出用）
+	private final InboundValidationPipeline artifactResponseValidation;
+	private final InboundValidationPipeline responseValidation;
+	private final InboundValidationPipeline assertionValidation;
+	private final InboundValidationPipeline replayDetection;
+	// 起動時に構築した Decrypter を共有する復号サービス
+	private final AssertionDecryptionService decryptionService;
+	// SP の署名方式と、IdP の署名として受け入れる方式
+	private final SignatureAlgorithmPolicy signaturePolicy;
+	// SSO フローのフェーズごとの所要時間と失敗数
+	private final SsoFlowMetrics metrics;
+	// ログイン状態の保存先（HttpSession または暗号化クッキー）
+	private final SPSessionStore sessionStore;
+	// IdP の Artifact Resolution Service と署名検証用の鍵の参照先
+	private final MetadataResolver metadataResolver;
+	private final String idpEntityId;
+
+	/**
+	 * @param backchannelClient IdP との SOAP 通信に使用する共有クライアント
+	 * @param messageCapture    プロトコルメッセージのキャプチャ
+	 * @param asyncExecutor     非同期モードのエグゼキューター（同期モードの場合は null）
+	 * @param artifactResponseValidation ArtifactResponse の検証パイプライン（宛先・有効期限・発行者・InResponseTo）
+	 * @param responseValidation         HTTP-POST バインディングの Response の検証パイプライン（同上）
+	 * @param assertionValidation        署名検証後のアサーションの検証パイプライン（発行者・SubjectConfirmation・Conditions・Audience）
+	 * @param replayDetection            検証済みのアサーションのリプレイ検出パイプライン
+	 * @param decryptionService EncryptedAssertion の復号サービス
+	 * @param signaturePolicy   SP の署名方式のポリシー
+	 * @param metrics           SSO フローのフェーズごとのメトリクス
+	 * @param sessionStore      ログイン状態の保存先
+	 * @param metadataResolver  IdP のエンドポイントと鍵の参照先
+	 * @param idpEntityId       アサーションの発行元として受け入れる IdP のエンティティ ID
+	 */
+	public ConsumerServlet(BackchannelSOAPClient backchannelClient, MessageCapture messageCapture,
+			AsyncACSExecutor asyncExecutor, InboundValidationPipeline artifactResponseValidation,
+			InboundValidationPipeline responseValidation, InboundValidationPipeline assertionValidation,
+			InboundValidationPipeline replayDetection, AssertionDecryptionService decryptionService,
+			SignatureAlgorithmPolicy signaturePolicy, SsoFlowMetrics metrics, SPSessionStore sessionStore,
+			MetadataResolver metadataResolver, String idpEntityId) {
+		this.backchannelClient = backchannelClient;
+		this.metrics = metrics;
+		this.decryptionService = decryptionService;
+		this.signaturePolicy = signaturePolicy;
+		this.messageCapture = messageCapture;
+		this.asyncExecutor = asyncExecutor;
+		this.artifactResponseValidation = artifactResponseValidation;
+		this.responseValidation = responseValidation;
+		this.assertionValidation = assertionValidation;
+		this.replayDetection = replayDetection;
+		this.sessionStore = sessionStore;
+		this.metadataResolver = metadataResolver;
+		this.idpEntityId = idpEntityId;
+	}
+
 	/**
 	 * IdP からのリダイレクト（または POST）を受け取り、SAML 認証フローを完結させます。
+	 * 非同期モードでは、バックチャネル通信以降を仮想スレッドで実行し、コンテナのスレッドをすぐに解放します。
+	 * HTTP-POST バインディングの Response は待ち合わせる I/O がないため、常にコンテナのスレッドで処理します。
 	 */
 	@Override
 	protected void doGet(final HttpServletRequest req, final HttpServletResponse resp)
 			throws ServletException, IOException {
 		logger.info("ConsumerServlet: IdP からのレスポンスを受信しました。リクエストURL: {}", req.getRequestURL());
-		
+
+		if (req.getParameter("SAMLResponse") != null) {
+			processPostResponse(req);
+			completeLogin(req, resp);
+		} else if (asyncExecutor == null) {
+			processArtifact(req);
+			completeLogin(req, resp);
+		} else {
+			processArtifactAsync(req);
+		}
+	}
+
+	/**
+	 * アーティファクトの解決から検証までを仮想スレッドで実行し、コールバックでリダイレクトを完了します。
+	 * タイムアウト・エラー・処理の完了のうち、最初に起きたものだけがレスポンスを書き込みます。
+	 * タイムアウトとエラーの場合は仮想スレッドの処理を取り消し、同時実行数の枠を解放します。
+	 */
+	private void processArtifactAsync(final HttpServletRequest req) {
+		AsyncContext asyncContext = req.startAsync();
+		asyncContext.setTimeout(asyncExecutor.getTimeout().toMillis());
+		AtomicBoolean responded = new AtomicBoolean();
+		AtomicReference<Future<?>> task = new AtomicReference<>();
+		// タイムアウトまたはエラーで処理を取り消す場合は true
+		AtomicBoolean abandoned = new AtomicBoolean();
+
+		asyncContext.addListener(new AsyncListener() {
+			public void onTimeout(AsyncEvent event) throws IOException {
+				if (responded.compareAndSet(false, true)) {
+					asyncExecutor.recordTimeout();
+					logger.warn("ConsumerServlet: アーティファクトの解決がタイムアウトしました ({})", asyncExecutor.getTimeout());
+					abandoned.set(true);
+					cancel(task);
+					((HttpServletResponse) event.getAsyncContext().getResponse())
+							.sendError(HttpServletResponse.SC_GATEWAY_TIMEOUT, "IdP からの応答がタイムアウトしました");
+					event.getAsyncContext().complete();
+				}
+			}
+
+			public void onError(AsyncEvent event) {
+				if (responded.compareAndSet(false, true)) {
+					logger.warn("ConsumerServlet: 非同期処理中にエラーが発生したため、アーティファクトの解決を取り消します: {}",
+							event.getThrowable() != null ? event.getThrowable().getMessage() : null);
+					abandoned.set(true);
+					cancel(task);
+					event.getAsyncContext().complete();
+				}
+			}
+
+			public void onComplete(AsyncEvent event) {
+			}
+
+			public void onStartAsync(AsyncEvent event) {
+			}
+		});
+
+		Future<?> submitted = asyncExecutor.submit(() -> {
+			HttpServletRequest request = (HttpServletRequest) asyncContext.getRequest();
+			HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+			try {
+				processArtifact(request);
+			} catch (RuntimeException e) {
+				logger.error("ConsumerServlet: 認証処理中にエラーが発生しました: " + e.getMessage(), e);
+				if (responded.compareAndSet(false, true)) {
+					sendErrorAndComplete(asyncContext, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, "認証処理に失敗しました");
+				}
+				return;
+			}
+
+			// タイムアウト済みの場合はセッションを更新しない
+			if (responded.compareAndSet(false, true)) {
+				try {
+					completeLogin(request, response);
+				} finally {
+					asyncContext.complete();
+				}
+			}
+		});
+
+		if (submitted == null) {
+			if (responded.compareAndSet(false, true)) {
+				logger.warn("ConsumerServlet: 処理中のアーティファクト解決が上限に達したため、リクエストを拒否しました。");
+				((HttpServletResponse) asyncContext.getResponse()).setHeader("Retry-After", "1");
+				sendErrorAndComplete(asyncContext, HttpServletResponse.SC_SERVICE_UNAVAILABLE, "混雑しています。しばらくしてから再度お試しください");
+			}
+			return;
+		}
+		task.set(submitted);
+		// Future の登録前にタイムアウト・エラーが起きていた場合はここで取り消す
+		if (abandoned.get()) {
+			cancel(task);
+		}
+	}
+
+	/**
+	 * 仮想スレッドの処理を取り消します（IdP との通信中であれば割り込む）。
+	 */
+	private static void cancel(AtomicReference<Future<?>> task) {
+		Future<?> future = task.get();
+		if (future != null) {
+			future.cancel(true);
+		}
+	}
+
+	private void sendErrorAndComplete(AsyncContext asyncContext, int status, String message) {
+		try {
+			((HttpServletResponse) asyncContext.getResponse()).sendError(status, message);
+		} catch (IOException e) {
+			logger.warn("エラーレスポンスの送信に失敗しました: " + e.getMessage(), e);
+		} finally {
+			asyncContext.complete();
+		}
+	}
+
+	/**
+	 * アーティファクトを解決し、取得したアサーションを検証します（認証フローの 1〜6）。
+	 * 検証に失敗した場合は RuntimeException をスローします。
+	 */
+	private void processArtifact(final HttpServletRequest req) {
 		// 1. クエリパラメータ 'SAMLart' からアーティファクトを取得
 		Artifact artifact = buildArtifactFromRequest(req);
 		logger.info("1. SAMLアーティファクトを受信しました: {}", artifact.getValue());
 		
-		// 2. アーティファクト解決リクエスト (ArtifactResolve) を構築
-		ArtifactResolve artifactResolve = buildArtifactResolve(artifact);
+		// 2. アーティファクトの SourceID から発行元の IdP を特定し、アーティファクト解決リクエスト (ArtifactResolve) を構築
+		String resolutionService = resolveArtifactResolutionService(artifact);
+		ArtifactResolve artifactResolve = buildArtifactResolve(artifact, resolutionService);
 		logger.info("2. ArtifactResolve リクエストを作成しました。");
-		OpenSAMLUtils.logSAMLObject(artifactResolve);
+		messageCapture.capture(MessageType.ARTIFACT_RESOLVE, artifactResolve);
 		
 		// 3. IdP へ SOAP 通信で ArtifactResolve を送信し、ArtifactResponse を取得（バックチャネル）
-		logger.info("3. IdP ({}) へのバックチャネル通信を開始します...", IDPConstants.ARTIFACT_RESOLUTION_SERVICE);
-		ArtifactResponse artifactResponse = sendAndReceiveArtifactResolve(artifactResolve, resp);
+		logger.info("3. IdP ({}) へのバックチャネル通信を開始します...", resolutionService);
+		ArtifactResponse artifactResponse = sendAndReceiveArtifactResolve(resolutionService, artifactResolve);
 		logger.info("4. IdP から ArtifactResponse を受領しました。");
-		OpenSAMLUtils.logSAMLObject(artifactResponse);
+		messageCapture.capture(MessageType.ARTIFACT_RESPONSE, artifactResponse);
 
-		// 4. メッセージの宛先 (Destination) と有効期限 (IssueInstant) のセキュリティ検証
-		validateDestinationAndLifetime(artifactResponse, req);
-		logger.info("5. メッセージの基本検証（宛先・有効期限）が完了しました。");
+		// 4. メッセージの宛先 (Destination)・有効期限 (IssueInstant)・発行者・InResponseTo のセキュリティ検証
+		validateResponse(artifactResponseValidation, MessageType.ARTIFACT_RESPONSE, artifactResponse,
+				artifactResolve.getID(), req);
+		logger.info("5. メッセージの基本検証（宛先・有効期限・発行者・InResponseTo）が完了しました。");
 
-        // 5. アサーションの抽出と処理
-		EncryptedAssertion encryptedAssertion = getEncryptedAssertion(artifactResponse);
-		
+		// 5. アサーションの抽出と処理（アサーションは AuthnRequest の ID に結び付いている必要がある）
+		SPSessionStore.PendingLogin pendingLogin = sessionStore.getPendingLogin(req);
+		consumeAssertion(getEncryptedAssertion(artifactResponse),
+				pendingLogin != null ? pendingLogin.authnRequestId() : null, req);
+	}
+
+	/**
+	 * HTTP-POST バインディングで受信した Response を検証します（バックチャネル通信なし）。
+	 * 検証に失敗した場合は RuntimeException をスローします。
+	 */
+	private void processPostResponse(final HttpServletRequest req) {
+		// 1. フォームパラメータ 'SAMLResponse' から Response をデコード
+		Response response = decodePostResponse(req);
+		logger.info("1. HTTP-POST バインディングで Response を受信しました。");
+		messageCapture.capture(MessageType.RESPONSE, response);
+
+		// 2. 宛先・有効期限・発行者、および送信した AuthnRequest へのレスポンスであることを検証
+		// AuthnRequest の ID はログインの完了時に破棄される（同じ ID への Response を再度受け付けない）
+		SPSessionStore.PendingLogin pendingLogin = sessionStore.getPendingLogin(req);
+		String authnRequestId = pendingLogin != null ? pendingLogin.authnRequestId() : null;
+		validateResponse(responseValidation, MessageType.RESPONSE, response, authnRequestId, req);
+		logger.info("2. メッセージの基本検証（宛先・有効期限・発行者・InResponseTo）が完了しました。");
+
+		consumeAssertion(requireEncryptedAssertion(response, MessageType.RESPONSE, response), authnRequestId, req);
+	}
+
+	/**
+	 * 暗号化されたアサーションを復号し、署名・発行者・SubjectConfirmation・Audience・リプレイを検証します（Artifact / POST 共通）。
+	 * Response の宛先や InResponseTo は署名されていないため、アサーション自体が送信した AuthnRequest と
+	 * この ACS に宛てたものであることを確認してから受け入れます。
+	 *
+	 * @param authnRequestId 送信した AuthnRequest の ID（IdP 起点のログインでは null）
+	 */
+	private void consumeAssertion(EncryptedAssertion encryptedAssertion, String authnRequestId,
+			HttpServletRequest request) {
 		// 暗号化されているアサーションを復号
 		Assertion assertion = decryptAssertion(encryptedAssertion);
 		logger.info("6. アサーションの復号に成功しました。");
@@ -106,19 +318,32 @@ public class ConsumerServlet extends HttpServlet {
 		// 署名の検証（IdP の正真性の確認）
 		verifyAssertionSignature(assertion);
 		logger.info("7. アサーションの署名検証に成功しました。");
-		OpenSAMLUtils.logSAMLObject(assertion);
+		messageCapture.capture(MessageType.ASSERTION, assertion);
+
+		// 発行者・宛先・AuthnRequest との対応・Audience を確認し、
+		// 同じアサーションが有効期限内に再利用されていないことを確認（署名検証済みの ID のみ記録する）
+		validateAssertion(assertion, authnRequestId, request);
+		logger.info("8. アサーションの検証（発行者・SubjectConfirmation・Audience・リプレイ）に成功しました。");
 
 		// 6. ユーザー情報のログ出力（属性、認証時刻、認証方式など）
 		logAssertionAttributes(assertion);
 		logAuthenticationInstant(assertion);
 		logAuthenticationMethod(assertion);
+	}
+
+	/**
+	 * 検証済みのユーザーのセッションを更新し、元の URL へリダイレクトします（認証フローの 7〜8）。
+	 */
+	private void completeLogin(final HttpServletRequest req, final HttpServletResponse resp) {
+		// 認証フロー中の状態は認証済みへの更新で破棄されるため、戻り先 URL を先に取得
+		SPSessionStore.PendingLogin pendingLogin = sessionStore.getPendingLogin(req);
 
 		// 7. セッションを認証済みに更新
-		setAuthenticatedSession(req);
-		logger.info("8. 認証が完了しました。セッションを更新し、元のURLへ戻ります。");
+		setAuthenticatedSession(req, resp);
+		logger.info("9. 認証が完了しました。セッションを更新し、元のURLへ戻ります。");
 		
 		// 8. 認証開始前に保存していた元の URL へリダイレクト
-		redirectToGotoURL(req, resp);
+		redirectToGotoURL(pendingLogin != null ? pendingLogin.gotoURL() : null, req, resp);
 	}
 
 	@Override
@@ -129,90 +354,152 @@ public class ConsumerServlet extends HttpServlet {
 	}
 
 	/**
-	 * メッセージが自分宛であること、および発行から時間が経ちすぎていないことを検証します。
+	 * メッセージが自分宛であること、発行から時間が経ちすぎていないこと、想定する IdP が発行したこと、
+	 * および送信したリクエスト（ArtifactResolve または AuthnRequest）へのレスポンスであることを検証します。
+	 * ハンドラーは起動時に構築済みで、リクエストごとの情報はメッセージコンテキストで受け渡します。
+	 *
+	 * @param expectedInResponseTo 送信したリクエストの ID
 	 */
-	private void validateDestinationAndLifetime(ArtifactResponse artifactResponse, HttpServletRequest request) {
+	private void validateResponse(InboundValidationPipeline pipeline, MessageType messageType,
+			StatusResponseType response, String expectedInResponseTo, HttpServletRequest request) {
+		long start = metrics.start();
 		MessageContext context = new MessageContext();
-		context.setMessage(artifactResponse);
+		context.setMessage(response);
 
 		SAMLMessageInfoContext messageInfoContext = context.getSubcontext(SAMLMessageInfoContext.class, true);
-		messageInfoContext.setMessageIssueInstant(artifactResponse.getIssueInstant());
+		messageInfoContext.setMessageIssueInstant(response.getIssueInstant());
+
+		InboundRequestContext requestContext = context.getSubcontext(InboundRequestContext.class, true);
+		requestContext.setReceivedEndpointURL(request.getRequestURL().toString());
+		requestContext.setExpectedInResponseTo(expectedInResponseTo);
 
-		// メッセージ有効期限のチェック（発行時刻から指定時間内であること）
-		MessageLifetimeSecurityHandler lifetimeSecurityHandler = new MessageLifetimeSecurityHandler();
-		lifetimeSecurityHandler.setClockSkew(Duration.ofMillis(1000)); // クロックのずれ許容
-		lifetimeSecurityHandler.setMessageLifetime(Duration.ofMillis(2000)); // 有効期間
-		lifetimeSecurityHandler.setRequiredRule(true);
-		
-		// 宛先 URL のチェック（Destination 属性がリクエスト URL と一致すること）
-		ReceivedEndpointSecurityHandler receivedEndpointSecurityHandler = new ReceivedEndpointSecurityHandler();
-		receivedEndpointSecurityHandler.setHttpServletRequestSupplier(() -> request);
-		
 		try {
-			lifetimeSecurityHandler.initialize();
-			receivedEndpointSecurityHandler.initialize();
-			
-			// ハンドラーチェーンとして実行
-			BasicMessageHandlerChain handlerChain = new BasicMessageHandlerChain();
-			List<MessageHandler> handlers = new ArrayList<>();
-			handlers.add(lifetimeSecurityHandler);
-			handlers.add(receivedEndpointSecurityHandler);
-			handlerChain.setHandlers(handlers);
-			
-			handlerChain.initialize();
-			handlerChain.doInvoke(context);
-		} catch (ComponentInitializationException | MessageHandlerException e) {
+			pipeline.validate(context);
+		} catch (InboundValidationException e) {
+			metrics.failure(SsoPhase.VALIDATION, e.getHandlerName());
+			messageCapture.captureFailure(messageType, response, e.getMessage());
 			throw new RuntimeException("メッセージのセキュリティ検証に失敗しました", e);
 		}
+		metrics.record(SsoPhase.VALIDATION, start);
 	}
 
 	/**
-	 * SP の秘密鍵を使用して、暗号化されたアサーションを復号します。
+	 * 署名検証済みのアサーションを検証パイプライン（発行者・SubjectConfirmation・Conditions・Audience）で検証し、
+	 * 成功した場合だけリプレイ検出を行います（検証に失敗したアサーションの ID はリプレイキャッシュに記録しない）。
+	 * 所要時間と失敗はそれぞれ ASSERTION_VALIDATION と REPLAY_CHECK のフェーズとして記録します。
+	 *
+	 * @param authnRequestId 送信した AuthnRequest の ID（SubjectConfirmationData の InResponseTo と一致する必要がある）
 	 */
-	private Assertion decryptAssertion(EncryptedAssertion encryptedAssertion) {
-		StaticKeyInfoCredentialResolver keyInfoCredentialResolver = new StaticKeyInfoCredentialResolver(
-				SPCredentials.getCredential());
+	private void validateAssertion(Assertion assertion, String authnRequestId, HttpServletRequest request) {
+		long start = metrics.start();
+		MessageContext context = new MessageContext();
+		context.setMessage(assertion);
+
+		InboundRequestContext requestContext = context.getSubcontext(InboundRequestContext.class, true);
+		requestContext.setReceivedEndpointURL(request.getRequestURL().toString());
+		requestContext.setExpectedInResponseTo(authnRequestId);
+
+		runAssertionPipeline(assertionValidation, SsoPhase.ASSERTION_VALIDATION, context, assertion);
+		runAssertionPipeline(replayDetection, SsoPhase.REPLAY_CHECK, context, assertion);
+	}
 
-		// 復号機の設定
-		Decrypter decrypter = new Decrypter(null, keyInfoCredentialResolver, new InlineEncryptedKeyResolver());
-		decrypter.setRootInNewDocument(true);
+	private void runAssertionPipeline(InboundValidationPipeline pipeline, SsoPhase phase, MessageContext context,
+			Assertion assertion) {
+		long start = metrics.start();
+		try {
+			pipeline.validate(context);
+		} catch (InboundValidationException e) {
+			metrics.failure(phase, e.getHandlerName());
+			messageCapture.captureFailure(MessageType.ASSERTION, assertion, e.getMessage());
+			throw new RuntimeException("アサーションの検証に失敗しました", e);
+		}
+		metrics.record(phase, start);
+	}
 
+	/**
+	 * SP の秘密鍵を使用して、暗号化されたアサーションを復号します（Decrypter は共有の復号サービスが再利用）。
+	 */
+	private Assertion decryptAssertion(EncryptedAssertion encryptedAssertion) {
+		long start = metrics.start();
+		Assertion assertion;
 		try {
-			return decrypter.decrypt(encryptedAssertion);
+			assertion = decryptionService.decrypt(encryptedAssertion);
 		} catch (DecryptionException e) {
+			metrics.failure(SsoPhase.DECRYPT, "decryption-failed");
+			// 復号の失敗理由は攻撃者に手がかりを与えるため、キャプチャにも固定の理由だけを記録する
+			messageCapture.captureFailure(MessageType.ASSERTION, encryptedAssertion, "復号に失敗しました");
 			throw new RuntimeException("アサーションの復号に失敗しました", e);
 		}
+		metrics.record(SsoPhase.DECRYPT, start);
+		return assertion;
 	}
 
 	/**
 	 * アサーションのデジタル署名を検証します。
 	 */
 	private void verifyAssertionSignature(Assertion assertion) {
+		long start = metrics.start();
 		if (!assertion.isSigned()) {
+			metrics.failure(SsoPhase.SIGNATURE_VERIFY, "unsigned");
+			messageCapture.captureFailure(MessageType.ASSERTION, assertion, "署名がありません");
 			throw new RuntimeException("SAMLアサーションに署名がありません。セキュリティリスクがあります。");
 		}
 
+		// IdP の署名用の鍵はメタデータから取得する（鍵の更新期間中は複数の鍵が並ぶ）
+		EntityMetadata.IdentityProvider identityProvider = metadataResolver.getIdentityProvider(idpEntityId);
+		if (identityProvider == null || identityProvider.signingCredentials().isEmpty()) {
+			metrics.failure(SsoPhase.SIGNATURE_VERIFY, "unknown-issuer");
+			throw new RuntimeException("IdP (" + idpEntityId + ") の署名検証用の鍵がメタデータにありません");
+		}
+
+		// 失敗理由（メトリクスのタグ）は検証の段階ごとに切り替える
+		String failureReason = "signature-profile";
 		try {
 			// XML署名の構文とプロファイルが正しいか検証
 			SAMLSignatureProfileValidator profileValidator = new SAMLSignatureProfileValidator();
 			profileValidator.validate(assertion.getSignature());
 
+			// SP が受け入れる署名方式であることを確認（弱い方式へのダウングレードを防ぐ）
+			failureReason = "algorithm-not-accepted";
+			signaturePolicy.requireAccepted(assertion.getSignature());
+
 			// IdP の公開鍵を使用して署名を数学的に検証
-			SignatureValidator.validate(assertion.getSignature(), IDPCredentials.getCredential());
+			failureReason = "invalid-signature";
+			validateWithAnyCredential(assertion, identityProvider.signingCredentials());
 		} catch (SignatureException e) {
+			metrics.failure(SsoPhase.SIGNATURE_VERIFY, failureReason);
+			messageCapture.captureFailure(MessageType.ASSERTION, assertion, e.getMessage());
 			throw new RuntimeException("アサーションの署名検証に失敗しました。メッセージが改ざんされている可能性があります。", e);
 		}
+		metrics.record(SsoPhase.SIGNATURE_VERIFY, start);
 	}
 
-	private void setAuthenticatedSession(HttpServletRequest req) {
-		req.getSession().setAttribute(SPConstants.AUTHENTICATED_SESSION_ATTRIBUTE, true);
+	/**
+	 * メタデータの鍵のいずれかで署名を検証します。すべての鍵で失敗した場合は最後の例外をスローします。
+	 */
+	private void validateWithAnyCredential(Assertion assertion, List<Credential> credentials) throws SignatureException {
+		SignatureException lastFailure = null;
+		for (Credential credential : credentials) {
+			try {
+				SignatureValidator.validate(assertion.getSignature(), credential);
+				return;
+			} catch (SignatureException e) {
+				lastFailure = e;
+			}
+		}
+		throw lastFailure;
+	}
+
+	private void setAuthenticatedSession(HttpServletRequest req, HttpServletResponse resp) {
+		long start = metrics.start();
+		sessionStore.completeLogin(req, resp);
+		metrics.record(SsoPhase.SESSION_UPDATE, start);
 	}
 
 	/**
 	 * 認証フロー開始時に保存した元の URL へユーザーを引き戻します。
 	 */
-	private void redirectToGotoURL(HttpServletRequest req, HttpServletResponse resp) {
-		String gotoURL = (String) req.getSession().getAttribute(SPConstants.GOTO_URL_SESSION_ATTRIBUTE);
+	private void redirectToGotoURL(String gotoURL, HttpServletRequest req, HttpServletResponse resp) {
 		if (gotoURL == null) {
 			logger.warn("セッションに戻り先URLが見つかりません。デフォルトページを表示します。");
 			gotoURL = req.getContextPath() + "/app/appservlet";
@@ -245,66 +532,75 @@ public class ConsumerServlet extends HttpServlet {
 	}
 
 	private EncryptedAssertion getEncryptedAssertion(ArtifactResponse artifactResponse) {
-		Response response = (Response) artifactResponse.getMessage();
+		// IdP がアーティファクトを解決できなかった場合（期限切れ・解決済み等）はメッセージが含まれない
+		if (!(artifactResponse.getMessage() instanceof Response response)) {
+			metrics.failure(SsoPhase.VALIDATION, "artifact-not-resolved");
+			messageCapture.captureFailure(MessageType.ARTIFACT_RESPONSE, artifactResponse, "Response が含まれていません");
+			throw new RuntimeException("IdP がアーティファクトを解決できませんでした。期限切れまたは解決済みの可能性があります。");
+		}
+		return requireEncryptedAssertion(response, MessageType.ARTIFACT_RESPONSE, artifactResponse);
+	}
+
+	/**
+	 * Response の最初の EncryptedAssertion を返します。含まれていない場合は他の不正な Response と同じく検証エラーとします。
+	 *
+	 * @param messageType 失敗時にキャプチャするメッセージの種類
+	 * @param message     失敗時にキャプチャするメッセージ（Response またはそれを含む ArtifactResponse）
+	 */
+	private EncryptedAssertion requireEncryptedAssertion(Response response, MessageType messageType, XMLObject message) {
+		if (response.getEncryptedAssertions().isEmpty()) {
+			metrics.failure(SsoPhase.VALIDATION, "no-assertion");
+			messageCapture.captureFailure(messageType, message, "EncryptedAssertion が含まれていません");
+			throw new RuntimeException("Response に暗号化されたアサーションが含まれていません。");
+		}
 		return response.getEncryptedAssertions().get(0);
 	}
 
 	/**
-	 * SOAP クライアントを使用して ArtifactResolve リクエストを IdP へ送信し、同期的にレスポンスを待機します。
-	 * ここで SP と IdP 間の「バックチャネル」通信が発生します。
+	 * 共有のバックチャネル SOAP クライアントを使用して ArtifactResolve リクエストを IdP へ送信し、同期的にレスポンスを待機します。
+	 * ここで SP と IdP 間の「バックチャネル」通信が発生します。接続はプールから再利用されます。
 	 */
-	private ArtifactResponse sendAndReceiveArtifactResolve(final ArtifactResolve artifactResolve,
-			HttpServletResponse servletResponse) {
+	private ArtifactResponse sendAndReceiveArtifactResolve(final String resolutionService,
+			final ArtifactResolve artifactResolve) {
+		// ArtifactResolve リクエストへの署名設定（起動時に IdP が受け入れる方式と照合済みの共有パラメータ）
+		// SOAP リクエストを IdP の Artifact Resolution Service エンドポイントに送信
+		long start = metrics.start();
+		ArtifactResponse artifactResponse;
 		try {
-			// 送信用コンテキストの構築
-			MessageContext contextout = new MessageContext();
-			contextout.setMessage(artifactResolve);
-
-			// ArtifactResolve リクエストへの署名設定
-			SignatureSigningParameters signatureSigningParameters = new SignatureSigningParameters();
-			signatureSigningParameters.setSignatureAlgorithm(SignatureConstants.ALGO_ID_SIGNATURE_RSA_SHA256);
-			signatureSigningParameters.setSigningCredential(SPCredentials.getCredential());
-			signatureSigningParameters.setSignatureCanonicalizationAlgorithm(SignatureConstants.ALGO_ID_C14N_EXCL_OMIT_COMMENTS);
-
-			contextout.getSubcontext(SecurityParametersContext.class, true)
-				.setSignatureSigningParameters(signatureSigningParameters);
-
-			// 操作全体のコンテキスト（リクエスト/レスポンスペア）
-			InOutOperationContext context = new ProfileRequestContext();
-			context.setOutboundMessageContext(contextout);
-
-			// SOAP 1.1 パイプラインを定義するクライアントの構築
-			AbstractPipelineHttpSOAPClient soapClient = new AbstractPipelineHttpSOAPClient() {
-				protected HttpClientMessagePipeline newPipeline() throws SOAPException {
-					HttpClientRequestSOAP11Encoder encoder = new HttpClientRequestSOAP11Encoder();
-					HttpClientResponseSOAP11Decoder decoder = new HttpClientResponseSOAP11Decoder();
-					BasicHttpClientMessagePipeline pipeline = new BasicHttpClientMessagePipeline(encoder, decoder);
-
-					// 送信時に署名を付与するためのハンドラーを追加
-					SAMLOutboundProtocolMessageSigningHandler signingHandler = new SAMLOutboundProtocolMessageSigningHandler();
-					try {
-						signingHandler.initialize();
-					} catch (ComponentInitializationException e) {
-						throw new SOAPException(e);
-					}
-					pipeline.setOutboundPayloadHandler(signingHandler);
-					return pipeline;
-				}
-			};
-
-			// HTTP クライアントの準備と初期化
-			HttpClientBuilder clientBuilder = new HttpClientBuilder();
-			soapClient.setHttpClient(clientBuilder.buildClient());
-			soapClient.initialize();
-			
-			// SOAP リクエストを IdP の Artifact Resolution Service エンドポイントに送信
-			soapClient.send(IDPConstants.ARTIFACT_RESOLUTION_SERVICE, context);
-
-			// IdP からの SOAP レスポンス内の SAML メッセージ (ArtifactResponse) を抽出
-			return (ArtifactResponse) context.getInboundMessageContext().getMessage();
-		} catch (Exception e) {
-			throw new RuntimeException("バックチャネル SOAP 通信中にエラーが発生しました", e);
+			artifactResponse = backchannelClient.resolveArtifact(resolutionService,
+					artifactResolve, signaturePolicy.getSigningParameters());
+		} catch (RuntimeException e) {
+			metrics.failure(SsoPhase.BACKCHANNEL, "transport");
+			throw e;
 		}
+		metrics.record(SsoPhase.BACKCHANNEL, start);
+		return artifactResponse;
+	}
+
+	/**
+	 * HTTP-POST バインディングのフォームから Response をデコードします（Base64 デコードと XML の解析）。
+	 */
+	private Response decodePostResponse(final HttpServletRequest req) {
+		long start = metrics.start();
+		HTTPPostDecoder decoder = new HTTPPostDecoder();
+		decoder.setHttpServletRequestSupplier(() -> req);
+		Object message;
+		try {
+			// アプリケーション共有のパーサープールを使用（リクエストごとに生成しない）
+			decoder.setParserPool(XMLObjectProviderRegistrySupport.getParserPool());
+			decoder.initialize();
+			decoder.decode();
+			message = decoder.getMessageContext().getMessage();
+		} catch (MessageDecodingException | ComponentInitializationException e) {
+			metrics.failure(SsoPhase.POST_DECODE, "decode");
+			throw new RuntimeException("HTTP-POST バインディングのデコードに失敗しました", e);
+		}
+		if (!(message instanceof Response response)) {
+			metrics.failure(SsoPhase.POST_DECODE, "unexpected-message");
+			throw new RuntimeException("HTTP-POST バインディングで Response 以外のメッセージを受信しました");
+		}
+		metrics.record(SsoPhase.POST_DECODE, start);
+		return response;
 	}
 
 	private Artifact buildArtifactFromRequest(final HttpServletRequest req) {
@@ -314,10 +610,37 @@ public class ConsumerServlet extends HttpServlet {
 		return artifact;
 	}
 
+	/**
+	 * アーティファクトの SourceID（発行元のエンティティ ID の SHA-1）から、
+	 * 発行元の IdP の Artifact Resolution Service をメタデータのインデックスで参照します。
+	 * 発行元が設定した IdP でない場合は、バックチャネルで解決要求を送る前に拒否します
+	 * （フェデレーションの他の IdP のアーティファクトを受け付けない）。
+	 */
+	private String resolveArtifactResolutionService(final Artifact artifact) {
+		EntityMetadata issuer;
+		try {
+			byte[] decoded = Base64.getDecoder().decode(artifact.getValue());
+			issuer = metadataResolver.getEntityBySourceId(SAML2ArtifactType0004.parseArtifact(decoded).getSourceID());
+		} catch (IllegalArgumentException | NullPointerException e) {
+			metrics.failure(SsoPhase.BACKCHANNEL, "malformed-artifact");
+			throw new RuntimeException("SAMLアーティファクトの形式が不正です", e);
+		}
+		if (issuer == null || issuer.identityProvider() == null
+				|| issuer.identityProvider().artifactResolutionService() == null) {
+			metrics.failure(SsoPhase.BACKCHANNEL, "unknown-source");
+			throw new RuntimeException("SAMLアーティファクトの発行元の Artifact Resolution Service がメタデータにありません");
+		}
+		if (!idpEntityId.equals(issuer.entityId())) {
+			metrics.failure(SsoPhase.BACKCHANNEL, "unexpected-issuer");
+			throw new RuntimeException("SAMLアーティファクトの発行元 (" + issuer.entityId() + ") が設定された IdP ではありません");
+		}
+		return issuer.identityProvider().artifactResolutionService();
+	}
+
 	/**
 	 * 受信した特定のアーティファクトを引き換えるための解決リクエストを構築します。
 	 */
-	private ArtifactResolve buildArtifactResolve(final Artifact artifact) {
+	private ArtifactResolve buildArtifactResolve(final Artifact artifact, final String destination) {
 		ArtifactResolve artifactResolve = OpenSAMLUtils.buildSAMLObject(ArtifactResolve.class);
 
 		// 発行者情報のセット
@@ -327,7 +650,7 @@ public class ConsumerServlet extends HttpServlet {
 
 		artifactResolve.setIssueInstant(Instant.now());
 		artifactResolve.setID(OpenSAMLUtils.generateSecureRandomId());
-		artifactResolve.setDestination(IDPConstants.ARTIFACT_RESOLUTION_SERVICE);
+		artifactResolve.setDestination(destination);
 		
 		// 解決対象のアーティファクトをセット
 		artifactResolve.setArtifact(artifact);
@@ -0,0 +1,337 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.sp;
+
+import java.io.ByteArrayOutputStream;
+import java.net.MalformedURLException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.PrivateKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.saml.saml2.core.AuthnRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import net.shibboleth.shared.net.URLBuilder;
+import net.shibboleth.shared.xml.SerializeSupport;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.ConcurrentObjectPool;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.OpenSAMLUtils;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.security.SignatureAlgorithmPolicy;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.xml.SAMLObjectTemplate;
+
+/**
+ * DOM を構築せずに AuthnRequest を HTTP-Redirect バインディングの URL にエンコードするエンコーダー。
+ *
+ * 設計:
+ * 1. 事前コンパイルしたテンプレート: 送信先ごとに一度だけ、プレースホルダーの ID と IssueInstant を入れた AuthnRequest を
+ *    OpenSAML でシリアライズし、プレースホルダーの前後を UTF-8 のバイト列として保持する。リクエストごとには
+ *    ID と IssueInstant のバイト列をつなぐだけで、XMLObject のツリー・DOM・シリアライザーを使用しない。
+ * 2. プールした Deflater: {@link Deflater}（nowrap）と出力バッファ、署名用の {@link Signature} をまとめてプールし、
+ *    リクエストごとの生成を避ける。圧縮レベルは HTTPRedirectDeflateEncoder と同じ値を使用する。
+ * 3. クエリ文字列への署名: SAMLRequest / RelayState / SigAlg を HTTPRedirectDeflateEncoder と同じ順序・エンコードで並べ、
+ *    その文字列に署名する。
+ * 4. 等価性の確認: テンプレートのコンパイル時に、実際の ID と日時で OpenSAML のシリアライズ結果と
+ *    deflate 後に inflate したバイト列が完全に一致することを確認する。一致しない送信先（クエリ文字列を含む URL など）は
+ *    テンプレートを使用せず、呼び出し側が OpenSAML のエンコーダーで処理する。
+ */
+public class RedirectAuthnRequestEncoder {
+	private static Logger logger = LoggerFactory.getLogger(RedirectAuthnRequestEncoder.class);
+
+	// プロトタイプに入れるプレースホルダー値（シリアライズ結果の中で 1 回だけ現れる値）
+	private static final String PLACEHOLDER_ID = "_authnRequestTemplateId";
+	private static final Instant PLACEHOLDER_INSTANT = Instant.parse("2001-02-03T04:05:06.789Z");
+	// プールする作業領域の最大数
+	private static final int MAX_IDLE_WORKSPACES = 64;
+	// テンプレートを使用できない送信先を表す値
+	private static final Template UNSUPPORTED = new Template(null, null, null, null, false);
+
+	/**
+	 * 送信先・ID・発行日時から AuthnRequest を構築する関数（テンプレートのプロトタイプと、キャプチャ用のオブジェクトの構築に使用）。
+	 */
+	@FunctionalInterface
+	public interface AuthnRequestFactory {
+		AuthnRequest build(String destination, String id, Instant issueInstant);
+	}
+
+	/**
+	 * 送信先ごとのテンプレート。AuthnRequest のシリアライズ結果を ID と IssueInstant の位置で 3 つに分けたもの。
+	 *
+	 * @param urlPrefix 送信先の URL と "?SAMLRequest="
+	 * @param head      最初のプレースホルダーまでのバイト列
+	 * @param middle    2 つのプレースホルダーの間のバイト列
+	 * @param tail      2 つ目のプレースホルダー以降のバイト列
+	 * @param idFirst   ID が IssueInstant より前にある場合は true
+	 */
+	private record Template(String urlPrefix, byte[] head, byte[] middle, byte[] tail, boolean idFirst) {
+	}
+
+	private final AuthnRequestFactory factory;
+	private final String encodedSignatureAlgorithm;
+	private final String jcaAlgorithm;
+	private final PrivateKey signingKey;
+	private final Map<String, Template> templates = new ConcurrentHashMap<>();
+	private final ConcurrentObjectPool<Workspace> workspaces;
+
+	/**
+	 * @param factory         AuthnRequest を構築する関数
+	 * @param signaturePolicy SP の署名方式のポリシー（起動時に決定した方式と SP の秘密鍵を使用）
+	 */
+	public RedirectAuthnRequestEncoder(AuthnRequestFactory factory, SignatureAlgorithmPolicy signaturePolicy) {
+		this.factory = factory;
+		this.encodedSignatureAlgorithm = URLEncoder.encode(signaturePolicy.getSignatureAlgorithm(), StandardCharsets.UTF_8);
+		this.jcaAlgorithm = signaturePolicy.getJcaAlgorithm();
+		this.signingKey = signaturePolicy.getSigningParameters().getSigningCredential().getPrivateKey();
+		this.workspaces = new ConcurrentObjectPool<>(Workspace::new, MAX_IDLE_WORKSPACES);
+	}
+
+	/**
+	 * AuthnRequest を署名付きのリダイレクト URL にエンコードします。
+	 *
+	 * @param destination  IdP の SSO サービスの URL
+	 * @param relayState   RelayState（ない場合は null）
+	 * @param id           AuthnRequest の ID
+	 * @param issueInstant AuthnRequest の発行日時
+	 * @return リダイレクト先の URL。この送信先でテンプレートを使用できない場合は null
+	 */
+	public String encode(String destination, String relayState, String id, Instant issueInstant) {
+		Template template = templates.computeIfAbsent(destination, this::compile);
+		if (template == UNSUPPORTED) {
+			return null;
+		}
+
+		Workspace workspace = workspaces.borrow();
+		try {
+			String url = workspace.encode(template, relayState, id, SAMLObjectTemplate.instant(issueInstant));
+			workspaces.release(workspace);
+			return url;
+		} catch (RuntimeException e) {
+			// 署名の途中で失敗した Signature は状態が不定のため再利用しない
+			workspaces.discard(workspace);
+			throw e;
+		}
+	}
+
+	/**
+	 * 送信先のテンプレートをコンパイルし、OpenSAML のシリアライズ結果との等価性を確認します。
+	 */
+	private Template compile(String destination) {
+		try {
+			// URLBuilder が組み立て直しても変わらない URL だけを対象にする（クエリ文字列やフラグメントを含む URL は除外）
+			if (destination.indexOf('?') >= 0 || destination.indexOf('#') >= 0
+					|| !destination.equals(new URLBuilder(destination).buildURL())) {
+				logger.info("送信先 ({}) の AuthnRequest は OpenSAML のエンコーダーでエンコードします (URL の形式)", destination);
+				return UNSUPPORTED;
+			}
+
+			String xml = serialize(factory.build(destination, PLACEHOLDER_ID, PLACEHOLDER_INSTANT));
+			String instant = SAMLObjectTemplate.instant(PLACEHOLDER_INSTANT);
+			int idAt = xml.indexOf(PLACEHOLDER_ID);
+			int instantAt = xml.indexOf(instant);
+			if (idAt < 0 || instantAt < 0 || idAt != xml.lastIndexOf(PLACEHOLDER_ID)
+					|| instantAt != xml.lastIndexOf(instant)) {
+				logger.warn("送信先 ({}) の AuthnRequest のテンプレートを作成できません (プレースホルダーの位置)", destination);
+				return UNSUPPORTED;
+			}
+
+			boolean idFirst = idAt < instantAt;
+			int firstAt = Math.min(idAt, instantAt);
+			int firstEnd = firstAt + (idFirst ? PLACEHOLDER_ID.length() : instant.length());
+			int secondAt = Math.max(idAt, instantAt);
+			int secondEnd = secondAt + (idFirst ? instant.length() : PLACEHOLDER_ID.length());
+			Template template = new Template(destination + "?SAMLRequest=",
+					xml.substring(0, firstAt).getBytes(StandardCharsets.UTF_8),
+					xml.substring(firstEnd, secondAt).getBytes(StandardCharsets.UTF_8),
+					xml.substring(secondEnd).getBytes(StandardCharsets.UTF_8), idFirst);
+
+			if (!isEquivalent(destination, template)) {
+				logger.warn("送信先 ({}) の AuthnRequest のテンプレートが OpenSAML の出力と一致しません。OpenSAML のエンコーダーを使用します",
+						destination);
+				return UNSUPPORTED;
+			}
+			logger.info("送信先 ({}) の AuthnRequest のテンプレートをコンパイルしました ({} バイト)", destination,
+					template.head().length + template.middle().length + template.tail().length);
+			return template;
+		} catch (MalformedURLException | MarshallingException | RuntimeException e) {
+			logger.warn("送信先 (" + destination + ") の AuthnRequest のテンプレートを作成できません: " + e.getMessage(), e);
+			return UNSUPPORTED;
+		}
+	}
+
+	/**
+	 * 実際の ID と日時で、テンプレートから deflate した結果を inflate したバイト列が
+	 * OpenSAML のシリアライズ結果（HTTPRedirectDeflateEncoder が deflate するバイト列）と一致することを確認します。
+	 */
+	private boolean isEquivalent(String destination, Template template) throws MarshallingException {
+		String id = OpenSAMLUtils.generateSecureRandomId();
+		Instant issueInstant = Instant.now();
+		byte[] expected = serialize(factory.build(destination, id, issueInstant)).getBytes(StandardCharsets.UTF_8);
+
+		Workspace workspace = new Workspace();
+		workspace.render(template, id, SAMLObjectTemplate.instant(issueInstant));
+		int deflatedLength = workspace.deflate();
+		byte[] inflated = inflate(Arrays.copyOf(workspace.deflated, deflatedLength));
+		workspace.deflater.end();
+		return Arrays.equals(expected, inflated);
+	}
+
+	private static String serialize(AuthnRequest authnRequest) throws MarshallingException {
+		return SerializeSupport.nodeToString(OpenSAMLUtils.marshall(authnRequest));
+	}
+
+	private static byte[] inflate(byte[] deflated) {
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(deflated);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(deflated.length * 4);
+			byte[] buffer = new byte[1024];
+			while (!inflater.finished()) {
+				int length = inflater.inflate(buffer);
+				if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				out.write(buffer, 0, length);
+			}
+			return out.toByteArray();
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("deflate した AuthnRequest を inflate できません", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/**
+	 * 1 回のエンコードに使用する作業領域（Deflater・バッファ・署名）。スレッド間では共有せず、プールで再利用する。
+	 */
+	private final class Workspace {
+		// HTTPRedirectDeflateEncoder と同じ圧縮レベル（Deflater.DEFLATED）と nowrap（RFC 1951 の生の deflate）
+		final Deflater deflater = new Deflater(Deflater.DEFLATED, true);
+		byte[] xml = new byte[2048];
+		int xmlLength;
+		byte[] deflated = new byte[1024];
+		byte[] signatureInput = new byte[2048];
+		final StringBuilder url = new StringBuilder(2048);
+		final Signature signer;
+
+		Workspace() {
+			try {
+				signer = Signature.getInstance(jcaAlgorithm);
+				// sign() の後は initSign 直後の状態に戻るため、初期化は一度だけでよい
+				signer.initSign(signingKey);
+			} catch (GeneralSecurityException e) {
+				throw new IllegalStateException("AuthnRequest の署名を初期化できません: " + jcaAlgorithm, e);
+			}
+		}
+
+		String encode(Template template, String relayState, String id, String issueInstant) {
+			render(template, id, issueInstant);
+			int deflatedLength = deflate();
+
+			// 署名対象: SAMLRequest=...&RelayState=...&SigAlg=...（HTTPRedirectDeflateEncoder と同じ順序とエンコード）
+			url.setLength(0);
+			url.append(template.urlPrefix());
+			int queryStart = url.indexOf("?") + 1;
+			appendUrlEncodedBase64(ByteBuffer.wrap(deflated, 0, deflatedLength));
+			if (relayState != null && !relayState.isEmpty()) {
+				url.append("&RelayState=").append(URLEncoder.encode(relayState, StandardCharsets.UTF_8));
+			}
+			url.append("&SigAlg=").append(encodedSignatureAlgorithm);
+			byte[] signature = sign(queryStart, url.length());
+
+			url.append("&Signature=");
+			appendUrlEncodedBase64(ByteBuffer.wrap(signature));
+			return url.toString();
+		}
+
+		/**
+		 * テンプレートに ID と日時をつないで、deflate する XML のバイト列を作ります。
+		 */
+		void render(Template template, String id, String issueInstant) {
+			xmlLength = 0;
+			append(template.head());
+			appendAscii(template.idFirst() ? id : issueInstant);
+			append(template.middle());
+			appendAscii(template.idFirst() ? issueInstant : id);
+			append(template.tail());
+		}
+
+		int deflate() {
+			deflater.reset();
+			deflater.setInput(xml, 0, xmlLength);
+			deflater.finish();
+			int length = 0;
+			while (!deflater.finished()) {
+				if (length == deflated.length) {
+					deflated = Arrays.copyOf(deflated, deflated.length * 2);
+				}
+				length += deflater.deflate(deflated, length, deflated.length - length);
+			}
+			return length;
+		}
+
+		/**
+		 * URL の指定範囲（ASCII のクエリ文字列）に署名します。
+		 */
+		private byte[] sign(int start, int end) {
+			int length = end - start;
+			if (signatureInput.length < length) {
+				signatureInput = new byte[Math.max(length, signatureInput.length * 2)];
+			}
+			for (int i = 0; i < length; i++) {
+				signatureInput[i] = (byte) url.charAt(start + i);
+			}
+			try {
+				signer.update(signatureInput, 0, length);
+				return signer.sign();
+			} catch (SignatureException e) {
+				throw new RuntimeException("AuthnRequest のクエリ文字列の署名に失敗しました", e);
+			}
+		}
+
+		/**
+		 * Base64 エンコードした値を URLEncoder と同じ形式（+ / = をパーセントエンコード）で追加します。
+		 */
+		private void appendUrlEncodedBase64(ByteBuffer bytes) {
+			ByteBuffer encoded = Base64.getEncoder().encode(bytes);
+			while (encoded.hasRemaining()) {
+				char c = (char) encoded.get();
+				switch (c) {
+				case '+' -> url.append("%2B");
+				case '/' -> url.append("%2F");
+				case '=' -> url.append("%3D");
+				default -> url.append(c);
+				}
+			}
+		}
+
+		private void append(byte[] bytes) {
+			ensureCapacity(bytes.length);
+			System.arraycopy(bytes, 0, xml, xmlLength, bytes.length);
+			xmlLength += bytes.length;
+		}
+
+		/** ID と日時は ASCII のみのため、文字をそのままバイトにする */
+		private void appendAscii(String value) {
+			ensureCapacity(value.length());
+			for (int i = 0; i < value.length(); i++) {
+				xml[xmlLength++] = (byte) value.charAt(i);
+			}
+		}
+
+		private void ensureCapacity(int additional) {
+			if (xmlLength + additional > xml.length) {
+				xml = Arrays.copyOf(xml, Math.max(xmlLength + additional, xml.length * 2));
+			}
+		}
+	}
+}
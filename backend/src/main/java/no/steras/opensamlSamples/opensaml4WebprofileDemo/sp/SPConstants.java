@@ -19,6 +19,7 @@ public class SPConstants {
     public static String SP_ENTITY_ID;
     public static final String AUTHENTICATED_SESSION_ATTRIBUTE = "authenticated";
     public static final String GOTO_URL_SESSION_ATTRIBUTE = "gotoURL";
+    public static final String AUTHN_REQUEST_ID_SESSION_ATTRIBUTE = "authnRequestID";
     public static String ASSERTION_CONSUMER_SERVICE;
 
     @PostConstruct
@@ -4,7 +4,9 @@ import net.shibboleth.shared.resolver.CriteriaSet;
 import net.shibboleth.shared.resolver.Criterion;
 import net.shibboleth.shared.resolver.ResolverException;
 import org.opensaml.core.criterion.EntityIdCriterion;
+import org.opensaml.security.credential.BasicCredential;
 import org.opensaml.security.credential.Credential;
+import org.opensaml.security.credential.UsageType;
 import org.opensaml.security.credential.impl.KeyStoreCredentialResolver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -13,6 +15,7 @@ import java.io.FileInputStream;
 import java.io.InputStream;
 import java.net.URL;
 import java.security.*;
+import java.security.spec.ECGenParameterSpec;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -27,6 +30,8 @@ public class SPCredentials {
     private static final String KEY_ENTRY_ID = "SPKey";
 
     private static final Credential credential;
+    // ECDH-ES の鍵合意に使用する EC 鍵（キーストアには RSA 鍵しかないため、起動時に生成する）
+    private static final Credential keyAgreementCredential;
 
     static {
         try {
@@ -46,6 +51,21 @@ public class SPCredentials {
         } catch (ResolverException e) {
             throw new RuntimeException("Something went wrong reading credentials", e);
         }
+        keyAgreementCredential = generateKeyAgreementCredential();
+    }
+
+    private static Credential generateKeyAgreementCredential() {
+        try {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+            generator.initialize(new ECGenParameterSpec("secp256r1"));
+            KeyPair keyPair = generator.generateKeyPair();
+            BasicCredential agreementCredential = new BasicCredential(keyPair.getPublic(), keyPair.getPrivate());
+            agreementCredential.setEntityId(KEY_ENTRY_ID);
+            agreementCredential.setUsageType(UsageType.ENCRYPTION);
+            return agreementCredential;
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Something went wrong generating the key agreement key", e);
+        }
     }
 
     private static KeyStore readKeystoreFromFile(String pathToKeyStore, String keyStorePassword) {
@@ -64,5 +84,12 @@ public class SPCredentials {
         return credential;
     }
 
+    /**
+     * ECDH-ES の鍵合意に使用する EC (P-256) の資格情報を返します。
+     */
+    public static Credential getKeyAgreementCredential() {
+        return keyAgreementCredential;
+    }
+
 
 }
@@ -0,0 +1,226 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.replay;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * SP が受け入れたアサーションの ID を有効期限まで記録し、同じアサーションの再利用（リプレイ）を検出するキャッシュ。
+ *
+ * 設計:
+ * 1. ロックフリーな登録: 「未登録なら登録」を ConcurrentHashMap の putIfAbsent 1 回で行い、グローバルロックを使用しない。
+ * 2. 有効期限に合わせたバケット: 各 ID はアサーションの Conditions NotOnOrAfter（+ クロックスキュー）が属する
+ *    ティックのバケットに登録され、ティックごとに該当バケットだけを削除する。期限切れのアサーションは
+ *    検証パイプラインの Conditions の有効期間チェック（ConditionsValidityHandler）で拒否されるため、
+ *    それ以降は記録しておく必要がない。このキャッシュのクロックスキューは、そのチェックの許容値以上にすること。
+ * 3. 上限付き: 保持期間の上限と保持数の上限を持つ。NotOnOrAfter がない、または保持期間の上限（+ クロックスキュー）より
+ *    先のアサーションは、ID を削除した後にリプレイされ得るため受け入れを拒否する。保持数が上限に達した場合も
+ *    リプレイを判定できないため受け入れを拒否する（いずれもフェイルクローズ）。
+ */
+public class AssertionReplayCache implements MeterBinder, AutoCloseable {
+	private static Logger logger = LoggerFactory.getLogger(AssertionReplayCache.class);
+
+	/**
+	 * 登録の結果。
+	 */
+	public enum Result {
+		/** 初めて受信した ID として登録した */
+		ACCEPTED,
+		/** 有効期限内に受信済みの ID（リプレイ） */
+		REPLAYED,
+		/** 保持数が上限に達しているため登録できなかった */
+		OVERFLOW,
+		/** NotOnOrAfter がない、または保持期間の上限より先のため、有効期限まで記録できない */
+		BEYOND_RETENTION
+	}
+
+	// キー（発行者 + アサーション ID）-> 失効ティック
+	private final ConcurrentHashMap<String, Long> entries = new ConcurrentHashMap<>();
+	private final ConcurrentLinkedQueue<String>[] wheel;
+	private final int wheelMask;
+	private final long tickMillis;
+	private final long clockSkewMillis;
+	private final long maxRetentionMillis;
+	private final long maxRetentionTicks;
+	private final int maxEntries;
+
+	// 最後に処理したティック。ティッカースレッドのみが更新する
+	private volatile long processedTick;
+	private final AtomicInteger size = new AtomicInteger();
+	private final ScheduledExecutorService ticker;
+
+	// 統計情報
+	private final LongAdder accepted = new LongAdder();
+	private final LongAdder replayed = new LongAdder();
+	private final LongAdder overflowed = new LongAdder();
+	private final LongAdder beyondRetention = new LongAdder();
+	private final LongAdder expired = new LongAdder();
+
+	/**
+	 * @param maxRetention 1 つの ID を保持する最大期間（NotOnOrAfter がこれ + クロックスキューより先のアサーションは拒否する）
+	 * @param clockSkew    NotOnOrAfter に加算するクロックのずれの許容値
+	 * @param tick         バケットの粒度
+	 * @param maxEntries   同時に保持する ID の最大数
+	 */
+	@SuppressWarnings("unchecked")
+	public AssertionReplayCache(Duration maxRetention, Duration clockSkew, Duration tick, int maxEntries) {
+		this.tickMillis = Math.max(1, tick.toMillis());
+		this.clockSkewMillis = clockSkew.toMillis();
+		this.maxRetentionMillis = maxRetention.toMillis();
+		// 受け入れる NotOnOrAfter は現在 + 最大保持期間 + クロックスキューまでで、保持はさらにクロックスキュー分だけ延びる
+		this.maxRetentionTicks = Math.max(1,
+				(maxRetentionMillis + 2 * clockSkewMillis + tickMillis - 1) / tickMillis);
+		this.maxEntries = maxEntries;
+
+		// ホイールは最大保持期間 + 余裕分を覆うサイズにする（周回判定が不要になる）
+		int wheelSize = 1;
+		while (wheelSize < maxRetentionTicks + 2) {
+			wheelSize <<= 1;
+		}
+		this.wheelMask = wheelSize - 1;
+		this.wheel = new ConcurrentLinkedQueue[wheelSize];
+		for (int i = 0; i < wheelSize; i++) {
+			wheel[i] = new ConcurrentLinkedQueue<>();
+		}
+		this.processedTick = currentTick();
+
+		ticker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "assertion-replay-cache-wheel");
+			thread.setDaemon(true);
+			return thread;
+		});
+		ticker.scheduleAtFixedRate(this::advance, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+
+		logger.info("アサーションのリプレイキャッシュを初期化しました (最大保持期間: {}, 最大保持数: {})", maxRetention, maxEntries);
+	}
+
+	/**
+	 * アサーション ID が有効期限内に受信済みでなければ記録します。
+	 *
+	 * @param issuer       アサーションの発行者（発行者ごとに ID の名前空間を分ける）
+	 * @param assertionId  アサーションの ID
+	 * @param notOnOrAfter Conditions の NotOnOrAfter（ない場合は null。{@link Result#BEYOND_RETENTION} を返す）
+	 */
+	public Result checkAndRecord(String issuer, String assertionId, Instant notOnOrAfter) {
+		long nowMillis = System.currentTimeMillis();
+		if (notOnOrAfter == null || notOnOrAfter.toEpochMilli() - nowMillis > maxRetentionMillis + clockSkewMillis) {
+			beyondRetention.increment();
+			return Result.BEYOND_RETENTION;
+		}
+
+		String key = issuer + '!' + assertionId;
+		long now = nowMillis / tickMillis;
+		long expiryTick = expiryTick(now, notOnOrAfter);
+		Long boxedExpiry = expiryTick;
+
+		Long existing = entries.get(key);
+		if (existing == null) {
+			if (size.incrementAndGet() > maxEntries) {
+				size.decrementAndGet();
+				overflowed.increment();
+				return Result.OVERFLOW;
+			}
+			existing = entries.putIfAbsent(key, boxedExpiry);
+			if (existing == null) {
+				wheel[(int) (expiryTick & wheelMask)].add(key);
+				accepted.increment();
+				return Result.ACCEPTED;
+			}
+			// 同時に同じ ID が登録された
+			size.decrementAndGet();
+		}
+
+		// ティッカーがまだ削除していないが既に失効しているものは、新しい受信として置き換える
+		if (existing <= now && entries.replace(key, existing, boxedExpiry)) {
+			wheel[(int) (expiryTick & wheelMask)].add(key);
+			accepted.increment();
+			return Result.ACCEPTED;
+		}
+		replayed.increment();
+		return Result.REPLAYED;
+	}
+
+	/**
+	 * NotOnOrAfter + クロックスキューを含むティックを求めます（少なくとも次のティックまでは保持する）。
+	 * 呼び出し側で NotOnOrAfter が保持期間の上限内であることを確認済みのため、ホイールを一周することはありません。
+	 */
+	private long expiryTick(long now, Instant notOnOrAfter) {
+		long tick = Math.floorDiv(notOnOrAfter.toEpochMilli() + clockSkewMillis + tickMillis - 1, tickMillis);
+		return Math.max(now + 1, tick);
+	}
+
+	private long currentTick() {
+		return System.currentTimeMillis() / tickMillis;
+	}
+
+	/**
+	 * 前回の処理から現在までのティックのバケットを処理し、失効した ID を削除します。
+	 */
+	private void advance() {
+		try {
+			long now = currentTick();
+			for (long tick = processedTick + 1; tick <= now; tick++) {
+				ConcurrentLinkedQueue<String> bucket = wheel[(int) (tick & wheelMask)];
+				Long boxedTick = tick;
+				String key;
+				while ((key = bucket.poll()) != null) {
+					// 失効ティックが一致するものだけを削除する（置き換え済みのものは新しいバケットで削除される）
+					if (entries.remove(key, boxedTick)) {
+						size.decrementAndGet();
+						expired.increment();
+					}
+				}
+				processedTick = tick;
+			}
+		} catch (RuntimeException e) {
+			// 例外でスケジュールが止まらないようにログ出力のみ行う
+			logger.error("リプレイキャッシュの期限切れ処理中にエラーが発生しました: " + e.getMessage(), e);
+		}
+	}
+
+	/** 現在保持している ID の数 */
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * 受け入れ・リプレイ検出・上限超過・保持期間超過・失効の件数と保持数を Actuator のメトリクスとして公開します。
+	 */
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		FunctionCounter.builder("saml.sp.replay", accepted, LongAdder::sum).tag("event", "accepted")
+				.description("初めて受信したアサーションの数").register(registry);
+		FunctionCounter.builder("saml.sp.replay", replayed, LongAdder::sum).tag("event", "replayed")
+				.description("リプレイとして拒否したアサーションの数").register(registry);
+		FunctionCounter.builder("saml.sp.replay", overflowed, LongAdder::sum).tag("event", "overflow")
+				.description("保持数の上限超過で拒否したアサーションの数").register(registry);
+		FunctionCounter.builder("saml.sp.replay", beyondRetention, LongAdder::sum).tag("event", "beyond-retention")
+				.description("有効期限が保持期間の上限を超えるため拒否したアサーションの数").register(registry);
+		FunctionCounter.builder("saml.sp.replay", expired, LongAdder::sum).tag("event", "expired")
+				.description("有効期限切れで削除した ID の数").register(registry);
+		Gauge.builder("saml.sp.replay.size", size, AtomicInteger::get)
+				.description("現在保持しているアサーション ID の数").register(registry);
+	}
+
+	/**
+	 * アプリケーション終了時にティッカースレッドを停止します。
+	 */
+	@Override
+	public void close() {
+		ticker.shutdownNow();
+	}
+}
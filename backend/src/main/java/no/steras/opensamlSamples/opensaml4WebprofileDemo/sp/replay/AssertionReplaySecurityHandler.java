@@ -0,0 +1,50 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.replay;
+
+import java.time.Instant;
+
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.messaging.handler.AbstractMessageHandler;
+import org.opensaml.messaging.handler.MessageHandlerException;
+import org.opensaml.saml.saml2.core.Assertion;
+
+/**
+ * メッセージコンテキストのアサーションがリプレイされたものでないことを検証するメッセージハンドラー。
+ *
+ * OpenSAML の MessageReplaySecurityHandler はメッセージ（ArtifactResponse）の ID を対象としますが、
+ * このハンドラーは復号・署名検証後のアサーションの ID を対象とし、Conditions NotOnOrAfter まで記録します。
+ * NotOnOrAfter まで記録できないアサーション（NotOnOrAfter がない、または保持期間の上限より先）は拒否します。
+ * 署名を検証していない ID でキャッシュが埋められないよう、署名検証の後に実行してください。
+ */
+public class AssertionReplaySecurityHandler extends AbstractMessageHandler {
+	private final AssertionReplayCache replayCache;
+
+	/**
+	 * @param replayCache アプリケーション全体で共有するリプレイキャッシュ
+	 */
+	public AssertionReplaySecurityHandler(AssertionReplayCache replayCache) {
+		this.replayCache = replayCache;
+	}
+
+	@Override
+	protected void doInvoke(MessageContext messageContext) throws MessageHandlerException {
+		if (!(messageContext.getMessage() instanceof Assertion assertion)) {
+			throw new MessageHandlerException("メッセージコンテキストにアサーションが含まれていません");
+		}
+		if (assertion.getID() == null || assertion.getIssuer() == null) {
+			throw new MessageHandlerException("アサーションに ID または Issuer がありません");
+		}
+
+		Instant notOnOrAfter = assertion.getConditions() != null ? assertion.getConditions().getNotOnOrAfter() : null;
+		switch (replayCache.checkAndRecord(assertion.getIssuer().getValue(), assertion.getID(), notOnOrAfter)) {
+			case ACCEPTED:
+				return;
+			case REPLAYED:
+				throw new MessageHandlerException("リプレイされたアサーションを検出しました: " + assertion.getID());
+			case OVERFLOW:
+				throw new MessageHandlerException("リプレイキャッシュの保持数が上限に達したため、アサーションを受け入れられません");
+			case BEYOND_RETENTION:
+				throw new MessageHandlerException(
+						"アサーションの有効期限 (NotOnOrAfter) がないか、リプレイキャッシュの保持期間を超えています");
+		}
+	}
+}
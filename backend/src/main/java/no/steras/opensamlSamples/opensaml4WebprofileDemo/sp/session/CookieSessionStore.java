@@ -0,0 +1,409 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.session;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Enumeration;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.ConcurrentObjectPool;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.StripedSecureRandom;
+
+/**
+ * ログイン状態を AES-GCM で暗号化したクッキー（ステートレスなセッション）に保持します。
+ *
+ * サーバーのメモリ・外部ストアを使用せず、鍵を共有していればどのインスタンスでも検証できるため、
+ * スティッキーセッションやセッションレプリケーションなしで水平スケールできます。
+ *
+ * トークンの形式（Base64url、パディングなし）:
+ * バージョン (1) + 鍵 ID (1) + nonce (12) + 暗号文 + 認証タグ (16)。バージョンと鍵 ID は AAD として認証されます。
+ * 平文は 種類 (1) + 有効期限のエポック秒 (8) で、認証フロー中の場合は AuthnRequest の ID と戻り先 URL
+ * （それぞれ 2 バイトの長さ + UTF-8）が続きます。
+ *
+ * 保護リソースへのリクエストごとに呼び出される {@link #isAuthenticated} は、Cookie ヘッダーの文字列から直接
+ * Base64url をデコードし、プールした Cipher とバッファで復号するため、文字列・配列のアロケーションをほとんど行いません。
+ * アクティブでない鍵で暗号化されたトークンは、有効期限を変えずにアクティブな鍵で再発行します（鍵のローテーション）。
+ */
+public class CookieSessionStore implements SPSessionStore {
+	private static Logger logger = LoggerFactory.getLogger(CookieSessionStore.class);
+
+	public static final String COOKIE_NAME = "SP_SESSION";
+
+	private static final byte VERSION = 1;
+	private static final byte TYPE_PENDING_LOGIN = 1;
+	private static final byte TYPE_AUTHENTICATED = 2;
+
+	private static final int HEADER_LENGTH = 2;
+	private static final int NONCE_LENGTH = 12;
+	private static final int TAG_LENGTH = 16;
+	private static final int CIPHERTEXT_OFFSET = HEADER_LENGTH + NONCE_LENGTH;
+	// 平文の固定部分: 種類 (1) + 有効期限 (8)
+	private static final int EXPIRY_OFFSET = 1;
+	private static final int FIXED_PLAINTEXT_LENGTH = 9;
+	// Base64url で 4096 バイト（クッキー 1 つの上限）に属性込みで収まるトークンの最大長
+	private static final int MAX_TOKEN_LENGTH = 2800;
+	private static final int MAX_PLAINTEXT_LENGTH = MAX_TOKEN_LENGTH - CIPHERTEXT_OFFSET - TAG_LENGTH;
+	// 可変長フィールドの null を表す長さ
+	private static final int NULL_FIELD = 0xFFFF;
+
+	private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+	private static final Base64.Encoder BASE64URL = Base64.getUrlEncoder().withoutPadding();
+	// Base64url の文字 -> 6 ビットの値（対象外の文字は -1）
+	private static final byte[] BASE64URL_VALUES = new byte[128];
+
+	static {
+		Arrays.fill(BASE64URL_VALUES, (byte) -1);
+		String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+		for (int i = 0; i < alphabet.length(); i++) {
+			BASE64URL_VALUES[alphabet.charAt(i)] = (byte) i;
+		}
+	}
+
+	/**
+	 * 1 回の暗号化・復号に使用する Cipher とバッファ。スレッド間で共有せず、プールから貸し出します。
+	 */
+	private static final class Workspace {
+		final Cipher cipher;
+		final byte[] token = new byte[MAX_TOKEN_LENGTH];
+		final byte[] plaintext = new byte[MAX_PLAINTEXT_LENGTH];
+
+		Workspace() {
+			try {
+				cipher = Cipher.getInstance(TRANSFORMATION);
+			} catch (GeneralSecurityException e) {
+				throw new IllegalStateException("Cipher を生成できません: " + TRANSFORMATION, e);
+			}
+		}
+	}
+
+	private final SessionKeyRing keyRing;
+	private final Duration timeToLive;
+	private final Duration loginTimeToLive;
+	// Max-Age と Path 以外のクッキー属性
+	private final String cookieAttributes;
+	private final StripedSecureRandom random = new StripedSecureRandom();
+	// 仮想スレッドでは ThreadLocal が効かないため、ロックフリーなプールで再利用する
+	private final ConcurrentObjectPool<Workspace> workspaces;
+
+	/**
+	 * @param keyRing         トークンの暗号化・復号に使用する鍵
+	 * @param timeToLive      認証済みセッションの有効期間
+	 * @param loginTimeToLive 認証フロー（AuthnRequest 送信から ACS まで）の有効期間
+	 * @param secure          クッキーに Secure 属性を付けるかどうか
+	 * @param sameSite        クッキーの SameSite 属性（HTTP-POST バインディングを別サイトから受ける場合は None）
+	 * @param maxIdleCiphers  プールする Cipher の最大数
+	 */
+	public CookieSessionStore(SessionKeyRing keyRing, Duration timeToLive, Duration loginTimeToLive, boolean secure,
+			String sameSite, int maxIdleCiphers) {
+		this.keyRing = keyRing;
+		this.timeToLive = timeToLive;
+		this.loginTimeToLive = loginTimeToLive;
+		this.cookieAttributes = "; HttpOnly; SameSite=" + sameSite + (secure ? "; Secure" : "");
+		this.workspaces = new ConcurrentObjectPool<>(Workspace::new, maxIdleCiphers);
+		logger.info("クッキーセッションを初期化しました (アクティブな鍵 ID: {}, 有効期間: {})", keyRing.getActiveKeyId(), timeToLive);
+	}
+
+	@Override
+	public boolean isAuthenticated(HttpServletRequest request, HttpServletResponse response) {
+		String header = findCookieHeader(request);
+		int start = header != null ? findCookieValue(header) : -1;
+		if (start < 0) {
+			return false;
+		}
+
+		Workspace workspace = workspaces.borrow();
+		try {
+			int length = open(header, start, workspace);
+			if (length < FIXED_PLAINTEXT_LENGTH || workspace.plaintext[0] != TYPE_AUTHENTICATED) {
+				return false;
+			}
+			long now = epochSecond();
+			long expiresAt = readLong(workspace.plaintext, EXPIRY_OFFSET);
+			if (expiresAt <= now) {
+				return false;
+			}
+
+			// アクティブでない鍵のトークンは、有効期限を変えずにアクティブな鍵で再発行する
+			if ((workspace.token[1] & 0xFF) != keyRing.getActiveKeyId()) {
+				setCookie(request, response, seal(workspace, TYPE_AUTHENTICATED, expiresAt, null, null), expiresAt - now);
+			}
+			return true;
+		} finally {
+			workspaces.release(workspace);
+		}
+	}
+
+	@Override
+	public void startLogin(HttpServletRequest request, HttpServletResponse response, String gotoURL,
+			String authnRequestId) {
+		long expiresAt = epochSecond() + loginTimeToLive.toSeconds();
+		Workspace workspace = workspaces.borrow();
+		try {
+			String token = seal(workspace, TYPE_PENDING_LOGIN, expiresAt, authnRequestId, gotoURL);
+			if (token == null) {
+				// 戻り先 URL が長すぎてクッキーに収まらない場合は、認証後に既定のページへ戻る
+				logger.warn("戻り先 URL が長すぎるため、セッションクッキーに保存しませんでした。");
+				token = seal(workspace, TYPE_PENDING_LOGIN, expiresAt, authnRequestId, null);
+			}
+			setCookie(request, response, token, loginTimeToLive.toSeconds());
+		} finally {
+			workspaces.release(workspace);
+		}
+	}
+
+	@Override
+	public PendingLogin getPendingLogin(HttpServletRequest request) {
+		String header = findCookieHeader(request);
+		int start = header != null ? findCookieValue(header) : -1;
+		if (start < 0) {
+			return null;
+		}
+
+		Workspace workspace = workspaces.borrow();
+		try {
+			int length = open(header, start, workspace);
+			byte[] plaintext = workspace.plaintext;
+			if (length < FIXED_PLAINTEXT_LENGTH || plaintext[0] != TYPE_PENDING_LOGIN
+					|| readLong(plaintext, EXPIRY_OFFSET) <= epochSecond()) {
+				return null;
+			}
+
+			int offset = FIXED_PLAINTEXT_LENGTH;
+			String authnRequestId = readField(plaintext, offset, length);
+			offset = skipField(plaintext, offset);
+			String gotoURL = readField(plaintext, offset, length);
+			return new PendingLogin(gotoURL, authnRequestId);
+		} finally {
+			workspaces.release(workspace);
+		}
+	}
+
+	@Override
+	public void completeLogin(HttpServletRequest request, HttpServletResponse response) {
+		// 認証フロー中のトークンを認証済みのトークンで置き換える（AuthnRequest の ID は破棄される）
+		long expiresAt = epochSecond() + timeToLive.toSeconds();
+		Workspace workspace = workspaces.borrow();
+		try {
+			setCookie(request, response, seal(workspace, TYPE_AUTHENTICATED, expiresAt, null, null),
+					timeToLive.toSeconds());
+		} finally {
+			workspaces.release(workspace);
+		}
+	}
+
+	/**
+	 * トークンをデコード・復号し、平文をワークスペースに書き込みます。
+	 *
+	 * @param start Cookie ヘッダー内のトークンの開始位置
+	 * @return 平文の長さ。形式が不正・未登録の鍵・改ざんされている場合は -1
+	 */
+	private int open(String header, int start, Workspace workspace) {
+		int end = header.indexOf(';', start);
+		int tokenLength = decodeBase64Url(header, start, end < 0 ? header.length() : end, workspace.token);
+		byte[] token = workspace.token;
+		if (tokenLength < CIPHERTEXT_OFFSET + TAG_LENGTH + FIXED_PLAINTEXT_LENGTH || token[0] != VERSION) {
+			return -1;
+		}
+		// ローテーションで削除済みの鍵のトークンは無効
+		SecretKey key = keyRing.getKey(token[1] & 0xFF);
+		if (key == null) {
+			return -1;
+		}
+
+		try {
+			Cipher cipher = workspace.cipher;
+			cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, token, HEADER_LENGTH, NONCE_LENGTH));
+			cipher.updateAAD(token, 0, HEADER_LENGTH);
+			return cipher.doFinal(token, CIPHERTEXT_OFFSET, tokenLength - CIPHERTEXT_OFFSET, workspace.plaintext, 0);
+		} catch (GeneralSecurityException e) {
+			// 認証タグの不一致（改ざん・別の鍵）は未認証として扱う
+			return -1;
+		}
+	}
+
+	/**
+	 * 平文を組み立ててアクティブな鍵で暗号化し、Base64url のトークンを返します。
+	 *
+	 * @return フィールドがトークンの最大長に収まらない場合は null
+	 */
+	private String seal(Workspace workspace, byte type, long expiresAt, String authnRequestId, String gotoURL) {
+		byte[] plaintext = workspace.plaintext;
+		plaintext[0] = type;
+		writeLong(plaintext, EXPIRY_OFFSET, expiresAt);
+		int length = FIXED_PLAINTEXT_LENGTH;
+		if (type == TYPE_PENDING_LOGIN) {
+			length = writeField(plaintext, length, authnRequestId);
+			length = length < 0 ? length : writeField(plaintext, length, gotoURL);
+			if (length < 0) {
+				return null;
+			}
+		}
+
+		byte[] token = workspace.token;
+		byte[] nonce = new byte[NONCE_LENGTH];
+		random.nextBytes(nonce);
+		token[0] = VERSION;
+		token[1] = (byte) keyRing.getActiveKeyId();
+		System.arraycopy(nonce, 0, token, HEADER_LENGTH, NONCE_LENGTH);
+
+		try {
+			Cipher cipher = workspace.cipher;
+			cipher.init(Cipher.ENCRYPT_MODE, keyRing.getActiveKey(), new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+			cipher.updateAAD(token, 0, HEADER_LENGTH);
+			int ciphertextLength = cipher.doFinal(plaintext, 0, length, token, CIPHERTEXT_OFFSET);
+			return BASE64URL.encodeToString(Arrays.copyOf(token, CIPHERTEXT_OFFSET + ciphertextLength));
+		} catch (GeneralSecurityException e) {
+			throw new RuntimeException("セッションクッキーの暗号化に失敗しました", e);
+		}
+	}
+
+	private void setCookie(HttpServletRequest request, HttpServletResponse response, String token, long maxAgeSeconds) {
+		String path = request.getContextPath().isEmpty() ? "/" : request.getContextPath();
+		response.addHeader("Set-Cookie",
+				COOKIE_NAME + "=" + token + "; Max-Age=" + maxAgeSeconds + "; Path=" + path + cookieAttributes);
+	}
+
+	/**
+	 * セッションクッキーを含む最初の Cookie ヘッダーを返します。
+	 * HTTP/2 などではクッキーが複数の Cookie ヘッダーに分かれて届くため、getHeader ではなくすべてのヘッダーを調べます。
+	 *
+	 * @return 見つからない場合は null
+	 */
+	private static String findCookieHeader(HttpServletRequest request) {
+		Enumeration<String> headers = request.getHeaders("Cookie");
+		while (headers != null && headers.hasMoreElements()) {
+			String header = headers.nextElement();
+			if (findCookieValue(header) >= 0) {
+				return header;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Cookie ヘッダーからセッションクッキーの値の開始位置を探します（部分文字列を生成しない）。
+	 *
+	 * @return 見つからない場合は -1
+	 */
+	static int findCookieValue(String header) {
+		int length = header.length();
+		int index = 0;
+		while (index < length) {
+			while (index < length && (header.charAt(index) == ' ' || header.charAt(index) == '\t')) {
+				index++;
+			}
+			int valueStart = index + COOKIE_NAME.length() + 1;
+			if (header.startsWith(COOKIE_NAME, index) && valueStart <= length && header.charAt(valueStart - 1) == '=') {
+				return valueStart;
+			}
+			int next = header.indexOf(';', index);
+			if (next < 0) {
+				return -1;
+			}
+			index = next + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * 文字列の指定範囲の Base64url（パディングなし）を、中間の配列を作らずにデコードします。
+	 *
+	 * @return デコードしたバイト数。不正な文字を含む、または長すぎる場合は -1
+	 */
+	static int decodeBase64Url(String source, int start, int end, byte[] target) {
+		int length = end - start;
+		if (length % 4 == 1 || (long) length * 3 / 4 > target.length) {
+			return -1;
+		}
+		int buffer = 0;
+		int bits = 0;
+		int out = 0;
+		for (int i = start; i < end; i++) {
+			char c = source.charAt(i);
+			int value = c < BASE64URL_VALUES.length ? BASE64URL_VALUES[c] : -1;
+			if (value < 0) {
+				return -1;
+			}
+			buffer = (buffer << 6) | value;
+			bits += 6;
+			if (bits >= 8) {
+				bits -= 8;
+				target[out++] = (byte) (buffer >> bits);
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * 2 バイトの長さ + UTF-8 のフィールドを書き込みます。
+	 *
+	 * @return 書き込み後の位置。収まらない場合は -1
+	 */
+	private static int writeField(byte[] target, int offset, String value) {
+		if (value == null) {
+			if (offset + 2 > target.length) {
+				return -1;
+			}
+			writeShort(target, offset, NULL_FIELD);
+			return offset + 2;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		if (bytes.length >= NULL_FIELD || offset + 2 + bytes.length > target.length) {
+			return -1;
+		}
+		writeShort(target, offset, bytes.length);
+		System.arraycopy(bytes, 0, target, offset + 2, bytes.length);
+		return offset + 2 + bytes.length;
+	}
+
+	private static String readField(byte[] source, int offset, int limit) {
+		if (offset + 2 > limit) {
+			return null;
+		}
+		int length = ((source[offset] & 0xFF) << 8) | (source[offset + 1] & 0xFF);
+		if (length == NULL_FIELD || offset + 2 + length > limit) {
+			return null;
+		}
+		return new String(source, offset + 2, length, StandardCharsets.UTF_8);
+	}
+
+	private static int skipField(byte[] source, int offset) {
+		int length = ((source[offset] & 0xFF) << 8) | (source[offset + 1] & 0xFF);
+		return offset + 2 + (length == NULL_FIELD ? 0 : length);
+	}
+
+	private static void writeShort(byte[] target, int offset, int value) {
+		target[offset] = (byte) (value >>> 8);
+		target[offset + 1] = (byte) value;
+	}
+
+	private static void writeLong(byte[] target, int offset, long value) {
+		for (int i = 7; i >= 0; i--) {
+			target[offset + i] = (byte) value;
+			value >>>= 8;
+		}
+	}
+
+	private static long readLong(byte[] source, int offset) {
+		long value = 0;
+		for (int i = 0; i < 8; i++) {
+			value = (value << 8) | (source[offset + i] & 0xFF);
+		}
+		return value;
+	}
+
+	private static long epochSecond() {
+		return System.currentTimeMillis() / 1000;
+	}
+}
@@ -0,0 +1,48 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.session;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import jakarta.servlet.http.HttpSession;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.SPConstants;
+
+/**
+ * サーブレットコンテナの HttpSession の属性にログイン状態を保持します（従来の方式）。
+ * 複数インスタンスで運用する場合は、スティッキーセッションまたはセッションの共有が必要です。
+ */
+public class HttpSessionStore implements SPSessionStore {
+
+	@Override
+	public boolean isAuthenticated(HttpServletRequest request, HttpServletResponse response) {
+		// 未認証のリクエストのためにセッションを生成しない
+		HttpSession session = request.getSession(false);
+		return session != null && session.getAttribute(SPConstants.AUTHENTICATED_SESSION_ATTRIBUTE) != null;
+	}
+
+	@Override
+	public void startLogin(HttpServletRequest request, HttpServletResponse response, String gotoURL,
+			String authnRequestId) {
+		HttpSession session = request.getSession();
+		session.setAttribute(SPConstants.GOTO_URL_SESSION_ATTRIBUTE, gotoURL);
+		session.setAttribute(SPConstants.AUTHN_REQUEST_ID_SESSION_ATTRIBUTE, authnRequestId);
+	}
+
+	@Override
+	public PendingLogin getPendingLogin(HttpServletRequest request) {
+		HttpSession session = request.getSession(false);
+		if (session == null) {
+			return null;
+		}
+		String gotoURL = (String) session.getAttribute(SPConstants.GOTO_URL_SESSION_ATTRIBUTE);
+		String authnRequestId = (String) session.getAttribute(SPConstants.AUTHN_REQUEST_ID_SESSION_ATTRIBUTE);
+		return gotoURL != null || authnRequestId != null ? new PendingLogin(gotoURL, authnRequestId) : null;
+	}
+
+	@Override
+	public void completeLogin(HttpServletRequest request, HttpServletResponse response) {
+		HttpSession session = request.getSession();
+		session.setAttribute(SPConstants.AUTHENTICATED_SESSION_ATTRIBUTE, true);
+		// AuthnRequest の ID は一度だけ使用できる（同じ ID への Response を再度受け付けない）
+		session.removeAttribute(SPConstants.AUTHN_REQUEST_ID_SESSION_ATTRIBUTE);
+	}
+}
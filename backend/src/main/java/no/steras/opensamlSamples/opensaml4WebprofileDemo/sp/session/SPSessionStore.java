@@ -0,0 +1,49 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.session;
+
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * SP のログイン状態（認証済みかどうか、および認証フロー中の戻り先 URL と AuthnRequest の ID）の保存先。
+ *
+ * 実装:
+ * - {@link HttpSessionStore}: サーブレットコンテナの HttpSession に保持する（従来の方式）
+ * - {@link CookieSessionStore}: 認証付き暗号で保護したクッキーに保持し、サーバーのメモリを使用しない
+ */
+public interface SPSessionStore {
+
+	/**
+	 * 認証フロー中（AuthnRequest 送信から ACS での検証完了まで）の状態。
+	 *
+	 * @param gotoURL        認証後に戻る URL（不明な場合は null）
+	 * @param authnRequestId 送信した AuthnRequest の ID（不明な場合は null）
+	 */
+	record PendingLogin(String gotoURL, String authnRequestId) {
+	}
+
+	/**
+	 * リクエストのユーザーが認証済みかどうかを判定します。保護リソースへのすべてのリクエストで呼び出されます。
+	 *
+	 * @param response 状態の更新（鍵のローテーションに伴う再発行など）が必要な場合に使用
+	 */
+	boolean isAuthenticated(HttpServletRequest request, HttpServletResponse response);
+
+	/**
+	 * 認証フローの開始時に、戻り先 URL と送信する AuthnRequest の ID を保存します。
+	 * レスポンスのコミット（IdP へのリダイレクト）より前に呼び出す必要があります。
+	 */
+	void startLogin(HttpServletRequest request, HttpServletResponse response, String gotoURL, String authnRequestId);
+
+	/**
+	 * 認証フロー中の状態を取得します。
+	 *
+	 * @return 認証フローが開始されていない、または期限切れの場合は null
+	 */
+	PendingLogin getPendingLogin(HttpServletRequest request);
+
+	/**
+	 * 検証済みのユーザーを認証済みにし、認証フロー中の状態を破棄します。
+	 * レスポンスのコミット（戻り先へのリダイレクト）より前に呼び出す必要があります。
+	 */
+	void completeLogin(HttpServletRequest request, HttpServletResponse response);
+}
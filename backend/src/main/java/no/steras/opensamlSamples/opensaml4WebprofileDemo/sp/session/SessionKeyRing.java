@@ -0,0 +1,93 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.session;
+
+import java.util.Base64;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.StripedSecureRandom;
+
+/**
+ * セッションクッキーの暗号化に使用する AES 鍵の集合（鍵のローテーション用）。
+ *
+ * 先頭の鍵（アクティブな鍵）で新しいトークンを暗号化し、すべての鍵でトークンを復号できます。
+ * 鍵をローテーションするときは、新しい鍵を先頭に追加して全インスタンスへ配布し、
+ * 旧い鍵で暗号化されたトークンの有効期限が切れた後に旧い鍵を削除します。
+ * 鍵 ID（0〜255）はトークンの先頭に平文で含まれ、配列の添字として参照するため検索でアロケーションしません。
+ */
+public class SessionKeyRing {
+	private static Logger logger = LoggerFactory.getLogger(SessionKeyRing.class);
+
+	private static final int MAX_KEY_ID = 255;
+
+	private final SecretKey[] keys = new SecretKey[MAX_KEY_ID + 1];
+	private final int activeKeyId;
+
+	/**
+	 * "鍵 ID=Base64 エンコードされた AES 鍵（16 または 32 バイト）" のリストから構築します。
+	 * リストが空の場合はランダムな鍵を生成します（インスタンス間で共有されないため、単一インスタンスでのみ使用できます）。
+	 *
+	 * @param entries 先頭がアクティブな鍵
+	 */
+	public SessionKeyRing(Iterable<String> entries) {
+		int active = -1;
+		for (String entry : entries) {
+			if (entry.isBlank()) {
+				continue;
+			}
+			int separator = entry.indexOf('=');
+			if (separator < 0) {
+				throw new IllegalArgumentException("セッション鍵の形式が不正です（鍵 ID=Base64 の鍵）");
+			}
+			int keyId = Integer.parseInt(entry.substring(0, separator).trim());
+			if (keyId < 0 || keyId > MAX_KEY_ID) {
+				throw new IllegalArgumentException("セッション鍵の ID は 0〜" + MAX_KEY_ID + " の範囲で指定してください: " + keyId);
+			}
+			if (keys[keyId] != null) {
+				throw new IllegalArgumentException("セッション鍵の ID が重複しています: " + keyId);
+			}
+			keys[keyId] = newKey(Base64.getDecoder().decode(entry.substring(separator + 1).trim()));
+			if (active < 0) {
+				active = keyId;
+			}
+		}
+
+		if (active < 0) {
+			byte[] generated = new byte[32];
+			new StripedSecureRandom(1).nextBytes(generated);
+			keys[0] = newKey(generated);
+			active = 0;
+			logger.warn("セッション鍵が設定されていないため、ランダムな鍵を生成しました。複数インスタンスで運用する場合は鍵を共有してください。");
+		}
+		this.activeKeyId = active;
+	}
+
+	/** 新しいトークンの暗号化に使用する鍵の ID */
+	public int getActiveKeyId() {
+		return activeKeyId;
+	}
+
+	/** 新しいトークンの暗号化に使用する鍵 */
+	public SecretKey getActiveKey() {
+		return keys[activeKeyId];
+	}
+
+	/**
+	 * 指定された ID の鍵を取得します。
+	 *
+	 * @return 未登録（削除済みを含む）の場合は null
+	 */
+	public SecretKey getKey(int keyId) {
+		return keyId >= 0 && keyId <= MAX_KEY_ID ? keys[keyId] : null;
+	}
+
+	private static SecretKey newKey(byte[] key) {
+		if (key.length != 16 && key.length != 32) {
+			throw new IllegalArgumentException("セッション鍵は 16 または 32 バイトの AES 鍵を指定してください: " + key.length + " バイト");
+		}
+		return new SecretKeySpec(key, "AES");
+	}
+}
@@ -0,0 +1,49 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.validation;
+
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.messaging.handler.AbstractMessageHandler;
+import org.opensaml.messaging.handler.MessageHandlerException;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.Audience;
+import org.opensaml.saml.saml2.core.AudienceRestriction;
+
+/**
+ * アサーションの Conditions/AudienceRestriction に SP のエンティティ ID が含まれていることを検証するハンドラー。
+ * 別の SP 宛てに発行されたアサーションを受け入れないため、AudienceRestriction がない場合も拒否します。
+ * AudienceRestriction が複数ある場合は、すべてに SP が含まれている必要があります（SAML コア仕様 2.5.1.4）。
+ */
+public class AudienceRestrictionHandler extends AbstractMessageHandler {
+	private final String audience;
+
+	/**
+	 * @param audience 想定する Audience（SP のエンティティ ID）
+	 */
+	public AudienceRestrictionHandler(String audience) {
+		this.audience = audience;
+	}
+
+	@Override
+	protected void doInvoke(MessageContext messageContext) throws MessageHandlerException {
+		if (!(messageContext.getMessage() instanceof Assertion assertion)) {
+			throw new MessageHandlerException("メッセージコンテキストにアサーションが含まれていません");
+		}
+		if (assertion.getConditions() == null || assertion.getConditions().getAudienceRestrictions().isEmpty()) {
+			throw new MessageHandlerException("アサーションに AudienceRestriction がありません");
+		}
+
+		for (AudienceRestriction restriction : assertion.getConditions().getAudienceRestrictions()) {
+			if (!contains(restriction, audience)) {
+				throw new MessageHandlerException("アサーションの Audience に SP (" + audience + ") が含まれていません");
+			}
+		}
+	}
+
+	private static boolean contains(AudienceRestriction restriction, String audience) {
+		for (Audience candidate : restriction.getAudiences()) {
+			if (audience.equals(candidate.getURI())) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,82 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.validation;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Objects;
+
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.messaging.handler.AbstractMessageHandler;
+import org.opensaml.messaging.handler.MessageHandlerException;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.SubjectConfirmation;
+import org.opensaml.saml.saml2.core.SubjectConfirmationData;
+
+/**
+ * アサーションの bearer SubjectConfirmation が、このリクエストに宛てたものであることを検証するハンドラー。
+ *
+ * Web Browser SSO プロファイルの要件に従い、次をすべて満たす bearer SubjectConfirmation が 1 つ以上必要です。
+ * 1. Recipient が受信したエンドポイント（ACS）の URL と一致する。
+ * 2. NotOnOrAfter が指定されていて期限切れでない。NotBefore が指定されている場合はその時刻を過ぎている（許容誤差あり）。
+ * 3. InResponseTo が送信した AuthnRequest の ID と一致する（AuthnRequest がない場合は InResponseTo も指定されていない）。
+ *
+ * Response の Destination や InResponseTo は署名されていないエンベロープの値のため、
+ * 署名済みのアサーションを別の Response に入れ替えて再送されても、このハンドラーが要求との結び付きを確認します。
+ * 受信 URL と AuthnRequest の ID は {@link InboundRequestContext} から取得します。
+ */
+public class BearerSubjectConfirmationHandler extends AbstractMessageHandler {
+	private final Duration clockSkew;
+
+	/**
+	 * @param clockSkew NotBefore / NotOnOrAfter の判定で許容する時刻のずれ
+	 */
+	public BearerSubjectConfirmationHandler(Duration clockSkew) {
+		this.clockSkew = clockSkew;
+	}
+
+	@Override
+	protected void doInvoke(MessageContext messageContext) throws MessageHandlerException {
+		if (!(messageContext.getMessage() instanceof Assertion assertion)) {
+			throw new MessageHandlerException("メッセージコンテキストにアサーションが含まれていません");
+		}
+		if (assertion.getSubject() == null) {
+			throw new MessageHandlerException("アサーションに Subject がありません");
+		}
+
+		InboundRequestContext requestContext = messageContext.getSubcontext(InboundRequestContext.class);
+		String received = requestContext != null ? requestContext.getReceivedEndpointURL() : null;
+		if (received == null) {
+			throw new MessageHandlerException("受信したエンドポイントの URL がコンテキストにありません");
+		}
+		String expectedInResponseTo = requestContext.getExpectedInResponseTo();
+
+		Instant now = Instant.now();
+		for (SubjectConfirmation confirmation : assertion.getSubject().getSubjectConfirmations()) {
+			if (SubjectConfirmation.METHOD_BEARER.equals(confirmation.getMethod())
+					&& isValid(confirmation.getSubjectConfirmationData(), received, expectedInResponseTo, now)) {
+				return;
+			}
+		}
+		throw new MessageHandlerException("受信したエンドポイントと AuthnRequest に一致する有効な bearer SubjectConfirmation がありません");
+	}
+
+	private boolean isValid(SubjectConfirmationData data, String received, String expectedInResponseTo, Instant now) {
+		if (data == null || data.getRecipient() == null || data.getNotOnOrAfter() == null) {
+			return false;
+		}
+		if (!withoutQuery(data.getRecipient()).equals(withoutQuery(received))) {
+			return false;
+		}
+		if (!now.isBefore(data.getNotOnOrAfter().plus(clockSkew))) {
+			return false;
+		}
+		if (data.getNotBefore() != null && now.isBefore(data.getNotBefore().minus(clockSkew))) {
+			return false;
+		}
+		return Objects.equals(expectedInResponseTo, data.getInResponseTo());
+	}
+
+	private static String withoutQuery(String url) {
+		int query = url.indexOf('?');
+		return query < 0 ? url : url.substring(0, query);
+	}
+}
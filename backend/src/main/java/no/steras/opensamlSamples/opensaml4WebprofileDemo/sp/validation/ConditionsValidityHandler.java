@@ -0,0 +1,48 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.validation;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.messaging.handler.AbstractMessageHandler;
+import org.opensaml.messaging.handler.MessageHandlerException;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.Conditions;
+
+/**
+ * アサーションの Conditions の有効期間（NotBefore / NotOnOrAfter）内であることを検証するハンドラー。
+ *
+ * リプレイキャッシュはアサーション ID を NotOnOrAfter まで記録するため、NotOnOrAfter を過ぎたアサーションは
+ * ここで拒否する必要があります。有効期間を持たないアサーションはリプレイを判定できないため、NotOnOrAfter を必須とします。
+ */
+public class ConditionsValidityHandler extends AbstractMessageHandler {
+	private final Duration clockSkew;
+
+	/**
+	 * @param clockSkew NotBefore / NotOnOrAfter の判定で許容する時刻のずれ（リプレイキャッシュのクロックスキュー以下にすること）
+	 */
+	public ConditionsValidityHandler(Duration clockSkew) {
+		this.clockSkew = clockSkew;
+	}
+
+	@Override
+	protected void doInvoke(MessageContext messageContext) throws MessageHandlerException {
+		if (!(messageContext.getMessage() instanceof Assertion assertion)) {
+			throw new MessageHandlerException("メッセージコンテキストにアサーションが含まれていません");
+		}
+		Conditions conditions = assertion.getConditions();
+		if (conditions == null || conditions.getNotOnOrAfter() == null) {
+			throw new MessageHandlerException("アサーションに Conditions の NotOnOrAfter がありません");
+		}
+
+		Instant now = Instant.now();
+		if (!now.isBefore(conditions.getNotOnOrAfter().plus(clockSkew))) {
+			throw new MessageHandlerException("アサーションの有効期限が切れています (NotOnOrAfter: "
+					+ conditions.getNotOnOrAfter() + ")");
+		}
+		if (conditions.getNotBefore() != null && now.isBefore(conditions.getNotBefore().minus(clockSkew))) {
+			throw new MessageHandlerException("アサーションはまだ有効ではありません (NotBefore: "
+					+ conditions.getNotBefore() + ")");
+		}
+	}
+}
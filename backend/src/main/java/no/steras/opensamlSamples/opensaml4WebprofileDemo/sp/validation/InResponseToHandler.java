@@ -0,0 +1,30 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.validation;
+
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.messaging.handler.AbstractMessageHandler;
+import org.opensaml.messaging.handler.MessageHandlerException;
+import org.opensaml.saml.saml2.core.StatusResponseType;
+
+/**
+ * レスポンスの InResponseTo が、このリクエストで送信したメッセージの ID と一致することを検証するハンドラー。
+ * 送信したメッセージの ID は {@link InboundRequestContext} から取得します。
+ */
+public class InResponseToHandler extends AbstractMessageHandler {
+
+	@Override
+	protected void doInvoke(MessageContext messageContext) throws MessageHandlerException {
+		if (!(messageContext.getMessage() instanceof StatusResponseType response)) {
+			throw new MessageHandlerException("メッセージコンテキストにレスポンスが含まれていません");
+		}
+
+		InboundRequestContext requestContext = messageContext.getSubcontext(InboundRequestContext.class);
+		String expected = requestContext != null ? requestContext.getExpectedInResponseTo() : null;
+		if (expected == null) {
+			throw new MessageHandlerException("送信したリクエストの ID がコンテキストにありません");
+		}
+		if (!expected.equals(response.getInResponseTo())) {
+			throw new MessageHandlerException("InResponseTo (" + response.getInResponseTo()
+					+ ") が送信したリクエストの ID と一致しません");
+		}
+	}
+}
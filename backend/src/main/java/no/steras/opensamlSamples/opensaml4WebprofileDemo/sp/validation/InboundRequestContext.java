@@ -0,0 +1,32 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.validation;
+
+import org.opensaml.messaging.context.BaseContext;
+
+/**
+ * 受信したメッセージの検証に必要なリクエストごとの情報を保持するサブコンテキスト。
+ *
+ * 検証パイプラインのハンドラーは起動時に一度だけ構築され全リクエストで共有されるため、
+ * リクエストごとの状態はハンドラーのフィールドではなく、このサブコンテキストを通じて受け渡します。
+ */
+public class InboundRequestContext extends BaseContext {
+	// メッセージを受信したエンドポイントの URL（クエリ文字列を除く）
+	private String receivedEndpointURL;
+	// 送信したリクエストの ID（レスポンスの InResponseTo と一致する必要がある）
+	private String expectedInResponseTo;
+
+	public String getReceivedEndpointURL() {
+		return receivedEndpointURL;
+	}
+
+	public void setReceivedEndpointURL(String receivedEndpointURL) {
+		this.receivedEndpointURL = receivedEndpointURL;
+	}
+
+	public String getExpectedInResponseTo() {
+		return expectedInResponseTo;
+	}
+
+	public void setExpectedInResponseTo(String expectedInResponseTo) {
+		this.expectedInResponseTo = expectedInResponseTo;
+	}
+}
@@ -0,0 +1,30 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.validation;
+
+import org.opensaml.messaging.handler.MessageHandlerException;
+
+/**
+ * 検証パイプラインのハンドラーがメッセージを拒否したことを表す例外。
+ * 拒否したハンドラーの名前を保持し、失敗理由としてメトリクスのタグに使用できます。
+ */
+public class InboundValidationException extends MessageHandlerException {
+	private static final long serialVersionUID = 1L;
+
+	private final String pipelineName;
+	private final String handlerName;
+
+	public InboundValidationException(String pipelineName, String handlerName, MessageHandlerException cause) {
+		super(cause.getMessage(), cause);
+		this.pipelineName = pipelineName;
+		this.handlerName = handlerName;
+	}
+
+	/** パイプライン名 */
+	public String getPipelineName() {
+		return pipelineName;
+	}
+
+	/** メッセージを拒否したハンドラーの名前 */
+	public String getHandlerName() {
+		return handlerName;
+	}
+}
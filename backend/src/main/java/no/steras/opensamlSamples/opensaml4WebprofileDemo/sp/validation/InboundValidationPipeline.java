@@ -0,0 +1,149 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.validation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.messaging.handler.MessageHandler;
+import org.opensaml.messaging.handler.MessageHandlerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import net.shibboleth.shared.component.ComponentInitializationException;
+import net.shibboleth.shared.component.InitializableComponent;
+
+/**
+ * 起動時に一度だけ組み立てて初期化し、全リクエストで共有する受信メッセージの検証パイプライン。
+ *
+ * 1. 不変: ハンドラーの構成は {@link Builder#build()} 時に確定し、以後変更されない。
+ * 2. 初期化済み: ハンドラーの initialize() は構築時に一度だけ呼び出し、ログインごとには呼び出さない。
+ * 3. 状態を持たない: リクエストごとの状態は MessageContext（とそのサブコンテキスト）でのみ受け渡す。
+ * 4. 計測: ハンドラーごとの所要時間と失敗数を {@code saml.sp.validation{pipeline,handler}} として公開する。
+ */
+public class InboundValidationPipeline implements MeterBinder {
+	private static Logger logger = LoggerFactory.getLogger(InboundValidationPipeline.class);
+
+	private final String name;
+	private final String[] handlerNames;
+	private final MessageHandler[] handlers;
+	private final LongAdder[] counts;
+	private final LongAdder[] totalNanos;
+	private final LongAdder[] failures;
+
+	private InboundValidationPipeline(String name, List<String> handlerNames, List<MessageHandler> handlers) {
+		this.name = name;
+		this.handlerNames = handlerNames.toArray(new String[0]);
+		this.handlers = handlers.toArray(new MessageHandler[0]);
+		this.counts = newAdders(this.handlers.length);
+		this.totalNanos = newAdders(this.handlers.length);
+		this.failures = newAdders(this.handlers.length);
+	}
+
+	/**
+	 * @param name パイプライン名（メトリクスのタグに使用）
+	 */
+	public static Builder builder(String name) {
+		return new Builder(name);
+	}
+
+	/**
+	 * 登録順にハンドラーを実行し、最初に失敗したハンドラーの例外をスローします。
+	 *
+	 * @throws InboundValidationException ハンドラーがメッセージを拒否した場合（拒否したハンドラーの名前を保持）
+	 */
+	public void validate(MessageContext messageContext) throws InboundValidationException {
+		for (int i = 0; i < handlers.length; i++) {
+			long start = System.nanoTime();
+			try {
+				handlers[i].invoke(messageContext);
+			} catch (MessageHandlerException e) {
+				failures[i].increment();
+				throw new InboundValidationException(name, handlerNames[i], e);
+			} catch (RuntimeException e) {
+				failures[i].increment();
+				throw e;
+			} finally {
+				counts[i].increment();
+				totalNanos[i].add(System.nanoTime() - start);
+			}
+		}
+	}
+
+	/** パイプライン名 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * ハンドラーごとの所要時間と失敗数を Actuator のメトリクスとして公開します。
+	 */
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		for (int i = 0; i < handlers.length; i++) {
+			int index = i;
+			FunctionTimer.builder("saml.sp.validation", this, p -> p.counts[index].sum(),
+					p -> p.totalNanos[index].sum(), TimeUnit.NANOSECONDS)
+					.tag("pipeline", name).tag("handler", handlerNames[i])
+					.description("検証ハンドラーの所要時間").register(registry);
+			FunctionCounter.builder("saml.sp.validation.failures", failures[i], LongAdder::sum)
+					.tag("pipeline", name).tag("handler", handlerNames[i])
+					.description("検証ハンドラーで拒否したメッセージの数").register(registry);
+		}
+	}
+
+	private static LongAdder[] newAdders(int length) {
+		LongAdder[] adders = new LongAdder[length];
+		for (int i = 0; i < length; i++) {
+			adders[i] = new LongAdder();
+		}
+		return adders;
+	}
+
+	/**
+	 * ハンドラーを登録してパイプラインを構築するビルダー。
+	 */
+	public static class Builder {
+		private final String name;
+		private final List<String> handlerNames = new ArrayList<>();
+		private final List<MessageHandler> handlers = new ArrayList<>();
+
+		private Builder(String name) {
+			this.name = name;
+		}
+
+		/**
+		 * ハンドラーを末尾に追加します。
+		 *
+		 * @param handlerName ハンドラー名（メトリクスのタグに使用）
+		 * @param handler     未初期化または初期化済みのハンドラー（構築後は設定を変更しないこと）
+		 */
+		public Builder add(String handlerName, MessageHandler handler) {
+			handlerNames.add(handlerName);
+			handlers.add(handler);
+			return this;
+		}
+
+		/**
+		 * 未初期化のハンドラーを初期化し、パイプラインを生成します。
+		 */
+		public InboundValidationPipeline build() {
+			for (int i = 0; i < handlers.size(); i++) {
+				if (handlers.get(i) instanceof InitializableComponent component && !component.isInitialized()) {
+					try {
+						component.initialize();
+					} catch (ComponentInitializationException e) {
+						throw new RuntimeException("検証ハンドラー (" + handlerNames.get(i) + ") の初期化に失敗しました", e);
+					}
+				}
+			}
+			logger.info("検証パイプライン {} を構築しました: {}", name, handlerNames);
+			return new InboundValidationPipeline(name, handlerNames, handlers);
+		}
+	}
+}
@@ -0,0 +1,45 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.validation;
+
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.messaging.handler.AbstractMessageHandler;
+import org.opensaml.messaging.handler.MessageHandlerException;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.Issuer;
+import org.opensaml.saml.saml2.core.RequestAbstractType;
+import org.opensaml.saml.saml2.core.StatusResponseType;
+
+/**
+ * メッセージまたはアサーションの Issuer が想定する発行者（IdP のエンティティ ID）であることを検証するハンドラー。
+ */
+public class IssuerHandler extends AbstractMessageHandler {
+	private final String expectedIssuer;
+
+	/**
+	 * @param expectedIssuer 想定する発行者のエンティティ ID
+	 */
+	public IssuerHandler(String expectedIssuer) {
+		this.expectedIssuer = expectedIssuer;
+	}
+
+	@Override
+	protected void doInvoke(MessageContext messageContext) throws MessageHandlerException {
+		Issuer issuer = issuerOf(messageContext.getMessage());
+		String actual = issuer != null ? issuer.getValue() : null;
+		if (!expectedIssuer.equals(actual)) {
+			throw new MessageHandlerException("想定外の発行者からのメッセージです: " + actual);
+		}
+	}
+
+	private static Issuer issuerOf(Object message) {
+		if (message instanceof StatusResponseType response) {
+			return response.getIssuer();
+		}
+		if (message instanceof RequestAbstractType request) {
+			return request.getIssuer();
+		}
+		if (message instanceof Assertion assertion) {
+			return assertion.getIssuer();
+		}
+		return null;
+	}
+}
@@ -0,0 +1,50 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.validation;
+
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.messaging.handler.AbstractMessageHandler;
+import org.opensaml.messaging.handler.MessageHandlerException;
+import org.opensaml.saml.saml2.core.RequestAbstractType;
+import org.opensaml.saml.saml2.core.StatusResponseType;
+
+/**
+ * メッセージの Destination 属性が、メッセージを受信したエンドポイントの URL と一致することを検証するハンドラー。
+ *
+ * OpenSAML の ReceivedEndpointSecurityHandler はリクエストを Supplier として保持するため共有できません。
+ * このハンドラーは受信 URL を {@link InboundRequestContext} から取得するため、全リクエストで共有できます。
+ * Destination が省略されている場合は検証しません（ReceivedEndpointSecurityHandler と同じ扱い）。
+ */
+public class ReceivedEndpointHandler extends AbstractMessageHandler {
+
+	@Override
+	protected void doInvoke(MessageContext messageContext) throws MessageHandlerException {
+		String destination = destinationOf(messageContext.getMessage());
+		if (destination == null) {
+			return;
+		}
+
+		InboundRequestContext requestContext = messageContext.getSubcontext(InboundRequestContext.class);
+		String received = requestContext != null ? requestContext.getReceivedEndpointURL() : null;
+		if (received == null) {
+			throw new MessageHandlerException("受信したエンドポイントの URL がコンテキストにありません");
+		}
+		if (!withoutQuery(destination).equals(withoutQuery(received))) {
+			throw new MessageHandlerException(
+					"メッセージの宛先 (" + destination + ") が受信したエンドポイント (" + received + ") と一致しません");
+		}
+	}
+
+	private static String destinationOf(Object message) {
+		if (message instanceof StatusResponseType response) {
+			return response.getDestination();
+		}
+		if (message instanceof RequestAbstractType request) {
+			return request.getDestination();
+		}
+		return null;
+	}
+
+	private static String withoutQuery(String url) {
+		int query = url.indexOf('?');
+		return query < 0 ? url : url.substring(0, query);
+	}
+}
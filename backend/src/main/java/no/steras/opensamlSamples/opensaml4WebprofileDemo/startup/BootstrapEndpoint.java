@@ -0,0 +1,21 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.startup;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+
+/**
+ * OpenSAML ブートストラップのフェーズごとの所要時間を返すエンドポイント（JMX のみで公開）。
+ */
+@Endpoint(id = "bootstrap")
+public class BootstrapEndpoint {
+	private final OpenSAMLBootstrap bootstrap;
+
+	public BootstrapEndpoint(OpenSAMLBootstrap bootstrap) {
+		this.bootstrap = bootstrap;
+	}
+
+	@ReadOperation
+	public OpenSAMLBootstrap.Report report() {
+		return bootstrap.getReport();
+	}
+}
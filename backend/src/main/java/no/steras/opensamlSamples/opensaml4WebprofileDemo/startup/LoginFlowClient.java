@@ -0,0 +1,195 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.startup;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * ブラウザの代わりにデモのログインフロー全体を実行する HTTP クライアント。
+ *
+ * 保護リソース → AccessFilter（AuthnRequest）→ IdP SSO 画面 → 認証 POST → ACS（アーティファクト解決）→ 保護リソース
+ * の順にリダイレクトをたどります。HTTP-POST バインディングの場合は、認証 POST の応答の自動送信フォームを
+ * ブラウザと同様に ACS へ POST します。リダイレクト・フォーム・クッキーはホップごとの所要時間を計測するため手動で処理します。
+ * HttpClient はスレッドセーフなため、1 つのインスタンスから複数のログインを同時に実行できます。
+ */
+public class LoginFlowClient {
+	// リダイレクトループ対策のホップ数上限
+	private static final int MAX_HOPS = 10;
+
+	// POST するフォーム（IdP の認証画面と HTTP-POST バインディングの自動送信フォーム）の解析用
+	private static final Pattern FORM_TAG = Pattern.compile("<form\\b[^>]*>", Pattern.CASE_INSENSITIVE);
+	private static final Pattern POST_METHOD = Pattern.compile("method=\"post\"", Pattern.CASE_INSENSITIVE);
+	private static final Pattern ACTION = Pattern.compile("action=\"([^\"]*)\"", Pattern.CASE_INSENSITIVE);
+	private static final Pattern HIDDEN_INPUT = Pattern.compile(
+			"<input type=\"hidden\" name=\"([^\"]+)\" value=\"([^\"]*)\"", Pattern.CASE_INSENSITIVE);
+	private static final Pattern CHARACTER_REFERENCE = Pattern.compile("&(#[xX][0-9a-fA-F]+|#[0-9]+|amp|lt|gt|quot|apos);");
+
+	private final HttpClient httpClient;
+	private final URI protectedResource;
+	private final Duration requestTimeout;
+
+	/**
+	 * 1 回の HTTP 往復の結果。
+	 *
+	 * @param method   HTTP メソッド
+	 * @param uri      リクエスト先
+	 * @param status   レスポンスのステータスコード
+	 * @param duration 所要時間
+	 */
+	public record Hop(String method, URI uri, int status, Duration duration) {
+	}
+
+	/**
+	 * 1 回のログインフローの結果。
+	 *
+	 * @param hops      実行した HTTP 往復（実行順）
+	 * @param succeeded 保護リソースが 200 で返されたかどうか
+	 * @param total     フロー全体の所要時間
+	 */
+	public record LoginResult(List<Hop> hops, boolean succeeded, Duration total) {
+	}
+
+	/**
+	 * @param protectedResource ログインを開始する保護リソースの URL
+	 * @param requestTimeout    1 回の HTTP 往復のタイムアウト
+	 */
+	public LoginFlowClient(URI protectedResource, Duration requestTimeout) {
+		this.protectedResource = protectedResource;
+		this.requestTimeout = requestTimeout;
+		this.httpClient = HttpClient.newBuilder()
+				.followRedirects(HttpClient.Redirect.NEVER)
+				.connectTimeout(requestTimeout)
+				.build();
+	}
+
+	/**
+	 * 新しいセッション（クッキーなし）でログインフローを 1 回実行します。
+	 */
+	public LoginResult login() throws IOException, InterruptedException {
+		Map<String, String> cookies = new LinkedHashMap<>();
+		List<Hop> hops = new ArrayList<>();
+		long flowStart = System.nanoTime();
+
+		URI uri = protectedResource;
+		String method = "GET";
+		String formBody = "";
+		for (int i = 0; i < MAX_HOPS; i++) {
+			HttpRequest.Builder builder = HttpRequest.newBuilder(uri).timeout(requestTimeout);
+			if ("POST".equals(method)) {
+				builder.header("Content-Type", "application/x-www-form-urlencoded")
+						.POST(HttpRequest.BodyPublishers.ofString(formBody));
+			} else {
+				builder.GET();
+			}
+			if (!cookies.isEmpty()) {
+				builder.header("Cookie", cookies.entrySet().stream()
+						.map(cookie -> cookie.getKey() + "=" + cookie.getValue())
+						.collect(Collectors.joining("; ")));
+			}
+
+			long start = System.nanoTime();
+			HttpResponse<String> response = httpClient.send(builder.build(), HttpResponse.BodyHandlers.ofString());
+			hops.add(new Hop(method, uri, response.statusCode(), Duration.ofNanos(System.nanoTime() - start)));
+			storeCookies(response, cookies);
+
+			int status = response.statusCode();
+			Form form;
+			if (status >= 300 && status < 400) {
+				String location = response.headers().firstValue("Location").orElse(null);
+				if (location == null) {
+					break;
+				}
+				uri = uri.resolve(location);
+				method = "GET";
+			} else if (status == 200 && (form = parseForm(response.body())) != null) {
+				// IdP の認証画面（action なしのため同じ URL に POST される）、または ACS への自動送信フォーム
+				if (form.action() != null) {
+					uri = uri.resolve(form.action());
+				}
+				method = "POST";
+				formBody = form.body();
+			} else {
+				boolean succeeded = status == 200 && uri.getPath().equals(protectedResource.getPath());
+				return new LoginResult(hops, succeeded, Duration.ofNanos(System.nanoTime() - flowStart));
+			}
+		}
+		return new LoginResult(hops, false, Duration.ofNanos(System.nanoTime() - flowStart));
+	}
+
+	/**
+	 * POST するフォームの送信先と hidden フィールドの値。
+	 *
+	 * @param action 送信先（未指定の場合は null）
+	 * @param body   application/x-www-form-urlencoded 形式のフィールド
+	 */
+	private record Form(String action, String body) {
+	}
+
+	/**
+	 * レスポンスの最初のフォームが POST フォームであれば、送信先と hidden フィールドを取り出します。
+	 */
+	private static Form parseForm(String html) {
+		if (html == null) {
+			return null;
+		}
+		Matcher formTag = FORM_TAG.matcher(html);
+		if (!formTag.find() || !POST_METHOD.matcher(formTag.group()).find()) {
+			return null;
+		}
+		Matcher action = ACTION.matcher(formTag.group());
+
+		StringJoiner fields = new StringJoiner("&");
+		Matcher input = HIDDEN_INPUT.matcher(html);
+		while (input.find()) {
+			fields.add(URLEncoder.encode(unescape(input.group(1)), StandardCharsets.UTF_8) + "="
+					+ URLEncoder.encode(unescape(input.group(2)), StandardCharsets.UTF_8));
+		}
+		return new Form(action.find() ? unescape(action.group(1)) : null, fields.toString());
+	}
+
+	/**
+	 * HTML 属性値の文字参照（OpenSAML の HTMLEncoder が出力する形式）を元の文字に戻します。
+	 */
+	private static String unescape(String value) {
+		return CHARACTER_REFERENCE.matcher(value).replaceAll(match -> {
+			String reference = match.group(1);
+			String character = switch (reference) {
+			case "amp" -> "&";
+			case "lt" -> "<";
+			case "gt" -> ">";
+			case "quot" -> "\"";
+			case "apos" -> "'";
+			default -> Character.toString(reference.charAt(1) == 'x' || reference.charAt(1) == 'X'
+					? Integer.parseInt(reference.substring(2), 16)
+					: Integer.parseInt(reference.substring(1)));
+			};
+			return Matcher.quoteReplacement(character);
+		});
+	}
+
+	/**
+	 * Set-Cookie ヘッダーの名前と値のみを保持します（デモは単一ホストのため属性は無視）。
+	 */
+	private static void storeCookies(HttpResponse<?> response, Map<String, String> cookies) {
+		for (String header : response.headers().allValues("Set-Cookie")) {
+			String pair = header.split(";", 2)[0];
+			int separator = pair.indexOf('=');
+			if (separator > 0) {
+				cookies.put(pair.substring(0, separator).trim(), pair.substring(separator + 1).trim());
+			}
+		}
+	}
+}
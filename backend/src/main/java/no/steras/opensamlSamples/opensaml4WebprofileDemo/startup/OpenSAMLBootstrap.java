@@ -0,0 +1,232 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.startup;
+
+import java.security.Provider;
+import java.security.Security;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.opensaml.core.config.ConfigurationService;
+import org.opensaml.core.config.InitializationException;
+import org.opensaml.core.config.InitializationService;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistry;
+import org.opensaml.xmlsec.config.impl.JavaCryptoValidationInitializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.IDPCredentials;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.SPCredentials;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.xml.SharedParserPool;
+
+/**
+ * アプリケーション起動時に OpenSAML の実行環境を準備するブートストラップ。
+ *
+ * 以前は AccessFilter の初期化処理の中で直列に実行していた処理を、互いに依存しないフェーズに分けて並列に実行します。
+ * 1. crypto-validation: Java の暗号ライブラリが OpenSAML の要件を満たしているかの検証と JCE プロバイダーの出力
+ * 2. opensaml-config: レジストリの登録、InitializationService による設定読み込み、共有パーサープールの登録
+ * 3. sp-credentials: SP のキーストア読み込み
+ * 4. idp-credentials: IdP の鍵ペア生成
+ * 5. parser-pool-warm-up: DocumentBuilder の事前生成
+ *
+ * 各フェーズはコンストラクタで開始されます。OpenSAML のレジストリや鍵を使用する Bean は、生成時にこの Bean を受け取って
+ * {@link #awaitCompletion()} で完了を待ってから処理を行います（ブートストラップはそれらの Bean より先に生成され、
+ * 依存しない Bean の生成とは並行して進みます）。さらに全ての Bean の生成後（HTTP の受付開始前）にも完了を待ち合わせるため、
+ * リクエストが初期化前の OpenSAML に到達することはありません。
+ * 完了後に Bean の生成時に行う準備処理（レスポンステンプレートの事前構築など）は {@link #runPhase} でフェーズとして計測します。
+ * フェーズごとの所要時間は Actuator（JMX の bootstrap エンドポイントとメトリクス）で公開します。
+ */
+public class OpenSAMLBootstrap implements SmartInitializingSingleton, MeterBinder {
+	private static Logger logger = LoggerFactory.getLogger(OpenSAMLBootstrap.class);
+
+	// メトリクスとして公開するフェーズ名
+	private static final List<String> PHASE_NAMES = List.of("crypto-validation", "opensaml-config", "sp-credentials",
+			"idp-credentials", "parser-pool-warm-up", "response-templates");
+
+	private final Instant startedAt = Instant.now();
+	private final long origin = System.nanoTime();
+	private final Queue<Phase> phases = new ConcurrentLinkedQueue<>();
+	private final ExecutorService executor;
+	private final CompletableFuture<Void> completion;
+	private volatile long totalMillis = -1;
+
+	/**
+	 * 完了したフェーズ 1 件分の計測結果。
+	 *
+	 * @param name            フェーズ名
+	 * @param startedAtMillis ブートストラップ開始からフェーズ開始までの時間
+	 * @param durationMillis  フェーズの所要時間
+	 * @param thread          フェーズを実行したスレッド
+	 */
+	public record Phase(String name, long startedAtMillis, long durationMillis, String thread) {
+	}
+
+	/**
+	 * ブートストラップ全体の計測結果。
+	 *
+	 * @param startedAt   ブートストラップの開始時刻
+	 * @param totalMillis 開始から全フェーズ完了までの時間（未完了の場合は -1）
+	 * @param phases      完了したフェーズ（開始順）
+	 */
+	public record Report(Instant startedAt, long totalMillis, List<Phase> phases) {
+	}
+
+	/**
+	 * SPConstants / IDPConstants の初期化後に生成する必要があります（IdP の鍵の種類を参照するため）。
+	 *
+	 * @param parserPool       OpenSAML のレジストリに登録する共有パーサープール
+	 * @param parserPoolWarmUp 事前生成する DocumentBuilder の数
+	 */
+	public OpenSAMLBootstrap(SharedParserPool parserPool, int parserPoolWarmUp) {
+		AtomicInteger threadCount = new AtomicInteger();
+		executor = Executors.newFixedThreadPool(Math.min(5, Math.max(2, Runtime.getRuntime().availableProcessors())),
+				runnable -> {
+					Thread thread = new Thread(runnable, "opensaml-bootstrap-" + threadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+
+		logger.info("OpenSAML のブートストラップを開始します...");
+		completion = CompletableFuture.allOf(
+				phase("opensaml-config", () -> initializeOpenSAML(parserPool)),
+				phase("crypto-validation", OpenSAMLBootstrap::validateCrypto),
+				phase("sp-credentials", SPCredentials::getCredential),
+				phase("idp-credentials", IDPCredentials::getCredential),
+				phase("parser-pool-warm-up", () -> parserPool.warmUp(parserPoolWarmUp)))
+				.whenComplete((result, error) -> {
+					totalMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - origin);
+					executor.shutdown();
+					if (error == null) {
+						logger.info("OpenSAML のブートストラップが完了しました ({} ms): {}", totalMillis, getReport().phases());
+					}
+				});
+	}
+
+	/**
+	 * 全ての Bean の生成後に呼び出され、ブートストラップの完了を待ち合わせます。
+	 */
+	@Override
+	public void afterSingletonsInstantiated() {
+		awaitCompletion();
+	}
+
+	/**
+	 * 全フェーズの完了を待ちます。いずれかのフェーズが失敗した場合は例外をスローします。
+	 * OpenSAML のレジストリや鍵を使用する Bean は、生成時に最初にこのメソッドを呼び出します（完了済みの場合はすぐに戻ります）。
+	 */
+	public void awaitCompletion() {
+		try {
+			completion.join();
+		} catch (CompletionException e) {
+			throw new RuntimeException("OpenSAML の初期化に失敗しました", e.getCause());
+		}
+	}
+
+	/**
+	 * ブートストラップの完了を待ってから、OpenSAML を使用する準備処理を呼び出し元のスレッドで実行し、
+	 * 所要時間をフェーズとして記録します。
+	 *
+	 * @param name フェーズ名
+	 * @param task 準備処理
+	 */
+	public void runPhase(String name, Runnable task) {
+		awaitCompletion();
+		timed(name, task);
+	}
+
+	/**
+	 * 現在までの計測結果を返します。
+	 */
+	public Report getReport() {
+		List<Phase> completed = new ArrayList<>(phases);
+		completed.sort(Comparator.comparingLong(Phase::startedAtMillis));
+		return new Report(startedAt, totalMillis, completed);
+	}
+
+	/**
+	 * 指定フェーズの所要時間。未完了の場合は NaN を返します。
+	 */
+	private double durationOf(String name) {
+		for (Phase phase : phases) {
+			if (phase.name().equals(name)) {
+				return phase.durationMillis();
+			}
+		}
+		return Double.NaN;
+	}
+
+	private CompletableFuture<Void> phase(String name, Runnable task) {
+		return CompletableFuture.runAsync(() -> timed(name, task), executor);
+	}
+
+	private void timed(String name, Runnable task) {
+		long start = System.nanoTime();
+		task.run();
+		long end = System.nanoTime();
+		phases.add(new Phase(name, TimeUnit.NANOSECONDS.toMillis(start - origin),
+				TimeUnit.NANOSECONDS.toMillis(end - start), Thread.currentThread().getName()));
+	}
+
+	/**
+	 * Java の暗号化ライブラリが OpenSAML の要件を満たしているかチェックします。
+	 */
+	private static void validateCrypto() {
+		try {
+			new JavaCryptoValidationInitializer().init();
+		} catch (InitializationException e) {
+			throw new RuntimeException("暗号ライブラリの検証に失敗しました", e);
+		}
+
+		// デバッグ用: 利用可能なセキュリティプロバイダー（SunJCE等）をログ出力
+		for (Provider jceProvider : Security.getProviders()) {
+			logger.info("JCEプロバイダー情報: {}", jceProvider.getInfo());
+		}
+	}
+
+	/**
+	 * OpenSAML のランタイム環境をセットアップします。
+	 * OpenSAML を使用する前に必ず `InitializationService.initialize()` を呼び出す必要があります。
+	 */
+	private static void initializeOpenSAML(SharedParserPool parserPool) {
+		// XMLオブジェクトの生成や解析に使用するレジストリの設定
+		XMLObjectProviderRegistry registry = new XMLObjectProviderRegistry();
+		ConfigurationService.register(XMLObjectProviderRegistry.class, registry);
+
+		try {
+			InitializationService.initialize();
+		} catch (InitializationException e) {
+			throw new RuntimeException("OpenSAML の初期化に失敗しました", e);
+		}
+
+		// セキュアに設定された共有パーサープールを登録
+		// (初期化処理が既定の BasicParserPool を設定するため、必ず initialize() の後に上書きする)
+		registry.setParserPool(parserPool);
+	}
+
+	/**
+	 * フェーズごとの所要時間と全体の所要時間をメトリクスとして公開します。
+	 */
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		// バインド時点で未完了のフェーズもあるため、値は参照時に求める
+		for (String name : PHASE_NAMES) {
+			Gauge.builder("saml.bootstrap.phase.duration", this, bootstrap -> bootstrap.durationOf(name))
+					.tag("phase", name).baseUnit("milliseconds")
+					.description("OpenSAML ブートストラップの各フェーズの所要時間").register(registry);
+		}
+		Gauge.builder("saml.bootstrap.duration", this, bootstrap -> bootstrap.totalMillis).baseUnit("milliseconds")
+				.description("OpenSAML ブートストラップ全体の所要時間").register(registry);
+	}
+}
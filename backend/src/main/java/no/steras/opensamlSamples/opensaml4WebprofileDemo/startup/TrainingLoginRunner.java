@@ -0,0 +1,69 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.startup;
+
+import java.net.URI;
+import java.time.Duration;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.stereotype.Component;
+
+/**
+ * AppCDS アーカイブ作成用のトレーニング実行。
+ *
+ * {@code app.training.enabled=true} の場合のみ有効になり、起動直後に自分自身に対してログインフローを
+ * 指定回数実行してからアプリケーションを終了します。{@code -XX:ArchiveClassesAtExit} と組み合わせることで、
+ * 起動処理だけでなく最初のログインで読み込まれる OpenSAML・XML Security のクラスもアーカイブに含まれます。
+ */
+@Component
+@ConditionalOnProperty(name = "app.training.enabled", havingValue = "true")
+public class TrainingLoginRunner implements ApplicationRunner {
+    private static Logger logger = LoggerFactory.getLogger(TrainingLoginRunner.class);
+
+    private final ConfigurableApplicationContext context;
+
+    @Value("${app.base-url}")
+    private String baseUrl;
+
+    @Value("${app.training.logins}")
+    private int logins;
+
+    public TrainingLoginRunner(ConfigurableApplicationContext context) {
+        this.context = context;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        LoginFlowClient client = new LoginFlowClient(
+                URI.create(baseUrl + "/opensaml5-webprofile-demo/app/appservlet"), Duration.ofSeconds(30));
+
+        int failures = 0;
+        for (int i = 1; i <= logins; i++) {
+            try {
+                LoginFlowClient.LoginResult result = client.login();
+                logger.info("トレーニングログイン {}/{}: {} ({} ms, {} ホップ)", i, logins,
+                        result.succeeded() ? "成功" : "失敗", result.total().toMillis(), result.hops().size());
+                if (!result.succeeded()) {
+                    failures++;
+                }
+            } catch (Exception e) {
+                logger.error("トレーニングログイン {}/{} 中にエラーが発生しました: {}", i, logins, e.getMessage(), e);
+                failures++;
+            }
+        }
+
+        // 失敗したログインがあっても、それまでに読み込まれたクラスでアーカイブは有効なためビルドは止めない
+        if (failures > 0) {
+            logger.warn("トレーニングログインのうち {} 件が失敗しました。アーカイブの効果が小さくなる可能性があります。", failures);
+        }
+
+        // JVM 終了時に -XX:ArchiveClassesAtExit のアーカイブが書き出される
+        logger.info("トレーニングを終了します。");
+        System.exit(SpringApplication.exit(context, () -> 0));
+    }
+}
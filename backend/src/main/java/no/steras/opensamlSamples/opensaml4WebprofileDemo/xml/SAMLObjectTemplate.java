@@ -0,0 +1,220 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.xml;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.core.xml.io.Unmarshaller;
+import org.opensaml.core.xml.io.UnmarshallingException;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import net.shibboleth.shared.xml.DOMTypeSupport;
+import net.shibboleth.shared.xml.XMLParserException;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.OpenSAMLUtils;
+
+/**
+ * 不変部分を事前に構築した SAML オブジェクトのテンプレート。
+ *
+ * 使い方:
+ * 1. プレースホルダー値を入れたプロトタイプの XMLObject を一度だけ構築し、{@link Builder} に渡す。
+ * 2. リクエストごとに変わる属性・テキストを「スロット」として登録する。
+ * 3. {@link #instantiateElement(String...)} でプロトタイプの DOM を複製し、スロットに値を埋め込む。
+ *    DOM のままシリアライズする場合はこれを使用し、XMLObject へのアンマーシャリングを省きます。
+ * 4. XMLObject のツリーが必要な場合（OpenSAML の API で内容を参照・変更・署名する場合）のみ {@link #instantiate(String...)} を
+ *    使用する。複製した DOM をアンマーシャリングするため、要素数に比例したコストがかかります。
+ *
+ * プロトタイプの DOM は構築後に変更されず、複製時には読み取りのみ行われるため、複数スレッドから同時に利用できます。
+ *
+ * @param <T> テンプレートが生成する SAML オブジェクトの型
+ */
+public class SAMLObjectTemplate<T extends XMLObject> {
+	private final Element prototype;
+	private final Unmarshaller unmarshaller;
+	private final Slot[] slots;
+
+	/**
+	 * 値を埋め込む位置。ルート要素からの子要素インデックスの経路と、属性名（テキストの場合は null）で表します。
+	 */
+	private record Slot(int[] path, String attributeName) {
+	}
+
+	private SAMLObjectTemplate(Element prototype, Slot[] slots) {
+		this.prototype = prototype;
+		this.slots = slots;
+		this.unmarshaller = XMLObjectProviderRegistrySupport.getUnmarshallerFactory().getUnmarshaller(prototype);
+		if (unmarshaller == null) {
+			throw new IllegalArgumentException("アンマーシャラーが見つかりません: " + prototype.getLocalName());
+		}
+	}
+
+	/**
+	 * テンプレートから新しいオブジェクトを生成します（{@link #instantiateElement(String...)} の結果をアンマーシャリング）。
+	 *
+	 * @param values スロットの登録順に対応する値（属性のスロットに null を渡すとその属性を削除する）
+	 * @return 値が埋め込まれた新しい SAML オブジェクト（DOM キャッシュ付き）
+	 */
+	@SuppressWarnings("unchecked")
+	public T instantiate(String... values) {
+		try {
+			return (T) unmarshaller.unmarshall(instantiateElement(values));
+		} catch (UnmarshallingException e) {
+			throw new RuntimeException("テンプレートからの SAML オブジェクト生成に失敗しました", e);
+		}
+	}
+
+	/**
+	 * テンプレートから新しい DOM 要素を生成します。返される要素は新しいドキュメントのルート要素です。
+	 *
+	 * @param values スロットの登録順に対応する値（属性のスロットに null を渡すとその属性を削除する）
+	 * @return 値が埋め込まれた新しい要素
+	 */
+	public Element instantiateElement(String... values) {
+		if (values.length != slots.length) {
+			throw new IllegalArgumentException("スロット数 (" + slots.length + ") と値の数 (" + values.length + ") が一致しません");
+		}
+
+		// プロトタイプの DOM を新しいドキュメントへ丸ごと複製（ネイティブな DOM コピーのみで XMLObject は生成しない）
+		Document document;
+		try {
+			document = XMLObjectProviderRegistrySupport.getParserPool().newDocument();
+		} catch (XMLParserException e) {
+			throw new RuntimeException("テンプレートからの SAML オブジェクト生成に失敗しました", e);
+		}
+		Element root = (Element) document.importNode(prototype, true);
+		document.appendChild(root);
+
+		// リクエストごとの値だけを書き換える
+		for (int i = 0; i < slots.length; i++) {
+			Element target = resolve(root, slots[i].path());
+			if (slots[i].attributeName() != null && values[i] == null) {
+				target.removeAttributeNS(null, slots[i].attributeName());
+			} else if (slots[i].attributeName() != null) {
+				target.setAttributeNS(null, slots[i].attributeName(), values[i]);
+			} else {
+				target.setTextContent(values[i]);
+			}
+		}
+		return root;
+	}
+
+	/**
+	 * 日時をテンプレートに埋め込む文字列形式（OpenSAML のマーシャリングと同じ形式）に変換します。
+	 */
+	public static String instant(Instant instant) {
+		return DOMTypeSupport.instantToString(instant);
+	}
+
+	/**
+	 * 子要素インデックスの経路をたどって要素を取得します。
+	 */
+	private static Element resolve(Element root, int[] path) {
+		Element current = root;
+		for (int index : path) {
+			current = childElementAt(current, index);
+		}
+		return current;
+	}
+
+	private static Element childElementAt(Element parent, int index) {
+		int count = 0;
+		for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+			if (child.getNodeType() == Node.ELEMENT_NODE) {
+				if (count == index) {
+					return (Element) child;
+				}
+				count++;
+			}
+		}
+		throw new IllegalStateException("テンプレートの構造が不正です");
+	}
+
+	/**
+	 * プロトタイプとスロットを登録してテンプレートを構築するビルダー。
+	 *
+	 * @param <T> テンプレートが生成する SAML オブジェクトの型
+	 */
+	public static class Builder<T extends XMLObject> {
+		private final T prototype;
+		private final List<XMLObject> targets = new ArrayList<>();
+		private final List<String> attributeNames = new ArrayList<>();
+
+		/**
+		 * @param prototype プレースホルダー値を入れたプロトタイプ（テンプレート構築後は使用しないこと）
+		 */
+		public Builder(T prototype) {
+			this.prototype = prototype;
+		}
+
+		/**
+		 * 指定オブジェクトの属性をスロットとして登録します。
+		 *
+		 * @param target        プロトタイプ内のオブジェクト
+		 * @param attributeName 書き換える属性名（名前空間なし）
+		 */
+		public Builder<T> attribute(XMLObject target, String attributeName) {
+			targets.add(target);
+			attributeNames.add(attributeName);
+			return this;
+		}
+
+		/**
+		 * 指定オブジェクトのテキスト内容をスロットとして登録します。
+		 */
+		public Builder<T> text(XMLObject target) {
+			targets.add(target);
+			attributeNames.add(null);
+			return this;
+		}
+
+		/**
+		 * プロトタイプを一度だけマーシャリングし、各スロットの位置を記録したテンプレートを生成します。
+		 */
+		public SAMLObjectTemplate<T> build() {
+			Element root;
+			try {
+				root = OpenSAMLUtils.marshall(prototype);
+			} catch (MarshallingException e) {
+				throw new RuntimeException("テンプレートのマーシャリングに失敗しました", e);
+			}
+
+			Slot[] slots = new Slot[targets.size()];
+			for (int i = 0; i < slots.length; i++) {
+				slots[i] = new Slot(pathOf(root, targets.get(i).getDOM()), attributeNames.get(i));
+			}
+			return new SAMLObjectTemplate<>(root, slots);
+		}
+
+		/**
+		 * ルート要素から対象要素までの子要素インデックスの経路を求めます。
+		 */
+		private static int[] pathOf(Element root, Element target) {
+			List<Integer> reversed = new ArrayList<>();
+			Node current = target;
+			while (current != root) {
+				if (current == null || current.getParentNode() == null) {
+					throw new IllegalArgumentException("スロットの対象がプロトタイプに含まれていません");
+				}
+				int index = 0;
+				for (Node sibling = current.getPreviousSibling(); sibling != null; sibling = sibling.getPreviousSibling()) {
+					if (sibling.getNodeType() == Node.ELEMENT_NODE) {
+						index++;
+					}
+				}
+				reversed.add(index);
+				current = current.getParentNode();
+			}
+
+			int[] path = new int[reversed.size()];
+			for (int i = 0; i < path.length; i++) {
+				path[i] = reversed.get(path.length - 1 - i);
+			}
+			return path;
+		}
+	}
+}
@@ -0,0 +1,220 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.ErrorHandler;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import net.shibboleth.shared.xml.ParserPool;
+import net.shibboleth.shared.xml.XMLParserException;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.ConcurrentObjectPool;
+
+/**
+ * アプリケーション全体で共有する XML パーサープール。
+ *
+ * OpenSAML の {@code BasicParserPool} は synchronized なスタックで DocumentBuilder を管理するため、
+ * 高い並行度では競合点になります。このクラスは XXE 対策済みの DocumentBuilderFactory を一度だけ構築し、
+ * DocumentBuilder をロックフリーのプールで再利用します。
+ * SOAP デコーダーを含む全てのデコーダーは {@code XMLObjectProviderRegistry} に登録されたこのプールを使用します。
+ */
+public class SharedParserPool implements ParserPool, MeterBinder {
+	private static Logger logger = LoggerFactory.getLogger(SharedParserPool.class);
+
+	private final DocumentBuilderFactory builderFactory;
+	// DocumentBuilderFactory はスレッドセーフではないため、新規生成時のみロックを取得（プールが空の場合のみ）
+	private final ReentrantLock factoryLock = new ReentrantLock();
+	private final ConcurrentObjectPool<DocumentBuilder> builders;
+
+	// 外部実体を一切解決しないリゾルバ（DOCTYPE は禁止しているが念のため）
+	private final EntityResolver entityResolver = (publicId, systemId) -> {
+		throw new SAXException("外部実体の参照は許可されていません: " + systemId);
+	};
+
+	// パースエラーをログ出力したうえで例外として扱うハンドラ
+	private final ErrorHandler errorHandler = new ErrorHandler() {
+		public void warning(SAXParseException e) {
+			logger.warn("XML パース警告: {}", e.getMessage());
+		}
+
+		public void error(SAXParseException e) throws SAXException {
+			throw e;
+		}
+
+		public void fatalError(SAXParseException e) throws SAXException {
+			throw e;
+		}
+	};
+
+	/**
+	 * XXE 攻撃（外部実体参照）などを無効化した DocumentBuilderFactory を構築します。
+	 *
+	 * @param maxPoolSize プールに保持する DocumentBuilder の最大数
+	 */
+	public SharedParserPool(int maxPoolSize) {
+		builderFactory = DocumentBuilderFactory.newInstance();
+		builderFactory.setCoalescing(true);
+		builderFactory.setIgnoringComments(true);
+		builderFactory.setIgnoringElementContentWhitespace(true);
+		builderFactory.setNamespaceAware(true);
+		builderFactory.setExpandEntityReferences(false);
+		builderFactory.setXIncludeAware(false);
+		builderFactory.setValidating(false);
+
+		// XXE 攻撃対策のための機能を明示的に設定
+		final Map<String, Boolean> features = new HashMap<String, Boolean>();
+		features.put("http://xml.org/sax/features/external-general-entities", Boolean.FALSE);
+		features.put("http://xml.org/sax/features/external-parameter-entities", Boolean.FALSE);
+		features.put("http://apache.org/xml/features/disallow-doctype-decl", Boolean.TRUE);
+		features.put("http://apache.org/xml/features/validation/schema/normalized-value", Boolean.FALSE);
+		features.put("http://javax.xml.XMLConstants/feature/secure-processing", Boolean.TRUE);
+
+		try {
+			for (Map.Entry<String, Boolean> feature : features.entrySet()) {
+				builderFactory.setFeature(feature.getKey(), feature.getValue());
+			}
+		} catch (ParserConfigurationException e) {
+			throw new IllegalStateException("XML パーサーのセキュリティ設定に失敗しました", e);
+		}
+
+		builders = new ConcurrentObjectPool<>(this::createBuilder, maxPoolSize);
+	}
+
+	/**
+	 * 新しい DocumentBuilder を生成します。プールが空の場合にのみ呼び出されます。
+	 */
+	private DocumentBuilder createBuilder() {
+		factoryLock.lock();
+		try {
+			DocumentBuilder builder = builderFactory.newDocumentBuilder();
+			builder.setEntityResolver(entityResolver);
+			builder.setErrorHandler(errorHandler);
+			return builder;
+		} catch (ParserConfigurationException e) {
+			throw new IllegalStateException("DocumentBuilder の生成に失敗しました", e);
+		} finally {
+			factoryLock.unlock();
+		}
+	}
+
+	/**
+	 * 起動時に DocumentBuilder を事前生成し、最初のリクエストで生成コストが発生しないようにします。
+	 */
+	public void warmUp(int count) {
+		builders.prefill(count);
+	}
+
+	@Override
+	public DocumentBuilder getBuilder() throws XMLParserException {
+		try {
+			return builders.borrow();
+		} catch (IllegalStateException e) {
+			throw new XMLParserException(e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public void returnBuilder(DocumentBuilder builder) {
+		if (builder == null) {
+			return;
+		}
+		try {
+			// 前回の利用状態をリセットしてから返却（reset でハンドラも初期状態に戻るため再設定）
+			builder.reset();
+			builder.setEntityResolver(entityResolver);
+			builder.setErrorHandler(errorHandler);
+			builders.release(builder);
+		} catch (UnsupportedOperationException e) {
+			builders.discard(builder);
+		}
+	}
+
+	@Override
+	public Document newDocument() throws XMLParserException {
+		DocumentBuilder builder = getBuilder();
+		try {
+			return builder.newDocument();
+		} finally {
+			returnBuilder(builder);
+		}
+	}
+
+	@Override
+	public Document parse(InputStream input) throws XMLParserException {
+		return parse(new InputSource(input));
+	}
+
+	@Override
+	public Document parse(Reader input) throws XMLParserException {
+		return parse(new InputSource(input));
+	}
+
+	/**
+	 * 文字列の XML を解析します（主にデバッグ・ベンチマーク用）。
+	 */
+	public Document parse(String xml) throws XMLParserException {
+		return parse(new StringReader(xml));
+	}
+
+	private Document parse(InputSource input) throws XMLParserException {
+		DocumentBuilder builder = getBuilder();
+		try {
+			return builder.parse(input);
+		} catch (SAXException | IOException e) {
+			throw new XMLParserException("XML の解析に失敗しました", e);
+		} finally {
+			returnBuilder(builder);
+		}
+	}
+
+	/** プール済み DocumentBuilder を再利用できた回数 */
+	public long getHits() {
+		return builders.getHits();
+	}
+
+	/** プールが空で DocumentBuilder を新規生成した回数 */
+	public long getMisses() {
+		return builders.getMisses();
+	}
+
+	/** 生成した DocumentBuilder の総数（ウォームアップ分を含む） */
+	public long getCreations() {
+		return builders.getCreations();
+	}
+
+	/**
+	 * ヒット/ミス/生成数を Actuator のメトリクスとして公開します。
+	 */
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		FunctionCounter.builder("saml.parserpool.requests", builders, ConcurrentObjectPool::getHits)
+				.tag("result", "hit").description("プールから DocumentBuilder を再利用した回数").register(registry);
+		FunctionCounter.builder("saml.parserpool.requests", builders, ConcurrentObjectPool::getMisses)
+				.tag("result", "miss").description("プールが空で DocumentBuilder を生成した回数").register(registry);
+		FunctionCounter.builder("saml.parserpool.creations", builders, ConcurrentObjectPool::getCreations)
+				.description("生成した DocumentBuilder の総数").register(registry);
+		FunctionCounter.builder("saml.parserpool.discards", builders, ConcurrentObjectPool::getDiscards)
+				.description("上限超過などで破棄した DocumentBuilder の数").register(registry);
+		Gauge.builder("saml.parserpool.idle", builders, ConcurrentObjectPool::getIdleCount)
+				.description("プールで待機中の DocumentBuilder の数").register(registry);
+	}
+}
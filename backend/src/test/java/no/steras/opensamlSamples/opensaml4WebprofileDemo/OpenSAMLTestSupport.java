@@ -0,0 +1,61 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+
+import org.opensaml.core.config.ConfigurationService;
+import org.opensaml.core.config.InitializationException;
+import org.opensaml.core.config.InitializationService;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistry;
+import org.opensaml.security.credential.BasicCredential;
+import org.opensaml.security.credential.CredentialSupport;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.xml.SharedParserPool;
+
+/**
+ * テスト共通の初期化処理。
+ * Spring を起動せずに OpenSAML を初期化し、アプリケーションと同じ共有パーサープールを登録します。
+ */
+public final class OpenSAMLTestSupport {
+	private static boolean initialized;
+
+	private OpenSAMLTestSupport() {
+	}
+
+	/**
+	 * OpenSAML を初期化します（複数回呼び出しても一度だけ実行）。
+	 */
+	public static synchronized void initialize() {
+		if (initialized) {
+			return;
+		}
+		try {
+			InitializationService.initialize();
+		} catch (InitializationException e) {
+			throw new RuntimeException("OpenSAML の初期化に失敗しました", e);
+		}
+		ConfigurationService.get(XMLObjectProviderRegistry.class).setParserPool(new SharedParserPool(8));
+		initialized = true;
+	}
+
+	/**
+	 * テスト用の RSA 鍵ペアを生成します。
+	 */
+	public static KeyPair rsaKeyPair() {
+		try {
+			KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+			generator.initialize(2048);
+			return generator.generateKeyPair();
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("RSA 鍵ペアを生成できません", e);
+		}
+	}
+
+	/**
+	 * 鍵ペアから署名用の資格情報を構築します。
+	 */
+	public static BasicCredential credential(KeyPair keyPair) {
+		return CredentialSupport.getSimpleCredential(keyPair.getPublic(), keyPair.getPrivate());
+	}
+}
@@ -0,0 +1,195 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.idp;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.security.KeyPair;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.util.XMLObjectSupport;
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.saml.common.SAMLObject;
+import org.opensaml.saml.saml2.binding.encoding.impl.HTTPSOAP11Encoder;
+import org.opensaml.saml.saml2.core.Artifact;
+import org.opensaml.saml.saml2.core.ArtifactResolve;
+import org.opensaml.saml.saml2.core.ArtifactResponse;
+import org.opensaml.saml.saml2.core.AuthnRequest;
+import org.opensaml.saml.saml2.core.Issuer;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.soap.soap11.Envelope;
+import org.opensaml.soap.soap11.Fault;
+import org.opensaml.soap.soap11.FaultCode;
+import org.opensaml.xmlsec.signature.support.SignatureSupport;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.OpenSAMLTestSupport;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.OpenSAMLUtils;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.capture.MessageCapture;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact.ArtifactEntry;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact.InMemoryArtifactStore;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata.EntityMetadata;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata.MetadataIndex;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata.MetadataResolver;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metrics.SsoFlowMetrics;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.security.SignatureAlgorithmPolicy;
+
+/**
+ * Artifact Resolution Service の要求元の認証と、不正な要求への SOAP Fault のテスト。
+ *
+ * アーティファクトを解決できる要求はアサーションの発行（鍵・テンプレート）を必要とするため、
+ * ここでは拒否される要求だけを扱います（テンプレートと AssertionIssuer は使用されない）。
+ */
+class ArtifactResolutionServletTest {
+	private static final String ARTIFACT = "AAQAAMh48/1oXIM+sDo7Dh2qMp1HM4IF5DaRNmDj6RdUmllwn9jJHyEgIi8=";
+	private static final String SP_ENTITY_ID = "https://sp.example.org";
+	private static final String OTHER_SP_ENTITY_ID = "https://other-sp.example.org";
+	private static final List<String> ALGORITHMS = List.of("rsa-sha256");
+
+	private static KeyPair spKeyPair;
+	private static KeyPair otherSpKeyPair;
+	private static SignatureAlgorithmPolicy idpPolicy;
+
+	private InMemoryArtifactStore artifactStore;
+	private ArtifactResolutionServlet servlet;
+
+	@BeforeAll
+	static void initialize() {
+		OpenSAMLTestSupport.initialize();
+		IDPConstants.IDP_ENTITY_ID = "https://idp.example.org";
+		spKeyPair = OpenSAMLTestSupport.rsaKeyPair();
+		otherSpKeyPair = OpenSAMLTestSupport.rsaKeyPair();
+		idpPolicy = new SignatureAlgorithmPolicy("IdP", OpenSAMLTestSupport.credential(OpenSAMLTestSupport.rsaKeyPair()),
+				ALGORITHMS, ALGORITHMS, ALGORITHMS);
+	}
+
+	@BeforeEach
+	void setUp() {
+		artifactStore = new InMemoryArtifactStore(Duration.ofMinutes(1), Duration.ofSeconds(1), 16, 1);
+		artifactStore.put(ARTIFACT, new ArtifactEntry(SP_ENTITY_ID, "bob", Instant.now()));
+
+		MetadataIndex index = new MetadataIndex(List.of(serviceProvider(SP_ENTITY_ID, spKeyPair),
+				serviceProvider(OTHER_SP_ENTITY_ID, otherSpKeyPair)), "test");
+		servlet = new ArtifactResolutionServlet(artifactStore, null, null, new MessageCapture(16, Map.of()),
+				new SsoFlowMetrics(), true, new MetadataResolver(index, null, Duration.ZERO), idpPolicy);
+	}
+
+	@AfterEach
+	void tearDown() {
+		artifactStore.close();
+	}
+
+	@Test
+	void rejectsRequesterSigningWithAnotherKey() throws Exception {
+		// 発行先 SP の名前で、その SP のものではない鍵で署名した要求
+		MockHttpServletResponse response = post(signedArtifactResolve(SP_ENTITY_ID, otherSpKeyPair));
+
+		assertEquals(200, response.getStatus());
+		assertNull(artifactResponse(response).getMessage());
+		assertNotNull(artifactStore.take(ARTIFACT, SP_ENTITY_ID), "拒否した要求でアーティファクトが消費されています");
+	}
+
+	@Test
+	void rejectsUnsignedRequest() throws Exception {
+		MockHttpServletResponse response = post(artifactResolve(SP_ENTITY_ID));
+
+		assertNull(artifactResponse(response).getMessage());
+		assertNotNull(artifactStore.take(ARTIFACT, SP_ENTITY_ID));
+	}
+
+	@Test
+	void doesNotResolveArtifactIssuedToAnotherRequester() throws Exception {
+		// 正しく署名された別の SP の要求では、発行先の異なるアーティファクトは解決も消費もされない
+		MockHttpServletResponse response = post(signedArtifactResolve(OTHER_SP_ENTITY_ID, otherSpKeyPair));
+
+		assertEquals(200, response.getStatus());
+		assertNull(artifactResponse(response).getMessage());
+		assertNotNull(artifactStore.take(ARTIFACT, SP_ENTITY_ID));
+	}
+
+	@Test
+	void answersOtherMessageWithClientFault() throws Exception {
+		AuthnRequest authnRequest = OpenSAMLUtils.buildSAMLObject(AuthnRequest.class);
+		authnRequest.setID(OpenSAMLUtils.generateSecureRandomId());
+		authnRequest.setIssueInstant(Instant.now());
+
+		MockHttpServletResponse response = post(authnRequest);
+
+		assertEquals(500, response.getStatus());
+		Fault fault = assertInstanceOf(Fault.class, body(response));
+		assertEquals(FaultCode.CLIENT, fault.getCode().getValue());
+		assertNotNull(artifactStore.take(ARTIFACT, SP_ENTITY_ID));
+	}
+
+	private static EntityMetadata serviceProvider(String entityId, KeyPair keyPair) {
+		List<Credential> credentials = List.of(OpenSAMLTestSupport.credential(keyPair));
+		return new EntityMetadata(entityId, null,
+				new EntityMetadata.ServiceProvider(Map.of(), credentials, credentials));
+	}
+
+	private static ArtifactResolve artifactResolve(String requester) {
+		ArtifactResolve artifactResolve = OpenSAMLUtils.buildSAMLObject(ArtifactResolve.class);
+		Issuer issuer = OpenSAMLUtils.buildSAMLObject(Issuer.class);
+		issuer.setValue(requester);
+		artifactResolve.setIssuer(issuer);
+		artifactResolve.setIssueInstant(Instant.now());
+		artifactResolve.setID(OpenSAMLUtils.generateSecureRandomId());
+		Artifact artifact = OpenSAMLUtils.buildSAMLObject(Artifact.class);
+		artifact.setValue(ARTIFACT);
+		artifactResolve.setArtifact(artifact);
+		return artifactResolve;
+	}
+
+	private static ArtifactResolve signedArtifactResolve(String requester, KeyPair keyPair) throws Exception {
+		ArtifactResolve artifactResolve = artifactResolve(requester);
+		SignatureAlgorithmPolicy policy = new SignatureAlgorithmPolicy(requester,
+				OpenSAMLTestSupport.credential(keyPair), ALGORITHMS, ALGORITHMS, ALGORITHMS);
+		SignatureSupport.signObject(artifactResolve, policy.getSigningParameters());
+		return artifactResolve;
+	}
+
+	/**
+	 * メッセージを SOAP エンベロープに格納して、サーブレットに POST します。
+	 */
+	private MockHttpServletResponse post(SAMLObject message) throws Exception {
+		MessageContext context = new MessageContext();
+		context.setMessage(message);
+		MockHttpServletResponse envelope = new MockHttpServletResponse();
+		HTTPSOAP11Encoder encoder = new HTTPSOAP11Encoder();
+		encoder.setHttpServletResponseSupplier(() -> envelope);
+		encoder.setMessageContext(context);
+		encoder.prepareContext();
+		encoder.initialize();
+		encoder.encode();
+
+		MockHttpServletRequest request = new MockHttpServletRequest("POST", "/idp/artifactResolutionService");
+		request.setContentType("text/xml");
+		request.setContent(envelope.getContentAsByteArray());
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		servlet.doPost(request, response);
+		return response;
+	}
+
+	private static XMLObject body(MockHttpServletResponse response) throws Exception {
+		Envelope envelope = (Envelope) XMLObjectSupport.unmarshallFromInputStream(
+				XMLObjectProviderRegistrySupport.getParserPool(),
+				new ByteArrayInputStream(response.getContentAsByteArray()));
+		return envelope.getBody().getUnknownXMLObjects().get(0);
+	}
+
+	private static ArtifactResponse artifactResponse(MockHttpServletResponse response) throws Exception {
+		return assertInstanceOf(ArtifactResponse.class, body(response));
+	}
+}
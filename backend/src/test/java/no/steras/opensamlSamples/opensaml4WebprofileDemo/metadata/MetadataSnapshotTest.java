@@ -0,0 +1,106 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+
+import javax.crypto.SecretKey;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.opensaml.saml.common.xml.SAMLConstants;
+
+/**
+ * メタデータのスナップショット（書き込み・読み込みと HMAC による改ざん検出）のテスト。
+ */
+class MetadataSnapshotTest {
+	private static final String IDP_ENTITY_ID = "https://idp.example.org";
+	private static final String SP_ENTITY_ID = "https://sp.example.org";
+
+	@TempDir
+	Path directory;
+
+	@Test
+	void readsWhatWasWritten() throws IOException {
+		Path path = directory.resolve("metadata.snapshot");
+		MetadataSnapshot.write(path, index(), "v1", "trust", key(1));
+
+		MetadataSnapshot snapshot = MetadataSnapshot.open(path, key(1));
+		assertEquals(2, snapshot.size());
+		assertEquals("v1", snapshot.getSourceVersion());
+		EntityMetadata idp = snapshot.get(IDP_ENTITY_ID);
+		assertNotNull(idp);
+		assertEquals("https://idp.example.org/sso",
+				idp.identityProvider().getSingleSignOnService(SAMLConstants.SAML2_REDIRECT_BINDING_URI));
+		assertEquals("https://sp.example.org/acs",
+				snapshot.get(SP_ENTITY_ID).serviceProvider().getAssertionConsumerService(SAMLConstants.SAML2_ARTIFACT_BINDING_URI));
+		assertNull(snapshot.get("https://unknown.example.org"));
+	}
+
+	@Test
+	void rejectsTamperedSnapshot() throws IOException {
+		Path path = directory.resolve("metadata.snapshot");
+		MetadataSnapshot.write(path, index(), "v1", "trust", key(1));
+
+		// 先頭の magic とヘッダーを避け、エンドポイントの URL を含むレコードのバイトを書き換える
+		byte[] bytes = Files.readAllBytes(path);
+		int position = new String(bytes, StandardCharsets.ISO_8859_1).indexOf("https://idp.example.org/sso");
+		bytes[position + 8] ^= 0x01;
+		Files.write(path, bytes);
+
+		assertThrows(IllegalStateException.class, () -> MetadataSnapshot.open(path, key(1)));
+	}
+
+	@Test
+	void rejectsSnapshotWrittenWithAnotherKey() throws IOException {
+		Path path = directory.resolve("metadata.snapshot");
+		MetadataSnapshot.write(path, index(), "v1", "trust", key(1));
+
+		assertThrows(IllegalStateException.class, () -> MetadataSnapshot.open(path, key(2)));
+	}
+
+	@Test
+	void rejectsTruncatedSnapshot() throws IOException {
+		Path path = directory.resolve("metadata.snapshot");
+		MetadataSnapshot.write(path, index(), "v1", "trust", key(1));
+		byte[] bytes = Files.readAllBytes(path);
+		Files.write(path, Arrays.copyOf(bytes, bytes.length - 1));
+
+		assertThrows(IllegalStateException.class, () -> MetadataSnapshot.open(path, key(1)));
+	}
+
+	@Test
+	void rejectsShortIntegrityKey() {
+		assertThrows(IllegalStateException.class,
+				() -> MetadataSnapshot.integrityKey(Base64.getEncoder().encodeToString(new byte[16])));
+	}
+
+	private static MetadataIndex index() {
+		EntityMetadata idp = new EntityMetadata(IDP_ENTITY_ID,
+				new EntityMetadata.IdentityProvider(
+						Map.of(SAMLConstants.SAML2_REDIRECT_BINDING_URI, "https://idp.example.org/sso"),
+						"https://idp.example.org/ars", List.of()),
+				null);
+		EntityMetadata sp = new EntityMetadata(SP_ENTITY_ID, null,
+				new EntityMetadata.ServiceProvider(
+						Map.of(SAMLConstants.SAML2_ARTIFACT_BINDING_URI, "https://sp.example.org/acs"), List.of(),
+						List.of()));
+		return new MetadataIndex(List.of(idp, sp), "test");
+	}
+
+	private static SecretKey key(int fill) {
+		byte[] key = new byte[32];
+		Arrays.fill(key, (byte) fill);
+		return MetadataSnapshot.integrityKey(Base64.getEncoder().encodeToString(key));
+	}
+}
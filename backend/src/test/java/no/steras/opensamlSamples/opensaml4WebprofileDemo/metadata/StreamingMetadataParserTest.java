@@ -0,0 +1,125 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyPair;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.apache.xml.security.c14n.Canonicalizer;
+import org.apache.xml.security.signature.XMLSignature;
+import org.apache.xml.security.transforms.Transforms;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.OpenSAMLTestSupport;
+
+/**
+ * メタデータの集約のストリーミング解析（ルート要素の署名検証）のテスト。
+ */
+class StreamingMetadataParserTest {
+	private static final String SSO_LOCATION = "https://idp.example.org/sso";
+
+	private static final String METADATA = "<md:EntitiesDescriptor xmlns:md=\"" + SAMLConstants.SAML20MD_NS
+			+ "\" ID=\"_aggregate\" Name=\"test\">"
+			+ "<md:EntityDescriptor entityID=\"https://idp.example.org\">"
+			+ "<md:IDPSSODescriptor protocolSupportEnumeration=\"" + SAMLConstants.SAML20P_NS + "\">"
+			+ "<md:SingleSignOnService Binding=\"" + SAMLConstants.SAML2_REDIRECT_BINDING_URI + "\" Location=\""
+			+ SSO_LOCATION + "\"/>"
+			+ "</md:IDPSSODescriptor>"
+			+ "</md:EntityDescriptor>"
+			+ "<md:EntityDescriptor entityID=\"https://sp.example.org\">"
+			+ "<md:SPSSODescriptor protocolSupportEnumeration=\"" + SAMLConstants.SAML20P_NS + "\">"
+			+ "<md:AssertionConsumerService Binding=\"" + SAMLConstants.SAML2_ARTIFACT_BINDING_URI
+			+ "\" Location=\"https://sp.example.org/acs\" index=\"0\"/>"
+			+ "</md:SPSSODescriptor>"
+			+ "</md:EntityDescriptor>"
+			+ "</md:EntitiesDescriptor>";
+
+	private static KeyPair signingKeyPair;
+
+	@BeforeAll
+	static void initialize() {
+		OpenSAMLTestSupport.initialize();
+		signingKeyPair = OpenSAMLTestSupport.rsaKeyPair();
+	}
+
+	@Test
+	void parsesSignedAggregate() throws Exception {
+		List<EntityMetadata> entities = parser().parse(stream(sign(METADATA, signingKeyPair)));
+
+		assertEquals(2, entities.size());
+		assertEquals(SSO_LOCATION, entities.get(0).identityProvider()
+				.getSingleSignOnService(SAMLConstants.SAML2_REDIRECT_BINDING_URI));
+	}
+
+	@Test
+	void rejectsTamperedAggregate() throws Exception {
+		// 署名後にエンドポイントを書き換える
+		String tampered = sign(METADATA, signingKeyPair).replace(SSO_LOCATION, "https://attacker.example.org/sso");
+
+		assertThrows(XMLStreamException.class, () -> parser().parse(stream(tampered)));
+	}
+
+	@Test
+	void rejectsAggregateSignedWithAnotherKey() throws Exception {
+		String signed = sign(METADATA, OpenSAMLTestSupport.rsaKeyPair());
+
+		assertThrows(XMLStreamException.class, () -> parser().parse(stream(signed)));
+	}
+
+	@Test
+	void rejectsUnsignedAggregate() {
+		assertThrows(XMLStreamException.class, () -> parser().parse(stream(METADATA)));
+	}
+
+	@Test
+	void parsesUnsignedAggregateWithoutVerificationKey() throws Exception {
+		assertEquals(2, new StreamingMetadataParser(null).parse(stream(METADATA)).size());
+	}
+
+	private static StreamingMetadataParser parser() {
+		return new StreamingMetadataParser(signingKeyPair.getPublic());
+	}
+
+	private static ByteArrayInputStream stream(String xml) {
+		return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * 集約のルート要素にエンベロープ署名（排他的 XML 正規化、RSA-SHA256）を付けます。
+	 */
+	private static String sign(String xml, KeyPair keyPair) throws Exception {
+		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+		factory.setNamespaceAware(true);
+		Document document = factory.newDocumentBuilder().parse(stream(xml));
+		Element root = document.getDocumentElement();
+		root.setIdAttributeNS(null, "ID", true);
+
+		XMLSignature signature = new XMLSignature(document, "", XMLSignature.ALGO_ID_SIGNATURE_RSA_SHA256,
+				Canonicalizer.ALGO_ID_C14N_EXCL_OMIT_COMMENTS);
+		root.insertBefore(signature.getElement(), root.getFirstChild());
+		Transforms transforms = new Transforms(document);
+		transforms.addTransform(Transforms.TRANSFORM_ENVELOPED_SIGNATURE);
+		transforms.addTransform(Transforms.TRANSFORM_C14N_EXCL_OMIT_COMMENTS);
+		signature.addDocument("#" + root.getAttribute("ID"), transforms, SignatureConstants.ALGO_ID_DIGEST_SHA256);
+		signature.sign(keyPair.getPrivate());
+
+		StringWriter writer = new StringWriter();
+		TransformerFactory.newInstance().newTransformer().transform(new DOMSource(document), new StreamResult(writer));
+		return writer.toString();
+	}
+}
@@ -0,0 +1,106 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.replay;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.messaging.handler.MessageHandlerException;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.Conditions;
+import org.opensaml.saml.saml2.core.Issuer;
+
+import net.shibboleth.shared.component.ComponentInitializationException;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.OpenSAMLTestSupport;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.OpenSAMLUtils;
+
+/**
+ * アサーションのリプレイ検出（キャッシュとメッセージハンドラー）のテスト。
+ */
+class AssertionReplaySecurityHandlerTest {
+	private AssertionReplayCache cache;
+	private AssertionReplaySecurityHandler handler;
+
+	@BeforeAll
+	static void initializeOpenSAML() {
+		OpenSAMLTestSupport.initialize();
+	}
+
+	@BeforeEach
+	void setUp() throws ComponentInitializationException {
+		cache = new AssertionReplayCache(Duration.ofMinutes(10), Duration.ofMinutes(1), Duration.ofSeconds(1), 2);
+		handler = new AssertionReplaySecurityHandler(cache);
+		handler.initialize();
+	}
+
+	@AfterEach
+	void tearDown() {
+		cache.close();
+	}
+
+	@Test
+	void rejectsReplayedAssertion() {
+		Assertion assertion = assertion("https://idp.example.org", "_a1", Instant.now().plusSeconds(60));
+
+		assertDoesNotThrow(() -> handler.invoke(context(assertion)));
+		assertThrows(MessageHandlerException.class, () -> handler.invoke(context(assertion)));
+	}
+
+	@Test
+	void separatesIdsByIssuer() {
+		Instant notOnOrAfter = Instant.now().plusSeconds(60);
+
+		assertEquals(AssertionReplayCache.Result.ACCEPTED,
+				cache.checkAndRecord("https://idp1.example.org", "_same", notOnOrAfter));
+		assertEquals(AssertionReplayCache.Result.ACCEPTED,
+				cache.checkAndRecord("https://idp2.example.org", "_same", notOnOrAfter));
+		assertEquals(AssertionReplayCache.Result.REPLAYED,
+				cache.checkAndRecord("https://idp1.example.org", "_same", notOnOrAfter));
+	}
+
+	@Test
+	void rejectsAssertionThatCannotBeRetainedUntilExpiry() {
+		// NotOnOrAfter がない、または保持期間の上限より先のアサーションは、ID を削除した後にリプレイされ得る
+		assertThrows(MessageHandlerException.class,
+				() -> handler.invoke(context(assertion("https://idp.example.org", "_a2", null))));
+		assertThrows(MessageHandlerException.class, () -> handler
+				.invoke(context(assertion("https://idp.example.org", "_a3", Instant.now().plus(Duration.ofHours(1))))));
+	}
+
+	@Test
+	void failsClosedWhenFull() {
+		Instant notOnOrAfter = Instant.now().plusSeconds(60);
+		cache.checkAndRecord("https://idp.example.org", "_1", notOnOrAfter);
+		cache.checkAndRecord("https://idp.example.org", "_2", notOnOrAfter);
+
+		assertEquals(AssertionReplayCache.Result.OVERFLOW,
+				cache.checkAndRecord("https://idp.example.org", "_3", notOnOrAfter));
+	}
+
+	private static Assertion assertion(String issuerValue, String id, Instant notOnOrAfter) {
+		Assertion assertion = OpenSAMLUtils.buildSAMLObject(Assertion.class);
+		assertion.setID(id);
+		Issuer issuer = OpenSAMLUtils.buildSAMLObject(Issuer.class);
+		issuer.setValue(issuerValue);
+		assertion.setIssuer(issuer);
+		if (notOnOrAfter != null) {
+			Conditions conditions = OpenSAMLUtils.buildSAMLObject(Conditions.class);
+			conditions.setNotOnOrAfter(notOnOrAfter);
+			assertion.setConditions(conditions);
+		}
+		return assertion;
+	}
+
+	private static MessageContext context(Assertion assertion) {
+		MessageContext context = new MessageContext();
+		context.setMessage(assertion);
+		return context;
+	}
+}
@@ -0,0 +1,124 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.session;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import jakarta.servlet.http.Cookie;
+
+/**
+ * 暗号化クッキーのセッション（改ざん検出・鍵のローテーション・複数の Cookie ヘッダー）のテスト。
+ */
+class CookieSessionStoreTest {
+	private static final String OLD_KEY = "1=" + key(1);
+	private static final String NEW_KEY = "2=" + key(2);
+
+	@Test
+	void acceptsTokenItIssued() {
+		CookieSessionStore store = store(List.of(OLD_KEY));
+		String token = authenticatedToken(store);
+
+		assertTrue(store.isAuthenticated(requestWithCookie(token), new MockHttpServletResponse()));
+	}
+
+	@Test
+	void rejectsTamperedToken() {
+		CookieSessionStore store = store(List.of(OLD_KEY));
+		String token = authenticatedToken(store);
+		// 暗号文の 1 文字を書き換える（認証タグが一致しなくなる）
+		int index = token.length() / 2;
+		char replaced = token.charAt(index) == 'A' ? 'B' : 'A';
+		String tampered = token.substring(0, index) + replaced + token.substring(index + 1);
+
+		assertFalse(store.isAuthenticated(requestWithCookie(tampered), new MockHttpServletResponse()));
+	}
+
+	@Test
+	void rejectsPendingLoginTokenAsAuthenticated() {
+		CookieSessionStore store = store(List.of(OLD_KEY));
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		store.startLogin(new MockHttpServletRequest(), response, "/app", "_request");
+		String token = response.getCookie(CookieSessionStore.COOKIE_NAME).getValue();
+
+		assertFalse(store.isAuthenticated(requestWithCookie(token), new MockHttpServletResponse()));
+		SPSessionStore.PendingLogin pendingLogin = store.getPendingLogin(requestWithCookie(token));
+		assertNotNull(pendingLogin);
+		assertEquals("_request", pendingLogin.authnRequestId());
+	}
+
+	@Test
+	void reissuesTokenOfRotatedKeyWithActiveKey() {
+		String token = authenticatedToken(store(List.of(OLD_KEY)));
+		CookieSessionStore rotated = store(List.of(NEW_KEY, OLD_KEY));
+
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		assertTrue(rotated.isAuthenticated(requestWithCookie(token), response));
+		Cookie reissued = response.getCookie(CookieSessionStore.COOKIE_NAME);
+		assertNotNull(reissued);
+		assertNotEquals(token, reissued.getValue());
+		// 再発行したトークンは旧い鍵を削除した後も有効
+		assertTrue(store(List.of(NEW_KEY)).isAuthenticated(requestWithCookie(reissued.getValue()),
+				new MockHttpServletResponse()));
+	}
+
+	@Test
+	void rejectsTokenOfRemovedKey() {
+		String token = authenticatedToken(store(List.of(OLD_KEY)));
+
+		assertFalse(store(List.of(NEW_KEY)).isAuthenticated(requestWithCookie(token), new MockHttpServletResponse()));
+	}
+
+	@Test
+	void findsCookieInLaterCookieHeader() {
+		CookieSessionStore store = store(List.of(OLD_KEY));
+		String token = authenticatedToken(store);
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addHeader("Cookie", "theme=dark");
+		request.addHeader("Cookie", "lang=ja; " + CookieSessionStore.COOKIE_NAME + "=" + token);
+
+		assertTrue(store.isAuthenticated(request, new MockHttpServletResponse()));
+	}
+
+	@Test
+	void treatsMissingCookieAsUnauthenticated() {
+		CookieSessionStore store = store(List.of(OLD_KEY));
+
+		assertFalse(store.isAuthenticated(new MockHttpServletRequest(), new MockHttpServletResponse()));
+		assertNull(store.getPendingLogin(new MockHttpServletRequest()));
+	}
+
+	private static CookieSessionStore store(List<String> keys) {
+		return new CookieSessionStore(new SessionKeyRing(keys), Duration.ofHours(1), Duration.ofMinutes(5), true, "Lax",
+				4);
+	}
+
+	private static String authenticatedToken(CookieSessionStore store) {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		store.completeLogin(new MockHttpServletRequest(), response);
+		return response.getCookie(CookieSessionStore.COOKIE_NAME).getValue();
+	}
+
+	private static MockHttpServletRequest requestWithCookie(String token) {
+		MockHttpServletRequest request = new MockHttpServletRequest();
+		request.addHeader("Cookie", CookieSessionStore.COOKIE_NAME + "=" + token);
+		return request;
+	}
+
+	private static String key(int fill) {
+		byte[] key = new byte[32];
+		Arrays.fill(key, (byte) fill);
+		return Base64.getEncoder().encodeToString(key);
+	}
+}
@@ -0,0 +1,65 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.benchmark;
+
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Element;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.AssertionIssuer;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact.ArtifactEntry;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.encryption.EncryptionProfileRegistry;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.encryption.EncryptionSuite;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.template.RelyingPartyTemplates;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metrics.SsoFlowMetrics;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.SPConstants;
+
+/**
+ * IdP の ArtifactResponse 構築コスト（{@code ArtifactResolutionServlet.buildArtifactResponse} と同じ処理）。
+ *
+ * - build: テンプレートからの ArtifactResponse とアサーションの DOM の生成のみ
+ * - buildSignEncrypt: {@link AssertionIssuer} による生成 + DOM への署名 + SP の暗号化プロファイル（既定設定）による暗号化
+ *
+ * 2 つの差分が署名・暗号化のコストです（署名のみのコストは {@link SignatureBenchmark} を参照）。
+ * どちらも XMLObject へのアンマーシャリングは行いません。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ArtifactResolutionBenchmark {
+	private RelyingPartyTemplates templates;
+	private AssertionIssuer assertionIssuer;
+	private ArtifactEntry entry;
+
+	@Setup
+	public void setUp() {
+		BenchmarkSupport.initialize();
+		templates = BenchmarkSupport.artifactResponseTemplates();
+		assertionIssuer = new AssertionIssuer(BenchmarkSupport.idpSignaturePolicy(),
+				new EncryptionProfileRegistry(EncryptionSuite.AES128_GCM_RSA_OAEP, Map.of()), new SsoFlowMetrics());
+		entry = new ArtifactEntry(SPConstants.SP_ENTITY_ID, "bob", Instant.now());
+	}
+
+	@Benchmark
+	public Element build() {
+		return templates.newArtifactResponseElement("_request", templates.newAssertionElement(entry));
+	}
+
+	@Benchmark
+	public Element buildSignEncrypt() {
+		return templates.newArtifactResponseElement("_request", assertionIssuer.issue(templates, entry));
+	}
+}
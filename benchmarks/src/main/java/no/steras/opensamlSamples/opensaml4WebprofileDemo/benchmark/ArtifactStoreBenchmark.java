@@ -0,0 +1,80 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.benchmark;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact.ArtifactEntry;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact.ArtifactIssuer;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact.ArtifactStore;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact.InMemoryArtifactStore;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact.RedisArtifactStore;
+
+/**
+ * アーティファクトの発行（保存）と解決（取り出し）の往復のコスト。
+ *
+ * - memory: {@link InMemoryArtifactStore}
+ * - redis: {@link RedisArtifactStore} + ループバックの {@link LocalRespServer}
+ *
+ * 複数スレッドで実行するため、redis では同時に発行されたコマンドが 1 回の往復にまとめられます。
+ * 実際の Redis との比較にはネットワークの往復時間が加わります。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(16)
+@Fork(1)
+public class ArtifactStoreBenchmark {
+	@Param({ "memory", "redis" })
+	public String store;
+
+	private LocalRespServer server;
+	private ArtifactStore artifactStore;
+	private ArtifactIssuer artifactIssuer;
+	private ArtifactEntry entry;
+
+	@Setup
+	public void setUp() throws IOException {
+		Duration timeToLive = Duration.ofSeconds(60);
+		artifactStore = switch (store) {
+		case "memory" -> new InMemoryArtifactStore(timeToLive, Duration.ofSeconds(1), 1_000_000, 64);
+		case "redis" -> {
+			server = new LocalRespServer();
+			yield new RedisArtifactStore(server.getHost(), server.getPort(), null, timeToLive, Duration.ofSeconds(5), 4, 128);
+		}
+		default -> throw new IllegalArgumentException(store);
+		};
+		artifactIssuer = new ArtifactIssuer("TestIDP", artifactStore);
+		entry = new ArtifactEntry("TestSP", "bob", Instant.now());
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		artifactStore.close();
+		if (server != null) {
+			server.close();
+		}
+	}
+
+	@Benchmark
+	public ArtifactEntry issueAndResolve() {
+		return artifactStore.take(artifactIssuer.issue(entry), entry.relyingPartyId());
+	}
+}
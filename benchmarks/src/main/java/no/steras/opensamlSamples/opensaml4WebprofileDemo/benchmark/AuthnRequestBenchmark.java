@@ -0,0 +1,149 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.benchmark;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.messaging.encoder.MessageEncodingException;
+import org.opensaml.saml.common.messaging.context.SAMLBindingContext;
+import org.opensaml.saml.common.messaging.context.SAMLEndpointContext;
+import org.opensaml.saml.common.messaging.context.SAMLPeerEntityContext;
+import org.opensaml.saml.common.xml.SAMLConstants;
+import org.opensaml.saml.saml2.binding.encoding.impl.HTTPRedirectDeflateEncoder;
+import org.opensaml.saml.saml2.core.AuthnContext;
+import org.opensaml.saml.saml2.core.AuthnContextClassRef;
+import org.opensaml.saml.saml2.core.AuthnContextComparisonTypeEnumeration;
+import org.opensaml.saml.saml2.core.AuthnRequest;
+import org.opensaml.saml.saml2.core.Issuer;
+import org.opensaml.saml.saml2.core.NameIDPolicy;
+import org.opensaml.saml.saml2.core.NameIDType;
+import org.opensaml.saml.saml2.core.RequestedAuthnContext;
+import org.opensaml.saml.saml2.metadata.SingleSignOnService;
+import org.opensaml.xmlsec.context.SecurityParametersContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import net.shibboleth.shared.component.ComponentInitializationException;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.OpenSAMLUtils;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.IDPConstants;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.security.SignatureAlgorithmPolicy;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.RedirectAuthnRequestEncoder;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.SPConstants;
+
+/**
+ * SP の AuthnRequest 送信コスト（{@code AccessFilter.redirectUserWithRequest} と同じ処理）。
+ *
+ * - build: AuthnRequest のオブジェクトツリーの構築のみ
+ * - buildAndEncode: 構築 + HTTP-Redirect バインディングのエンコード（マーシャリング・deflate・Base64・
+ *   クエリ文字列への署名）。リダイレクト先はモックのレスポンスに書き込まれます。
+ * - streamingEncode: {@link RedirectAuthnRequestEncoder} によるエンコード（テンプレートから直接 deflate し、
+ *   オブジェクトツリーと DOM を構築しない）。buildAndEncode と同じ内容の URL を生成します。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AuthnRequestBenchmark {
+	private SignatureAlgorithmPolicy signaturePolicy;
+	private RedirectAuthnRequestEncoder streamingEncoder;
+
+	@Setup
+	public void setUp() {
+		BenchmarkSupport.initialize();
+		signaturePolicy = BenchmarkSupport.spSignaturePolicy();
+		streamingEncoder = new RedirectAuthnRequestEncoder(AuthnRequestBenchmark::buildAuthnRequest, signaturePolicy);
+		if (streamingEncode() == null) {
+			throw new IllegalStateException("AuthnRequest のテンプレートを使用できません: " + IDPConstants.SSO_SERVICE);
+		}
+	}
+
+	@Benchmark
+	public AuthnRequest build() {
+		return buildAuthnRequest();
+	}
+
+	@Benchmark
+	public String streamingEncode() {
+		return streamingEncoder.encode(IDPConstants.SSO_SERVICE, "teststate", OpenSAMLUtils.generateSecureRandomId(),
+				Instant.now());
+	}
+
+	@Benchmark
+	public String buildAndEncode() throws ComponentInitializationException, MessageEncodingException {
+		return encodeWithOpenSAML(buildAuthnRequest(), "teststate", signaturePolicy);
+	}
+
+	/**
+	 * OpenSAML の HTTPRedirectDeflateEncoder で AuthnRequest をリダイレクト URL にエンコードします。
+	 *
+	 * @param relayState RelayState（ない場合は null）
+	 */
+	static String encodeWithOpenSAML(AuthnRequest authnRequest, String relayState,
+			SignatureAlgorithmPolicy signaturePolicy) throws ComponentInitializationException, MessageEncodingException {
+		MessageContext context = new MessageContext();
+		context.setMessage(authnRequest);
+		if (relayState != null) {
+			context.getSubcontext(SAMLBindingContext.class, true).setRelayState(relayState);
+		}
+
+		SingleSignOnService endpoint = OpenSAMLUtils.buildSAMLObject(SingleSignOnService.class);
+		endpoint.setBinding(SAMLConstants.SAML2_REDIRECT_BINDING_URI);
+		endpoint.setLocation(authnRequest.getDestination());
+		context.getSubcontext(SAMLPeerEntityContext.class, true).getSubcontext(SAMLEndpointContext.class, true)
+				.setEndpoint(endpoint);
+		context.getSubcontext(SecurityParametersContext.class, true)
+				.setSignatureSigningParameters(signaturePolicy.getSigningParameters());
+
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		HTTPRedirectDeflateEncoder encoder = new HTTPRedirectDeflateEncoder();
+		encoder.setHttpServletResponseSupplier(() -> response);
+		encoder.setMessageContext(context);
+		encoder.initialize();
+		encoder.encode();
+		return response.getRedirectedUrl();
+	}
+
+	private static AuthnRequest buildAuthnRequest() {
+		return buildAuthnRequest(IDPConstants.SSO_SERVICE, OpenSAMLUtils.generateSecureRandomId(), Instant.now());
+	}
+
+	/**
+	 * AccessFilter と同じ内容の AuthnRequest を構築します（{@link RedirectAuthnRequestEncoder} のテンプレートにも使用）。
+	 */
+	static AuthnRequest buildAuthnRequest(String destination, String id, Instant issueInstant) {
+		AuthnRequest authnRequest = OpenSAMLUtils.buildSAMLObject(AuthnRequest.class);
+		authnRequest.setIssueInstant(issueInstant);
+		authnRequest.setDestination(destination);
+		authnRequest.setProtocolBinding(SAMLConstants.SAML2_ARTIFACT_BINDING_URI);
+		authnRequest.setAssertionConsumerServiceURL(SPConstants.ASSERTION_CONSUMER_SERVICE);
+		authnRequest.setID(id);
+
+		Issuer issuer = OpenSAMLUtils.buildSAMLObject(Issuer.class);
+		issuer.setValue(SPConstants.SP_ENTITY_ID);
+		authnRequest.setIssuer(issuer);
+
+		NameIDPolicy nameIDPolicy = OpenSAMLUtils.buildSAMLObject(NameIDPolicy.class);
+		nameIDPolicy.setAllowCreate(true);
+		nameIDPolicy.setFormat(NameIDType.TRANSIENT);
+		authnRequest.setNameIDPolicy(nameIDPolicy);
+
+		RequestedAuthnContext requestedAuthnContext = OpenSAMLUtils.buildSAMLObject(RequestedAuthnContext.class);
+		requestedAuthnContext.setComparison(AuthnContextComparisonTypeEnumeration.MINIMUM);
+		AuthnContextClassRef classRef = OpenSAMLUtils.buildSAMLObject(AuthnContextClassRef.class);
+		classRef.setURI(AuthnContext.PASSWORD_AUTHN_CTX);
+		requestedAuthnContext.getAuthnContextClassRefs().add(classRef);
+		authnRequest.setRequestedAuthnContext(requestedAuthnContext);
+		return authnRequest;
+	}
+}
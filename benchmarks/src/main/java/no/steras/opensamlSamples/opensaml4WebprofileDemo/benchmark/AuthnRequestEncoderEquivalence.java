@@ -0,0 +1,155 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Signature;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.IDPConstants;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.security.SignatureAlgorithmPolicy;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.RedirectAuthnRequestEncoder;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.SPCredentials;
+
+/**
+ * {@link RedirectAuthnRequestEncoder} と OpenSAML の HTTPRedirectDeflateEncoder が同じリダイレクト URL を生成することの確認。
+ *
+ * 固定の ID・発行日時（ミリ秒が 0 の日時、マイクロ秒を含む日時を含む）・RelayState（あり / なし）の組み合わせを、
+ * SP が署名に使用できる方式ごとにエンコードし、次の点を比較します。
+ * 1. SAMLRequest を inflate した XML が一致する
+ * 2. 署名対象のクエリ文字列（SAMLRequest / RelayState / SigAlg）が一致する
+ * 3. どちらの Signature も SP の公開鍵で検証できる（ECDSA など署名値が毎回変わる方式でも比較できるよう、署名値は比較しない）
+ *
+ * 入力は固定のため、結果は毎回同じです。一致しない場合は例外で終了するため、benchmarks のビルド（test フェーズ）が失敗します。
+ *
+ * 使い方: java -cp target/benchmarks.jar no.steras.opensamlSamples.opensaml4WebprofileDemo.benchmark.AuthnRequestEncoderEquivalence
+ */
+public class AuthnRequestEncoderEquivalence {
+	private static final List<String> IDS = List.of("_0123456789abcdef0123456789abcdef", "_a",
+			"_f81d4fae7dec11d0a76500a0c91e6bf6f81d4fae7dec11d0a765");
+	private static final List<Instant> INSTANTS = List.of(
+			Instant.parse("2024-01-01T00:00:00Z"),
+			Instant.parse("2024-02-29T12:34:56.100Z"),
+			Instant.parse("2024-06-30T23:59:59.999Z"),
+			Instant.parse("2025-03-04T05:06:07.000Z"),
+			Instant.parse("2025-03-04T05:06:07.123456Z"));
+	// null は RelayState なし
+	private static final List<String> RELAY_STATES = Arrays.asList(null, "teststate", "/app/page?x=1&y=日本語 ~*");
+
+	public static void main(String[] args) throws Exception {
+		BenchmarkSupport.initialize();
+		String destination = IDPConstants.SSO_SERVICE;
+		List<String> mismatches = new ArrayList<>();
+		int cases = 0;
+
+		for (String algorithm : BenchmarkSupport.spSigningAlgorithms()) {
+			SignatureAlgorithmPolicy policy = BenchmarkSupport.spSignaturePolicy(algorithm);
+			RedirectAuthnRequestEncoder encoder = new RedirectAuthnRequestEncoder(AuthnRequestBenchmark::buildAuthnRequest,
+					policy);
+			for (String id : IDS) {
+				for (Instant issueInstant : INSTANTS) {
+					for (String relayState : RELAY_STATES) {
+						cases++;
+						String label = algorithm + " / " + id + " / " + issueInstant + " / RelayState=" + relayState;
+						String streaming = encoder.encode(destination, relayState, id, issueInstant);
+						if (streaming == null) {
+							mismatches.add(label + ": テンプレートを使用できません");
+							continue;
+						}
+						String reference = AuthnRequestBenchmark.encodeWithOpenSAML(
+								AuthnRequestBenchmark.buildAuthnRequest(destination, id, issueInstant), relayState, policy);
+						String difference = compare(streaming, reference, policy);
+						if (difference != null) {
+							mismatches.add(label + ": " + difference);
+						}
+					}
+				}
+			}
+		}
+
+		if (!mismatches.isEmpty()) {
+			mismatches.forEach(System.err::println);
+			throw new IllegalStateException("RedirectAuthnRequestEncoder の出力が HTTPRedirectDeflateEncoder と一致しません ("
+					+ mismatches.size() + " / " + cases + " 件)");
+		}
+		System.out.println("RedirectAuthnRequestEncoder の出力は HTTPRedirectDeflateEncoder と一致しました (" + cases + " 件)");
+	}
+
+	/**
+	 * 2 つのリダイレクト URL を比較します。
+	 *
+	 * @return 一致する場合は null、一致しない場合はその内容
+	 */
+	private static String compare(String streaming, String reference, SignatureAlgorithmPolicy policy)
+			throws IOException, GeneralSecurityException {
+		String streamingSigned = signedPart(streaming);
+		String referenceSigned = signedPart(reference);
+		if (streamingSigned == null || referenceSigned == null) {
+			return "Signature がありません";
+		}
+
+		byte[] streamingXml = inflate(parameters(streaming).get("SAMLRequest"));
+		byte[] referenceXml = inflate(parameters(reference).get("SAMLRequest"));
+		if (!Arrays.equals(streamingXml, referenceXml)) {
+			return "inflate した XML が一致しません\n  streaming: " + new String(streamingXml, StandardCharsets.UTF_8)
+					+ "\n  opensaml:  " + new String(referenceXml, StandardCharsets.UTF_8);
+		}
+		if (!streamingSigned.equals(referenceSigned)) {
+			return "署名対象のクエリ文字列が一致しません\n  streaming: " + streamingSigned + "\n  opensaml:  " + referenceSigned;
+		}
+		if (!verify(streaming, policy)) {
+			return "RedirectAuthnRequestEncoder の Signature を検証できません";
+		}
+		if (!verify(reference, policy)) {
+			return "HTTPRedirectDeflateEncoder の Signature を検証できません";
+		}
+		return null;
+	}
+
+	/**
+	 * 署名対象のクエリ文字列（"?" の後から "&amp;Signature=" の前まで）を返します。
+	 */
+	private static String signedPart(String url) {
+		int start = url.indexOf('?') + 1;
+		int end = url.indexOf("&Signature=");
+		return start > 0 && end > start ? url.substring(start, end) : null;
+	}
+
+	private static boolean verify(String url, SignatureAlgorithmPolicy policy) throws GeneralSecurityException {
+		Signature verifier = Signature.getInstance(policy.getJcaAlgorithm());
+		verifier.initVerify(SPCredentials.getCredential().getPublicKey());
+		verifier.update(signedPart(url).getBytes(StandardCharsets.US_ASCII));
+		return verifier.verify(Base64.getDecoder().decode(parameters(url).get("Signature")));
+	}
+
+	private static Map<String, String> parameters(String url) {
+		Map<String, String> parameters = new HashMap<>();
+		for (String parameter : url.substring(url.indexOf('?') + 1).split("&")) {
+			int separator = parameter.indexOf('=');
+			parameters.put(parameter.substring(0, separator),
+					URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8));
+		}
+		return parameters;
+	}
+
+	private static byte[] inflate(String samlRequest) throws IOException {
+		byte[] deflated = Base64.getDecoder().decode(samlRequest);
+		Inflater inflater = new Inflater(true);
+		try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(deflated), inflater)) {
+			return in.readAllBytes();
+		} finally {
+			inflater.end();
+		}
+	}
+}
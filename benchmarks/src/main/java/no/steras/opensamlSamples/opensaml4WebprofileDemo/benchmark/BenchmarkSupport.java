@@ -0,0 +1,163 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.benchmark;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.opensaml.core.config.ConfigurationService;
+import org.opensaml.core.config.InitializationException;
+import org.opensaml.core.config.InitializationService;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistry;
+import org.opensaml.saml.common.xml.SAMLConstants;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.IDPConstants;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.IDPCredentials;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.template.RelyingPartyTemplates;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.template.ResponseTemplateRegistry;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata.LocalMetadata;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata.MetadataResolver;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.security.SignatureAlgorithmPolicy;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.security.SigningKeyType;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.SPConstants;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.SPCredentials;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.xml.SharedParserPool;
+
+/**
+ * ベンチマーク共通の初期化処理。
+ * Spring を起動せずに、アプリケーションと同じ状態（定数・OpenSAML・共有パーサープール）を用意します。
+ */
+public final class BenchmarkSupport {
+	public static final String BASE_URL = "http://localhost:8080";
+
+	// ${環境変数名:既定値} 形式のプレースホルダー
+	private static final Pattern PLACEHOLDER = Pattern.compile("\\$\\{([^:}]+):([^}]*)}");
+
+	// backend の application.properties（クラスパス上の backend の JAR に含まれる）
+	private static final Properties APPLICATION_PROPERTIES = loadApplicationProperties();
+
+	// アプリケーションと同じ署名方式（application.properties の値。環境変数で上書きした場合はその値）
+	private static final List<String> IDP_SIGNING_ALGORITHMS = listProperty("app.idp.signing.algorithms");
+	private static final List<String> IDP_ACCEPTED_ALGORITHMS = listProperty("app.idp.signing.accepted-algorithms");
+	private static final List<String> SP_SIGNING_ALGORITHMS = listProperty("app.sp.signing.algorithms");
+	private static final List<String> SP_ACCEPTED_ALGORITHMS = listProperty("app.sp.signing.accepted-algorithms");
+
+	private static SharedParserPool parserPool;
+
+	private BenchmarkSupport() {
+	}
+
+	/**
+	 * OpenSAML を初期化し、アプリケーションと同じ共有パーサープールを登録します（複数回呼び出しても一度だけ実行）。
+	 */
+	public static synchronized SharedParserPool initialize() {
+		if (parserPool != null) {
+			return parserPool;
+		}
+
+		// Spring の @PostConstruct の代わりに定数を直接設定
+		SPConstants.SP_ENTITY_ID = "TestSP";
+		SPConstants.ASSERTION_CONSUMER_SERVICE = BASE_URL + "/opensaml5-webprofile-demo/sp/consumer";
+		IDPConstants.IDP_ENTITY_ID = "TestIDP";
+		IDPConstants.SSO_SERVICE = BASE_URL + "/opensaml5-webprofile-demo/idp/singleSignOnService";
+		IDPConstants.ARTIFACT_RESOLUTION_SERVICE = BASE_URL + "/opensaml5-webprofile-demo/idp/artifactResolutionService";
+		IDPConstants.SIGNING_KEY_TYPE = SigningKeyType
+				.valueOf(property("app.idp.signing.key-type").trim().toUpperCase(Locale.ROOT));
+
+		try {
+			InitializationService.initialize();
+		} catch (InitializationException e) {
+			throw new RuntimeException("OpenSAML の初期化に失敗しました", e);
+		}
+
+		// AccessFilter と同様に、初期化後に共有パーサープールを登録
+		parserPool = new SharedParserPool(100);
+		ConfigurationService.get(XMLObjectProviderRegistry.class).setParserPool(parserPool);
+		return parserPool;
+	}
+
+	/**
+	 * アプリケーションと同じくローカルのメタデータから ACS を解決した、SP の HTTP-Artifact バインディング向けの
+	 * レスポンステンプレートを構築します（{@link #initialize()} の後に呼び出すこと）。
+	 */
+	public static RelyingPartyTemplates artifactResponseTemplates() {
+		MetadataResolver metadataResolver = new MetadataResolver(LocalMetadata.build(), null, Duration.ZERO);
+		return new ResponseTemplateRegistry(metadataResolver).forRelyingParty(SPConstants.SP_ENTITY_ID,
+				SAMLConstants.SAML2_ARTIFACT_BINDING_URI);
+	}
+
+	/**
+	 * アプリケーションの既定設定と同じ IdP の署名ポリシーを構築します（{@link #initialize()} の後に呼び出すこと）。
+	 */
+	public static SignatureAlgorithmPolicy idpSignaturePolicy() {
+		return new SignatureAlgorithmPolicy("IdP", IDPCredentials.getCredential(), IDP_SIGNING_ALGORITHMS,
+				IDP_ACCEPTED_ALGORITHMS, SP_ACCEPTED_ALGORITHMS);
+	}
+
+	/**
+	 * アプリケーションの既定設定と同じ SP の署名ポリシーを構築します（{@link #initialize()} の後に呼び出すこと）。
+	 */
+	public static SignatureAlgorithmPolicy spSignaturePolicy() {
+		return new SignatureAlgorithmPolicy("SP", SPCredentials.getCredential(), SP_SIGNING_ALGORITHMS,
+				SP_ACCEPTED_ALGORITHMS, IDP_ACCEPTED_ALGORITHMS);
+	}
+
+	/**
+	 * SP の署名方式を 1 つに固定した署名ポリシーを構築します（{@link #initialize()} の後に呼び出すこと）。
+	 *
+	 * @param algorithm {@link #spSigningAlgorithms()} のいずれか
+	 */
+	public static SignatureAlgorithmPolicy spSignaturePolicy(String algorithm) {
+		return new SignatureAlgorithmPolicy("SP", SPCredentials.getCredential(), List.of(algorithm),
+				SP_ACCEPTED_ALGORITHMS, IDP_ACCEPTED_ALGORITHMS);
+	}
+
+	/** アプリケーションの既定設定で SP が署名に使用できる方式 */
+	public static List<String> spSigningAlgorithms() {
+		return SP_SIGNING_ALGORITHMS;
+	}
+
+	/**
+	 * application.properties の値を、Spring と同じく ${環境変数名:既定値} のプレースホルダーを解決して取得します。
+	 */
+	private static String property(String name) {
+		String value = APPLICATION_PROPERTIES.getProperty(name);
+		if (value == null) {
+			throw new IllegalStateException("application.properties に " + name + " がありません");
+		}
+		Matcher matcher = PLACEHOLDER.matcher(value);
+		if (!matcher.matches()) {
+			return value;
+		}
+		String environment = System.getenv(matcher.group(1));
+		return environment != null ? environment : matcher.group(2);
+	}
+
+	/**
+	 * カンマ区切りの値をリストとして取得します。
+	 */
+	private static List<String> listProperty(String name) {
+		return Arrays.stream(property(name).split(",")).map(String::trim).filter(value -> !value.isEmpty()).toList();
+	}
+
+	private static Properties loadApplicationProperties() {
+		try (InputStream in = BenchmarkSupport.class.getResourceAsStream("/application.properties")) {
+			if (in == null) {
+				throw new IllegalStateException("クラスパスに backend の application.properties がありません");
+			}
+			Properties properties = new Properties();
+			properties.load(new InputStreamReader(in, StandardCharsets.UTF_8));
+			return properties;
+		} catch (IOException e) {
+			throw new UncheckedIOException("application.properties を読み込めません", e);
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.benchmark;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.EncryptedAssertion;
+import org.opensaml.saml.security.impl.SAMLSignatureProfileValidator;
+import org.opensaml.xmlsec.SignatureSigningParameters;
+import org.opensaml.xmlsec.encryption.support.DecryptionException;
+import org.opensaml.xmlsec.signature.Signature;
+import org.opensaml.xmlsec.signature.support.SignatureException;
+import org.opensaml.xmlsec.signature.support.SignatureValidator;
+import org.opensaml.xmlsec.signature.support.Signer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.OpenSAMLUtils;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.IDPCredentials;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact.ArtifactEntry;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.encryption.EncryptionProfile;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.encryption.EncryptionSuite;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.template.RelyingPartyTemplates;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.security.SignatureAlgorithmPolicy;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.AssertionDecryptionService;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.SPConstants;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.SPCredentials;
+
+/**
+ * SP の ACS でのアサーション処理コスト（{@code ConsumerServlet} の復号・署名検証と同じ処理）。
+ *
+ * - decrypt: EncryptedAssertion の復号（共有の復号サービス）
+ * - verify: 署名のプロファイル検証 + 受け入れ方式の確認 + IdP の公開鍵による署名検証
+ * - decryptAndVerify: 復号した直後のアサーションの署名検証（ACS での実際の順序）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConsumeAssertionBenchmark {
+	private AssertionDecryptionService decryptionService;
+	private SignatureAlgorithmPolicy spSignaturePolicy;
+	private EncryptedAssertion encryptedAssertion;
+	private Assertion signedAssertion;
+
+	@Setup
+	public void setUp() throws MarshallingException, SignatureException {
+		BenchmarkSupport.initialize();
+		decryptionService = new AssertionDecryptionService(SPCredentials.getCredential(),
+				SPCredentials.getKeyAgreementCredential());
+		spSignaturePolicy = BenchmarkSupport.spSignaturePolicy();
+
+		// IdP と同じ手順で署名・暗号化したアサーションを用意する
+		RelyingPartyTemplates templates = BenchmarkSupport.artifactResponseTemplates();
+		signedAssertion = templates.newAssertion(new ArtifactEntry(SPConstants.SP_ENTITY_ID, "bob", Instant.now()));
+		SignatureSigningParameters parameters = BenchmarkSupport.idpSignaturePolicy().getSigningParameters();
+		Signature signature = OpenSAMLUtils.buildSAMLObject(Signature.class);
+		signature.setSigningCredential(parameters.getSigningCredential());
+		signature.setSignatureAlgorithm(parameters.getSignatureAlgorithm());
+		signature.setCanonicalizationAlgorithm(parameters.getSignatureCanonicalizationAlgorithm());
+		signedAssertion.setSignature(signature);
+		OpenSAMLUtils.marshall(signedAssertion);
+		Signer.signObject(signature);
+
+		encryptedAssertion = new EncryptionProfile(EncryptionSuite.AES128_GCM_RSA_OAEP, SPCredentials.getCredential(),
+				SPCredentials.getKeyAgreementCredential()).encrypt(signedAssertion);
+	}
+
+	@Benchmark
+	public Assertion decrypt() throws DecryptionException {
+		return decryptionService.decrypt(encryptedAssertion);
+	}
+
+	@Benchmark
+	public Assertion verify() throws SignatureException {
+		return verify(signedAssertion);
+	}
+
+	@Benchmark
+	public Assertion decryptAndVerify() throws DecryptionException, SignatureException {
+		return verify(decryptionService.decrypt(encryptedAssertion));
+	}
+
+	private Assertion verify(Assertion assertion) throws SignatureException {
+		new SAMLSignatureProfileValidator().validate(assertion.getSignature());
+		spSignaturePolicy.requireAccepted(assertion.getSignature());
+		SignatureValidator.validate(assertion.getSignature(), IDPCredentials.getCredential());
+		return assertion;
+	}
+}
@@ -0,0 +1,86 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.benchmark;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.xml.security.utils.EncryptionConstants;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.EncryptedAssertion;
+import org.opensaml.saml.saml2.encryption.Decrypter;
+import org.opensaml.saml.saml2.encryption.Encrypter;
+import org.opensaml.xmlsec.encryption.support.DataEncryptionParameters;
+import org.opensaml.xmlsec.encryption.support.DecryptionException;
+import org.opensaml.xmlsec.encryption.support.EncryptionException;
+import org.opensaml.xmlsec.encryption.support.InlineEncryptedKeyResolver;
+import org.opensaml.xmlsec.encryption.support.KeyEncryptionParameters;
+import org.opensaml.xmlsec.keyinfo.impl.StaticKeyInfoCredentialResolver;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.IDPConstants;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact.ArtifactEntry;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.template.RelyingPartyTemplates;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.AssertionDecryptionService;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.SPConstants;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.SPCredentials;
+
+/**
+ * SP での EncryptedAssertion 復号コストの比較。
+ *
+ * - openSAMLDecrypter: 従来どおりログインごとにリゾルバと Decrypter を構築して復号する
+ * - decryptionService: 起動時に構築したリゾルバと Decrypter を共有する復号サービス
+ *
+ * アプリケーションでの復号の所要時間は {@code saml.sp.decrypt} メトリクスで確認できます。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecryptionBenchmark {
+	private EncryptedAssertion encryptedAssertion;
+	private AssertionDecryptionService decryptionService;
+
+	@Setup
+	public void setUp() throws EncryptionException {
+		BenchmarkSupport.initialize();
+		decryptionService = new AssertionDecryptionService(SPCredentials.getCredential(),
+				SPCredentials.getKeyAgreementCredential());
+
+		RelyingPartyTemplates templates = new RelyingPartyTemplates(IDPConstants.IDP_ENTITY_ID, SPConstants.SP_ENTITY_ID,
+				SPConstants.ASSERTION_CONSUMER_SERVICE);
+		Assertion assertion = templates.newAssertion(new ArtifactEntry(SPConstants.SP_ENTITY_ID, "bob", Instant.now()));
+
+		// 従来の IdP と同じパラメータ（AES-128-CBC + RSA-OAEP）で暗号化。プロファイルごとの比較は EncryptionBenchmark を参照
+		DataEncryptionParameters encryptionParameters = new DataEncryptionParameters();
+		encryptionParameters.setAlgorithm(EncryptionConstants.ALGO_ID_BLOCKCIPHER_AES128);
+		KeyEncryptionParameters keyEncryptionParameters = new KeyEncryptionParameters();
+		keyEncryptionParameters.setEncryptionCredential(SPCredentials.getCredential());
+		keyEncryptionParameters.setAlgorithm(EncryptionConstants.ALGO_ID_KEYTRANSPORT_RSAOAEP);
+		Encrypter encrypter = new Encrypter(encryptionParameters, keyEncryptionParameters);
+		encrypter.setKeyPlacement(Encrypter.KeyPlacement.INLINE);
+		encryptedAssertion = encrypter.encrypt(assertion);
+	}
+
+	@Benchmark
+	public Assertion openSAMLDecrypter() throws DecryptionException {
+		Decrypter decrypter = new Decrypter(null, new StaticKeyInfoCredentialResolver(SPCredentials.getCredential()),
+				new InlineEncryptedKeyResolver());
+		decrypter.setRootInNewDocument(true);
+		return decrypter.decrypt(encryptedAssertion);
+	}
+
+	@Benchmark
+	public Assertion decryptionService() throws DecryptionException {
+		return decryptionService.decrypt(encryptedAssertion);
+	}
+}
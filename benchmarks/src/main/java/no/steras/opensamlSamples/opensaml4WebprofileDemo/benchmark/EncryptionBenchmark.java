@@ -0,0 +1,80 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.benchmark;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.EncryptedAssertion;
+import org.opensaml.xmlsec.encryption.support.DecryptionException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.OpenSAMLUtils;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.IDPConstants;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact.ArtifactEntry;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.encryption.EncryptionProfile;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.encryption.EncryptionSuite;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.template.RelyingPartyTemplates;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.AssertionDecryptionService;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.SPConstants;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.SPCredentials;
+
+/**
+ * 暗号化プロファイルごとのアサーション暗号化（IdP）・復号（SP）コストの比較。
+ *
+ * - encrypt: 事前構築した EncryptionProfile でアサーションを暗号化する
+ * - decrypt: 共有の AssertionDecryptionService で復号する（ECDH-ES は OpenSAML の Decrypter に委譲される）
+ *
+ * 実行例: {@code java -jar target/benchmarks.jar EncryptionBenchmark -p profile=aes128-gcm-rsa-oaep,aes128-cbc-rsa-oaep}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EncryptionBenchmark {
+	@Param({ "aes128-cbc-rsa-oaep", "aes128-gcm-rsa-oaep", "aes256-gcm-rsa-oaep", "aes128-gcm-ecdh-es" })
+	public String profile;
+
+	private EncryptionProfile encryptionProfile;
+	private AssertionDecryptionService decryptionService;
+	private Assertion assertion;
+	private EncryptedAssertion encryptedAssertion;
+
+	@Setup
+	public void setUp() throws MarshallingException {
+		BenchmarkSupport.initialize();
+		decryptionService = new AssertionDecryptionService(SPCredentials.getCredential(),
+				SPCredentials.getKeyAgreementCredential());
+		encryptionProfile = new EncryptionProfile(EncryptionSuite.fromProfileName(profile),
+				SPCredentials.getCredential(), SPCredentials.getKeyAgreementCredential());
+
+		RelyingPartyTemplates templates = new RelyingPartyTemplates(IDPConstants.IDP_ENTITY_ID, SPConstants.SP_ENTITY_ID,
+				SPConstants.ASSERTION_CONSUMER_SERVICE);
+		assertion = templates.newAssertion(new ArtifactEntry(SPConstants.SP_ENTITY_ID, "bob", Instant.now()));
+		// IdP と同様に、暗号化の前に DOM を用意しておく
+		OpenSAMLUtils.marshall(assertion);
+		encryptedAssertion = encryptionProfile.encrypt(assertion);
+	}
+
+	@Benchmark
+	public EncryptedAssertion encrypt() {
+		return encryptionProfile.encrypt(assertion);
+	}
+
+	@Benchmark
+	public Assertion decrypt() throws DecryptionException {
+		return decryptionService.decrypt(encryptedAssertion);
+	}
+}
@@ -0,0 +1,284 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.benchmark;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jakarta.servlet.Filter;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.servlet.FilterRegistrationBean;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.Application;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.startup.LoginFlowClient;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.startup.LoginFlowClient.LoginResult;
+
+/**
+ * サーブレットの実行モードごとのスループット・レイテンシ比較。
+ *
+ * アプリケーションを同一プロセス内でモードを切り替えて起動し、同時実行のログインフローを流して比較します。
+ * - platform-sync: Tomcat のプラットフォームスレッド + ACS 同期処理
+ * - platform-async: Tomcat のプラットフォームスレッド + ACS 非同期処理（仮想スレッド）
+ * - virtual: Tomcat のリクエスト処理自体を仮想スレッドで実行（spring.threads.virtual.enabled）
+ *
+ * バックチャネル通信の待ち時間を再現するため、IdP の Artifact Resolution Service の前に
+ * 0〜(平均 × 2) ミリ秒の一様分布で待機するフィルターを挿入します。
+ * 結果は target/execution-mode-report.md に出力されます。
+ *
+ * 使い方: java -cp target/benchmarks.jar no.steras.opensamlSamples.opensaml4WebprofileDemo.benchmark.ExecutionModeComparison
+ *        [同時実行数=400] [計測秒数=30] [バックチャネル平均遅延ms=50] [Tomcat 最大スレッド数=200]
+ */
+public class ExecutionModeComparison {
+	private static final String CONTEXT_PATH = "/opensaml5-webprofile-demo";
+	private static final int BASE_PORT = 18080;
+
+	/**
+	 * 比較する実行モード。
+	 */
+	private enum Mode {
+		PLATFORM_SYNC("platform-sync", false, false),
+		PLATFORM_ASYNC("platform-async", false, true),
+		VIRTUAL("virtual", true, false);
+
+		final String label;
+		final boolean virtualThreads;
+		final boolean asyncAcs;
+
+		Mode(String label, boolean virtualThreads, boolean asyncAcs) {
+			this.label = label;
+			this.virtualThreads = virtualThreads;
+			this.asyncAcs = asyncAcs;
+		}
+	}
+
+	/**
+	 * 1 モード分の計測結果。
+	 */
+	private record ModeResult(Mode mode, int succeeded, int failed, double seconds, long[] latenciesMicros,
+			long[] backchannelMicros) {
+
+		double throughput() {
+			return succeeded / seconds;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int concurrency = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+		int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 30;
+		int latencyMillis = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+		int maxThreads = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+
+		List<ModeResult> results = new ArrayList<>();
+		for (Mode mode : Mode.values()) {
+			results.add(run(mode, BASE_PORT + mode.ordinal(), concurrency, Duration.ofSeconds(seconds),
+					latencyMillis, maxThreads));
+		}
+
+		Path report = Path.of("target", "execution-mode-report.md");
+		Files.createDirectories(report.getParent());
+		Files.writeString(report, render(results, concurrency, seconds, latencyMillis, maxThreads),
+				StandardCharsets.UTF_8);
+		System.out.println("レポートを出力しました: " + report.toAbsolutePath());
+	}
+
+	private static ModeResult run(Mode mode, int port, int concurrency, Duration duration, int latencyMillis,
+			int maxThreads) throws Exception {
+		String baseUrl = "http://localhost:" + port;
+		System.out.println("=== " + mode.label + " を起動します (port " + port + ") ===");
+
+		try (ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class)
+				.initializers(new BackchannelLatency(latencyMillis))
+				.properties(
+						"server.port=" + port,
+						"server.address=127.0.0.1",
+						"app.base-url=" + baseUrl,
+						"spring.threads.virtual.enabled=" + mode.virtualThreads,
+						"app.acs.async.enabled=" + mode.asyncAcs,
+						"server.tomcat.threads.max=" + maxThreads,
+						"server.tomcat.accept-count=" + concurrency * 2,
+						"server.tomcat.max-connections=" + concurrency * 4,
+						"app.backchannel.max-connections-per-idp=" + concurrency,
+						"app.backchannel.max-connections-total=" + concurrency,
+						"logging.level.no.steras.opensamlSamples=WARN")
+				.run()) {
+
+			LoginFlowClient client = new LoginFlowClient(URI.create(baseUrl + CONTEXT_PATH + "/app/appservlet"),
+					Duration.ofSeconds(30));
+
+			// ウォームアップ（JIT・コネクションプール・パーサープールを温める）
+			drive(client, concurrency, Duration.ofSeconds(5));
+			return drive(mode, client, concurrency, duration);
+		}
+	}
+
+	private static void drive(LoginFlowClient client, int concurrency, Duration duration) throws Exception {
+		drive(null, client, concurrency, duration);
+	}
+
+	/**
+	 * 指定時間、仮想スレッドから同時実行数分のログインフローを繰り返し実行します。
+	 */
+	private static ModeResult drive(Mode mode, LoginFlowClient client, int concurrency, Duration duration)
+			throws Exception {
+		AtomicInteger succeeded = new AtomicInteger();
+		AtomicInteger failed = new AtomicInteger();
+		long deadline = System.nanoTime() + duration.toNanos();
+		long start = System.nanoTime();
+
+		List<Future<long[][]>> futures = new ArrayList<>();
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int i = 0; i < concurrency; i++) {
+				futures.add(executor.submit(() -> {
+					LongList latencies = new LongList();
+					LongList backchannel = new LongList();
+					while (System.nanoTime() < deadline) {
+						try {
+							LoginResult result = client.login();
+							if (result.succeeded()) {
+								succeeded.incrementAndGet();
+								latencies.add(result.total().toNanos() / 1000);
+								// ACS へのホップ（バックチャネル通信を含む）
+								result.hops().stream()
+										.filter(hop -> hop.uri().getPath().endsWith("/sp/consumer"))
+										.forEach(hop -> backchannel.add(hop.duration().toNanos() / 1000));
+							} else {
+								failed.incrementAndGet();
+							}
+						} catch (IOException e) {
+							failed.incrementAndGet();
+						}
+					}
+					return new long[][] { latencies.toArray(), backchannel.toArray() };
+				}));
+			}
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+
+		List<long[]> latencies = new ArrayList<>();
+		List<long[]> backchannel = new ArrayList<>();
+		for (Future<long[][]> future : futures) {
+			long[][] samples = future.get();
+			latencies.add(samples[0]);
+			backchannel.add(samples[1]);
+		}
+		return new ModeResult(mode, succeeded.get(), failed.get(), elapsed, merge(latencies), merge(backchannel));
+	}
+
+	private static String render(List<ModeResult> results, int concurrency, int seconds, int latencyMillis,
+			int maxThreads) {
+		StringBuilder report = new StringBuilder();
+		report.append("# 実行モード比較\n\n");
+		report.append("- 同時実行数: ").append(concurrency).append('\n');
+		report.append("- 計測時間: ").append(seconds).append(" 秒\n");
+		report.append("- バックチャネル遅延: 0〜").append(latencyMillis * 2).append(" ms（平均 ")
+				.append(latencyMillis).append(" ms）\n");
+		report.append("- Tomcat 最大スレッド数: ").append(maxThreads).append("\n\n");
+
+		report.append("## ログインフロー全体\n\n");
+		report.append("| モード | 成功 | 失敗 | スループット (login/s) | p50 (ms) | p90 (ms) | p99 (ms) |\n");
+		report.append("|---|---:|---:|---:|---:|---:|---:|\n");
+		for (ModeResult result : results) {
+			report.append(String.format("| %s | %d | %d | %.1f | %s | %s | %s |%n", result.mode().label,
+					result.succeeded(), result.failed(), result.throughput(),
+					percentile(result.latenciesMicros(), 50), percentile(result.latenciesMicros(), 90),
+					percentile(result.latenciesMicros(), 99)));
+		}
+
+		report.append("\n## ACS（バックチャネル通信を含む）\n\n");
+		report.append("| モード | p50 (ms) | p90 (ms) | p99 (ms) |\n");
+		report.append("|---|---:|---:|---:|\n");
+		for (ModeResult result : results) {
+			report.append(String.format("| %s | %s | %s | %s |%n", result.mode().label,
+					percentile(result.backchannelMicros(), 50), percentile(result.backchannelMicros(), 90),
+					percentile(result.backchannelMicros(), 99)));
+		}
+		return report.toString();
+	}
+
+	/**
+	 * ソート済み配列から百分位値をミリ秒で求めます（nearest-rank 法）。
+	 */
+	private static String percentile(long[] sortedMicros, int percent) {
+		if (sortedMicros.length == 0) {
+			return "-";
+		}
+		int rank = (int) Math.ceil(percent / 100.0 * sortedMicros.length);
+		long value = sortedMicros[Math.max(0, rank - 1)];
+		return String.format("%.1f", value / 1000.0);
+	}
+
+	private static long[] merge(List<long[]> arrays) {
+		long[] merged = new long[arrays.stream().mapToInt(array -> array.length).sum()];
+		int offset = 0;
+		for (long[] array : arrays) {
+			System.arraycopy(array, 0, merged, offset, array.length);
+			offset += array.length;
+		}
+		Arrays.sort(merged);
+		return merged;
+	}
+
+	/**
+	 * ボクシングを避けるための可変長 long 配列。
+	 */
+	private static final class LongList {
+		private long[] values = new long[256];
+		private int size;
+
+		void add(long value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		long[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+	/**
+	 * IdP の Artifact Resolution Service の前に待機フィルターを登録する初期化処理。
+	 * ベンチマークのクラスはアプリケーションのコンポーネントスキャン対象に含まれるため、
+	 * {@code @Configuration} ではなくコンテキストの初期化時にシングルトンとして登録します。
+	 */
+	private static final class BackchannelLatency
+			implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+		private final int meanMillis;
+
+		BackchannelLatency(int meanMillis) {
+			this.meanMillis = meanMillis;
+		}
+
+		@Override
+		public void initialize(ConfigurableApplicationContext context) {
+			Filter filter = (request, response, chain) -> {
+				if (meanMillis > 0) {
+					try {
+						Thread.sleep(ThreadLocalRandom.current().nextLong(meanMillis * 2L + 1));
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				chain.doFilter(request, response);
+			};
+			FilterRegistrationBean<Filter> registration = new FilterRegistrationBean<>(filter);
+			registration.addUrlPatterns("/idp/artifactResolutionService");
+			registration.setName("simulatedBackchannelLatency");
+			context.getBeanFactory().registerSingleton("simulatedBackchannelLatency", registration);
+		}
+	}
+}
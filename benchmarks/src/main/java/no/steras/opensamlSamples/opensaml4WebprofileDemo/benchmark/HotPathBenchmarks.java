@@ -0,0 +1,49 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * SAML の処理経路（ホットパス）全体のベンチマークを、スループットとアロケーション量（GC プロファイラー）付きで実行します。
+ *
+ * 対象:
+ * - {@link AuthnRequestBenchmark}: AuthnRequest の構築 + HTTP-Redirect エンコード（SP）
+ * - {@link ArtifactResolutionBenchmark}: ArtifactResponse の構築・署名・暗号化（IdP）
+ * - {@link SoapBindingBenchmark}: SOAP 1.1 のデコード・エンコード（IdP）
+ * - {@link ConsumeAssertionBenchmark}: アサーションの復号・署名検証（SP）
+ *
+ * 1 操作あたりのアロケーション量は {@code gc.alloc.rate.norm} に出力されます。結果は target/hot-path.json に保存され、
+ * 変更前後の比較に使用できます。
+ *
+ * 使い方: java -cp target/benchmarks.jar no.steras.opensamlSamples.opensaml4WebprofileDemo.benchmark.HotPathBenchmarks
+ *        [追加のベンチマーク名の正規表現...]
+ */
+public class HotPathBenchmarks {
+
+	public static void main(String[] args) throws RunnerException {
+		OptionsBuilder builder = new OptionsBuilder();
+		builder.include(AuthnRequestBenchmark.class.getSimpleName())
+				.include(ArtifactResolutionBenchmark.class.getSimpleName())
+				.include(SoapBindingBenchmark.class.getSimpleName())
+				.include(ConsumeAssertionBenchmark.class.getSimpleName());
+		for (String pattern : args) {
+			builder.include(pattern);
+		}
+
+		Options options = builder
+				.mode(Mode.Throughput)
+				.timeUnit(TimeUnit.SECONDS)
+				.addProfiler(GCProfiler.class)
+				.resultFormat(ResultFormatType.JSON)
+				.result("target/hot-path.json")
+				.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,379 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.benchmark;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.Application;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.startup.LoginFlowClient;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.startup.LoginFlowClient.Hop;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.startup.LoginFlowClient.LoginResult;
+
+/**
+ * SSO ログインフロー全体の負荷試験ドライバー。
+ *
+ * アプリケーションを同一プロセス内の組み込みサーバー（localhost）で起動し、仮想ユーザーごとに仮想スレッドから
+ * 保護リソース → AccessFilter → IdP SSO 画面 → 認証 POST → ACS（バックチャネルでのアーティファクト解決）→ 保護リソース
+ * のフローを繰り返します（--app.sp.response-binding=post の場合、ACS へは自動送信フォームで Response を POST します）。クッキーとリダイレクトは {@link LoginFlowClient} が処理します。
+ *
+ * 仮想ユーザー数はステージの列（"期間:目標ユーザー数" のカンマ区切り）で指定し、各ステージの間に直前の目標から
+ * 線形に増減させます。ログイン全体とホップごとの所要時間を HdrHistogram に記録し、1 秒ごとに進捗を表示したうえで、
+ * ステージごとのスループット（login/s）とホップごとの p50 / p99 / p99.9 を target/load-report.md に出力します。
+ *
+ * 使い方: java -cp target/benchmarks.jar no.steras.opensamlSamples.opensaml4WebprofileDemo.benchmark.LoadDriver
+ *        [profile=ramp] [stages=30s:100,60s:100] [warmup=10s] [port=18090] [--アプリケーションのプロパティ=値 ...]
+ *
+ * 定義済みのプロファイル: smoke / ramp / step / spike（{@link #PROFILES}）。stages を指定した場合はそちらを優先します。
+ */
+public class LoadDriver {
+	private static final String CONTEXT_PATH = "/opensaml5-webprofile-demo";
+	private static final int DEFAULT_PORT = 18090;
+	// ユーザー数を更新し、進捗を表示する間隔
+	private static final long CONTROL_INTERVAL_MILLIS = 100;
+	private static final long REPORT_INTERVAL_MILLIS = 1000;
+	// 記録できる最大のレイテンシ（マイクロ秒）と有効桁数
+	private static final long HIGHEST_TRACKABLE_MICROS = TimeUnit.MINUTES.toMicros(2);
+	private static final int SIGNIFICANT_DIGITS = 3;
+
+	/**
+	 * 定義済みの負荷プロファイル（ステージの列）。
+	 */
+	static final Map<String, String> PROFILES = Map.of(
+			"smoke", "5s:5,10s:5",
+			"ramp", "30s:100,60s:100,10s:0",
+			"step", "1s:50,20s:50,1s:100,20s:100,1s:200,20s:200,1s:400,20s:400",
+			"spike", "5s:20,20s:20,1s:400,20s:400,1s:20,20s:20");
+
+	/**
+	 * 負荷のステージ。期間中に直前のステージの目標ユーザー数から {@code targetUsers} まで線形に変化させます。
+	 */
+	record Stage(Duration duration, int targetUsers) {
+	}
+
+	/**
+	 * ステージごとの計測結果。latencies には全仮想ユーザーの終了後に、ステージ終了後に完了したログインも加えます。
+	 */
+	private record StageResult(int index, Stage stage, double seconds, Histogram latencies, Measurement measurement) {
+
+		long failures() {
+			return measurement.failures.sum();
+		}
+
+		double throughput() {
+			return latencies.getTotalCount() / seconds;
+		}
+	}
+
+	/**
+	 * 1 つの区間（ウォームアップまたはステージ）の記録先。
+	 * 仮想ユーザーはログインを開始した時点の記録先に結果を記録するため、区間の境界をまたいだログインは開始した区間に
+	 * 計上されます（ウォームアップ中に開始したログインがステージの結果に混ざらない）。
+	 */
+	private static final class Measurement {
+		// ログイン全体（成功のみ）とホップごとの所要時間（マイクロ秒）
+		final Recorder logins = new Recorder(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+		final Map<String, Recorder> hops = new ConcurrentHashMap<>();
+		final LongAdder failures = new LongAdder();
+	}
+
+	private final LoginFlowClient client;
+	private final AtomicInteger activeUsers = new AtomicInteger();
+	private volatile boolean running = true;
+	// 現在の区間の記録先（ステージの開始時に切り替える。最初はウォームアップ用で、結果には使用しない）
+	private volatile Measurement measurement = new Measurement();
+
+	private LoadDriver(LoginFlowClient client) {
+		this.client = client;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new LinkedHashMap<>();
+		List<String> applicationProperties = new ArrayList<>();
+		for (String arg : args) {
+			if (arg.startsWith("--")) {
+				applicationProperties.add(arg.substring(2));
+			} else if (arg.contains("=")) {
+				options.put(arg.substring(0, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+			} else {
+				throw new IllegalArgumentException("引数は key=value または --プロパティ=値 の形式で指定してください: " + arg);
+			}
+		}
+
+		String profile = options.getOrDefault("profile", "ramp");
+		String stageSpec = options.containsKey("stages") ? options.get("stages") : PROFILES.get(profile);
+		if (stageSpec == null) {
+			throw new IllegalArgumentException("未定義のプロファイルです: " + profile + " (定義済み: " + PROFILES.keySet() + ")");
+		}
+		List<Stage> stages = parseStages(stageSpec);
+		Duration warmup = parseDuration(options.getOrDefault("warmup", "10s"));
+		int port = Integer.parseInt(options.getOrDefault("port", String.valueOf(DEFAULT_PORT)));
+		int maxUsers = Math.max(1, stages.stream().mapToInt(Stage::targetUsers).max().orElse(1));
+
+		String baseUrl = "http://localhost:" + port;
+		List<String> properties = new ArrayList<>(List.of(
+				"server.port=" + port,
+				"server.address=127.0.0.1",
+				"app.base-url=" + baseUrl,
+				"server.tomcat.accept-count=" + maxUsers * 2,
+				"server.tomcat.max-connections=" + maxUsers * 4,
+				"app.backchannel.max-connections-per-idp=" + maxUsers,
+				"app.backchannel.max-connections-total=" + maxUsers,
+				"logging.level.no.steras.opensamlSamples=WARN"));
+		// コマンドラインで指定したプロパティを優先する
+		properties.addAll(applicationProperties);
+
+		try (ConfigurableApplicationContext context = new SpringApplicationBuilder(Application.class)
+				.properties(properties.toArray(new String[0]))
+				.run()) {
+			LoginFlowClient client = new LoginFlowClient(URI.create(baseUrl + CONTEXT_PATH + "/app/appservlet"),
+					Duration.ofSeconds(30));
+			LoadDriver driver = new LoadDriver(client);
+			List<StageResult> results = driver.run(stages, maxUsers, warmup);
+
+			Path report = Path.of("target", "load-report.md");
+			Files.createDirectories(report.getParent());
+			Files.writeString(report, render(stageSpec, warmup, applicationProperties, results), StandardCharsets.UTF_8);
+			System.out.println("レポートを出力しました: " + report.toAbsolutePath());
+		}
+	}
+
+	/**
+	 * 仮想ユーザーを起動し、ウォームアップの後にステージを順に実行します。
+	 */
+	private List<StageResult> run(List<Stage> stages, int maxUsers, Duration warmup) throws InterruptedException {
+		List<StageResult> results = new ArrayList<>();
+		try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+			for (int i = 0; i < maxUsers; i++) {
+				int id = i;
+				executor.submit(() -> virtualUser(id));
+			}
+
+			// ウォームアップ（JIT・コネクションプール・パーサープールを温める）。
+			// 結果はウォームアップ用の記録先に残り、最初のステージで記録先を切り替えた後は参照しない
+			if (!warmup.isZero()) {
+				System.out.println("ウォームアップ中 (" + warmup.toSeconds() + " 秒)...");
+				activeUsers.set(Math.min(10, maxUsers));
+				Thread.sleep(warmup.toMillis());
+				activeUsers.set(0);
+			}
+
+			int previousTarget = 0;
+			for (int i = 0; i < stages.size(); i++) {
+				results.add(runStage(i + 1, stages.get(i), previousTarget));
+				previousTarget = stages.get(i).targetUsers();
+			}
+			running = false;
+		}
+
+		// 全仮想ユーザーの終了後、各ステージの終了後に完了したログインをそのステージに加える
+		for (StageResult result : results) {
+			result.latencies().add(result.measurement().logins.getIntervalHistogram());
+		}
+		return results;
+	}
+
+	/**
+	 * 1 ステージ分、ユーザー数を線形に変化させながら 1 秒ごとに進捗を表示します。
+	 */
+	private StageResult runStage(int index, Stage stage, int fromUsers) throws InterruptedException {
+		// 以降に開始するログインはこのステージの記録先に記録される
+		Measurement stageMeasurement = new Measurement();
+		measurement = stageMeasurement;
+		Histogram stageLatencies = new Histogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+		Histogram interval = null;
+		long reportedFailures = 0;
+		long durationNanos = stage.duration().toNanos();
+		long start = System.nanoTime();
+		long lastReport = start;
+
+		while (true) {
+			long elapsed = System.nanoTime() - start;
+			double progress = durationNanos == 0 ? 1.0 : Math.min(1.0, (double) elapsed / durationNanos);
+			activeUsers.set((int) Math.round(fromUsers + (stage.targetUsers() - fromUsers) * progress));
+
+			long now = System.nanoTime();
+			boolean finished = elapsed >= durationNanos;
+			if (finished || now - lastReport >= TimeUnit.MILLISECONDS.toNanos(REPORT_INTERVAL_MILLIS)) {
+				interval = stageMeasurement.logins.getIntervalHistogram(interval);
+				long stageFailures = stageMeasurement.failures.sum();
+				long intervalFailures = stageFailures - reportedFailures;
+				stageLatencies.add(interval);
+				reportedFailures = stageFailures;
+				System.out.printf("[stage %d %5.1fs] users=%4d  login/s=%8.1f  failures=%d  p50=%s ms  p99=%s ms%n",
+						index, (now - start) / 1e9, activeUsers.get(), interval.getTotalCount() / ((now - lastReport) / 1e9),
+						intervalFailures, millis(interval, 50.0), millis(interval, 99.0));
+				lastReport = now;
+			}
+			if (finished) {
+				break;
+			}
+			Thread.sleep(CONTROL_INTERVAL_MILLIS);
+		}
+		return new StageResult(index, stage, (System.nanoTime() - start) / 1e9, stageLatencies, stageMeasurement);
+	}
+
+	/**
+	 * 1 人の仮想ユーザー。自分の番号が現在のユーザー数未満の間だけログインを繰り返します。
+	 * ログインの失敗（例外を含む）は失敗として数え、仮想ユーザーは止めずに次のログインへ進みます。
+	 */
+	private void virtualUser(int id) {
+		while (running) {
+			if (id >= activeUsers.get()) {
+				try {
+					Thread.sleep(CONTROL_INTERVAL_MILLIS / 2);
+				} catch (InterruptedException e) {
+					return;
+				}
+				continue;
+			}
+
+			// ログインを開始した時点の記録先に記録する
+			Measurement target = measurement;
+			try {
+				LoginResult result = client.login();
+				if (result.succeeded()) {
+					target.logins.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, result.total().toNanos() / 1000));
+					recordHops(target, result.hops());
+				} else {
+					target.failures.increment();
+				}
+			} catch (IOException | RuntimeException e) {
+				target.failures.increment();
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	private static void recordHops(Measurement target, List<Hop> hops) {
+		for (int i = 0; i < hops.size(); i++) {
+			Hop hop = hops.get(i);
+			target.hops.computeIfAbsent(hopLabel(hop, i == hops.size() - 1),
+					label -> new Recorder(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS))
+					.recordValue(Math.min(HIGHEST_TRACKABLE_MICROS, hop.duration().toNanos() / 1000));
+		}
+	}
+
+	/**
+	 * ホップの名前（レポートの行）。保護リソースへの最初のアクセスと最後のアクセスは区別します。
+	 */
+	static String hopLabel(Hop hop, boolean last) {
+		String path = hop.uri().getPath();
+		if (path.startsWith(CONTEXT_PATH)) {
+			path = path.substring(CONTEXT_PATH.length());
+		}
+		if (path.startsWith("/app/")) {
+			return last ? "5. 保護リソース" : "1. AccessFilter (AuthnRequest)";
+		} else if (path.startsWith("/idp/singleSignOnService")) {
+			return "POST".equals(hop.method()) ? "3. IdP 認証 POST" : "2. IdP SSO 画面";
+		} else if (path.startsWith("/sp/consumer")) {
+			return "4. ACS (Artifact の場合はバックチャネルを含む)";
+		}
+		return hop.method() + " " + path;
+	}
+
+	private static String render(String stageSpec, Duration warmup, List<String> applicationProperties,
+			List<StageResult> results) {
+		StringBuilder report = new StringBuilder();
+		report.append("# SSO 負荷試験\n\n");
+		report.append("- ステージ: `").append(stageSpec).append("`\n");
+		report.append("- ウォームアップ: ").append(warmup.toSeconds()).append(" 秒\n");
+		report.append("- プロセッサ数: ").append(Runtime.getRuntime().availableProcessors()).append('\n');
+		report.append("- 最大ヒープ: ").append(Runtime.getRuntime().maxMemory() / (1024 * 1024)).append(" MB\n");
+		if (!applicationProperties.isEmpty()) {
+			report.append("- アプリケーションのプロパティ: `").append(String.join(" ", applicationProperties)).append("`\n");
+		}
+
+		report.append("\n## ステージごとのログイン\n\n");
+		report.append("| ステージ | 期間 | 目標ユーザー数 | 成功 | 失敗 | スループット (login/s) | p50 (ms) | p99 (ms) | p99.9 (ms) |\n");
+		report.append("|---:|---:|---:|---:|---:|---:|---:|---:|---:|\n");
+		Histogram total = new Histogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS);
+		long totalFailures = 0;
+		double totalSeconds = 0;
+		for (StageResult result : results) {
+			Histogram latencies = result.latencies();
+			total.add(latencies);
+			totalFailures += result.failures();
+			totalSeconds += result.seconds();
+			report.append(String.format("| %d | %ds | %d | %d | %d | %.1f | %s | %s | %s |%n", result.index(),
+					result.stage().duration().toSeconds(), result.stage().targetUsers(), latencies.getTotalCount(),
+					result.failures(), result.throughput(), millis(latencies, 50.0), millis(latencies, 99.0),
+					millis(latencies, 99.9)));
+		}
+		report.append(String.format("| 合計 | %.0fs | - | %d | %d | %.1f | %s | %s | %s |%n", totalSeconds,
+				total.getTotalCount(), totalFailures, totalSeconds == 0 ? 0.0 : total.getTotalCount() / totalSeconds,
+				millis(total, 50.0), millis(total, 99.0), millis(total, 99.9)));
+
+		report.append("\n## ホップごとの所要時間（成功したログインのみ、全ステージ）\n\n");
+		report.append("| ホップ | 回数 | p50 (ms) | p99 (ms) | p99.9 (ms) | 最大 (ms) |\n");
+		report.append("|---|---:|---:|---:|---:|---:|\n");
+		Map<String, Histogram> hops = new TreeMap<>();
+		for (StageResult result : results) {
+			result.measurement().hops.forEach((label, recorder) -> hops
+					.computeIfAbsent(label, key -> new Histogram(HIGHEST_TRACKABLE_MICROS, SIGNIFICANT_DIGITS))
+					.add(recorder.getIntervalHistogram()));
+		}
+		hops.forEach((label, hop) -> report.append(String.format("| %s | %d | %s | %s | %s | %.1f |%n", label,
+				hop.getTotalCount(), millis(hop, 50.0), millis(hop, 99.0), millis(hop, 99.9), hop.getMaxValue() / 1000.0)));
+		return report.toString();
+	}
+
+	/**
+	 * "期間:目標ユーザー数" のカンマ区切り（例: "30s:100,1m:100,10s:0"）を解析します。
+	 */
+	static List<Stage> parseStages(String spec) {
+		List<Stage> stages = new ArrayList<>();
+		for (String part : spec.split(",")) {
+			String[] fields = part.trim().split(":");
+			if (fields.length != 2) {
+				throw new IllegalArgumentException("ステージの形式が不正です（期間:目標ユーザー数）: " + part);
+			}
+			int users = Integer.parseInt(fields[1].trim());
+			if (users < 0) {
+				throw new IllegalArgumentException("目標ユーザー数は 0 以上で指定してください: " + part);
+			}
+			stages.add(new Stage(parseDuration(fields[0].trim()), users));
+		}
+		return stages;
+	}
+
+	/**
+	 * "500ms" / "30s" / "2m" 形式の期間を解析します。
+	 */
+	static Duration parseDuration(String value) {
+		if (value.endsWith("ms")) {
+			return Duration.ofMillis(Long.parseLong(value.substring(0, value.length() - 2)));
+		} else if (value.endsWith("s")) {
+			return Duration.ofSeconds(Long.parseLong(value.substring(0, value.length() - 1)));
+		} else if (value.endsWith("m")) {
+			return Duration.ofMinutes(Long.parseLong(value.substring(0, value.length() - 1)));
+		}
+		throw new IllegalArgumentException("期間の形式が不正です（例: 500ms, 30s, 2m）: " + value);
+	}
+
+	private static String millis(Histogram histogram, double percentile) {
+		if (histogram.getTotalCount() == 0) {
+			return "-";
+		}
+		return String.format("%.1f", histogram.getValueAtPercentile(percentile) / 1000.0);
+	}
+}
@@ -0,0 +1,116 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.benchmark;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact.RedisArtifactStore;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact.RespProtocol;
+
+/**
+ * {@link RedisArtifactStore} を Redis なしで動かすための、ループバックで待ち受ける RESP2 サーバー。
+ * アーティファクトストアが使用するコマンド（PING / AUTH / SET [PX] / GET / GETDEL / DEL）だけを実装します。
+ *
+ * ネットワークの遅延を含まないため、計測値はクライアント側のエンコード・パイプラインのコストの目安です。
+ */
+public final class LocalRespServer implements AutoCloseable {
+	private record Value(byte[] data, long expiresAtMillis) {
+	}
+
+	private final ServerSocket serverSocket;
+	private final Map<String, Value> values = new ConcurrentHashMap<>();
+
+	public LocalRespServer() throws IOException {
+		serverSocket = new ServerSocket(0, 128, InetAddress.getLoopbackAddress());
+		Thread.ofPlatform().daemon().name("local-resp-server").start(this::accept);
+	}
+
+	/** 待ち受けているアドレス（ループバック） */
+	public String getHost() {
+		return serverSocket.getInetAddress().getHostAddress();
+	}
+
+	/** 待ち受けているポート番号 */
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+
+	/** 保持しているキーの数（期限切れを含む） */
+	public int size() {
+		return values.size();
+	}
+
+	private void accept() {
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				Thread.ofVirtual().start(() -> serve(socket));
+			} catch (IOException e) {
+				// 終了時は accept が例外で戻る
+			}
+		}
+	}
+
+	private void serve(Socket socket) {
+		try (socket) {
+			socket.setTcpNoDelay(true);
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+			while (true) {
+				Object request = RespProtocol.read(in);
+				if (!(request instanceof Object[] arguments) || arguments.length == 0) {
+					RespProtocol.writeAscii(out, "-ERR 不正なコマンドです");
+				} else {
+					execute(arguments, out);
+				}
+				// パイプラインで届いたコマンドは、読み取り済みのものをすべて処理してからまとめて返す
+				if (in.available() == 0) {
+					out.flush();
+				}
+			}
+		} catch (IOException e) {
+			// クライアントの切断
+		}
+	}
+
+	private void execute(Object[] arguments, OutputStream out) {
+		String name = new String((byte[]) arguments[0], StandardCharsets.US_ASCII).toUpperCase();
+		switch (name) {
+		case "PING" -> RespProtocol.writeAscii(out, "+PONG");
+		case "AUTH" -> RespProtocol.writeAscii(out, "+OK");
+		case "SET" -> {
+			long expiresAt = Long.MAX_VALUE;
+			if (arguments.length >= 5 && "PX".equalsIgnoreCase(string(arguments[3]))) {
+				expiresAt = System.currentTimeMillis() + Long.parseLong(string(arguments[4]));
+			}
+			values.put(string(arguments[1]), new Value((byte[]) arguments[2], expiresAt));
+			RespProtocol.writeAscii(out, "+OK");
+		}
+		case "GET" -> RespProtocol.writeBulk(out, live(values.get(string(arguments[1]))));
+		case "GETDEL" -> RespProtocol.writeBulk(out, live(values.remove(string(arguments[1]))));
+		case "DEL" -> RespProtocol.writeAscii(out, ":" + (live(values.remove(string(arguments[1]))) != null ? 1 : 0));
+		default -> RespProtocol.writeAscii(out, "-ERR unknown command '" + name + "'");
+		}
+	}
+
+	private static byte[] live(Value value) {
+		return value != null && value.expiresAtMillis() > System.currentTimeMillis() ? value.data() : null;
+	}
+
+	private static String string(Object argument) {
+		return new String((byte[]) argument, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+	}
+}
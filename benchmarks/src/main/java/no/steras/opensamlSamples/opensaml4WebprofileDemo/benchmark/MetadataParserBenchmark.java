@@ -0,0 +1,151 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact.ArtifactIssuer;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata.EntityMetadata;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata.MetadataIndex;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata.MetadataSnapshot;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.metadata.StreamingMetadataParser;
+
+/**
+ * メタデータの集約のストリーミング解析と、構築したインデックスの参照のコスト。
+ *
+ * - parse: 集約全体の解析とインデックスの構築（バックグラウンドの再読み込み 1 回分）
+ * - lookupByEntityId / lookupBySourceId: ログインフローでの参照（エンティティ数によらず一定であることを確認する）
+ * - restoreSnapshot: スナップショットからの起動（メモリマップで開き、ファイル全体の HMAC を検証して 1 エンティティを参照する。
+ *   HMAC の検証はファイルサイズに比例する）
+ * - snapshotLookupBySourceId: スナップショットのハッシュテーブルでの参照（復元済みのエンティティはキャッシュされる）
+ *
+ * 集約は KeyDescriptor を含まない合成データ（署名なし）のため、証明書の解析と署名検証のコストは含まれません。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetadataParserBenchmark {
+
+	@Param({ "1000", "20000" })
+	public int entities;
+
+	private StreamingMetadataParser parser;
+	private byte[] aggregate;
+	private MetadataIndex index;
+	private String entityId;
+	private byte[] sourceId;
+	private Path snapshotPath;
+	private SecretKey integrityKey;
+	private MetadataSnapshot snapshot;
+
+	@Setup
+	public void setUp() throws Exception {
+		parser = new StreamingMetadataParser(null);
+		aggregate = buildAggregate(entities).getBytes(StandardCharsets.UTF_8);
+		index = new MetadataIndex(parser.parse(new ByteArrayInputStream(aggregate)), "benchmark");
+		if (index.size() != entities) {
+			throw new IllegalStateException("集約のエンティティ数が一致しません: " + index.size());
+		}
+		entityId = "https://idp" + (entities / 2) + ".example.org/idp";
+		sourceId = ArtifactIssuer.computeSourceId(entityId);
+
+		snapshotPath = Files.createTempFile("metadata-snapshot", ".bin");
+		integrityKey = KeyGenerator.getInstance("HmacSHA256").generateKey();
+		MetadataSnapshot.write(snapshotPath, index, "0", "none", integrityKey);
+		snapshot = MetadataSnapshot.open(snapshotPath, integrityKey);
+		if (snapshot.size() != entities || snapshot.getBySourceId(sourceId) == null) {
+			throw new IllegalStateException("スナップショットからエンティティを参照できません");
+		}
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		Files.deleteIfExists(snapshotPath);
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MILLISECONDS)
+	public MetadataIndex parse() throws Exception {
+		List<EntityMetadata> parsed = parser.parse(new ByteArrayInputStream(aggregate));
+		return new MetadataIndex(parsed, "benchmark");
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public void lookupByEntityId(Blackhole blackhole) {
+		blackhole.consume(index.get(entityId).identityProvider().artifactResolutionService());
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public void lookupBySourceId(Blackhole blackhole) {
+		blackhole.consume(index.getBySourceId(sourceId).identityProvider().artifactResolutionService());
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public void restoreSnapshot(Blackhole blackhole) throws Exception {
+		MetadataSnapshot restored = MetadataSnapshot.open(snapshotPath, integrityKey);
+		blackhole.consume(restored.get(entityId).identityProvider().artifactResolutionService());
+	}
+
+	@Benchmark
+	@OutputTimeUnit(TimeUnit.NANOSECONDS)
+	public void snapshotLookupBySourceId(Blackhole blackhole) {
+		blackhole.consume(snapshot.getBySourceId(sourceId).identityProvider().artifactResolutionService());
+	}
+
+	/**
+	 * IdP と SP を交互に並べた EntitiesDescriptor を生成します。
+	 */
+	private static String buildAggregate(int count) {
+		StringBuilder xml = new StringBuilder(count * 700);
+		xml.append("<md:EntitiesDescriptor xmlns:md=\"urn:oasis:names:tc:SAML:2.0:metadata\" Name=\"benchmark\">");
+		for (int i = 0; i < count; i++) {
+			if (i % 2 == 0) {
+				String base = "https://idp" + i + ".example.org/idp";
+				xml.append("<md:EntityDescriptor entityID=\"").append(base).append("\">")
+						.append("<md:IDPSSODescriptor protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\">")
+						.append("<md:ArtifactResolutionService Binding=\"urn:oasis:names:tc:SAML:2.0:bindings:SOAP\" Location=\"")
+						.append(base).append("/artifact\" index=\"0\"/>")
+						.append("<md:SingleSignOnService Binding=\"urn:oasis:names:tc:SAML:2.0:bindings:HTTP-Redirect\" Location=\"")
+						.append(base).append("/sso\"/>")
+						.append("<md:SingleSignOnService Binding=\"urn:oasis:names:tc:SAML:2.0:bindings:HTTP-POST\" Location=\"")
+						.append(base).append("/sso\"/>")
+						.append("</md:IDPSSODescriptor></md:EntityDescriptor>");
+			} else {
+				String base = "https://sp" + i + ".example.org/sp";
+				xml.append("<md:EntityDescriptor entityID=\"").append(base).append("\">")
+						.append("<md:SPSSODescriptor protocolSupportEnumeration=\"urn:oasis:names:tc:SAML:2.0:protocol\">")
+						.append("<md:AssertionConsumerService Binding=\"urn:oasis:names:tc:SAML:2.0:bindings:HTTP-Artifact\" Location=\"")
+						.append(base).append("/consumer\" index=\"0\" isDefault=\"true\"/>")
+						.append("<md:AssertionConsumerService Binding=\"urn:oasis:names:tc:SAML:2.0:bindings:HTTP-POST\" Location=\"")
+						.append(base).append("/consumer\" index=\"1\"/>")
+						.append("</md:SPSSODescriptor></md:EntityDescriptor>");
+			}
+		}
+		return xml.append("</md:EntitiesDescriptor>").toString();
+	}
+}
@@ -0,0 +1,95 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.namespace.QName;
+
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.config.XMLObjectProviderRegistrySupport;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.Issuer;
+import org.opensaml.saml.saml2.core.NameID;
+import org.opensaml.saml.saml2.core.StatusCode;
+import org.opensaml.saml.saml2.core.SubjectConfirmationData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Element;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.OpenSAMLUtils;
+
+/**
+ * {@link OpenSAMLUtils#buildSAMLObject(Class)} と {@link OpenSAMLUtils#marshall(XMLObject)} の比較。
+ *
+ * - legacy*: 呼び出しごとにリフレクションで DEFAULT_ELEMENT_NAME を取得し、レジストリからビルダー・マーシャラーを検索する（従来の方式）
+ * - cached*: クラスごとに一度だけ解決した値を ClassValue から取得する
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OpenSAMLUtilsBenchmark {
+	@Param({ "Issuer", "NameID", "StatusCode", "SubjectConfirmationData", "Assertion" })
+	public String type;
+
+	private Class<? extends XMLObject> clazz;
+
+	@Setup
+	public void setUp() {
+		BenchmarkSupport.initialize();
+		clazz = switch (type) {
+		case "Issuer" -> Issuer.class;
+		case "NameID" -> NameID.class;
+		case "StatusCode" -> StatusCode.class;
+		case "SubjectConfirmationData" -> SubjectConfirmationData.class;
+		case "Assertion" -> Assertion.class;
+		default -> throw new IllegalArgumentException(type);
+		};
+	}
+
+	@Benchmark
+	public Object legacyBuild() {
+		return legacyBuildSAMLObject(clazz);
+	}
+
+	@Benchmark
+	public Object cachedBuild() {
+		return OpenSAMLUtils.buildSAMLObject(clazz);
+	}
+
+	@Benchmark
+	public Element legacyBuildAndMarshall() throws MarshallingException {
+		XMLObject object = legacyBuildSAMLObject(clazz);
+		return XMLObjectProviderRegistrySupport.getMarshallerFactory().getMarshaller(object).marshall(object);
+	}
+
+	@Benchmark
+	public Element cachedBuildAndMarshall() throws MarshallingException {
+		return OpenSAMLUtils.marshall(OpenSAMLUtils.buildSAMLObject(clazz));
+	}
+
+	/**
+	 * 変更前の OpenSAMLUtils.buildSAMLObject と同じ処理。
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> T legacyBuildSAMLObject(Class<T> clazz) {
+		try {
+			QName defaultElementName = (QName) clazz.getDeclaredField("DEFAULT_ELEMENT_NAME").get(null);
+			return (T) XMLObjectProviderRegistrySupport.getBuilderFactory().getBuilder(defaultElementName)
+					.buildObject(defaultElementName);
+		} catch (IllegalAccessException | NoSuchFieldException e) {
+			throw new IllegalArgumentException(e);
+		}
+	}
+}
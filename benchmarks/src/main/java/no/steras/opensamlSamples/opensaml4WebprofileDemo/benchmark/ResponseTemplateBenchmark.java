@@ -0,0 +1,96 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.benchmark;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.saml.saml2.core.ArtifactResponse;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.saml.saml2.core.Response;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.w3c.dom.Element;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.OpenSAMLUtils;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.IDPConstants;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact.ArtifactEntry;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.template.RelyingPartyTemplates;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.SPConstants;
+
+/**
+ * IdP の ArtifactResponse / Assertion 構築コストの比較。
+ *
+ * - build*: OpenSAML のビルダーでオブジェクトツリーを一から構築し、マーシャリングする（従来の方式）
+ * - template*: SP ごとのテンプレートの DOM を複製し、ID・日時・ユーザー情報のみを埋め込む（XMLObject は生成しない）
+ *
+ * 署名・暗号化の前に DOM が必要になるため、どちらも DOM を持った状態までを計測します。
+ * 1 回の解決あたりのアロケーション量は {@code -prof gc} の {@code gc.alloc.rate.norm} で確認してください。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseTemplateBenchmark {
+	private RelyingPartyTemplates templates;
+	private ArtifactEntry entry;
+
+	@Setup
+	public void setUp() {
+		BenchmarkSupport.initialize();
+		templates = new RelyingPartyTemplates(IDPConstants.IDP_ENTITY_ID, SPConstants.SP_ENTITY_ID,
+				SPConstants.ASSERTION_CONSUMER_SERVICE);
+		entry = new ArtifactEntry(SPConstants.SP_ENTITY_ID, "bob", Instant.now());
+	}
+
+	@Benchmark
+	public Element buildAssertion() {
+		return marshall(newAssertionByBuilders());
+	}
+
+	@Benchmark
+	public Element templateAssertion() {
+		return templates.newAssertionElement(entry);
+	}
+
+	/**
+	 * 1 回のアーティファクト解決で構築されるツリー全体（ArtifactResponse -> Response -> Assertion）。
+	 */
+	@Benchmark
+	public Element buildResolve() {
+		ArtifactResponse artifactResponse = RelyingPartyTemplates.buildArtifactResponse(IDPConstants.IDP_ENTITY_ID,
+				SPConstants.ASSERTION_CONSUMER_SERVICE, OpenSAMLUtils.generateSecureRandomId(), Instant.now(),
+				"_request", OpenSAMLUtils.generateSecureRandomId());
+		((Response) artifactResponse.getMessage()).getAssertions().add(newAssertionByBuilders());
+		return marshall(artifactResponse);
+	}
+
+	@Benchmark
+	public Element templateResolve() {
+		return templates.newArtifactResponseElement("_request", templates.newAssertionElement(entry));
+	}
+
+	private Assertion newAssertionByBuilders() {
+		return RelyingPartyTemplates.buildAssertion(IDPConstants.IDP_ENTITY_ID, SPConstants.SP_ENTITY_ID,
+				SPConstants.ASSERTION_CONSUMER_SERVICE, OpenSAMLUtils.generateSecureRandomId(), Instant.now(),
+				entry.principal(), entry.authnInstant(), entry.inResponseTo());
+	}
+
+	private static Element marshall(XMLObject object) {
+		try {
+			return OpenSAMLUtils.marshall(object);
+		} catch (MarshallingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
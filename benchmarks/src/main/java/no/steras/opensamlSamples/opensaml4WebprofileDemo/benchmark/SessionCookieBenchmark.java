@@ -0,0 +1,81 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.benchmark;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.session.CookieSessionStore;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.session.SessionKeyRing;
+
+/**
+ * 暗号化クッキーのセッション（{@link CookieSessionStore}）の検証と発行のコスト。
+ *
+ * - verify: 保護リソースへのリクエストごとに行う認証済みトークンの検証（-prof gc でアロケーションを確認できる）
+ * - issue: ACS でのログイン完了時の認証済みトークンの発行
+ *
+ * rotated=true の場合、トークンはアクティブでない鍵で暗号化されているため、検証のたびに再発行が発生します。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SessionCookieBenchmark {
+	private static final String ACTIVE_KEY = "2=AAECAwQFBgcICQoLDA0ODxAREhMUFRYXGBkaGxwdHh8=";
+	private static final String PREVIOUS_KEY = "1=HxweHRwbGhkYFxYVFBMSERAPDg0MCwoJCAcGBQQDAgE=";
+
+	@Param({ "false", "true" })
+	public boolean rotated;
+
+	private CookieSessionStore store;
+	private MockHttpServletRequest request;
+
+	@Setup
+	public void setUp() {
+		store = new CookieSessionStore(new SessionKeyRing(List.of(ACTIVE_KEY, PREVIOUS_KEY)), Duration.ofHours(8),
+				Duration.ofMinutes(5), true, "Lax", 64);
+
+		// 検証するトークンを発行する（rotated の場合は旧い鍵をアクティブにした鍵で発行）
+		CookieSessionStore issuer = rotated
+				? new CookieSessionStore(new SessionKeyRing(List.of(PREVIOUS_KEY, ACTIVE_KEY)), Duration.ofHours(8),
+						Duration.ofMinutes(5), true, "Lax", 1)
+				: store;
+		MockHttpServletRequest loginRequest = new MockHttpServletRequest();
+		MockHttpServletResponse loginResponse = new MockHttpServletResponse();
+		issuer.completeLogin(loginRequest, loginResponse);
+		String setCookie = loginResponse.getHeader("Set-Cookie");
+
+		request = new MockHttpServletRequest();
+		request.addHeader("Cookie", "JSESSIONID=0123456789ABCDEF; " + setCookie.substring(0, setCookie.indexOf(';')));
+		if (!store.isAuthenticated(request, new MockHttpServletResponse())) {
+			throw new IllegalStateException("発行したトークンを検証できません");
+		}
+	}
+
+	@Benchmark
+	public boolean verify() {
+		return store.isAuthenticated(request, new MockHttpServletResponse());
+	}
+
+	@Benchmark
+	public MockHttpServletResponse issue() {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		store.completeLogin(request, response);
+		return response;
+	}
+}
@@ -0,0 +1,106 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.benchmark;
+
+import java.security.KeyPair;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.saml.saml2.core.Assertion;
+import org.opensaml.security.credential.Credential;
+import org.opensaml.security.credential.CredentialSupport;
+import org.opensaml.xmlsec.signature.Signature;
+import org.opensaml.xmlsec.signature.support.SignatureConstants;
+import org.opensaml.xmlsec.signature.support.SignatureException;
+import org.opensaml.xmlsec.signature.support.SignatureValidator;
+import org.opensaml.xmlsec.signature.support.Signer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.OpenSAMLUtils;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.IDPConstants;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact.ArtifactEntry;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.template.RelyingPartyTemplates;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.security.SignatureAlgorithmPolicy;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.security.SigningKeyType;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.SPConstants;
+
+/**
+ * 署名方式ごとのアサーションの署名・検証コストの比較。
+ *
+ * - templateOnly: テンプレートからのアサーション生成のみ（sign の値からこの値を引いたものが署名のコスト）
+ * - sign: アサーションを生成して署名する（IdP の処理）
+ * - verify: 署名済みのアサーションの署名を検証する（SP の処理）
+ *
+ * 方式は「鍵の種類:署名方式の短縮名」で指定します。OpenSAML / Santuario が対応していない方式は
+ * セットアップまたは署名時にエラーとなります。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SignatureBenchmark {
+	@Param({ "RSA:rsa-sha1", "RSA:rsa-sha256", "EC:ecdsa-sha256", "ED25519:eddsa-ed25519" })
+	public String algorithm;
+
+	private RelyingPartyTemplates templates;
+	private ArtifactEntry entry;
+	private SignatureAlgorithmPolicy policy;
+	private Assertion signedAssertion;
+
+	@Setup
+	public void setUp() {
+		BenchmarkSupport.initialize();
+		templates = new RelyingPartyTemplates(IDPConstants.IDP_ENTITY_ID, SPConstants.SP_ENTITY_ID,
+				SPConstants.ASSERTION_CONSUMER_SERVICE);
+		entry = new ArtifactEntry(SPConstants.SP_ENTITY_ID, "bob", Instant.now());
+
+		String[] parts = algorithm.split(":");
+		KeyPair keyPair = SigningKeyType.valueOf(parts[0]).generateKeyPair();
+		Credential credential = CredentialSupport.getSimpleCredential(keyPair.getPublic(), keyPair.getPrivate());
+		List<String> algorithms = List.of(parts[1]);
+		policy = new SignatureAlgorithmPolicy("benchmark", credential, algorithms, algorithms, algorithms);
+
+		signedAssertion = sign();
+	}
+
+	@Benchmark
+	public Assertion templateOnly() {
+		return templates.newAssertion(entry);
+	}
+
+	@Benchmark
+	public Assertion sign() {
+		Assertion assertion = templates.newAssertion(entry);
+		Signature signature = OpenSAMLUtils.buildSAMLObject(Signature.class);
+		signature.setSigningCredential(policy.getSigningParameters().getSigningCredential());
+		signature.setSignatureAlgorithm(policy.getSignatureAlgorithm());
+		signature.setCanonicalizationAlgorithm(SignatureConstants.ALGO_ID_C14N_EXCL_OMIT_COMMENTS);
+		assertion.setSignature(signature);
+		try {
+			OpenSAMLUtils.marshall(assertion);
+			Signer.signObject(signature);
+		} catch (MarshallingException | SignatureException e) {
+			throw new RuntimeException(e);
+		}
+		return assertion;
+	}
+
+	@Benchmark
+	public Assertion verify() throws SignatureException {
+		policy.requireAccepted(signedAssertion.getSignature());
+		SignatureValidator.validate(signedAssertion.getSignature(), policy.getSigningParameters().getSigningCredential());
+		return signedAssertion;
+	}
+}
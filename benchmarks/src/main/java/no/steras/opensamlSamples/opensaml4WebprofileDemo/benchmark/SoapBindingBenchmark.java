@@ -0,0 +1,140 @@
+package no.steras.opensamlSamples.opensaml4WebprofileDemo.benchmark;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.opensaml.core.xml.XMLObject;
+import org.opensaml.core.xml.io.MarshallingException;
+import org.opensaml.messaging.context.MessageContext;
+import org.opensaml.messaging.decoder.MessageDecodingException;
+import org.opensaml.messaging.encoder.MessageEncodingException;
+import org.opensaml.saml.saml2.binding.decoding.impl.HTTPSOAP11Decoder;
+import org.opensaml.saml.saml2.binding.encoding.impl.HTTPSOAP11Encoder;
+import org.opensaml.saml.saml2.core.Artifact;
+import org.opensaml.saml.saml2.core.ArtifactResolve;
+import org.opensaml.saml.saml2.core.ArtifactResponse;
+import org.opensaml.saml.saml2.core.Issuer;
+import org.opensaml.saml.saml2.core.Response;
+import org.opensaml.soap.messaging.context.SOAP11Context;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import net.shibboleth.shared.component.ComponentInitializationException;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.OpenSAMLUtils;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.IDPConstants;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.artifact.ArtifactEntry;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.binding.StreamingSOAP11Encoder;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.encryption.EncryptionProfile;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.encryption.EncryptionSuite;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.idp.template.RelyingPartyTemplates;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.SPConstants;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.sp.SPCredentials;
+import no.steras.opensamlSamples.opensaml4WebprofileDemo.xml.SharedParserPool;
+
+/**
+ * IdP の Artifact Resolution Service での SOAP 1.1 バインディングのコスト（{@code ArtifactResolutionServlet} と同じ処理）。
+ *
+ * - decodeArtifactResolve: SOAP エンベロープのパース・アンマーシャリングと ArtifactResolve の取り出し
+ * - encodeArtifactResponse: 暗号化済みアサーションを含む ArtifactResponse の SOAP エンベロープへの格納・シリアライズ
+ * - streamingEncodeArtifactResponse: 同じ ArtifactResponse の {@link StreamingSOAP11Encoder} による書き込み
+ *   （事前シリアライズしたエンベロープに DOM を直接シリアライズする）
+ *
+ * リクエスト・レスポンスはモックのサーブレットオブジェクトで受け渡すため、ネットワークのコストは含みません。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SoapBindingBenchmark {
+	private SharedParserPool parserPool;
+	private byte[] artifactResolveEnvelope;
+	private ArtifactResponse artifactResponse;
+	private final StreamingSOAP11Encoder streamingEncoder = new StreamingSOAP11Encoder();
+
+	@Setup
+	public void setUp() throws ComponentInitializationException, MessageEncodingException {
+		parserPool = BenchmarkSupport.initialize();
+
+		// SP が送信する ArtifactResolve のエンベロープを一度だけ生成しておく
+		ArtifactResolve artifactResolve = OpenSAMLUtils.buildSAMLObject(ArtifactResolve.class);
+		Issuer issuer = OpenSAMLUtils.buildSAMLObject(Issuer.class);
+		issuer.setValue(SPConstants.SP_ENTITY_ID);
+		artifactResolve.setIssuer(issuer);
+		artifactResolve.setIssueInstant(Instant.now());
+		artifactResolve.setID(OpenSAMLUtils.generateSecureRandomId());
+		artifactResolve.setDestination(IDPConstants.ARTIFACT_RESOLUTION_SERVICE);
+		Artifact artifact = OpenSAMLUtils.buildSAMLObject(Artifact.class);
+		artifact.setValue("AAQAAMh48/1oXIM+sDo7Dh2qMp1HM4IF5DaRNmDj6RdUmllwn9jJHyEgIi8=");
+		artifactResolve.setArtifact(artifact);
+		artifactResolveEnvelope = encode(artifactResolve).getContentAsByteArray();
+
+		// IdP が返信する ArtifactResponse（署名・暗号化済みのアサーションを含む）
+		RelyingPartyTemplates templates = BenchmarkSupport.artifactResponseTemplates();
+		artifactResponse = templates.newArtifactResponse(artifactResolve.getID());
+		EncryptionProfile encryptionProfile = new EncryptionProfile(EncryptionSuite.AES128_GCM_RSA_OAEP,
+				SPCredentials.getCredential(), SPCredentials.getKeyAgreementCredential());
+		((Response) artifactResponse.getMessage()).getEncryptedAssertions().add(encryptionProfile.encrypt(
+				templates.newAssertion(new ArtifactEntry(SPConstants.SP_ENTITY_ID, "bob", Instant.now()))));
+	}
+
+	@Benchmark
+	public ArtifactResolve decodeArtifactResolve() throws ComponentInitializationException, MessageDecodingException {
+		MockHttpServletRequest request = new MockHttpServletRequest("POST", "/idp/artifactResolutionService");
+		request.setContentType("text/xml");
+		request.setContent(artifactResolveEnvelope);
+
+		HTTPSOAP11Decoder decoder = new HTTPSOAP11Decoder();
+		decoder.setHttpServletRequestSupplier(() -> request);
+		decoder.setParserPool(parserPool);
+		decoder.initialize();
+		decoder.decode();
+		return (ArtifactResolve) decoder.getMessageContext().getMessage();
+	}
+
+	/**
+	 * HTTPSOAP11Encoder は Content-Length を設定しないため、書き込まれたバイト列を返してシリアライズ結果を消費します。
+	 */
+	@Benchmark
+	public byte[] encodeArtifactResponse() throws ComponentInitializationException, MessageEncodingException {
+		return encode(artifactResponse).getContentAsByteArray();
+	}
+
+	@Benchmark
+	public byte[] streamingEncodeArtifactResponse() throws MarshallingException, IOException {
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		streamingEncoder.encode(response, artifactResponse);
+		return response.getContentAsByteArray();
+	}
+
+	/**
+	 * メッセージを SOAP エンベロープに格納してモックのレスポンスに書き込みます。
+	 * 同じメッセージを繰り返しエンコードできるように、書き込み後にエンベロープから取り外します。
+	 */
+	private static MockHttpServletResponse encode(XMLObject message)
+			throws ComponentInitializationException, MessageEncodingException {
+		MessageContext context = new MessageContext();
+		context.setMessage(message);
+		MockHttpServletResponse response = new MockHttpServletResponse();
+		HTTPSOAP11Encoder encoder = new HTTPSOAP11Encoder();
+		encoder.setHttpServletResponseSupplier(() -> response);
+		encoder.setMessageContext(context);
+		encoder.prepareContext();
+		encoder.initialize();
+		encoder.encode();
+		context.getSubcontext(SOAP11Context.class).getEnvelope().getBody().getUnknownXMLObjects().clear();
+		return response;
+	}
+}